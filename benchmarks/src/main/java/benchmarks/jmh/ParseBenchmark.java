@@ -0,0 +1,114 @@
+package benchmarks.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import benchmarks.BenchmarkInputs;
+import main.ConstituentStructureReader;
+import main.WSJConstituentCounter;
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+import utilities.CharSequenceReader;
+
+/**
+ * Parser throughput, in bytes and in sentence trees per second, over synthetic bracketed text or (with
+ * -p input=sample) over the corpus files of the directory named by the benchmarks.corpus system property
+ *
+ * @author hlil_administrator
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class ParseBenchmark
+{
+	@Param({ "synthetic" })
+	public String input;
+
+	private CharSequence corpus;
+
+	/**
+	 * The units processed per second, reported by JMH next to the calls per second
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Processed
+	{
+		// The corpora are ASCII, so one char is one byte
+		public long bytes;
+
+		public long trees;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			this.bytes = 0;
+			this.trees = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		if (this.input.equals("synthetic"))
+		{
+			this.corpus = BenchmarkInputs.syntheticCorpus(2000, 6, 3, new Random(17));
+		}
+		else if (this.input.equals("sample"))
+		{
+			String corpusDirectory = System.getProperty("benchmarks.corpus");
+
+			if (corpusDirectory == null)
+			{
+				throw new IllegalArgumentException("The sample input needs -Dbenchmarks.corpus=<directory>");
+			}
+
+			this.corpus = BenchmarkInputs.sampleCorpus(new File(corpusDirectory));
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown input: " + this.input);
+		}
+	}
+
+	@Benchmark
+	public Object parseBytes(Processed processed)
+	{
+		processed.bytes += this.corpus.length();
+
+		return WSJConstituentCounter.parseContituentsFromString(this.corpus, new WSJConstituentCounterStatistics());
+	}
+
+	@Benchmark
+	public void parseTrees(Processed processed, Blackhole blackhole)
+	{
+		ConstituentStructureReader sentenceReader = new ConstituentStructureReader(
+			new CharSequenceReader(this.corpus), new WSJConstituentCounterStatistics());
+
+		while (sentenceReader.hasNext())
+		{
+			blackhole.consume(sentenceReader.next());
+
+			processed.trees++;
+		}
+	}
+}
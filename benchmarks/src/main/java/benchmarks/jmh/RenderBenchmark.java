@@ -0,0 +1,69 @@
+package benchmarks.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import benchmarks.BenchmarkInputs;
+import main.ConstituentStructure;
+
+/**
+ * toString() rendering latency, by tree depth and branching factor
+ *
+ * A tree caches its rendering once it is built, so every invocation renders a batch of fresh trees, built
+ * (untimed) before the invocation.  The batch keeps the cost of the per-invocation setup small next to the
+ * rendering being timed.
+ *
+ * @author hlil_administrator
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class RenderBenchmark
+{
+	private static final int BATCH_SIZE = 256;
+
+	@Param({ "2", "3", "4" })
+	public int depth;
+
+	@Param({ "2", "3" })
+	public int branching;
+
+	private ConstituentStructure[] trees = new ConstituentStructure[BATCH_SIZE];
+
+	@Setup(Level.Invocation)
+	public void buildTrees()
+	{
+		for (int i = 0 ; i < BATCH_SIZE ; i++)
+		{
+			this.trees[i] = BenchmarkInputs.buildTree(this.depth, this.branching);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void render(Blackhole blackhole)
+	{
+		for (ConstituentStructure curTree : this.trees)
+		{
+			blackhole.consume(curTree.toString());
+		}
+	}
+}
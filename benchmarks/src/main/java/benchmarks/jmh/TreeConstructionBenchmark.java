@@ -0,0 +1,44 @@
+package benchmarks.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.BenchmarkInputs;
+import main.ConstituentStructure;
+
+/**
+ * Tree construction cost, in complete trees built per second, by tree depth and branching factor
+ *
+ * @author hlil_administrator
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class TreeConstructionBenchmark
+{
+	@Param({ "3", "6", "9" })
+	public int depth;
+
+	@Param({ "2", "4" })
+	public int branching;
+
+	@Benchmark
+	public ConstituentStructure buildTree()
+	{
+		return BenchmarkInputs.buildTree(this.depth, this.branching);
+	}
+}
@@ -0,0 +1,155 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import main.ConstituentStructure;
+import main.WSJConstituentCounter;
+
+/**
+ * The inputs of the benchmarks (shared by the JMH suite in the benchmarks module and by ConstituentBenchmarks):
+ * complete trees of a given depth and branching factor, random bracketed WSJ-style text, and the concatenated
+ * files of a sample corpus
+ *
+ * @author hlil_administrator
+ *
+ */
+public class BenchmarkInputs
+{
+	private static final String[] SYNTHETIC_CONSTITUENT_TYPES = { "NP", "VP", "PP", "S", "SBAR", "ADJP", "NP-SBJ" };
+
+	private static final String[] SYNTHETIC_PART_OF_SPEECH_TYPES = { "NN", "NNS", "DT", "JJ", "VBZ", "IN", "NNP" };
+
+	private static final String[] SYNTHETIC_WORDS = { "the", "board", "director", "will", "join", "of", "old", "Vinken" };
+
+	/**
+	 * Build a complete tree with the given depth and branching factor (the leaves are part of speech nodes
+	 * with a single word)
+	 */
+	public static ConstituentStructure buildTree(int depth, int branching)
+	{
+		ConstituentStructure root = new ConstituentStructure("S");
+
+		List<ConstituentStructure> curLevel = new ArrayList<ConstituentStructure>();
+		List<ConstituentStructure> nextLevel;
+
+		curLevel.add(root);
+
+		ConstituentStructure curChild;
+
+		for (int curDepth = 1 ; curDepth < depth ; curDepth++)
+		{
+			nextLevel = new ArrayList<ConstituentStructure>();
+
+			for (ConstituentStructure curParent : curLevel)
+			{
+				for (int i = 0 ; i < branching ; i++)
+				{
+					if (curDepth + 1 < depth)
+					{
+						curChild = new ConstituentStructure(SYNTHETIC_CONSTITUENT_TYPES[i % SYNTHETIC_CONSTITUENT_TYPES.length]);
+					}
+					else
+					{
+						curChild = new ConstituentStructure(SYNTHETIC_PART_OF_SPEECH_TYPES[i % SYNTHETIC_PART_OF_SPEECH_TYPES.length]);
+
+						curChild.addContentWord(SYNTHETIC_WORDS[i % SYNTHETIC_WORDS.length]);
+					}
+
+					curParent.addConstituentStructureChild(curChild);
+
+					nextLevel.add(curChild);
+				}
+			}
+
+			curLevel = nextLevel;
+		}
+
+		return root;
+	}
+
+	/**
+	 * Generate bracketed WSJ-style text with the given number of random sentence trees
+	 */
+	public static String syntheticCorpus(int numSentences, int maxDepth, int maxBranching, Random random)
+	{
+		StringBuilder corpusBuilder = new StringBuilder();
+
+		for (int i = 0 ; i < numSentences ; i++)
+		{
+			corpusBuilder.append("( ");
+
+			BenchmarkInputs.appendSyntheticConstituent(corpusBuilder, "S", 1, maxDepth, maxBranching, random);
+
+			corpusBuilder.append(" )\n");
+		}
+
+		return corpusBuilder.toString();
+	}
+
+	/**
+	 * Concatenate the WSJ corpus files of the directory into a single input
+	 */
+	public static String sampleCorpus(File corpusDirectory) throws IOException
+	{
+		File[] files = corpusDirectory.listFiles();
+
+		if (files == null)
+		{
+			throw new IOException("Not a directory: " + corpusDirectory);
+		}
+
+		StringBuilder sampleCorpusBuilder = new StringBuilder();
+
+		for (File curFile : files)
+		{
+			if (curFile.getName().matches(WSJConstituentCounter.WSJ_CORPUS_FILE_REGEX_STRING))
+			{
+				sampleCorpusBuilder.append(new String(Files.readAllBytes(curFile.toPath()), StandardCharsets.UTF_8));
+				sampleCorpusBuilder.append('\n');
+			}
+		}
+
+		return sampleCorpusBuilder.toString();
+	}
+
+	private static void appendSyntheticConstituent(
+		StringBuilder corpusBuilder, String constituentType, int depth, int maxDepth, int maxBranching, Random random)
+	{
+		corpusBuilder.append('(').append(constituentType);
+
+		int numChildren = 1 + random.nextInt(maxBranching);
+
+		for (int i = 0 ; i < numChildren ; i++)
+		{
+			corpusBuilder.append("\n  ");
+
+			// Part of speech nodes (with a word) at the bottom, and sometimes earlier
+			if ((depth + 1 >= maxDepth) || (random.nextInt(3) == 0))
+			{
+				corpusBuilder.append('(')
+					.append(SYNTHETIC_PART_OF_SPEECH_TYPES[random.nextInt(SYNTHETIC_PART_OF_SPEECH_TYPES.length)])
+					.append(' ')
+					.append(SYNTHETIC_WORDS[random.nextInt(SYNTHETIC_WORDS.length)])
+					.append(')');
+			}
+			else
+			{
+				BenchmarkInputs.appendSyntheticConstituent(
+					corpusBuilder,
+					SYNTHETIC_CONSTITUENT_TYPES[random.nextInt(SYNTHETIC_CONSTITUENT_TYPES.length)],
+					depth + 1,
+					maxDepth,
+					maxBranching,
+					random);
+			}
+		}
+
+		corpusBuilder.append(" )");
+	}
+}
@@ -0,0 +1,258 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import main.ConstituentStructure;
+import main.ConstituentStructureReader;
+import main.WSJConstituentCounter;
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+import utilities.CharSequenceReader;
+
+/**
+ * A quick check of the three costs that matter when working with the treebank, for when the JMH suite cannot be
+ * built:
+ *
+ *   0.) Parser throughput (MB/s and trees/s), over synthetic bracketed text and over sample corpus files
+ *
+ *   1.) Tree construction cost, by tree depth and branching factor
+ *
+ *   2.) toString() rendering latency, by tree depth and branching factor
+ *
+ * The numbers to compare between releases come from the JMH suite in the benchmarks module (benchmarks/pom.xml),
+ * which forks, warms up and guards against dead code elimination properly.  This runner only warms up each
+ * benchmark in this JVM before timing it, and prints the mean of its measurement iterations.
+ *
+ * Usage:  ConstituentBenchmarks [--corpus <directory of wsj_*.prd files>]
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentBenchmarks
+{
+	private static final int NUM_WARMUP_ITERATIONS = 3;
+
+	private static final int NUM_MEASUREMENT_ITERATIONS = 5;
+
+	private static final long ITERATION_NANOS = 500L * 1000L * 1000L;
+
+	// The number of trees rendered per timed batch
+	private static final int RENDER_BATCH_SIZE = 256;
+
+	/*
+	 * One unit of benchmarked work
+	 */
+	private interface Operation
+	{
+		/**
+		 * Set up the inputs of the next call (not timed)
+		 */
+		public void prepare();
+
+		/**
+		 * Do the work once (timed)
+		 *
+		 * @return The number of units (bytes, trees, ...) processed
+		 */
+		public long run();
+	}
+
+	// Every result is published here, so that the JIT cannot remove the work
+	private static volatile Object sink;
+
+	public static void main(String[] args) throws IOException
+	{
+		File corpusDirectory = null;
+
+		for (int i = 0 ; i + 1 < args.length ; i += 2)
+		{
+			if (args[i].equals("--corpus"))
+			{
+				corpusDirectory = new File(args[i+1]);
+			}
+		}
+
+		ConstituentBenchmarks.benchmarkParsing("synthetic", BenchmarkInputs.syntheticCorpus(2000, 6, 3, new Random(17)));
+
+		if (corpusDirectory != null)
+		{
+			ConstituentBenchmarks.benchmarkParsing("sample", BenchmarkInputs.sampleCorpus(corpusDirectory));
+		}
+
+		for (int curDepth : new int[] { 3, 6, 9 })
+		{
+			for (int curBranching : new int[] { 2, 4 })
+			{
+				// Skip trees that are too large to build many times per iteration
+				if (Math.pow(curBranching, curDepth) <= 100000)
+				{
+					ConstituentBenchmarks.benchmarkTreeConstruction(curDepth, curBranching);
+				}
+			}
+		}
+
+		for (int curDepth : new int[] { 2, 3, 4 })
+		{
+			for (int curBranching : new int[] { 2, 3 })
+			{
+				ConstituentBenchmarks.benchmarkRendering(curDepth, curBranching);
+			}
+		}
+	}
+
+	/*
+	 * Benchmarks
+	 */
+
+	private static void benchmarkParsing(String input, final CharSequence corpus)
+	{
+		// Throughput in bytes (the corpora are ASCII, so one char is one byte)
+		double bytesPerSecond = ConstituentBenchmarks.measure(new Operation()
+		{
+			@Override
+			public void prepare()
+			{
+			}
+
+			@Override
+			public long run()
+			{
+				sink = WSJConstituentCounter.parseContituentsFromString(corpus, new WSJConstituentCounterStatistics());
+
+				return corpus.length();
+			}
+		});
+
+		ConstituentBenchmarks.report("parse.bytes input=" + input, bytesPerSecond / (1024.0 * 1024.0), "MB/s");
+
+		// Throughput in sentence trees, streamed one at a time
+		double treesPerSecond = ConstituentBenchmarks.measure(new Operation()
+		{
+			@Override
+			public void prepare()
+			{
+			}
+
+			@Override
+			public long run()
+			{
+				ConstituentStructureReader sentenceReader = new ConstituentStructureReader(
+					new CharSequenceReader(corpus), new WSJConstituentCounterStatistics());
+
+				long numTrees = 0;
+
+				while (sentenceReader.hasNext())
+				{
+					sink = sentenceReader.next();
+
+					numTrees++;
+				}
+
+				return numTrees;
+			}
+		});
+
+		ConstituentBenchmarks.report("parse.trees input=" + input, treesPerSecond, "trees/s");
+	}
+
+	private static void benchmarkTreeConstruction(final int depth, final int branching)
+	{
+		double treesPerSecond = ConstituentBenchmarks.measure(new Operation()
+		{
+			@Override
+			public void prepare()
+			{
+			}
+
+			@Override
+			public long run()
+			{
+				sink = BenchmarkInputs.buildTree(depth, branching);
+
+				return 1;
+			}
+		});
+
+		ConstituentBenchmarks.report("build.trees depth=" + depth + " branching=" + branching, treesPerSecond, "trees/s");
+	}
+
+	private static void benchmarkRendering(final int depth, final int branching)
+	{
+		// The rendering is cached once it is built, so every call renders a fresh tree, built before the batch is
+		// timed
+		double rendersPerSecond = ConstituentBenchmarks.measure(new Operation()
+		{
+			private ConstituentStructure[] trees = new ConstituentStructure[RENDER_BATCH_SIZE];
+
+			@Override
+			public void prepare()
+			{
+				for (int i = 0 ; i < this.trees.length ; i++)
+				{
+					this.trees[i] = BenchmarkInputs.buildTree(depth, branching);
+				}
+			}
+
+			@Override
+			public long run()
+			{
+				for (ConstituentStructure curTree : this.trees)
+				{
+					sink = curTree.toString();
+				}
+
+				return this.trees.length;
+			}
+		});
+
+		ConstituentBenchmarks.report(
+			"render.latency depth=" + depth + " branching=" + branching, 1.0e6 / rendersPerSecond, "us/op");
+	}
+
+	/*
+	 * Measurement
+	 */
+
+	/**
+	 * Run the operation repeatedly for each warmup and measurement iteration, counting only the time spent in
+	 * run()
+	 *
+	 * @return The mean throughput of the measurement iterations (units processed per second)
+	 */
+	private static double measure(Operation operation)
+	{
+		double totalThroughput = 0;
+
+		long curStartNanos;
+
+		for (int i = 0 ; i < NUM_WARMUP_ITERATIONS + NUM_MEASUREMENT_ITERATIONS ; i++)
+		{
+			long curElapsedNanos = 0;
+			long curNumUnits = 0;
+
+			while (curElapsedNanos < ITERATION_NANOS)
+			{
+				operation.prepare();
+
+				curStartNanos = System.nanoTime();
+
+				curNumUnits += operation.run();
+
+				curElapsedNanos += System.nanoTime() - curStartNanos;
+			}
+
+			if (i >= NUM_WARMUP_ITERATIONS)
+			{
+				totalThroughput += curNumUnits * 1.0e9 / curElapsedNanos;
+			}
+		}
+
+		return totalThroughput / NUM_MEASUREMENT_ITERATIONS;
+	}
+
+	private static void report(String benchmark, double score, String scoreUnit)
+	{
+		System.out.println(benchmark + ": " + score + " " + scoreUnit);
+	}
+}
@@ -0,0 +1,337 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import utilities.VarInts;
+import utilities.WordArena;
+
+/**
+ * Reads a binary treebank file written by BinaryTreebankWriter.  The file is memory-mapped, and each sentence
+ * is only decoded into a ConstituentStructure when it is asked for, so opening even a large treebank only
+ * costs reading its dictionaries.
+ *
+ * The words are held once, in a word arena:  compact sentences (getCompactSentence) refer to them by ID, and
+ * getSentence decodes a String for each word occurrence of the sentence it decodes.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class BinaryTreebankReader implements Iterable<ConstituentStructure>
+{
+	private ByteBuffer fileBuffer;
+
+	// Local constituent type ID -> global constituent type ID (see ConstituentLabelTable)
+	private int[] localToGlobalConstituentTypeIds;
+
+	// The words of the word dictionary, and local word ID -> ID in that arena
+	private WordArena wordArena = new WordArena();
+
+	private int[] localToArenaWordIds;
+
+	private long sentenceIndexOffset;
+
+	private int numSentences;
+
+	private BinaryTreebankReader(ByteBuffer fileBuffer) throws IOException
+	{
+		this.fileBuffer = fileBuffer;
+
+		int fileSize = fileBuffer.limit();
+
+		if ((fileSize < 8 + BinaryTreebankWriter.TRAILER_SIZE)
+			|| (fileBuffer.getInt(0) != BinaryTreebankWriter.MAGIC)
+			|| (fileBuffer.getInt(fileSize - 4) != BinaryTreebankWriter.MAGIC))
+		{
+			throw new IOException("Not a binary treebank file");
+		}
+
+		if (fileBuffer.getInt(4) != BinaryTreebankWriter.FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported binary treebank format version: " + fileBuffer.getInt(4));
+		}
+
+		int trailerOffset = fileSize - BinaryTreebankWriter.TRAILER_SIZE;
+
+		long constituentTypeDictionaryOffset = fileBuffer.getLong(trailerOffset);
+		long wordDictionaryOffset = fileBuffer.getLong(trailerOffset + 8);
+
+		this.sentenceIndexOffset = fileBuffer.getLong(trailerOffset + 16);
+		this.numSentences = fileBuffer.getInt(trailerOffset + 24);
+
+		List<String> constituentTypes = this.readDictionary(constituentTypeDictionaryOffset);
+
+		this.localToGlobalConstituentTypeIds = new int[constituentTypes.size()];
+
+		for (int i = 0 ; i < this.localToGlobalConstituentTypeIds.length ; i++)
+		{
+			this.localToGlobalConstituentTypeIds[i] = ConstituentLabelTable.getLabelId(constituentTypes.get(i));
+		}
+
+		List<String> words = this.readDictionary(wordDictionaryOffset);
+
+		this.localToArenaWordIds = new int[words.size()];
+
+		for (int i = 0 ; i < this.localToArenaWordIds.length ; i++)
+		{
+			this.localToArenaWordIds[i] = this.wordArena.intern(words.get(i));
+		}
+	}
+
+	/**
+	 * Memory-map a binary treebank file
+	 */
+	public static BinaryTreebankReader open(File binaryFile) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(binaryFile, "r");
+
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Binary treebank file is too large to map: " + binaryFile);
+			}
+
+			// The mapping remains valid after the channel is closed
+			return new BinaryTreebankReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	public int numSentences()
+	{
+		return this.numSentences;
+	}
+
+	/**
+	 * @return The number of distinct words in the treebank
+	 */
+	public int numWords()
+	{
+		return this.localToArenaWordIds.length;
+	}
+
+	/**
+	 * Decode the sentence with the given index (in the order the sentences were written)
+	 */
+	public ConstituentStructure getSentence(int sentenceIndex)
+	{
+		if ((sentenceIndex < 0) || (sentenceIndex >= this.numSentences))
+		{
+			throw new IndexOutOfBoundsException("Sentence: " + sentenceIndex + ", Number of sentences: " + this.numSentences);
+		}
+
+		// Each reader of the (shared) file buffer needs its own position
+		ByteBuffer sentenceBuffer = this.fileBuffer.duplicate();
+
+		sentenceBuffer.position((int)this.fileBuffer.getLong((int)this.sentenceIndexOffset + 8*sentenceIndex));
+
+		int numNodes = VarInts.readVarInt(sentenceBuffer);
+
+		// The nodes that still have children to be read, with how many are left
+		List<ConstituentStructure> openNodes = new ArrayList<ConstituentStructure>();
+		List<Integer> openNodesNumChildrenRemaining = new ArrayList<Integer>();
+
+		ConstituentStructure sentence = null;
+
+		ConstituentStructure curNode;
+
+		int curNumChildren;
+
+		int curNumWords;
+
+		int curLastOpenNode;
+
+		for (int i = 0 ; i < numNodes ; i++)
+		{
+			curNode = new ConstituentStructure(this.localToGlobalConstituentTypeIds[VarInts.readVarInt(sentenceBuffer)]);
+
+			curNumChildren = VarInts.readVarInt(sentenceBuffer);
+			curNumWords = VarInts.readVarInt(sentenceBuffer);
+
+			for (int j = 0 ; j < curNumWords ; j++)
+			{
+				curNode.addContentWord(this.wordArena.getWord(this.localToArenaWordIds[VarInts.readVarInt(sentenceBuffer)]));
+			}
+
+			// Attach the node to the innermost open node (its parent in preorder)
+			if (openNodes.isEmpty())
+			{
+				sentence = curNode;
+			}
+			else
+			{
+				curLastOpenNode = openNodes.size()-1;
+
+				openNodes.get(curLastOpenNode).addConstituentStructureChild(curNode);
+
+				if (openNodesNumChildrenRemaining.get(curLastOpenNode) == 1)
+				{
+					openNodes.remove(curLastOpenNode);
+					openNodesNumChildrenRemaining.remove(curLastOpenNode);
+				}
+				else
+				{
+					openNodesNumChildrenRemaining.set(curLastOpenNode, openNodesNumChildrenRemaining.get(curLastOpenNode) - 1);
+				}
+			}
+
+			if (curNumChildren > 0)
+			{
+				openNodes.add(curNode);
+				openNodesNumChildrenRemaining.add(curNumChildren);
+			}
+		}
+
+		return sentence;
+	}
+
+	/**
+	 * Decode the sentence with the given index straight into a compact tree, without creating any
+	 * ConstituentStructure nodes or Strings (the words of every compact sentence are kept in one word arena
+	 * shared by the reader)
+	 */
+	public CompactConstituentTree getCompactSentence(int sentenceIndex)
+	{
+		if ((sentenceIndex < 0) || (sentenceIndex >= this.numSentences))
+		{
+			throw new IndexOutOfBoundsException("Sentence: " + sentenceIndex + ", Number of sentences: " + this.numSentences);
+		}
+
+		ByteBuffer sentenceBuffer = this.fileBuffer.duplicate();
+
+		sentenceBuffer.position((int)this.fileBuffer.getLong((int)this.sentenceIndexOffset + 8*sentenceIndex));
+
+		int numNodes = VarInts.readVarInt(sentenceBuffer);
+
+		CompactConstituentTree sentence = new CompactConstituentTree(numNodes, numNodes, this.wordArena);
+
+		// The indexes of the nodes that still have children to be read, with how many are left
+		int[] openNodes = new int[numNodes];
+		int[] openNodesNumChildrenRemaining = new int[numNodes];
+
+		int numOpenNodes = 0;
+
+		int curIndex;
+
+		int curNumChildren;
+
+		int curNumWords;
+
+		for (int i = 0 ; i < numNodes ; i++)
+		{
+			curIndex = sentence.appendNode(
+				this.localToGlobalConstituentTypeIds[VarInts.readVarInt(sentenceBuffer)], 
+				(numOpenNodes == 0) ? -1 : openNodes[numOpenNodes-1]);
+
+			curNumChildren = VarInts.readVarInt(sentenceBuffer);
+			curNumWords = VarInts.readVarInt(sentenceBuffer);
+
+			for (int j = 0 ; j < curNumWords ; j++)
+			{
+				sentence.appendContentWordId(this.localToArenaWordIds[VarInts.readVarInt(sentenceBuffer)]);
+			}
+
+			if (numOpenNodes > 0)
+			{
+				openNodesNumChildrenRemaining[numOpenNodes-1]--;
+
+				if (openNodesNumChildrenRemaining[numOpenNodes-1] == 0)
+				{
+					numOpenNodes--;
+				}
+			}
+
+			if (curNumChildren > 0)
+			{
+				openNodes[numOpenNodes] = curIndex;
+				openNodesNumChildrenRemaining[numOpenNodes] = curNumChildren;
+
+				numOpenNodes++;
+			}
+		}
+
+		sentence.finish();
+
+		return sentence;
+	}
+
+	/**
+	 * A sequential Stream that decodes the sentences in order as they are consumed
+	 */
+	public Stream<ConstituentStructure> stream()
+	{
+		return IntStream.range(0, this.numSentences).mapToObj(this::getSentence);
+	}
+
+	/*
+	 * Iterable Implementation
+	 */
+
+	@Override
+	public Iterator<ConstituentStructure> iterator()
+	{
+		return new Iterator<ConstituentStructure>()
+		{
+			private int nextSentenceIndex = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return this.nextSentenceIndex < BinaryTreebankReader.this.numSentences;
+			}
+
+			@Override
+			public ConstituentStructure next()
+			{
+				if (!this.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+
+				this.nextSentenceIndex++;
+
+				return BinaryTreebankReader.this.getSentence(this.nextSentenceIndex - 1);
+			}
+		};
+	}
+
+	private List<String> readDictionary(long dictionaryOffset)
+	{
+		ByteBuffer dictionaryBuffer = this.fileBuffer.duplicate();
+
+		dictionaryBuffer.position((int)dictionaryOffset);
+
+		int numEntries = VarInts.readVarInt(dictionaryBuffer);
+
+		List<String> entries = new ArrayList<String>(numEntries);
+
+		byte[] curEntryBytes;
+
+		for (int i = 0 ; i < numEntries ; i++)
+		{
+			curEntryBytes = new byte[VarInts.readVarInt(dictionaryBuffer)];
+
+			dictionaryBuffer.get(curEntryBytes);
+
+			entries.add(new String(curEntryBytes, StandardCharsets.UTF_8));
+		}
+
+		return entries;
+	}
+}
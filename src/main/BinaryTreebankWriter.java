@@ -0,0 +1,264 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import utilities.VarInts;
+import utilities.WordCountTable;
+
+/**
+ * Writes parsed sentences to a compact binary treebank file, so that later runs can reload the trees (see
+ * BinaryTreebankReader) without re-tokenizing and re-parsing the bracketed text.
+ *
+ * The file is laid out as:
+ *
+ *    0.) The header:  MAGIC and FORMAT_VERSION
+ *
+ *    1.) The sentences, one after another.  Each sentence is its number of nodes followed by its nodes in
+ *        preorder, and each node is its constituent type ID, its number of children, its number of words and
+ *        its word IDs (all as varints)
+ *
+ *    2.) The constituent type dictionary and then the word dictionary (a varint count, then each entry as a
+ *        varint length and its UTF-8 bytes), in ID order
+ *
+ *    3.) The sentence index:  the file offset of each sentence as a fixed 8-byte long
+ *
+ *    4.) The trailer:  the offsets of the constituent type dictionary, the word dictionary and the sentence
+ *        index, the number of sentences, and MAGIC again
+ *
+ * The IDs are local to the file, so the file does not depend on the order in which a run saw the types and words.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class BinaryTreebankWriter implements Closeable
+{
+	public static final int MAGIC = 0x4D435442;
+
+	public static final int FORMAT_VERSION = 1;
+
+	// The trailer is three longs, an int and the magic int
+	public static final int TRAILER_SIZE = 3*8 + 4 + 4;
+
+	private OutputStream output;
+
+	// The number of bytes written so far
+	private long position = 0;
+
+	// Global constituent type ID -> local ID + 1 (0 if it has no local ID yet)
+	private int[] constituentTypeIdToLocalIdPlusOne = new int[64];
+
+	private List<String> localConstituentTypes = new ArrayList<String>();
+
+	// Local word IDs are the IDs of this table
+	private WordCountTable words = new WordCountTable();
+
+	private long[] sentenceOffsets = new long[1024];
+
+	private int numSentences = 0;
+
+	// Reused to encode each sentence before it is written
+	private ByteArrayOutputStream sentenceBuffer = new ByteArrayOutputStream();
+
+	public BinaryTreebankWriter(File binaryFile) throws IOException
+	{
+		this.output = new BufferedOutputStream(new FileOutputStream(binaryFile), 1 << 16);
+
+		DataOutputStream headerOutput = new DataOutputStream(this.output);
+
+		headerOutput.writeInt(BinaryTreebankWriter.MAGIC);
+		headerOutput.writeInt(BinaryTreebankWriter.FORMAT_VERSION);
+
+		this.position = 8;
+	}
+
+	/**
+	 * Parse every constituent file in the base directory and write all of their sentences to the binary file
+	 *
+	 * @return The number of sentences written
+	 */
+	public static int writeConstituentStructureFiles(
+		File baseDirectory, String filePatternRegex, File binaryFile) throws IOException
+	{
+		BinaryTreebankWriter writer = new BinaryTreebankWriter(binaryFile);
+
+		Stream<ConstituentStructure> sentences =
+			WSJConstituentCounter.streamConstituentStructureFiles(baseDirectory, filePatternRegex, null);
+
+		try
+		{
+			Iterator<ConstituentStructure> sentenceIterator = sentences.iterator();
+
+			while (sentenceIterator.hasNext())
+			{
+				writer.write(sentenceIterator.next());
+			}
+		}
+		finally
+		{
+			sentences.close();
+
+			writer.close();
+		}
+
+		return writer.numSentences;
+	}
+
+	/**
+	 * Append a sentence tree to the file
+	 */
+	public void write(ConstituentStructure sentence) throws IOException
+	{
+		this.sentenceBuffer.reset();
+
+		List<ConstituentStructure> preorderNodes = new ArrayList<ConstituentStructure>();
+
+		List<ConstituentStructure> frontier = new ArrayList<ConstituentStructure>();
+
+		frontier.add(sentence);
+
+		ConstituentStructure curNode;
+
+		List<ConstituentStructure> curChildren;
+
+		while (!frontier.isEmpty())
+		{
+			curNode = frontier.remove(frontier.size()-1);
+
+			preorderNodes.add(curNode);
+
+			// Push the children R to L so that they come off of the frontier L to R
+			curChildren = curNode.getConstituentChildren();
+
+			for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+			{
+				frontier.add(curChildren.get(i));
+			}
+		}
+
+		VarInts.writeVarInt(this.sentenceBuffer, preorderNodes.size());
+
+		for (ConstituentStructure curPreorderNode : preorderNodes)
+		{
+			VarInts.writeVarInt(this.sentenceBuffer, this.getLocalConstituentTypeId(curPreorderNode.getConstituentTypeId()));
+			VarInts.writeVarInt(this.sentenceBuffer, curPreorderNode.numConstituentChildren());
+			VarInts.writeVarInt(this.sentenceBuffer, curPreorderNode.numContentWords());
+
+			for (String curWord : curPreorderNode.getContentWords())
+			{
+				VarInts.writeVarInt(this.sentenceBuffer, this.words.count(curWord, 0, curWord.length()));
+			}
+		}
+
+		if (this.numSentences == this.sentenceOffsets.length)
+		{
+			this.sentenceOffsets = Arrays.copyOf(this.sentenceOffsets, this.numSentences * 2);
+		}
+
+		this.sentenceOffsets[this.numSentences] = this.position;
+
+		this.numSentences++;
+
+		this.sentenceBuffer.writeTo(this.output);
+
+		this.position += this.sentenceBuffer.size();
+	}
+
+	/**
+	 * Write the dictionaries, the sentence index and the trailer, and close the file
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			long constituentTypeDictionaryOffset = this.position;
+
+			this.writeDictionary(this.localConstituentTypes);
+
+			long wordDictionaryOffset = this.position;
+
+			List<String> localWords = new ArrayList<String>(this.words.size());
+
+			for (int i = 0 ; i < this.words.size() ; i++)
+			{
+				localWords.add(this.words.getWord(i));
+			}
+
+			this.writeDictionary(localWords);
+
+			long sentenceIndexOffset = this.position;
+
+			DataOutputStream indexOutput = new DataOutputStream(this.output);
+
+			for (int i = 0 ; i < this.numSentences ; i++)
+			{
+				indexOutput.writeLong(this.sentenceOffsets[i]);
+			}
+
+			indexOutput.writeLong(constituentTypeDictionaryOffset);
+			indexOutput.writeLong(wordDictionaryOffset);
+			indexOutput.writeLong(sentenceIndexOffset);
+			indexOutput.writeInt(this.numSentences);
+			indexOutput.writeInt(BinaryTreebankWriter.MAGIC);
+
+			indexOutput.flush();
+		}
+		finally
+		{
+			this.output.close();
+		}
+	}
+
+	private void writeDictionary(List<String> entries) throws IOException
+	{
+		this.sentenceBuffer.reset();
+
+		VarInts.writeVarInt(this.sentenceBuffer, entries.size());
+
+		byte[] curEntryBytes;
+
+		for (String curEntry : entries)
+		{
+			curEntryBytes = curEntry.getBytes(StandardCharsets.UTF_8);
+
+			VarInts.writeVarInt(this.sentenceBuffer, curEntryBytes.length);
+
+			this.sentenceBuffer.write(curEntryBytes);
+		}
+
+		this.sentenceBuffer.writeTo(this.output);
+
+		this.position += this.sentenceBuffer.size();
+	}
+
+	private int getLocalConstituentTypeId(int constituentTypeId)
+	{
+		if (constituentTypeId >= this.constituentTypeIdToLocalIdPlusOne.length)
+		{
+			this.constituentTypeIdToLocalIdPlusOne = Arrays.copyOf(
+				this.constituentTypeIdToLocalIdPlusOne, Math.max(constituentTypeId + 1, this.constituentTypeIdToLocalIdPlusOne.length * 2));
+		}
+
+		if (this.constituentTypeIdToLocalIdPlusOne[constituentTypeId] == 0)
+		{
+			this.localConstituentTypes.add(ConstituentLabelTable.getLabel(constituentTypeId));
+
+			this.constituentTypeIdToLocalIdPlusOne[constituentTypeId] = this.localConstituentTypes.size();
+		}
+
+		return this.constituentTypeIdToLocalIdPlusOne[constituentTypeId] - 1;
+	}
+}
@@ -0,0 +1,565 @@
+package main;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import utilities.WordArena;
+
+/**
+ * A whole sentence tree laid out as parallel primitive arrays, indexed by the position of each node in
+ * preorder:  its constituent type ID, its parent, its first child, its next sister and the span of the
+ * sentence's words that its subtree covers.  A node's own words come first in its span (before the words of
+ * its children), just as they are written in the bracketed text.
+ *
+ * A node costs six ints, where a ConstituentStructure node carries two linked lists, a StringBuilder and its
+ * cached renderings.  Words are kept as IDs in a WordArena (which is usually shared by every tree of a
+ * corpus), so a word occurrence costs one int and each distinct word is stored once, as UTF-8 bytes; words
+ * are only decoded to Strings when they are asked for.  Traversals over the arrays are sequential scans:  a
+ * subtree is the contiguous run of nodes from its root, and the whole tree can be walked with a plain for loop.
+ *
+ * Node (a lightweight view of a single index) gives the same navigation as the other trees, so the skeleton
+ * catalog, the miner and the other ConstituentNode analyses work on compact trees as they are.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class CompactConstituentTree
+{
+	/*
+	 * A view of one node of a compact tree.  Views are created on demand, and two views of the same node are
+	 * equal
+	 */
+	public static class Node implements ConstituentNode<Node>
+	{
+		private CompactConstituentTree tree;
+
+		private int index;
+
+		private Node(CompactConstituentTree tree, int index)
+		{
+			this.tree = tree;
+			this.index = index;
+		}
+
+		public CompactConstituentTree getTree()
+		{
+			return this.tree;
+		}
+
+		/**
+		 * @return The position of the node in preorder
+		 */
+		public int getIndex()
+		{
+			return this.index;
+		}
+
+		@Override
+		public int getConstituentTypeId()
+		{
+			return this.tree.constituentTypeIds[this.index];
+		}
+
+		@Override
+		public String getConstituentType()
+		{
+			return ConstituentLabelTable.getLabel(this.tree.constituentTypeIds[this.index]);
+		}
+
+		@Override
+		public Node getParent()
+		{
+			return (this.tree.parents[this.index] < 0) ? null : this.tree.getNode(this.tree.parents[this.index]);
+		}
+
+		@Override
+		public List<Node> getConstituentChildren()
+		{
+			List<Node> children = new ArrayList<Node>();
+
+			for (int i = this.tree.firstChildren[this.index] ; i >= 0 ; i = this.tree.nextSiblings[i])
+			{
+				children.add(this.tree.getNode(i));
+			}
+
+			return children;
+		}
+
+		@Override
+		public int numConstituentChildren()
+		{
+			int numChildren = 0;
+
+			for (int i = this.tree.firstChildren[this.index] ; i >= 0 ; i = this.tree.nextSiblings[i])
+			{
+				numChildren++;
+			}
+
+			return numChildren;
+		}
+
+		/**
+		 * @return The words directly inside of this constituent (not those of its children), decoded as they are
+		 *         accessed
+		 */
+		public List<String> getContentWords()
+		{
+			final int wordStart = this.tree.wordStarts[this.index];
+			final int wordEnd = this.tree.getContentWordsEnd(this.index);
+
+			return new AbstractList<String>()
+			{
+				@Override
+				public String get(int i)
+				{
+					if ((i < 0) || (wordStart + i >= wordEnd))
+					{
+						throw new IndexOutOfBoundsException("Word: " + i + ", Number of words: " + (wordEnd - wordStart));
+					}
+
+					return Node.this.tree.getWord(wordStart + i);
+				}
+
+				@Override
+				public int size()
+				{
+					return wordEnd - wordStart;
+				}
+			};
+		}
+
+		public int numContentWords()
+		{
+			return this.tree.getContentWordsEnd(this.index) - this.tree.wordStarts[this.index];
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(this.tree) * 31 + this.index;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Node))
+			{
+				return false;
+			}
+
+			Node cast = (Node)obj;
+
+			return (this.tree == cast.tree) && (this.index == cast.index);
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.tree.toBracketedString(this.index);
+		}
+	}
+
+	private int[] constituentTypeIds;
+
+	private int[] parents;
+
+	// -1 if the node has no children
+	private int[] firstChildren;
+
+	// -1 if the node is the rightmost child of its parent
+	private int[] nextSiblings;
+
+	// The words of the subtree of a node are words[wordStarts[i]] to words[wordEnds[i]-1]
+	private int[] wordStarts;
+
+	private int[] wordEnds;
+
+	private int numNodes = 0;
+
+	// Word position in the sentence -> word ID in the arena
+	private int[] wordIds;
+
+	private int numWords = 0;
+
+	private WordArena wordArena;
+
+	// While the tree is being built:  the rightmost child appended to each node so far
+	private int[] lastChildren;
+
+	/**
+	 * Start an empty tree, to be built with appendNode and appendContentWord, whose words are kept in the given
+	 * arena
+	 */
+	CompactConstituentTree(int expectedNumNodes, int expectedNumWords, WordArena wordArena)
+	{
+		expectedNumNodes = Math.max(expectedNumNodes, 1);
+
+		this.constituentTypeIds = new int[expectedNumNodes];
+		this.parents = new int[expectedNumNodes];
+		this.firstChildren = new int[expectedNumNodes];
+		this.nextSiblings = new int[expectedNumNodes];
+		this.wordStarts = new int[expectedNumNodes];
+		this.wordEnds = new int[expectedNumNodes];
+		this.lastChildren = new int[expectedNumNodes];
+
+		this.wordIds = new int[Math.max(expectedNumWords, 1)];
+
+		this.wordArena = wordArena;
+	}
+
+	/**
+	 * Copy a ConstituentStructure tree into a compact tree with its own word arena
+	 */
+	public static CompactConstituentTree fromConstituentStructure(ConstituentStructure root)
+	{
+		return CompactConstituentTree.fromConstituentStructure(root, new WordArena());
+	}
+
+	/**
+	 * Copy a ConstituentStructure tree into a compact tree whose words are kept in the given arena (pass the
+	 * same arena for every sentence of a corpus, so that each distinct word is only stored once)
+	 */
+	public static CompactConstituentTree fromConstituentStructure(ConstituentStructure root, WordArena wordArena)
+	{
+		CompactConstituentTree tree = new CompactConstituentTree(64, 64, wordArena);
+
+		List<ConstituentStructure> frontier = new ArrayList<ConstituentStructure>();
+
+		List<Integer> frontierParents = new ArrayList<Integer>();
+
+		frontier.add(root);
+		frontierParents.add(-1);
+
+		ConstituentStructure curNode;
+
+		List<ConstituentStructure> curChildren;
+
+		int curIndex;
+
+		while (!frontier.isEmpty())
+		{
+			curNode = frontier.remove(frontier.size()-1);
+
+			curIndex = tree.appendNode(curNode.getConstituentTypeId(), frontierParents.remove(frontierParents.size()-1));
+
+			for (String curWord : curNode.getContentWords())
+			{
+				tree.appendContentWord(curWord);
+			}
+
+			// Push the children R to L so that they come off of the frontier L to R
+			curChildren = curNode.getConstituentChildren();
+
+			for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+			{
+				frontier.add(curChildren.get(i));
+				frontierParents.add(curIndex);
+			}
+		}
+
+		tree.finish();
+
+		return tree;
+	}
+
+	/**
+	 * @return A new ConstituentStructure tree with the same constituents and words
+	 */
+	public ConstituentStructure toConstituentStructure()
+	{
+		ConstituentStructure[] structures = new ConstituentStructure[this.numNodes];
+
+		// Parents come before their children in preorder, and sisters come L to R
+		for (int i = 0 ; i < this.numNodes ; i++)
+		{
+			structures[i] = new ConstituentStructure(this.constituentTypeIds[i]);
+
+			for (int j = this.wordStarts[i] ; j < this.getContentWordsEnd(i) ; j++)
+			{
+				structures[i].addContentWord(this.getWord(j));
+			}
+
+			if (this.parents[i] >= 0)
+			{
+				structures[this.parents[i]].addConstituentStructureChild(structures[i]);
+			}
+		}
+
+		return structures[0];
+	}
+
+	/*
+	 * Building
+	 */
+
+	/**
+	 * Append the next node in preorder.  Its own words must be appended before any of its children
+	 *
+	 * @return The index of the node
+	 */
+	int appendNode(int constituentTypeId, int parent)
+	{
+		if (this.numNodes == this.constituentTypeIds.length)
+		{
+			int newLength = this.numNodes * 2;
+
+			this.constituentTypeIds = Arrays.copyOf(this.constituentTypeIds, newLength);
+			this.parents = Arrays.copyOf(this.parents, newLength);
+			this.firstChildren = Arrays.copyOf(this.firstChildren, newLength);
+			this.nextSiblings = Arrays.copyOf(this.nextSiblings, newLength);
+			this.wordStarts = Arrays.copyOf(this.wordStarts, newLength);
+			this.wordEnds = Arrays.copyOf(this.wordEnds, newLength);
+			this.lastChildren = Arrays.copyOf(this.lastChildren, newLength);
+		}
+
+		int index = this.numNodes;
+
+		this.constituentTypeIds[index] = constituentTypeId;
+		this.parents[index] = parent;
+		this.firstChildren[index] = -1;
+		this.nextSiblings[index] = -1;
+		this.lastChildren[index] = -1;
+		this.wordStarts[index] = this.numWords;
+
+		if (parent >= 0)
+		{
+			if (this.lastChildren[parent] < 0)
+			{
+				this.firstChildren[parent] = index;
+			}
+			else
+			{
+				this.nextSiblings[this.lastChildren[parent]] = index;
+			}
+
+			this.lastChildren[parent] = index;
+		}
+
+		this.numNodes++;
+
+		return index;
+	}
+
+	/**
+	 * Append a word to the node that was appended last
+	 */
+	void appendContentWord(String word)
+	{
+		this.appendContentWordId(this.wordArena.intern(word));
+	}
+
+	/**
+	 * Append a word that is already in the tree's arena to the node that was appended last
+	 */
+	void appendContentWordId(int wordId)
+	{
+		if (this.numWords == this.wordIds.length)
+		{
+			this.wordIds = Arrays.copyOf(this.wordIds, this.numWords * 2);
+		}
+
+		this.wordIds[this.numWords] = wordId;
+
+		this.numWords++;
+	}
+
+	/**
+	 * Compute the word spans once every node has been appended, and trim the arrays
+	 */
+	void finish()
+	{
+		this.constituentTypeIds = Arrays.copyOf(this.constituentTypeIds, this.numNodes);
+		this.parents = Arrays.copyOf(this.parents, this.numNodes);
+		this.firstChildren = Arrays.copyOf(this.firstChildren, this.numNodes);
+		this.nextSiblings = Arrays.copyOf(this.nextSiblings, this.numNodes);
+		this.wordStarts = Arrays.copyOf(this.wordStarts, this.numNodes);
+		this.wordEnds = Arrays.copyOf(this.wordEnds, this.numNodes);
+		this.wordIds = Arrays.copyOf(this.wordIds, this.numWords);
+
+		this.lastChildren = null;
+
+		for (int i = 0 ; i < this.numNodes ; i++)
+		{
+			this.wordEnds[i] = this.getContentWordsEnd(i);
+		}
+
+		// Children come after their parents, so every subtree's span is complete before it is reported up
+		for (int i = this.numNodes-1 ; i > 0 ; i--)
+		{
+			this.wordEnds[this.parents[i]] = Math.max(this.wordEnds[this.parents[i]], this.wordEnds[i]);
+		}
+	}
+
+	/*
+	 * Navigation
+	 */
+
+	public Node getRoot()
+	{
+		return this.getNode(0);
+	}
+
+	/**
+	 * @return A view of the node at the given position in preorder
+	 */
+	public Node getNode(int index)
+	{
+		return new Node(this, index);
+	}
+
+	public int numNodes()
+	{
+		return this.numNodes;
+	}
+
+	public int numWords()
+	{
+		return this.numWords;
+	}
+
+	/**
+	 * @return A new String of the word at the given position in the sentence
+	 */
+	public String getWord(int wordIndex)
+	{
+		return this.wordArena.getWord(this.wordIds[wordIndex]);
+	}
+
+	/**
+	 * @return The ID in the word arena of the word at the given position in the sentence
+	 */
+	public int getWordId(int wordIndex)
+	{
+		return this.wordIds[wordIndex];
+	}
+
+	public WordArena getWordArena()
+	{
+		return this.wordArena;
+	}
+
+	public int getConstituentTypeId(int index)
+	{
+		return this.constituentTypeIds[index];
+	}
+
+	/**
+	 * @return The index of the parent, or -1 for the root
+	 */
+	public int getParent(int index)
+	{
+		return this.parents[index];
+	}
+
+	/**
+	 * @return The index of the leftmost child, or -1 if there are no children
+	 */
+	public int getFirstChild(int index)
+	{
+		return this.firstChildren[index];
+	}
+
+	/**
+	 * @return The index of the next sister to the right, or -1 if there is none
+	 */
+	public int getNextSibling(int index)
+	{
+		return this.nextSiblings[index];
+	}
+
+	/**
+	 * @return The index of the first word covered by the subtree
+	 */
+	public int getWordStart(int index)
+	{
+		return this.wordStarts[index];
+	}
+
+	/**
+	 * @return One past the index of the last word covered by the subtree
+	 */
+	public int getWordEnd(int index)
+	{
+		return this.wordEnds[index];
+	}
+
+	/**
+	 * @return One past the index of the last node of the subtree
+	 */
+	public int getSubtreeEnd(int index)
+	{
+		// The subtree ends where the next sister of the nearest node (on the path up) that has one begins
+		for (int i = index ; i >= 0 ; i = this.parents[i])
+		{
+			if (this.nextSiblings[i] >= 0)
+			{
+				return this.nextSiblings[i];
+			}
+		}
+
+		return this.numNodes;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.toBracketedString(0);
+	}
+
+	/**
+	 * One past the index of the last word directly inside of the node:  its own words end where the next node
+	 * in preorder starts taking words
+	 */
+	private int getContentWordsEnd(int index)
+	{
+		return (index + 1 < this.numNodes) ? this.wordStarts[index + 1] : this.numWords;
+	}
+
+	/**
+	 * @return The subtree in the bracketed format of the corpus files, on one line
+	 */
+	private String toBracketedString(int index)
+	{
+		StringBuilder bracketedString = new StringBuilder();
+
+		int subtreeEnd = this.getSubtreeEnd(index);
+
+		int curAncestor;
+
+		for (int i = index ; i < subtreeEnd ; i++)
+		{
+			if (i > index)
+			{
+				bracketedString.append(' ');
+			}
+
+			bracketedString.append('(').append(ConstituentLabelTable.getLabel(this.constituentTypeIds[i]));
+
+			for (int j = this.wordStarts[i] ; j < this.getContentWordsEnd(i) ; j++)
+			{
+				bracketedString.append(' ');
+
+				this.wordArena.appendWord(this.wordIds[j], bracketedString);
+			}
+
+			// Close this node and every ancestor (within the subtree) that it is the last descendant of
+			if (this.firstChildren[i] < 0)
+			{
+				bracketedString.append(')');
+
+				curAncestor = i;
+
+				while ((curAncestor != index) && (this.nextSiblings[curAncestor] < 0))
+				{
+					curAncestor = this.parents[curAncestor];
+
+					bracketedString.append(')');
+				}
+			}
+		}
+
+		return bracketedString.toString();
+	}
+}
@@ -0,0 +1,185 @@
+package main;
+
+import utilities.CharSlices;
+
+/**
+ * Interns every distinct constituent type (NP, VP, NP-SBJ, ...) as a dense int ID, so that nodes can store
+ * an int instead of a String per node, and counts can be kept in arrays indexed by ID.
+ *
+ * There is a single table shared by every parser, so an ID means the same constituent type everywhere.
+ * Lookups do not lock:  they probe an immutable snapshot of the table, and only the (rare) addition of a
+ * new constituent type replaces the snapshot under a lock.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentLabelTable
+{
+	/*
+	 * An immutable open-addressing table from constituent type to ID
+	 */
+	private static class Snapshot
+	{
+		// ID -> constituent type
+		final String[] labels;
+
+		final int numLabels;
+
+		// Open-addressing slots holding ID+1 (0 for an empty slot); the length is a power of two
+		final int[] slots;
+
+		Snapshot(String[] labels, int numLabels, int[] slots)
+		{
+			this.labels = labels;
+			this.numLabels = numLabels;
+			this.slots = slots;
+		}
+	}
+
+	private static volatile Snapshot SNAPSHOT = new Snapshot(new String[16], 0, new int[32]);
+
+	private static final Object INSERT_LOCK = new Object();
+
+	/**
+	 * @return The ID of the constituent type, adding it to the table if it is new
+	 */
+	public static int getLabelId(String label)
+	{
+		return ConstituentLabelTable.getLabelId(label, 0, label.length());
+	}
+
+	/**
+	 * @return The ID of the constituent type spelled by the given characters, adding it to the table if it is
+	 *         new (a String is only created the first time a constituent type is seen)
+	 */
+	public static int getLabelId(CharSequence chars, int start, int end)
+	{
+		int hash = CharSlices.hash(chars, start, end);
+
+		int id = ConstituentLabelTable.find(ConstituentLabelTable.SNAPSHOT, chars, start, end, hash);
+
+		if (id >= 0)
+		{
+			return id;
+		}
+
+		synchronized (ConstituentLabelTable.INSERT_LOCK)
+		{
+			// Another thread may have added it in the meantime
+			Snapshot curSnapshot = ConstituentLabelTable.SNAPSHOT;
+
+			id = ConstituentLabelTable.find(curSnapshot, chars, start, end, hash);
+
+			if (id < 0)
+			{
+				id = curSnapshot.numLabels;
+
+				ConstituentLabelTable.SNAPSHOT = ConstituentLabelTable.insert(
+					curSnapshot, chars.subSequence(start, end).toString());
+			}
+
+			return id;
+		}
+	}
+
+	/**
+	 * @return The ID of the constituent type, or -1 if it has never been seen
+	 */
+	public static int findLabelId(String label)
+	{
+		return ConstituentLabelTable.find(
+			ConstituentLabelTable.SNAPSHOT, label, 0, label.length(), CharSlices.hash(label, 0, label.length()));
+	}
+
+	/**
+	 * @return The constituent type with the given ID
+	 */
+	public static String getLabel(int labelId)
+	{
+		Snapshot curSnapshot = ConstituentLabelTable.SNAPSHOT;
+
+		if ((labelId < 0) || (labelId >= curSnapshot.numLabels))
+		{
+			throw new IllegalArgumentException("Unknown constituent type ID: " + labelId);
+		}
+
+		return curSnapshot.labels[labelId];
+	}
+
+	/**
+	 * @return The number of distinct constituent types seen so far (IDs are 0 to numLabels()-1)
+	 */
+	public static int numLabels()
+	{
+		return ConstituentLabelTable.SNAPSHOT.numLabels;
+	}
+
+	private static int find(Snapshot snapshot, CharSequence chars, int start, int end, int hash)
+	{
+		int mask = snapshot.slots.length - 1;
+
+		int curSlot = hash & mask;
+
+		int curIdPlusOne = snapshot.slots[curSlot];
+
+		while (curIdPlusOne != 0)
+		{
+			if (CharSlices.matches(snapshot.labels[curIdPlusOne-1], chars, start, end))
+			{
+				return curIdPlusOne-1;
+			}
+
+			curSlot = (curSlot + 1) & mask;
+
+			curIdPlusOne = snapshot.slots[curSlot];
+		}
+
+		return -1;
+	}
+
+	private static Snapshot insert(Snapshot snapshot, String label)
+	{
+		int numLabels = snapshot.numLabels + 1;
+
+		String[] labels = snapshot.labels;
+
+		if (numLabels > labels.length)
+		{
+			labels = new String[labels.length * 2];
+
+			System.arraycopy(snapshot.labels, 0, labels, 0, snapshot.numLabels);
+		}
+		else
+		{
+			labels = labels.clone();
+		}
+
+		labels[numLabels-1] = label;
+
+		// Keep the slots at most half full
+		int numSlots = snapshot.slots.length;
+
+		while (numSlots < numLabels * 2)
+		{
+			numSlots *= 2;
+		}
+
+		int[] slots = new int[numSlots];
+
+		int curSlot;
+
+		for (int id = 0 ; id < numLabels ; id++)
+		{
+			curSlot = CharSlices.hash(labels[id], 0, labels[id].length()) & (numSlots - 1);
+
+			while (slots[curSlot] != 0)
+			{
+				curSlot = (curSlot + 1) & (numSlots - 1);
+			}
+
+			slots[curSlot] = id+1;
+		}
+
+		return new Snapshot(labels, numLabels, slots);
+	}
+}
@@ -0,0 +1,33 @@
+package main;
+
+import java.util.List;
+
+/**
+ * The navigation shared by every kind of constituent tree node, so that analyses (skeleton cataloguing,
+ * matching, distances, ...) can be written once for all of them
+ * 
+ * @author hlil_administrator
+ *
+ * @param <N> The type of the nodes of the tree
+ */
+public interface ConstituentNode<N extends ConstituentNode<N>>
+{
+	/**
+	 * @return The ID of the constituent type in the ConstituentLabelTable
+	 */
+	public int getConstituentTypeId();
+	
+	public String getConstituentType();
+	
+	/**
+	 * @return The parent of this node, or null if this is the root
+	 */
+	public N getParent();
+	
+	/**
+	 * @return The children of this node in L to R order
+	 */
+	public List<N> getConstituentChildren();
+	
+	public int numConstituentChildren();
+}
@@ -0,0 +1,958 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled structural query over constituent trees, in a subset of the Tregex query language.  A query is a
+ * node description followed by any number of relations to other node descriptions, for example
+ *
+ *    NP < (DT . JJ)          An NP with a DT child that is immediately followed by a JJ
+ *    @VP !<< /^VB/           A VP (with any function tags) that does not dominate a verb
+ *    NP|NX $+ VP             An NP or NX whose next sister is a VP
+ *
+ * Node descriptions are a constituent type, several types separated by '|', a regular expression between
+ * slashes (matched anywhere in the type), or __ for any type.  A type prefixed with '@' matches the type with
+ * any function tags and indices (so @NP matches NP, NP-SBJ and NP-SBJ-1).
+ *
+ * Relations ('!' before a relation negates it):
+ *
+ *    A < B     A is the parent of B               A > B     A is a child of B
+ *    A << B    A dominates B                      A >> B    A is dominated by B
+ *    A . B     A immediately precedes B           A , B     A immediately follows B
+ *    A .. B    A precedes B                       A ,, B    A follows B
+ *    A $ B     A is a sister of B
+ *    A $+ B    A is the immediate left sister of B     A $- B    A is the immediate right sister of B
+ *    A $++ B   A is a left sister of B                 A $-- B   A is a right sister of B
+ *
+ * All of the relations after a node description apply to that node; parentheses group a node description
+ * with its own relations.  Precedence is over the words of the sentence (a constituent's own words come
+ * before the words of its children), and only constituents that cover at least one word precede or follow.
+ *
+ * A query is thread-safe, and can search many sentences at once.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentQuery
+{
+	/*
+	 * Receives the matches of a search as they are found.  Searches over several threads call it from all of
+	 * them at once, so it must be thread-safe
+	 */
+	public interface ConstituentQueryListener
+	{
+		public void matchFound(int sentenceIndex, ConstituentStructure sentence, ConstituentStructure matchedNode);
+	}
+
+	private enum Relation
+	{
+		PARENT_OF("<"),
+		DOMINATES("<<"),
+		CHILD_OF(">"),
+		DOMINATED_BY(">>"),
+		IMMEDIATELY_PRECEDES("."),
+		PRECEDES(".."),
+		IMMEDIATELY_FOLLOWS(","),
+		FOLLOWS(",,"),
+		SISTER_OF("$"),
+		IMMEDIATE_LEFT_SISTER_OF("$+"),
+		IMMEDIATE_RIGHT_SISTER_OF("$-"),
+		LEFT_SISTER_OF("$++"),
+		RIGHT_SISTER_OF("$--");
+
+		private String symbol;
+
+		private Relation(String symbol)
+		{
+			this.symbol = symbol;
+		}
+
+		private static Relation fromSymbol(String symbol)
+		{
+			for (Relation curRelation : Relation.values())
+			{
+				if (curRelation.symbol.equals(symbol))
+				{
+					return curRelation;
+				}
+			}
+
+			return null;
+		}
+	}
+
+	/*
+	 * The constituent type IDs that a node description matches, for the IDs below numLabels
+	 */
+	private static class LabelIdSnapshot
+	{
+		private BitSet matchingLabelIds;
+
+		private int numLabels;
+
+		private LabelIdSnapshot(BitSet matchingLabelIds, int numLabels)
+		{
+			this.matchingLabelIds = matchingLabelIds;
+			this.numLabels = numLabels;
+		}
+	}
+
+	/*
+	 * A node description and its relations
+	 */
+	private static class NodePattern
+	{
+		// Index of the pattern in the query (for the match memo)
+		private int id;
+
+		private boolean wildcard = false;
+
+		private Pattern labelRegex = null;
+
+		private List<String> labels = new ArrayList<String>();
+
+		private List<Boolean> labelsMatchBasicCategory = new ArrayList<Boolean>();
+
+		private List<Relation> relations = new ArrayList<Relation>();
+
+		private List<Boolean> relationsNegated = new ArrayList<Boolean>();
+
+		private List<NodePattern> relatedPatterns = new ArrayList<NodePattern>();
+
+		// Replaced (never modified) when new constituent types appear in ConstituentLabelTable
+		private volatile LabelIdSnapshot labelIdSnapshot = new LabelIdSnapshot(new BitSet(), 0);
+
+		private boolean matchesLabel(String label)
+		{
+			if (this.wildcard)
+			{
+				return true;
+			}
+
+			if (this.labelRegex != null)
+			{
+				return this.labelRegex.matcher(label).find();
+			}
+
+			for (int i = 0 ; i < this.labels.size() ; i++)
+			{
+				if (this.labels.get(i).equals(
+					this.labelsMatchBasicCategory.get(i) ? ConstituentQuery.getBasicCategory(label) : label))
+				{
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private LabelIdSnapshot getLabelIdSnapshot(int maxLabelId)
+		{
+			LabelIdSnapshot snapshot = this.labelIdSnapshot;
+
+			if (maxLabelId >= snapshot.numLabels)
+			{
+				// Concurrent refreshes compute the same result, so either may win
+				int numLabels = ConstituentLabelTable.numLabels();
+
+				BitSet matchingLabelIds = new BitSet(numLabels);
+
+				for (int i = 0 ; i < numLabels ; i++)
+				{
+					if (this.matchesLabel(ConstituentLabelTable.getLabel(i)))
+					{
+						matchingLabelIds.set(i);
+					}
+				}
+
+				snapshot = new LabelIdSnapshot(matchingLabelIds, numLabels);
+
+				this.labelIdSnapshot = snapshot;
+			}
+
+			return snapshot;
+		}
+
+		private boolean matchesLabelId(int labelId)
+		{
+			return this.wildcard || this.getLabelIdSnapshot(labelId).matchingLabelIds.get(labelId);
+		}
+	}
+
+	/*
+	 * One sentence flattened into preorder arrays, with the match memo.  Each searching thread reuses its own
+	 */
+	private static class MatchState
+	{
+		private ConstituentStructure[] nodes = new ConstituentStructure[64];
+
+		private int[] labelIds = new int[64];
+
+		private int[] parents = new int[64];
+
+		// Preorder index one past the last node of the subtree
+		private int[] subtreeEnds = new int[64];
+
+		private int[] nextSiblings = new int[64];
+
+		private int[] previousSiblings = new int[64];
+
+		// The words covered by the node are spanStarts[i] to spanEnds[i]-1
+		private int[] spanStarts = new int[64];
+
+		private int[] spanEnds = new int[64];
+
+		private int numNodes;
+
+		private BitSet sentenceLabelIds = new BitSet();
+
+		private int maxLabelId;
+
+		// (pattern ID, node) -> 0 if not yet matched, 1 if the pattern matches at the node, 2 if not
+		private byte[] memo = new byte[256];
+
+		private List<ConstituentStructure> frontier = new ArrayList<ConstituentStructure>();
+
+		private List<Integer> frontierParents = new ArrayList<Integer>();
+
+		private void load(ConstituentStructure sentence, int numPatterns)
+		{
+			this.numNodes = 0;
+			this.maxLabelId = 0;
+
+			this.sentenceLabelIds.clear();
+
+			this.frontier.add(sentence);
+			this.frontierParents.add(-1);
+
+			ConstituentStructure curNode;
+
+			List<ConstituentStructure> curChildren;
+
+			int curIndex;
+
+			int numWords = 0;
+
+			while (!this.frontier.isEmpty())
+			{
+				curNode = this.frontier.remove(this.frontier.size()-1);
+
+				curIndex = this.numNodes;
+
+				this.ensureCapacity(curIndex + 1);
+
+				this.nodes[curIndex] = curNode;
+				this.labelIds[curIndex] = curNode.getConstituentTypeId();
+				this.parents[curIndex] = this.frontierParents.remove(this.frontierParents.size()-1);
+				this.subtreeEnds[curIndex] = 1;
+				this.nextSiblings[curIndex] = -1;
+				this.previousSiblings[curIndex] = -1;
+				this.spanStarts[curIndex] = numWords;
+
+				numWords += curNode.numContentWords();
+
+				this.sentenceLabelIds.set(this.labelIds[curIndex]);
+
+				this.maxLabelId = Math.max(this.maxLabelId, this.labelIds[curIndex]);
+
+				this.numNodes++;
+
+				// Push the children R to L so that they come off of the frontier L to R
+				curChildren = curNode.getConstituentChildren();
+
+				for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+				{
+					this.frontier.add(curChildren.get(i));
+					this.frontierParents.add(curIndex);
+				}
+			}
+
+			// Subtree sizes, accumulated from the last node back
+			for (int i = this.numNodes-1 ; i > 0 ; i--)
+			{
+				this.subtreeEnds[this.parents[i]] += this.subtreeEnds[i];
+			}
+
+			for (int i = 0 ; i < this.numNodes ; i++)
+			{
+				this.subtreeEnds[i] += i;
+			}
+
+			// A subtree's words end where the words of the next node in preorder start
+			for (int i = 0 ; i < this.numNodes ; i++)
+			{
+				this.spanEnds[i] = (this.subtreeEnds[i] < this.numNodes) ? this.spanStarts[this.subtreeEnds[i]] : numWords;
+			}
+
+			// The children of a node come in L to R order in preorder, each just past the subtree of the last
+			int curPreviousSibling;
+
+			for (int i = 0 ; i < this.numNodes ; i++)
+			{
+				curPreviousSibling = -1;
+
+				for (int j = i + 1 ; j < this.subtreeEnds[i] ; j = this.subtreeEnds[j])
+				{
+					if (curPreviousSibling >= 0)
+					{
+						this.previousSiblings[j] = curPreviousSibling;
+						this.nextSiblings[curPreviousSibling] = j;
+					}
+
+					curPreviousSibling = j;
+				}
+			}
+
+			if (this.memo.length < numPatterns * this.numNodes)
+			{
+				this.memo = new byte[numPatterns * this.numNodes * 2];
+			}
+			else
+			{
+				Arrays.fill(this.memo, 0, numPatterns * this.numNodes, (byte)0);
+			}
+		}
+
+		private void ensureCapacity(int numNodes)
+		{
+			if (numNodes > this.nodes.length)
+			{
+				int newLength = Math.max(numNodes, this.nodes.length * 2);
+
+				this.nodes = Arrays.copyOf(this.nodes, newLength);
+				this.labelIds = Arrays.copyOf(this.labelIds, newLength);
+				this.parents = Arrays.copyOf(this.parents, newLength);
+				this.subtreeEnds = Arrays.copyOf(this.subtreeEnds, newLength);
+				this.nextSiblings = Arrays.copyOf(this.nextSiblings, newLength);
+				this.previousSiblings = Arrays.copyOf(this.previousSiblings, newLength);
+				this.spanStarts = Arrays.copyOf(this.spanStarts, newLength);
+				this.spanEnds = Arrays.copyOf(this.spanEnds, newLength);
+			}
+		}
+	}
+
+	// The number of sentences a searching thread takes at a time
+	private static final int SEARCH_CHUNK_SIZE = 64;
+
+	private String query;
+
+	private NodePattern rootPattern;
+
+	private List<NodePattern> patterns = new ArrayList<NodePattern>();
+
+	// Patterns that must match some node of a sentence for the query to match anywhere in it
+	private List<NodePattern> requiredPatterns = new ArrayList<NodePattern>();
+
+	// Query parsing state
+	private List<String> tokens;
+
+	private int nextToken;
+
+	private ConstituentQuery(String query)
+	{
+		this.query = query;
+
+		this.tokens = ConstituentQuery.tokenize(query);
+		this.nextToken = 0;
+
+		this.rootPattern = this.parsePattern();
+
+		if (this.nextToken < this.tokens.size())
+		{
+			throw new IllegalArgumentException(
+				"Unexpected '" + this.tokens.get(this.nextToken) + "' in query: " + query);
+		}
+
+		this.tokens = null;
+
+		this.collectRequiredPatterns(this.rootPattern);
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the query is malformed
+	 */
+	public static ConstituentQuery compile(String query)
+	{
+		return new ConstituentQuery(query);
+	}
+
+	/**
+	 * Report every node of the sentence that the query matches, in preorder
+	 */
+	public void forEachMatch(ConstituentStructure sentence, int sentenceIndex, ConstituentQueryListener listener)
+	{
+		this.forEachMatch(sentence, sentenceIndex, listener, new MatchState());
+	}
+
+	/**
+	 * @return The nodes of the sentence that the query matches, in preorder
+	 */
+	public List<ConstituentStructure> findMatches(ConstituentStructure sentence)
+	{
+		final List<ConstituentStructure> matchedNodes = new ArrayList<ConstituentStructure>();
+
+		this.forEachMatch(sentence, 0, new ConstituentQueryListener()
+		{
+			@Override
+			public void matchFound(int sentenceIndex, ConstituentStructure sentence, ConstituentStructure matchedNode)
+			{
+				matchedNodes.add(matchedNode);
+			}
+		});
+
+		return matchedNodes;
+	}
+
+	/**
+	 * Search the sentences over the given number of threads.  The sentence index of a match is the position of
+	 * its sentence in the list, and matches are reported as they are found (so not in sentence order)
+	 */
+	public void search(List<ConstituentStructure> sentences, int parallelism, ConstituentQueryListener listener)
+	{
+		// Copy the sentences, since the parsed structure lists are linked lists
+		final ConstituentStructure[] sentenceArray = sentences.toArray(new ConstituentStructure[0]);
+
+		this.search(sentenceArray.length, null, new IntFunction<ConstituentStructure>()
+		{
+			@Override
+			public ConstituentStructure apply(int sentenceIndex)
+			{
+				return sentenceArray[sentenceIndex];
+			}
+		}, parallelism, listener);
+	}
+
+	/**
+	 * Search a binary treebank over the given number of threads, decoding the sentences in the threads
+	 */
+	public void search(BinaryTreebankReader treebank, int parallelism, ConstituentQueryListener listener)
+	{
+		this.search(treebank.numSentences(), null, treebank::getSentence, parallelism, listener);
+	}
+
+	/**
+	 * Search only the given sentences of a binary treebank (for example, the sentences that a TreebankIndex
+	 * lookup says contain the words of the query)
+	 */
+	public void search(
+		BinaryTreebankReader treebank, int[] sentenceIds, int parallelism, ConstituentQueryListener listener)
+	{
+		this.search(sentenceIds.length, sentenceIds, treebank::getSentence, parallelism, listener);
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.query;
+	}
+
+	/*
+	 * Searching
+	 */
+
+	private void search(
+		final int numSentences, final int[] sentenceIds, final IntFunction<ConstituentStructure> sentences,
+		int parallelism, final ConstituentQueryListener listener)
+	{
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+
+		List<Future<?>> searchedChunks = new ArrayList<Future<?>>();
+
+		try
+		{
+			// Each worker keeps taking the next chunk of sentences until there are none left
+			for (int i = 0 ; i < parallelism ; i++)
+			{
+				searchedChunks.add(workers.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						MatchState matchState = new MatchState();
+
+						int curChunkStart;
+
+						int curSentenceIndex;
+
+						while ((curChunkStart = nextChunk.getAndIncrement() * ConstituentQuery.SEARCH_CHUNK_SIZE) < numSentences)
+						{
+							for (int j = curChunkStart ; j < Math.min(curChunkStart + ConstituentQuery.SEARCH_CHUNK_SIZE, numSentences) ; j++)
+							{
+								curSentenceIndex = (sentenceIds == null) ? j : sentenceIds[j];
+
+								ConstituentQuery.this.forEachMatch(
+									sentences.apply(curSentenceIndex), curSentenceIndex, listener, matchState);
+							}
+						}
+					}
+				}));
+			}
+
+			for (Future<?> curSearchedChunk : searchedChunks)
+			{
+				curSearchedChunk.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)e.getCause();
+			}
+
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+
+	private void forEachMatch(
+		ConstituentStructure sentence, int sentenceIndex, ConstituentQueryListener listener, MatchState matchState)
+	{
+		matchState.load(sentence, this.patterns.size());
+
+		// Skip sentences missing a constituent type that the query requires, before matching any nodes
+		for (NodePattern curRequiredPattern : this.requiredPatterns)
+		{
+			if (!curRequiredPattern.getLabelIdSnapshot(matchState.maxLabelId).matchingLabelIds.intersects(
+				matchState.sentenceLabelIds))
+			{
+				return;
+			}
+		}
+
+		for (int i = 0 ; i < matchState.numNodes ; i++)
+		{
+			if (this.matches(this.rootPattern, i, matchState))
+			{
+				listener.matchFound(sentenceIndex, sentence, matchState.nodes[i]);
+			}
+		}
+	}
+
+	private boolean matches(NodePattern pattern, int node, MatchState matchState)
+	{
+		int memoIndex = pattern.id * matchState.numNodes + node;
+
+		if (matchState.memo[memoIndex] != 0)
+		{
+			return matchState.memo[memoIndex] == 1;
+		}
+
+		boolean matches = pattern.matchesLabelId(matchState.labelIds[node]);
+
+		for (int i = 0 ; matches && (i < pattern.relations.size()) ; i++)
+		{
+			matches = (this.existsRelatedMatch(pattern.relations.get(i), node, pattern.relatedPatterns.get(i), matchState)
+				!= pattern.relationsNegated.get(i));
+		}
+
+		matchState.memo[memoIndex] = (byte)(matches ? 1 : 2);
+
+		return matches;
+	}
+
+	/**
+	 * @return Whether some node in the relation to the given node matches the related pattern
+	 */
+	private boolean existsRelatedMatch(Relation relation, int node, NodePattern relatedPattern, MatchState matchState)
+	{
+		int[] parents = matchState.parents;
+		int[] subtreeEnds = matchState.subtreeEnds;
+		int[] nextSiblings = matchState.nextSiblings;
+		int[] previousSiblings = matchState.previousSiblings;
+		int[] spanStarts = matchState.spanStarts;
+		int[] spanEnds = matchState.spanEnds;
+
+		int numNodes = matchState.numNodes;
+
+		switch (relation)
+		{
+			case PARENT_OF:
+
+				for (int i = node + 1 ; i < subtreeEnds[node] ; i = subtreeEnds[i])
+				{
+					if (this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+
+			case DOMINATES:
+
+				for (int i = node + 1 ; i < subtreeEnds[node] ; i++)
+				{
+					if (this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+
+			case CHILD_OF:
+
+				return (parents[node] >= 0) && this.matches(relatedPattern, parents[node], matchState);
+
+			case DOMINATED_BY:
+
+				for (int i = parents[node] ; i >= 0 ; i = parents[i])
+				{
+					if (this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+
+			case IMMEDIATELY_PRECEDES:
+			case PRECEDES:
+			case IMMEDIATELY_FOLLOWS:
+			case FOLLOWS:
+
+				if (spanStarts[node] == spanEnds[node])
+				{
+					return false;
+				}
+
+				boolean curInRelation;
+
+				for (int i = 0 ; i < numNodes ; i++)
+				{
+					if (spanStarts[i] == spanEnds[i])
+					{
+						continue;
+					}
+
+					switch (relation)
+					{
+						case IMMEDIATELY_PRECEDES:
+							curInRelation = (spanStarts[i] == spanEnds[node]);
+							break;
+
+						case PRECEDES:
+							curInRelation = (spanStarts[i] >= spanEnds[node]);
+							break;
+
+						case IMMEDIATELY_FOLLOWS:
+							curInRelation = (spanEnds[i] == spanStarts[node]);
+							break;
+
+						default:
+							curInRelation = (spanEnds[i] <= spanStarts[node]);
+							break;
+					}
+
+					if (curInRelation && this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+
+			case SISTER_OF:
+
+				if (parents[node] < 0)
+				{
+					return false;
+				}
+
+				for (int i = parents[node] + 1 ; i < subtreeEnds[parents[node]] ; i = subtreeEnds[i])
+				{
+					if ((i != node) && this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+
+			case IMMEDIATE_LEFT_SISTER_OF:
+
+				return (nextSiblings[node] >= 0) && this.matches(relatedPattern, nextSiblings[node], matchState);
+
+			case IMMEDIATE_RIGHT_SISTER_OF:
+
+				return (previousSiblings[node] >= 0) && this.matches(relatedPattern, previousSiblings[node], matchState);
+
+			case LEFT_SISTER_OF:
+
+				for (int i = nextSiblings[node] ; i >= 0 ; i = nextSiblings[i])
+				{
+					if (this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+
+			default:
+
+				for (int i = previousSiblings[node] ; i >= 0 ; i = previousSiblings[i])
+				{
+					if (this.matches(relatedPattern, i, matchState))
+					{
+						return true;
+					}
+				}
+
+				return false;
+		}
+	}
+
+	/**
+	 * The patterns reachable from the root through relations that are not negated each have to match some node
+	 */
+	private void collectRequiredPatterns(NodePattern pattern)
+	{
+		if (!pattern.wildcard)
+		{
+			this.requiredPatterns.add(pattern);
+		}
+
+		for (int i = 0 ; i < pattern.relations.size() ; i++)
+		{
+			if (!pattern.relationsNegated.get(i))
+			{
+				this.collectRequiredPatterns(pattern.relatedPatterns.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @return The constituent type without function tags or indices ("NP-SBJ-1" -> "NP"); types that start with
+	 * '-' (such as -NONE-) are left as they are
+	 */
+	private static String getBasicCategory(String label)
+	{
+		for (int i = 1 ; i < label.length() ; i++)
+		{
+			if ((label.charAt(i) == '-') || (label.charAt(i) == '='))
+			{
+				return label.substring(0, i);
+			}
+		}
+
+		return label;
+	}
+
+	/*
+	 * Query Parsing
+	 */
+
+	private static List<String> tokenize(String query)
+	{
+		List<String> tokens = new ArrayList<String>();
+
+		int curPosition = 0;
+
+		int curTokenStart;
+
+		char curChar;
+
+		while (curPosition < query.length())
+		{
+			curChar = query.charAt(curPosition);
+
+			curTokenStart = curPosition;
+
+			if (Character.isWhitespace(curChar))
+			{
+				curPosition++;
+
+				continue;
+			}
+			else if ((curChar == '(') || (curChar == ')') || (curChar == '|') || (curChar == '!'))
+			{
+				curPosition++;
+			}
+			else if ((curChar == '<') || (curChar == '>'))
+			{
+				curPosition++;
+
+				if ((curPosition < query.length()) && (query.charAt(curPosition) == curChar))
+				{
+					curPosition++;
+				}
+			}
+			else if (curChar == '/')
+			{
+				// A regular expression runs to the next slash that is not escaped
+				curPosition++;
+
+				while ((curPosition < query.length()) && (query.charAt(curPosition) != '/'))
+				{
+					curPosition += (query.charAt(curPosition) == '\\') ? 2 : 1;
+				}
+
+				if (curPosition >= query.length())
+				{
+					throw new IllegalArgumentException("Unterminated regular expression in query: " + query);
+				}
+
+				curPosition++;
+			}
+			else
+			{
+				// Types and the other relations run to whitespace or a symbol that cannot be in a type
+				while ((curPosition < query.length())
+					&& !Character.isWhitespace(query.charAt(curPosition))
+					&& ("()|!<>".indexOf(query.charAt(curPosition)) < 0))
+				{
+					curPosition++;
+				}
+			}
+
+			tokens.add(query.substring(curTokenStart, curPosition));
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * pattern := ( '(' pattern ')' | nodeDescription ) ( '!'? relation ( '(' pattern ')' | nodeDescription ) )*
+	 */
+	private NodePattern parsePattern()
+	{
+		NodePattern pattern = this.parseGroupOrNodeDescription();
+
+		String curToken;
+
+		Relation curRelation;
+
+		boolean curNegated;
+
+		while ((this.nextToken < this.tokens.size()) && !this.tokens.get(this.nextToken).equals(")"))
+		{
+			curNegated = this.tokens.get(this.nextToken).equals("!");
+
+			if (curNegated)
+			{
+				this.nextToken++;
+			}
+
+			curToken = this.takeToken();
+
+			curRelation = Relation.fromSymbol(curToken);
+
+			if (curRelation == null)
+			{
+				throw new IllegalArgumentException("Expected a relation but found '" + curToken + "' in query: " + this.query);
+			}
+
+			pattern.relations.add(curRelation);
+			pattern.relationsNegated.add(curNegated);
+			pattern.relatedPatterns.add(this.parseGroupOrNodeDescription());
+		}
+
+		return pattern;
+	}
+
+	private NodePattern parseGroupOrNodeDescription()
+	{
+		if ((this.nextToken < this.tokens.size()) && this.tokens.get(this.nextToken).equals("("))
+		{
+			this.nextToken++;
+
+			NodePattern pattern = this.parsePattern();
+
+			if (!this.takeToken().equals(")"))
+			{
+				throw new IllegalArgumentException("Expected ')' in query: " + this.query);
+			}
+
+			return pattern;
+		}
+
+		return this.parseNodeDescription();
+	}
+
+	private NodePattern parseNodeDescription()
+	{
+		NodePattern pattern = new NodePattern();
+
+		pattern.id = this.patterns.size();
+
+		this.patterns.add(pattern);
+
+		String curToken = this.takeToken();
+
+		if (curToken.equals("__"))
+		{
+			pattern.wildcard = true;
+		}
+		else if (curToken.startsWith("/"))
+		{
+			try
+			{
+				pattern.labelRegex = Pattern.compile(curToken.substring(1, curToken.length()-1));
+			}
+			catch (PatternSyntaxException e)
+			{
+				throw new IllegalArgumentException("Bad regular expression " + curToken + " in query: " + this.query, e);
+			}
+		}
+		else
+		{
+			while (true)
+			{
+				if ((curToken.length() == 0) || ("()|!<>/".indexOf(curToken.charAt(0)) >= 0) || curToken.equals("@"))
+				{
+					throw new IllegalArgumentException("Expected a constituent type but found '" + curToken + "' in query: " + this.query);
+				}
+
+				pattern.labelsMatchBasicCategory.add(curToken.startsWith("@"));
+				pattern.labels.add(curToken.startsWith("@") ? curToken.substring(1) : curToken);
+
+				if ((this.nextToken < this.tokens.size()) && this.tokens.get(this.nextToken).equals("|"))
+				{
+					this.nextToken++;
+
+					curToken = this.takeToken();
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+
+		return pattern;
+	}
+
+	private String takeToken()
+	{
+		if (this.nextToken >= this.tokens.size())
+		{
+			throw new IllegalArgumentException("Unexpected end of query: " + this.query);
+		}
+
+		this.nextToken++;
+
+		return this.tokens.get(this.nextToken - 1);
+	}
+}
@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import utilities.Pair;
 
@@ -19,11 +20,13 @@ import utilities.Pair;
  * @author hlil_administrator
  *
  */
-public class ConstituentSkeleton
+public class ConstituentSkeleton implements ConstituentNode<ConstituentSkeleton>
 {
-	private static int HASHCODE = 0;
+	// Shared by every ingestion thread, so IDs are handed out atomically
+	private static final AtomicInteger HASHCODE = new AtomicInteger(0);
 	
-	private String constituentType;
+	// The ID of the constituent type in the ConstituentLabelTable
+	private int constituentTypeId;
 	
 	private ConstituentSkeleton parent;
 	
@@ -37,6 +40,10 @@ public class ConstituentSkeleton
 	
 	private String thisLevelStringRep;
 	
+	// True if totalStringRep no longer reflects this node and its descendants; when a node is
+	// stale, all of its ancestors are stale as well
+	private boolean totalStringRepIsStale = false;
+	
 	private int hashCode;
 	
 	private int numChildren = 0;
@@ -44,23 +51,36 @@ public class ConstituentSkeleton
 	// 0 if there is no parent; otherwise, the leftmost child has childNumber = 1
 	private int childNumber = 0;
 	
+	/**
+	 * Inform this node and all of its ancestors that their string reps are out of date.  The 
+	 * string reps themselves are only rebuilt when toString() is called.
+	 * 
+	 * The walk stops at the first ancestor that is already stale (everything above it must be
+	 * stale as well), so building a whole tree only costs linear time
+	 */
+	private void markStringRepStale()
+	{
+		ConstituentSkeleton curNode = this;
+		
+		while ((curNode != null) && !curNode.totalStringRepIsStale)
+		{
+			curNode.totalStringRepIsStale = true;
+			
+			curNode = curNode.parent;
+		}
+	}
+	
 	/**
 	 * To create a String representation, the following information is required:
 	 * 
 	 *   0.) A list of all of the children at a given level
 	 *   
 	 *   1.) The number and length of all of the children of a node, bottom up
+	 *   
+	 * This is only called on demand from toString()
 	 */
-	private void changeStringRepMessageToParent()
+	private void rebuildStringRep()
 	{
-		/*
-		 * Inform all of the parent nodes that this node has changed
-		 */
-		if (this.parent != null)
-		{
-			this.parent.changeStringRepMessageToParent();
-		}
-		
 		/*
 		 * Contains all of the current string rep lines
 		 */
@@ -176,11 +196,19 @@ public class ConstituentSkeleton
 			
 			 curChildNumber = curNode.childNumber;
 			 
+			// A stale descendant is cleared here so that its next modification is reported up to
+			// this node again; its own cached string rep is out of date and must be rebuilt if asked for
+			if ((curNode != this) && curNode.totalStringRepIsStale)
+			{
+				curNode.totalStringRepIsStale = false;
+				curNode.totalStringRep = null;
+			}
+			
 			// If this node has not yet been explored, 
 			if (nodeToInheritedLeftOffset.get(curNode) == null)
 			{
 				// Obtain the string rep for just this level
-				curNodeStringRep = curNode.thisLevelStringRepBuilder.toString();
+				curNodeStringRep = curNode.thisLevelStringRep;
 				
 				curNodeStringRepLength = curNodeStringRep.length();
 				
@@ -190,7 +218,8 @@ public class ConstituentSkeleton
 				nodeToNumBacktracks.put(curNode, curNumBacktracks);
 				
 				// Determine if this node has a parent
-				curParent = curNode.getParent(); 
+				// The node being rendered is laid out as the root, even if it is a child of another node
+				curParent = (curNode == this) ? null : curNode.getParent();
 				
 				// If the current node is equal to the node being updated, then act as though there is no
 				if (curParent != null)
@@ -257,7 +286,7 @@ public class ConstituentSkeleton
 				}
 				
 				// Append the current node string rep to the current string rep line
-				curStringRepLine.append(curNode.thisLevelStringRepBuilder.toString());
+				curStringRepLine.append(curNode.thisLevelStringRep);
 				
 				// This is where the connector to this node is created by appending the connector to 
 				// the appropriate line
@@ -346,7 +375,7 @@ public class ConstituentSkeleton
 				if (curNumBacktracks == curNode.numChildren)
 				{
 					// Add the current line length to the parent offset 
-					curParent = curNode.getParent();
+					curParent = (curNode == this) ? null : curNode.getParent();
 						
 					if (curParent != null)
 					{
@@ -373,22 +402,26 @@ public class ConstituentSkeleton
 		}
 		
 		// Convert the string rep lines to a String
-		this.totalStringRep = "";
+		StringBuilder totalStringRepBuilder = new StringBuilder();
 		
 		int curLineNumber = 1;
 		
 		for (StringBuilder curStringRepLineBuilder : stringRepLines)
 		{
-			this.totalStringRep += curStringRepLineBuilder.toString();
+			totalStringRepBuilder.append(curStringRepLineBuilder);
 			
 			// Add a line break if this is not the last toString line
 			if (curLineNumber < stringRepLines.size())
 			{
-				this.totalStringRep += "\n";
+				totalStringRepBuilder.append('\n');
 			}
 			
 			curLineNumber++;
 		}
+		
+		this.totalStringRep = totalStringRepBuilder.toString();
+		
+		this.totalStringRepIsStale = false;
 	}
 	
 	private void setChildNumber(int numChild)
@@ -399,17 +432,23 @@ public class ConstituentSkeleton
 	public ConstituentSkeleton(
 			String constituentType)
 	{
-		this.constituentType = constituentType;
+		this(ConstituentLabelTable.getLabelId(constituentType));
+	}
+	
+	public ConstituentSkeleton(
+			int constituentTypeId)
+	{
+		this.constituentTypeId = constituentTypeId;
 
 		this.leftToRightChildren = new LinkedList<ConstituentSkeleton>();
 
-		this.hashCode = ConstituentSkeleton.HASHCODE;
-		ConstituentSkeleton.HASHCODE++;
+		this.hashCode = ConstituentSkeleton.HASHCODE.getAndIncrement();
 		
 		// Start the String representation
-		this.thisLevelStringRepBuilder.append("(" + this.constituentType + ")");
+		this.thisLevelStringRepBuilder.append("(" + this.getConstituentType() + ")");
 
 		this.thisLevelStringRep = this.thisLevelStringRepBuilder.toString();
+		this.thisLevelStringRepWidth = this.thisLevelStringRep.length();
 
 		// For now, the total string rep is just the current level string rep
 		this.totalStringRep = this.thisLevelStringRep;
@@ -426,19 +465,68 @@ public class ConstituentSkeleton
 
 		newChild.setChildNumber(this.numChildren);
 
-		this.changeStringRepMessageToParent();
+		this.markStringRepStale();
 	}
 
+	/**
+	 * Create the skeleton of the given constituent structure (i.e. the same tree without any of its words)
+	 */
+	public static ConstituentSkeleton fromConstituentStructure(ConstituentStructure structure)
+	{
+		ConstituentSkeleton skeletonRoot = new ConstituentSkeleton(structure.getConstituentTypeId());
+		
+		Stack<Pair<ConstituentStructure, ConstituentSkeleton>> frontier = 
+			new Stack<Pair<ConstituentStructure, ConstituentSkeleton>>();
+		
+		frontier.push(new Pair<ConstituentStructure, ConstituentSkeleton>(structure, skeletonRoot));
+		
+		Pair<ConstituentStructure, ConstituentSkeleton> curStructureAndSkeleton;
+		
+		ConstituentSkeleton curSkeletonChild;
+		
+		while (!frontier.isEmpty())
+		{
+			curStructureAndSkeleton = frontier.pop();
+			
+			// Copy the children of the structure node (in L to R order) to the skeleton node
+			for (ConstituentStructure curStructureChild : curStructureAndSkeleton.getKey().getConstituentChildren())
+			{
+				curSkeletonChild = new ConstituentSkeleton(curStructureChild.getConstituentTypeId());
+				
+				curStructureAndSkeleton.getValue().addConstituentStructureChild(curSkeletonChild);
+				
+				frontier.push(new Pair<ConstituentStructure, ConstituentSkeleton>(curStructureChild, curSkeletonChild));
+			}
+		}
+		
+		return skeletonRoot;
+	}
+	
+	@Override
+	public String getConstituentType()
+	{
+		return ConstituentLabelTable.getLabel(this.constituentTypeId);
+	}
+	
+	@Override
+	public int getConstituentTypeId()
+	{
+		return this.constituentTypeId;
+	}
+	
+	@Override
 	public ConstituentSkeleton getParent()
 	{
 		return this.parent;
 	}
 
+	@Override
 	public List<ConstituentSkeleton> getConstituentChildren()
 	{
 		return this.leftToRightChildren;
 	}
 
+	@Override
 	public int numConstituentChildren()
 	{
 		return this.leftToRightChildren.size();
@@ -461,7 +549,7 @@ public class ConstituentSkeleton
 		{
 			ConstituentSkeleton cast = (ConstituentSkeleton)obj;
 
-			if (!this.constituentType.equals(((ConstituentSkeleton) obj).constituentType))
+			if (this.constituentTypeId != cast.constituentTypeId)
 			{
 				return false;
 			}
@@ -493,6 +581,12 @@ public class ConstituentSkeleton
 	@Override
 	public String toString() 
 	{
+		// Only lay out the string rep when it is actually asked for
+		if (this.totalStringRepIsStale || (this.totalStringRep == null))
+		{
+			this.rebuildStringRep();
+		}
+		
 		return this.totalStringRep;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,670 @@
+package main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import utilities.CharSlices;
+import utilities.Pair;
+import utilities.VarInts;
+
+/**
+ * A frequency catalog of distinct constituent skeletons (tree shapes made up of constituent types only).
+ *
+ * Every skeleton added to the catalog is hash-consed:  each of its subtrees is interned bottom up as a
+ * canonical node (a constituent type plus the canonical IDs of its children), and identical subtrees share
+ * a single canonical node.  The catalog is thus a DAG with one node per distinct subtree shape, no matter how
+ * many times that shape occurs, and two skeletons have the same shape exactly when they have the same
+ * canonical ID.
+ *
+ * Every canonical node also has a structural (Merkle-style) hash computed from its constituent type and the
+ * hashes of its children, which is the same for identical shapes in every catalog (and every run).
+ *
+ * The catalog counts how many times each shape was added as a whole skeleton, and how many times it occurred
+ * as a subtree of an added skeleton.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentSkeletonCatalog
+{
+	private static final int[] NO_CHILDREN = new int[0];
+
+	// Canonical node ID -> constituent type ID
+	private int[] nodeConstituentTypeIds = new int[1024];
+
+	// Canonical node ID -> canonical node IDs of the children in L to R order
+	private int[][] nodeChildren = new int[1024][];
+
+	// Canonical node ID -> structural hash
+	private long[] nodeStructuralHashes = new long[1024];
+
+	// Canonical node ID -> the number of times the shape was added as a whole skeleton
+	private long[] nodeSkeletonCounts = new long[1024];
+
+	// Canonical node ID -> the number of times the shape occurred as a subtree of an added skeleton
+	private long[] nodeSubtreeCounts = new long[1024];
+
+	private int numNodes = 0;
+
+	// The number of distinct shapes that have been added as a whole skeleton
+	private int numDistinctSkeletons = 0;
+
+	// The total number of skeletons added
+	private long numSkeletons = 0;
+
+	// Open-addressing slots from structural hash to canonical node ID+1 (0 for an empty slot)
+	private int[] slots = new int[2048];
+
+	/**
+	 * Add one occurrence of the skeleton of the tree rooted at the given node
+	 *
+	 * @return The canonical ID of the skeleton
+	 */
+	public <N extends ConstituentNode<N>> int add(N skeletonRoot)
+	{
+		return this.add(skeletonRoot, 1);
+	}
+
+	/**
+	 * Add the given number of occurrences of the skeleton of the tree rooted at the given node (the number may
+	 * be negative to remove occurrences)
+	 *
+	 * @return The canonical ID of the skeleton
+	 */
+	public <N extends ConstituentNode<N>> int add(N skeletonRoot, long numOccurrences)
+	{
+		// Intern the tree bottom up:  a node is interned once all of its children have been
+		List<Pair<N, int[]>> frontier = new ArrayList<Pair<N, int[]>>();
+
+		// The number of children of each node on the frontier that have not been interned yet
+		List<Integer> frontierNumChildrenRemaining = new ArrayList<Integer>();
+
+		frontier.add(this.newFrontierEntry(skeletonRoot));
+		frontierNumChildrenRemaining.add(skeletonRoot.numConstituentChildren());
+
+		Pair<N, int[]> curEntry;
+
+		int curNumChildrenRemaining;
+
+		int curNodeId = -1;
+
+		N curChild;
+
+		while (!frontier.isEmpty())
+		{
+			curEntry = frontier.get(frontier.size()-1);
+			curNumChildrenRemaining = frontierNumChildrenRemaining.get(frontier.size()-1);
+
+			// Explore the next child (L to R)
+			if (curNumChildrenRemaining > 0)
+			{
+				curChild = curEntry.getKey().getConstituentChildren().get(
+					curEntry.getValue().length - curNumChildrenRemaining);
+
+				frontier.add(this.newFrontierEntry(curChild));
+				frontierNumChildrenRemaining.add(curChild.numConstituentChildren());
+
+				continue;
+			}
+
+			// All of the children have been interned, so intern this node and report it to its parent
+			curNodeId = this.intern(curEntry.getKey().getConstituentTypeId(), curEntry.getValue());
+
+			this.nodeSubtreeCounts[curNodeId] += numOccurrences;
+
+			frontier.remove(frontier.size()-1);
+			frontierNumChildrenRemaining.remove(frontierNumChildrenRemaining.size()-1);
+
+			if (!frontier.isEmpty())
+			{
+				int parentIndex = frontier.size()-1;
+				int[] parentChildIds = frontier.get(parentIndex).getValue();
+				int parentNumChildrenRemaining = frontierNumChildrenRemaining.get(parentIndex);
+
+				parentChildIds[parentChildIds.length - parentNumChildrenRemaining] = curNodeId;
+
+				frontierNumChildrenRemaining.set(parentIndex, parentNumChildrenRemaining - 1);
+			}
+		}
+
+		this.countSkeleton(curNodeId, numOccurrences);
+
+		return curNodeId;
+	}
+
+	/**
+	 * Add all of the skeleton and subtree counts of the other catalog to this catalog
+	 */
+	public void merge(ConstituentSkeletonCatalog other)
+	{
+		this.merge(other, 1);
+	}
+
+	/**
+	 * Remove all of the skeleton and subtree counts of the other catalog from this catalog (the canonical
+	 * nodes themselves are kept, with their counts at 0)
+	 */
+	public void subtract(ConstituentSkeletonCatalog other)
+	{
+		this.merge(other, -1);
+	}
+
+	private void merge(ConstituentSkeletonCatalog other, long sign)
+	{
+		// The children of a canonical node always have smaller IDs than the node itself, so the other catalog
+		// can be re-interned in ID order
+		int[] otherNodeIdToNodeId = new int[other.numNodes];
+
+		int[] curChildIds;
+
+		int curNodeId;
+
+		for (int i = 0 ; i < other.numNodes ; i++)
+		{
+			curChildIds = new int[other.nodeChildren[i].length];
+
+			for (int j = 0 ; j < curChildIds.length ; j++)
+			{
+				curChildIds[j] = otherNodeIdToNodeId[other.nodeChildren[i][j]];
+			}
+
+			curNodeId = this.intern(other.nodeConstituentTypeIds[i], curChildIds);
+
+			otherNodeIdToNodeId[i] = curNodeId;
+
+			this.nodeSubtreeCounts[curNodeId] += sign * other.nodeSubtreeCounts[i];
+
+			this.countSkeleton(curNodeId, sign * other.nodeSkeletonCounts[i]);
+		}
+	}
+
+	/**
+	 * Write the canonical nodes in ID order, each as its constituent type ID, its number of children, the
+	 * canonical IDs of its children, its skeleton count and its subtree count (all as varints), after the
+	 * number of nodes.  The constituent type IDs are those of the ConstituentLabelTable of this run, so the
+	 * reader must be given the labels they stand for (see readFrom())
+	 */
+	void writeTo(OutputStream output) throws IOException
+	{
+		VarInts.writeVarInt(output, this.numNodes);
+
+		for (int i = 0 ; i < this.numNodes ; i++)
+		{
+			VarInts.writeVarInt(output, this.nodeConstituentTypeIds[i]);
+			VarInts.writeVarInt(output, this.nodeChildren[i].length);
+
+			for (int curChildId : this.nodeChildren[i])
+			{
+				VarInts.writeVarInt(output, curChildId);
+			}
+
+			VarInts.writeVarLong(output, this.nodeSkeletonCounts[i]);
+			VarInts.writeVarLong(output, this.nodeSubtreeCounts[i]);
+		}
+	}
+
+	/**
+	 * Read a catalog written by writeTo(), starting at the current position of the buffer, and advance the
+	 * position past it
+	 *
+	 * @param writtenToLocalConstituentTypeIds The constituent type ID in this run of every constituent type ID
+	 *                                         that was written
+	 */
+	static ConstituentSkeletonCatalog readFrom(ByteBuffer buffer, int[] writtenToLocalConstituentTypeIds)
+	{
+		ConstituentSkeletonCatalog catalog = new ConstituentSkeletonCatalog();
+
+		int numNodes = VarInts.readVarInt(buffer);
+
+		// As in merge(), the children of a node were written before it
+		int[] writtenNodeIdToNodeId = new int[numNodes];
+
+		int curConstituentTypeId;
+
+		int[] curChildIds;
+
+		int curNodeId;
+
+		for (int i = 0 ; i < numNodes ; i++)
+		{
+			curConstituentTypeId = writtenToLocalConstituentTypeIds[VarInts.readVarInt(buffer)];
+
+			curChildIds = new int[VarInts.readVarInt(buffer)];
+
+			for (int j = 0 ; j < curChildIds.length ; j++)
+			{
+				curChildIds[j] = writtenNodeIdToNodeId[VarInts.readVarInt(buffer)];
+			}
+
+			curNodeId = catalog.intern(
+				curConstituentTypeId, (curChildIds.length == 0) ? ConstituentSkeletonCatalog.NO_CHILDREN : curChildIds);
+
+			writtenNodeIdToNodeId[i] = curNodeId;
+
+			catalog.countSkeleton(curNodeId, VarInts.readVarLong(buffer));
+
+			catalog.nodeSubtreeCounts[curNodeId] += VarInts.readVarLong(buffer);
+		}
+
+		return catalog;
+	}
+
+	/*
+	 * Queries
+	 */
+
+	/**
+	 * @return The number of distinct skeleton shapes that have been added
+	 */
+	public int numDistinctSkeletons()
+	{
+		return this.numDistinctSkeletons;
+	}
+
+	/**
+	 * @return The total number of skeletons that have been added
+	 */
+	public long numSkeletons()
+	{
+		return this.numSkeletons;
+	}
+
+	/**
+	 * @return The number of distinct subtree shapes (i.e. canonical nodes) in the catalog
+	 */
+	public int numDistinctSubtrees()
+	{
+		return this.numNodes;
+	}
+
+	/**
+	 * @return The canonical ID of the skeleton rooted at the given node, or -1 if that shape is not in the
+	 *         catalog (nothing is added)
+	 */
+	public <N extends ConstituentNode<N>> int findSkeletonId(N skeletonRoot)
+	{
+		List<N> childNodes = skeletonRoot.getConstituentChildren();
+
+		int[] childIds = new int[childNodes.size()];
+
+		for (int i = 0 ; i < childIds.length ; i++)
+		{
+			childIds[i] = this.findSkeletonId(childNodes.get(i));
+
+			if (childIds[i] < 0)
+			{
+				return -1;
+			}
+		}
+
+		long structuralHash = this.structuralHash(skeletonRoot.getConstituentTypeId(), childIds);
+
+		return this.slots[this.findSlot(skeletonRoot.getConstituentTypeId(), childIds, structuralHash)] - 1;
+	}
+
+	/**
+	 * @return The number of times the shape with the given canonical ID was added as a whole skeleton
+	 */
+	public long getSkeletonCount(int skeletonId)
+	{
+		return this.nodeSkeletonCounts[skeletonId];
+	}
+
+	/**
+	 * @return The number of times the shape with the given canonical ID occurred as a subtree (including as
+	 *         a whole skeleton)
+	 */
+	public long getSubtreeCount(int skeletonId)
+	{
+		return this.nodeSubtreeCounts[skeletonId];
+	}
+
+	/**
+	 * @return The structural hash of the shape with the given canonical ID
+	 */
+	public long getStructuralHash(int skeletonId)
+	{
+		return this.nodeStructuralHashes[skeletonId];
+	}
+
+	public int getConstituentTypeId(int skeletonId)
+	{
+		return this.nodeConstituentTypeIds[skeletonId];
+	}
+
+	/**
+	 * @return The canonical IDs of the children of the shape with the given canonical ID, in L to R order
+	 */
+	public int[] getChildSkeletonIds(int skeletonId)
+	{
+		return this.nodeChildren[skeletonId].clone();
+	}
+
+	/**
+	 * @return The canonical IDs of all of the distinct skeletons that have been added, most frequent first
+	 */
+	public int[] getSkeletonIdsByFrequency()
+	{
+		Integer[] skeletonIds = new Integer[this.numDistinctSkeletons];
+
+		int numSkeletonIds = 0;
+
+		for (int i = 0 ; i < this.numNodes ; i++)
+		{
+			if (this.nodeSkeletonCounts[i] > 0)
+			{
+				skeletonIds[numSkeletonIds] = i;
+
+				numSkeletonIds++;
+			}
+		}
+
+		Arrays.sort(skeletonIds, 0, numSkeletonIds, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer first, Integer second)
+			{
+				return Long.compare(
+					ConstituentSkeletonCatalog.this.nodeSkeletonCounts[second],
+					ConstituentSkeletonCatalog.this.nodeSkeletonCounts[first]);
+			}
+		});
+
+		int[] sortedSkeletonIds = new int[numSkeletonIds];
+
+		for (int i = 0 ; i < numSkeletonIds ; i++)
+		{
+			sortedSkeletonIds[i] = skeletonIds[i];
+		}
+
+		return sortedSkeletonIds;
+	}
+
+	/**
+	 * @return The rank-frequency (Zipf) curve of the skeletons:  the count of the most frequent distinct
+	 *         skeleton, then the second most frequent, and so on
+	 */
+	public long[] getRankFrequencyCurve()
+	{
+		int[] skeletonIds = this.getSkeletonIdsByFrequency();
+
+		long[] rankFrequencies = new long[skeletonIds.length];
+
+		for (int i = 0 ; i < skeletonIds.length ; i++)
+		{
+			rankFrequencies[i] = this.nodeSkeletonCounts[skeletonIds[i]];
+		}
+
+		return rankFrequencies;
+	}
+
+	/**
+	 * @return A new ConstituentSkeleton tree with the shape of the given canonical ID
+	 */
+	public ConstituentSkeleton toConstituentSkeleton(int skeletonId)
+	{
+		ConstituentSkeleton skeletonRoot = new ConstituentSkeleton(this.nodeConstituentTypeIds[skeletonId]);
+
+		List<Pair<Integer, ConstituentSkeleton>> frontier = new ArrayList<Pair<Integer, ConstituentSkeleton>>();
+
+		frontier.add(new Pair<Integer, ConstituentSkeleton>(skeletonId, skeletonRoot));
+
+		Pair<Integer, ConstituentSkeleton> curIdAndSkeleton;
+
+		ConstituentSkeleton curSkeletonChild;
+
+		while (!frontier.isEmpty())
+		{
+			curIdAndSkeleton = frontier.remove(frontier.size()-1);
+
+			for (int curChildId : this.nodeChildren[curIdAndSkeleton.getKey()])
+			{
+				curSkeletonChild = new ConstituentSkeleton(this.nodeConstituentTypeIds[curChildId]);
+
+				curIdAndSkeleton.getValue().addConstituentStructureChild(curSkeletonChild);
+
+				frontier.add(new Pair<Integer, ConstituentSkeleton>(curChildId, curSkeletonChild));
+			}
+		}
+
+		return skeletonRoot;
+	}
+
+	/*
+	 * Hash-consing
+	 */
+
+	private <N extends ConstituentNode<N>> Pair<N, int[]> newFrontierEntry(N node)
+	{
+		int numChildren = node.numConstituentChildren();
+
+		return new Pair<N, int[]>(node, (numChildren == 0) ? ConstituentSkeletonCatalog.NO_CHILDREN : new int[numChildren]);
+	}
+
+	private void countSkeleton(int skeletonId, long numOccurrences)
+	{
+		if (numOccurrences == 0)
+		{
+			return;
+		}
+
+		long oldCount = this.nodeSkeletonCounts[skeletonId];
+
+		this.nodeSkeletonCounts[skeletonId] += numOccurrences;
+
+		if ((oldCount <= 0) && (this.nodeSkeletonCounts[skeletonId] > 0))
+		{
+			this.numDistinctSkeletons++;
+		}
+		else if ((oldCount > 0) && (this.nodeSkeletonCounts[skeletonId] <= 0))
+		{
+			this.numDistinctSkeletons--;
+		}
+
+		this.numSkeletons += numOccurrences;
+	}
+
+	/**
+	 * @return The canonical ID of the node with the given constituent type and (canonical) children, creating
+	 *         the node if it does not exist yet
+	 */
+	private int intern(int constituentTypeId, int[] childIds)
+	{
+		long structuralHash = this.structuralHash(constituentTypeId, childIds);
+
+		int slot = this.findSlot(constituentTypeId, childIds, structuralHash);
+
+		if (this.slots[slot] != 0)
+		{
+			return this.slots[slot] - 1;
+		}
+
+		int nodeId = this.numNodes;
+
+		if (nodeId == this.nodeConstituentTypeIds.length)
+		{
+			int newCapacity = nodeId * 2;
+
+			this.nodeConstituentTypeIds = Arrays.copyOf(this.nodeConstituentTypeIds, newCapacity);
+			this.nodeChildren = Arrays.copyOf(this.nodeChildren, newCapacity);
+			this.nodeStructuralHashes = Arrays.copyOf(this.nodeStructuralHashes, newCapacity);
+			this.nodeSkeletonCounts = Arrays.copyOf(this.nodeSkeletonCounts, newCapacity);
+			this.nodeSubtreeCounts = Arrays.copyOf(this.nodeSubtreeCounts, newCapacity);
+		}
+
+		this.nodeConstituentTypeIds[nodeId] = constituentTypeId;
+		this.nodeChildren[nodeId] = childIds;
+		this.nodeStructuralHashes[nodeId] = structuralHash;
+
+		this.numNodes++;
+
+		// Keep the slots at most half full
+		if (this.numNodes * 2 > this.slots.length)
+		{
+			this.rebuildSlots(this.slots.length * 2);
+
+			slot = this.findSlot(constituentTypeId, childIds, structuralHash);
+		}
+
+		this.slots[slot] = nodeId + 1;
+
+		return nodeId;
+	}
+
+	/**
+	 * @return The slot holding the node, or the empty slot where it would be inserted
+	 */
+	private int findSlot(int constituentTypeId, int[] childIds, long structuralHash)
+	{
+		int mask = this.slots.length - 1;
+
+		int curSlot = (int)structuralHash & mask;
+
+		int curNodeId;
+
+		while (this.slots[curSlot] != 0)
+		{
+			curNodeId = this.slots[curSlot] - 1;
+
+			// The children are canonical, so the shapes are identical exactly when the IDs are
+			if ((this.nodeStructuralHashes[curNodeId] == structuralHash)
+				&& (this.nodeConstituentTypeIds[curNodeId] == constituentTypeId)
+				&& Arrays.equals(this.nodeChildren[curNodeId], childIds))
+			{
+				return curSlot;
+			}
+
+			curSlot = (curSlot + 1) & mask;
+		}
+
+		return curSlot;
+	}
+
+	private void rebuildSlots(int numSlots)
+	{
+		this.slots = new int[numSlots];
+
+		int mask = numSlots - 1;
+
+		int curSlot;
+
+		for (int i = 0 ; i < this.numNodes ; i++)
+		{
+			curSlot = (int)this.nodeStructuralHashes[i] & mask;
+
+			while (this.slots[curSlot] != 0)
+			{
+				curSlot = (curSlot + 1) & mask;
+			}
+
+			this.slots[curSlot] = i + 1;
+		}
+	}
+
+	/**
+	 * The Merkle-style hash of a node:  a combination of its constituent type, its number of children and the
+	 * structural hashes of its children in order.  The constituent type itself (rather than its ID, which
+	 * depends on the order the types were seen in) is hashed, so that the hash is the same in every run
+	 */
+	private long structuralHash(int constituentTypeId, int[] childIds)
+	{
+		long hash = ConstituentSkeletonCatalog.startStructuralHash(constituentTypeId, childIds.length);
+
+		for (int curChildId : childIds)
+		{
+			hash = ConstituentSkeletonCatalog.addChildStructuralHash(hash, this.nodeStructuralHashes[curChildId]);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * @return The structural hash of the skeleton of the tree rooted at the given node, which is the same as
+	 *         the structural hash it would have in any catalog, without adding it to a catalog
+	 */
+	public static <N extends ConstituentNode<N>> long computeStructuralHash(N skeletonRoot)
+	{
+		// Hash the tree bottom up, as in add(), with the hashes of the children of each node collected in order
+		List<N> frontier = new ArrayList<N>();
+
+		List<long[]> frontierChildHashes = new ArrayList<long[]>();
+
+		// The number of children of each node on the frontier that have not been hashed yet
+		List<Integer> frontierNumChildrenRemaining = new ArrayList<Integer>();
+
+		frontier.add(skeletonRoot);
+		frontierChildHashes.add(new long[skeletonRoot.numConstituentChildren()]);
+		frontierNumChildrenRemaining.add(skeletonRoot.numConstituentChildren());
+
+		N curNode;
+
+		N curChild;
+
+		long[] curChildHashes;
+
+		int curNumChildrenRemaining;
+
+		long curHash = 0;
+
+		while (!frontier.isEmpty())
+		{
+			curNode = frontier.get(frontier.size()-1);
+			curChildHashes = frontierChildHashes.get(frontier.size()-1);
+			curNumChildrenRemaining = frontierNumChildrenRemaining.get(frontier.size()-1);
+
+			// Explore the next child (L to R)
+			if (curNumChildrenRemaining > 0)
+			{
+				curChild = curNode.getConstituentChildren().get(curChildHashes.length - curNumChildrenRemaining);
+
+				frontier.add(curChild);
+				frontierChildHashes.add(new long[curChild.numConstituentChildren()]);
+				frontierNumChildrenRemaining.add(curChild.numConstituentChildren());
+
+				continue;
+			}
+
+			curHash = ConstituentSkeletonCatalog.startStructuralHash(curNode.getConstituentTypeId(), curChildHashes.length);
+
+			for (long curChildHash : curChildHashes)
+			{
+				curHash = ConstituentSkeletonCatalog.addChildStructuralHash(curHash, curChildHash);
+			}
+
+			frontier.remove(frontier.size()-1);
+			frontierChildHashes.remove(frontierChildHashes.size()-1);
+			frontierNumChildrenRemaining.remove(frontierNumChildrenRemaining.size()-1);
+
+			if (!frontier.isEmpty())
+			{
+				int parentIndex = frontier.size()-1;
+				long[] parentChildHashes = frontierChildHashes.get(parentIndex);
+				int parentNumChildrenRemaining = frontierNumChildrenRemaining.get(parentIndex);
+
+				parentChildHashes[parentChildHashes.length - parentNumChildrenRemaining] = curHash;
+
+				frontierNumChildrenRemaining.set(parentIndex, parentNumChildrenRemaining - 1);
+			}
+		}
+
+		return curHash;
+	}
+
+	private static long startStructuralHash(int constituentTypeId, int numChildren)
+	{
+		long hash = CharSlices.mix64(
+			0x9E3779B97F4A7C15L ^ ConstituentLabelTable.getLabel(constituentTypeId).hashCode());
+
+		return CharSlices.mix64(hash ^ numChildren);
+	}
+
+	private static long addChildStructuralHash(long hash, long childStructuralHash)
+	{
+		return CharSlices.mix64(hash * 31 + childStructuralHash);
+	}
+}
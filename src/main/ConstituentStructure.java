@@ -6,14 +6,17 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import utilities.Pair;
 
-public class ConstituentStructure 
+public class ConstituentStructure implements ConstituentNode<ConstituentStructure>
 {
-	private static int HASHCODE = 0;
+	// Shared by every ingestion thread, so IDs are handed out atomically
+	private static final AtomicInteger HASHCODE = new AtomicInteger(0);
 	
-	private String constituentType;
+	// The ID of the constituent type in the ConstituentLabelTable
+	private int constituentTypeId;
 	
 	private List<String> contentWords;
 	
@@ -29,6 +32,10 @@ public class ConstituentStructure
 	
 	private String thisLevelStringRep;
 	
+	// True if totalStringRep no longer reflects this node and its descendants; when a node is
+	// stale, all of its ancestors are stale as well
+	private boolean totalStringRepIsStale = false;
+	
 	private int hashCode;
 	
 	private int numChildren = 0;
@@ -36,23 +43,36 @@ public class ConstituentStructure
 	// 0 if there is no parent; otherwise, the leftmost child has childNumber = 1
 	private int childNumber = 0;
 	
+	/**
+	 * Inform this node and all of its ancestors that their string reps are out of date.  The 
+	 * string reps themselves are only rebuilt when toString() is called.
+	 * 
+	 * The walk stops at the first ancestor that is already stale (everything above it must be
+	 * stale as well), so building a whole tree only costs linear time
+	 */
+	private void markStringRepStale()
+	{
+		ConstituentStructure curNode = this;
+		
+		while ((curNode != null) && !curNode.totalStringRepIsStale)
+		{
+			curNode.totalStringRepIsStale = true;
+			
+			curNode = curNode.parent;
+		}
+	}
+	
 	/**
 	 * To create a String representation, the following information is required:
 	 * 
 	 *   0.) A list of all of the children at a given level
 	 *   
 	 *   1.) The number and length of all of the children of a node, bottom up
+	 *   
+	 * This is only called on demand from toString()
 	 */
-	private void changeStringRepMessageToParent()
+	private void rebuildStringRep()
 	{
-		/*
-		 * Inform all of the parent nodes that this node has changed
-		 */
-		if (this.parent != null)
-		{
-			this.parent.changeStringRepMessageToParent();
-		}
-		
 		/*
 		 * Contains all of the current string rep lines
 		 */
@@ -168,11 +188,19 @@ public class ConstituentStructure
 			
 			 curChildNumber = curNode.childNumber;
 			 
+			// A stale descendant is cleared here so that its next modification is reported up to
+			// this node again; its own cached string rep is out of date and must be rebuilt if asked for
+			if ((curNode != this) && curNode.totalStringRepIsStale)
+			{
+				curNode.totalStringRepIsStale = false;
+				curNode.totalStringRep = null;
+			}
+			
 			// If this node has not yet been explored, 
 			if (nodeToInheritedLeftOffset.get(curNode) == null)
 			{
 				// Obtain the string rep for just this level
-				curNodeStringRep = curNode.thisLevelStringRepBuilder.toString();
+				curNodeStringRep = curNode.thisLevelStringRep;
 				
 				curNodeStringRepLength = curNodeStringRep.length();
 				
@@ -182,7 +210,8 @@ public class ConstituentStructure
 				nodeToNumBacktracks.put(curNode, curNumBacktracks);
 				
 				// Determine if this node has a parent
-				curParent = curNode.getParent(); 
+				// The node being rendered is laid out as the root, even if it is a child of another node
+				curParent = (curNode == this) ? null : curNode.getParent();
 				
 				// If the current node is equal to the node being updated, then act as though there is no
 				if (curParent != null)
@@ -249,7 +278,7 @@ public class ConstituentStructure
 				}
 				
 				// Append the current node string rep to the current string rep line
-				curStringRepLine.append(curNode.thisLevelStringRepBuilder.toString());
+				curStringRepLine.append(curNode.thisLevelStringRep);
 				
 				// This is where the connector to this node is created by appending the connector to 
 				// the appropriate line
@@ -338,7 +367,7 @@ public class ConstituentStructure
 				if (curNumBacktracks == curNode.numChildren)
 				{
 					// Add the current line length to the parent offset 
-					curParent = curNode.getParent();
+					curParent = (curNode == this) ? null : curNode.getParent();
 						
 					if (curParent != null)
 					{
@@ -365,22 +394,26 @@ public class ConstituentStructure
 		}
 		
 		// Convert the string rep lines to a String
-		this.totalStringRep = "";
+		StringBuilder totalStringRepBuilder = new StringBuilder();
 		
 		int curLineNumber = 1;
 		
 		for (StringBuilder curStringRepLineBuilder : stringRepLines)
 		{
-			this.totalStringRep += curStringRepLineBuilder.toString();
+			totalStringRepBuilder.append(curStringRepLineBuilder);
 			
 			// Add a line break if this is not the last toString line
 			if (curLineNumber < stringRepLines.size())
 			{
-				this.totalStringRep += "\n";
+				totalStringRepBuilder.append('\n');
 			}
 			
 			curLineNumber++;
 		}
+		
+		this.totalStringRep = totalStringRepBuilder.toString();
+		
+		this.totalStringRepIsStale = false;
 	}
 	
 	private void setChildNumber(int numChild)
@@ -390,19 +423,24 @@ public class ConstituentStructure
 	
 	public ConstituentStructure(String constituentType)
 	{
-		this.constituentType = constituentType;
+		this(ConstituentLabelTable.getLabelId(constituentType));
+	}
+	
+	public ConstituentStructure(int constituentTypeId)
+	{
+		this.constituentTypeId = constituentTypeId;
 		
 		this.contentWords = new LinkedList<String>();
 		this.leftToRightChildren = new LinkedList<ConstituentStructure>();
 		
 		// Set the hashcode
-		this.hashCode = ConstituentStructure.HASHCODE;
-		ConstituentStructure.HASHCODE++;
+		this.hashCode = ConstituentStructure.HASHCODE.getAndIncrement();
 		
 		// Start the String representation
-		this.thisLevelStringRepBuilder.append("(" + this.constituentType + ")");
+		this.thisLevelStringRepBuilder.append("(" + this.getConstituentType() + ")");
 		
 		this.thisLevelStringRep = this.thisLevelStringRepBuilder.toString();
+		this.thisLevelStringRepWidth = this.thisLevelStringRep.length();
 		
 		// For now, the total string rep is just the current level string rep
 		this.totalStringRep = this.thisLevelStringRep;
@@ -415,8 +453,9 @@ public class ConstituentStructure
 		this.thisLevelStringRepBuilder.insert(this.thisLevelStringRepBuilder.length()-1, word);
 		
 		this.thisLevelStringRep = this.thisLevelStringRepBuilder.toString();
+		this.thisLevelStringRepWidth = this.thisLevelStringRep.length();
 		
-		this.changeStringRepMessageToParent();
+		this.markStringRepStale();
 	}
 	
 	public void addConstituentStructureChild(
@@ -430,7 +469,7 @@ public class ConstituentStructure
 		
 		newChild.setChildNumber(this.numChildren);
 		
-		this.changeStringRepMessageToParent();
+		this.markStringRepStale();
 	}
 	
 	public List<String> getContentWords()
@@ -443,16 +482,31 @@ public class ConstituentStructure
 		return this.contentWords.size();
 	}
 	
+	@Override
+	public String getConstituentType()
+	{
+		return ConstituentLabelTable.getLabel(this.constituentTypeId);
+	}
+	
+	@Override
+	public int getConstituentTypeId()
+	{
+		return this.constituentTypeId;
+	}
+	
+	@Override
 	public ConstituentStructure getParent()
 	{
 		return this.parent;
 	}
 	
+	@Override
 	public List<ConstituentStructure> getConstituentChildren()
 	{
 		return this.leftToRightChildren;
 	}
 	
+	@Override
 	public int numConstituentChildren()
 	{
 		return this.leftToRightChildren.size();
@@ -475,7 +529,7 @@ public class ConstituentStructure
 		{
 			ConstituentStructure cast = (ConstituentStructure)obj;
 	
-			if (!this.constituentType.equals(((ConstituentStructure) obj).constituentType))
+			if (this.constituentTypeId != cast.constituentTypeId)
 			{
 				return false;
 			}
@@ -521,6 +575,12 @@ public class ConstituentStructure
 	@Override
 	public String toString() 
 	{
+		// Only lay out the string rep when it is actually asked for
+		if (this.totalStringRepIsStale || (this.totalStringRep == null))
+		{
+			this.rebuildStringRep();
+		}
+		
 		return this.totalStringRep;
 	}
 	
@@ -536,8 +596,6 @@ public class ConstituentStructure
 		root.addConstituentStructureChild(rC1);
 		root.addConstituentStructureChild(rC2);
 		
-		root.changeStringRepMessageToParent();
-		
 		System.out.println(root);
 		
 		ConstituentStructure rC1C1 = new ConstituentStructure("DET");
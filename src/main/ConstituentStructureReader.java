@@ -0,0 +1,461 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+
+/**
+ * Streams the top-level sentence trees of bracketed (Penn Treebank style) constituent data one at a time:
+ *
+ *    ( (S (NP-SBJ (NNP Mr.) (NNP Vinken) ) (VP (VBZ is) ... ) (. .) ) )
+ *
+ * Only the sentence currently being parsed is held in memory (along with a small, fixed-size read buffer),
+ * so a corpus of any size can be processed and consumers can start on the first sentence before the rest of
+ * the input has been read.
+ *
+ * Each top-level bracket becomes one tree.  The unlabeled outer bracket that wraps every WSJ sentence becomes
+ * a node of type ROOT_CONSTITUENT_TYPE; it is not counted as a constituent.
+ *
+ * If statistics are given, every constituent, word and sentence skeleton is counted into them as it is parsed.
+ *
+ * If ingestion metrics are enabled when the reader is created, every sentence is recorded into them (see
+ * IngestionMetrics).
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentStructureReader implements Iterator<ConstituentStructure>, Closeable
+{
+	public static final String ROOT_CONSTITUENT_TYPE = "ROOT";
+
+	private static final int ROOT_CONSTITUENT_TYPE_ID = 
+		ConstituentLabelTable.getLabelId(ConstituentStructureReader.ROOT_CONSTITUENT_TYPE);
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private Reader reader;
+
+	// The statistics to count the parsed constituents into (may be null)
+	private WSJConstituentCounterStatistics statistics;
+
+	private char[] readBuffer = new char[READ_BUFFER_SIZE];
+
+	private int readBufferPosition = 0;
+
+	private int readBufferLimit = 0;
+
+	// The characters of the current constituent type or word (which may span several reads)
+	private char[] tokenBuffer = new char[64];
+
+	private int tokenLength = 0;
+
+	// A CharSequence view of the token buffer, so that constituent types can be looked up without a String
+	private CharBuffer tokenChars = CharBuffer.wrap(this.tokenBuffer);
+
+	// The next sentence to return, if it has already been parsed by hasNext()
+	private ConstituentStructure nextSentence;
+
+	private boolean endOfInputReached = false;
+
+	// The number of characters that were read before the current contents of the read buffer
+	private long readBufferOffset = 0;
+
+	// The metrics to record sentences into, or null if instrumentation was disabled when the reader was created
+	private final IngestionMetrics metrics = IngestionMetrics.get();
+
+	// The time the current sentence has spent in each phase so far (only kept while recording metrics)
+	private long sentenceReadNanos;
+
+	private long sentenceTreeBuildNanos;
+
+	private long sentenceCountNanos;
+
+	public ConstituentStructureReader(Reader reader)
+	{
+		this(reader, null);
+	}
+
+	public ConstituentStructureReader(Reader reader, WSJConstituentCounterStatistics statistics)
+	{
+		this.reader = reader;
+
+		this.statistics = statistics;
+	}
+
+	/**
+	 * A sequential Stream over all of the sentences of the reader; closing the Stream closes the reader
+	 */
+	public Stream<ConstituentStructure> stream()
+	{
+		Stream<ConstituentStructure> sentenceStream = StreamSupport.stream(
+			Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+			false);
+
+		return sentenceStream.onClose(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					ConstituentStructureReader.this.close();
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Iterator Implementation
+	 */
+
+	@Override
+	public boolean hasNext()
+	{
+		if (this.nextSentence == null)
+		{
+			try
+			{
+				this.nextSentence = this.readSentence();
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		return this.nextSentence != null;
+	}
+
+	@Override
+	public ConstituentStructure next()
+	{
+		if (!this.hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+
+		ConstituentStructure curSentence = this.nextSentence;
+
+		this.nextSentence = null;
+
+		return curSentence;
+	}
+
+	/**
+	 * @return The number of characters of the input that have been consumed so far
+	 */
+	public long getOffset()
+	{
+		return this.readBufferOffset + this.readBufferPosition;
+	}
+
+	/*
+	 * Closeable Implementation
+	 */
+
+	@Override
+	public void close() throws IOException
+	{
+		this.reader.close();
+	}
+
+	/*
+	 * Parsing
+	 */
+
+	/**
+	 * Parse the next top-level bracket into a tree
+	 *
+	 * @return The next tree, or null if there are no more trees in the input
+	 */
+	private ConstituentStructure readSentence() throws IOException
+	{
+		// These are the constituents that have been opened but not yet closed, innermost last
+		List<ConstituentStructure> openConstituents = new ArrayList<ConstituentStructure>();
+
+		ConstituentStructure curSentence = null;
+
+		ConstituentStructure curConstituent;
+
+		int curConstituentTypeId;
+
+		String curWord;
+
+		long curPhaseStart;
+
+		long curPhaseEnd;
+
+		int numConstituents = 0;
+
+		int numWords = 0;
+
+		long sentenceStart = this.clock();
+
+		this.sentenceReadNanos = 0;
+		this.sentenceTreeBuildNanos = 0;
+		this.sentenceCountNanos = 0;
+
+		int curChar = this.readChar();
+
+		while (curChar != -1)
+		{
+			// A new constituent starts with its type (which is empty for the outer bracket of a sentence)
+			if (curChar == '(')
+			{
+				curChar = this.readToken(this.readChar());
+
+				curPhaseStart = this.clock();
+
+				if (this.tokenLength == 0)
+				{
+					curConstituentTypeId = ConstituentStructureReader.ROOT_CONSTITUENT_TYPE_ID;
+				}
+				else
+				{
+					curConstituentTypeId = ConstituentLabelTable.getLabelId(this.tokenChars, 0, this.tokenLength);
+
+					numConstituents++;
+				}
+
+				curConstituent = new ConstituentStructure(curConstituentTypeId);
+
+				if (openConstituents.isEmpty())
+				{
+					curSentence = curConstituent;
+				}
+				else
+				{
+					openConstituents.get(openConstituents.size()-1).addConstituentStructureChild(curConstituent);
+				}
+
+				openConstituents.add(curConstituent);
+
+				curPhaseEnd = this.clock();
+
+				this.sentenceTreeBuildNanos += curPhaseEnd - curPhaseStart;
+
+				if ((this.tokenLength != 0) && (this.statistics != null))
+				{
+					this.statistics.countConstituentType(curConstituentTypeId);
+
+					this.sentenceCountNanos += this.clock() - curPhaseEnd;
+				}
+
+				continue;
+			}
+			// The innermost open constituent is closed; if it was the top-level one, the sentence is done
+			else if (curChar == ')')
+			{
+				if (!openConstituents.isEmpty())
+				{
+					openConstituents.remove(openConstituents.size()-1);
+
+					if (openConstituents.isEmpty())
+					{
+						this.countSkeleton(curSentence);
+
+						this.recordSentence(sentenceStart, numConstituents, numWords);
+
+						return curSentence;
+					}
+				}
+			}
+			// Anything else inside of a constituent is a word (words cannot contain brackets, which the
+			// treebank writes as -LRB- and -RRB-)
+			else if (!Character.isWhitespace(curChar))
+			{
+				curChar = this.readToken(curChar);
+
+				if (!openConstituents.isEmpty())
+				{
+					curConstituent = openConstituents.get(openConstituents.size()-1);
+
+					curPhaseStart = this.clock();
+
+					curWord = this.readWord(curConstituent.getConstituentTypeId());
+
+					curPhaseEnd = this.clock();
+
+					// Reading a word is mostly counting it when there are statistics, and creating it otherwise
+					if (this.statistics != null)
+					{
+						this.sentenceCountNanos += curPhaseEnd - curPhaseStart;
+					}
+					else
+					{
+						this.sentenceTreeBuildNanos += curPhaseEnd - curPhaseStart;
+					}
+
+					curConstituent.addContentWord(curWord);
+
+					this.sentenceTreeBuildNanos += this.clock() - curPhaseEnd;
+
+					numWords++;
+				}
+
+				continue;
+			}
+
+			curChar = this.readChar();
+		}
+
+		// If the input ends in the middle of a sentence, then return whatever was parsed of it
+		if (curSentence != null)
+		{
+			this.countSkeleton(curSentence);
+
+			this.recordSentence(sentenceStart, numConstituents, numWords);
+		}
+
+		return curSentence;
+	}
+
+	private void countSkeleton(ConstituentStructure sentence)
+	{
+		if (this.statistics != null)
+		{
+			long countStart = this.clock();
+
+			this.statistics.countSkeleton(sentence);
+
+			this.sentenceCountNanos += this.clock() - countStart;
+		}
+	}
+
+	/**
+	 * Record the sentence that was just parsed into the metrics, if they are enabled.  Tokenizing is whatever
+	 * time the sentence spent that was not spent in the other phases
+	 */
+	private void recordSentence(long sentenceStart, int numConstituents, int numWords)
+	{
+		if (this.metrics == null)
+		{
+			return;
+		}
+
+		long tokenizeNanos = 
+			(this.clock() - sentenceStart) - this.sentenceReadNanos - this.sentenceTreeBuildNanos - this.sentenceCountNanos;
+
+		this.metrics.recordSentence(
+			numConstituents, numWords, 
+			this.sentenceReadNanos, Math.max(0, tokenizeNanos), this.sentenceTreeBuildNanos, this.sentenceCountNanos);
+	}
+
+	/**
+	 * @return The current time in nanoseconds if metrics are being recorded, and 0 otherwise (so that timing
+	 *         costs nothing when they are not)
+	 */
+	private long clock()
+	{
+		return (this.metrics == null) ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * @return The word in the token buffer.  When counting into exact statistics, the String kept by the 
+	 *         statistics is shared, so a String is only created the first time a word is seen
+	 */
+	private String readWord(int immediateParentConstituentTypeId)
+	{
+		if (this.statistics == null)
+		{
+			return new String(this.tokenBuffer, 0, this.tokenLength);
+		}
+
+		int wordId = this.statistics.countWord(
+			this.tokenChars, 0, this.tokenLength, immediateParentConstituentTypeId);
+
+		// Approximate statistics do not keep the words they count
+		if (wordId < 0)
+		{
+			return new String(this.tokenBuffer, 0, this.tokenLength);
+		}
+
+		return this.statistics.getWordCounts().getWord(wordId);
+	}
+
+	/**
+	 * Read characters into the token buffer, starting with the given character, until whitespace, a bracket
+	 * or the end of the input is reached
+	 *
+	 * @return The character that ended the token
+	 */
+	private int readToken(int firstChar) throws IOException
+	{
+		int curChar = firstChar;
+
+		this.tokenLength = 0;
+
+		while ((curChar != -1) && (curChar != '(') && (curChar != ')') && !Character.isWhitespace(curChar))
+		{
+			if (this.tokenLength == this.tokenBuffer.length)
+			{
+				char[] largerTokenBuffer = new char[this.tokenBuffer.length * 2];
+
+				System.arraycopy(this.tokenBuffer, 0, largerTokenBuffer, 0, this.tokenLength);
+
+				this.tokenBuffer = largerTokenBuffer;
+				this.tokenChars = CharBuffer.wrap(this.tokenBuffer);
+			}
+
+			this.tokenBuffer[this.tokenLength] = (char)curChar;
+			this.tokenLength++;
+
+			curChar = this.readChar();
+		}
+
+		return curChar;
+	}
+
+	/**
+	 * @return The next character of the input, or -1 at the end of the input
+	 */
+	private int readChar() throws IOException
+	{
+		if (this.readBufferPosition == this.readBufferLimit)
+		{
+			if (this.endOfInputReached)
+			{
+				return -1;
+			}
+
+			long readStart = this.clock();
+
+			this.readBufferOffset += this.readBufferLimit;
+
+			this.readBufferLimit = this.reader.read(this.readBuffer, 0, this.readBuffer.length);
+			this.readBufferPosition = 0;
+
+			this.sentenceReadNanos += this.clock() - readStart;
+
+			if (this.readBufferLimit <= 0)
+			{
+				this.readBufferLimit = 0;
+				this.endOfInputReached = true;
+
+				return -1;
+			}
+		}
+
+		char curChar = this.readBuffer[this.readBufferPosition];
+
+		this.readBufferPosition++;
+
+		return curChar;
+	}
+}
@@ -0,0 +1,693 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mines the frequent induced subtrees of a forest of constituent trees (i.e. partial constructions that recur
+ * across many sentences), in the style of FREQT:
+ *
+ *    0.) Every constituent type that occurs in at least minSupport (weighted) trees is a frequent 1-node pattern
+ *
+ *    1.) A frequent pattern is grown by rightmost extension:  a new rightmost node is attached to a node on the
+ *        rightmost path of the pattern, so that every ordered pattern is generated exactly once
+ *
+ *    2.) Each pattern keeps the list of its rightmost occurrences (the tree node matched by the rightmost node
+ *        of the pattern), which is all that is needed to extend it and to compute its support
+ *
+ * The support of a pattern is the total weight of the trees that contain it (a skeleton added from a
+ * ConstituentSkeletonCatalog weighs as much as its count, so identical sentences are only mined once).
+ *
+ * The extensions of each frequent 1-node pattern are mined in parallel, and every frequent pattern is reported
+ * to the listener as soon as its support has been confirmed.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class FrequentSubtreeMiner
+{
+	/*
+	 * Receives the frequent subtrees as they are found.  It is called from the mining threads, so it must be
+	 * thread-safe
+	 */
+	public interface FrequentSubtreeListener
+	{
+		public void frequentSubtreeFound(FrequentSubtree frequentSubtree);
+	}
+
+	/*
+	 * A frequent pattern:  its nodes in preorder, each with its constituent type and its depth in the pattern
+	 */
+	public static class FrequentSubtree
+	{
+		private int[] constituentTypeIds;
+
+		private int[] depths;
+
+		private long support;
+
+		private FrequentSubtree(int[] constituentTypeIds, int[] depths, long support)
+		{
+			this.constituentTypeIds = constituentTypeIds;
+			this.depths = depths;
+			this.support = support;
+		}
+
+		public long getSupport()
+		{
+			return this.support;
+		}
+
+		public int size()
+		{
+			return this.constituentTypeIds.length;
+		}
+
+		/**
+		 * @return A new ConstituentSkeleton tree with the shape of the pattern
+		 */
+		public ConstituentSkeleton toConstituentSkeleton()
+		{
+			// The most recent node at each depth is the parent of the next node one level deeper
+			ConstituentSkeleton[] pathNodes = new ConstituentSkeleton[this.size()];
+
+			for (int i = 0 ; i < this.size() ; i++)
+			{
+				pathNodes[this.depths[i]] = new ConstituentSkeleton(this.constituentTypeIds[i]);
+
+				if (this.depths[i] > 0)
+				{
+					pathNodes[this.depths[i]-1].addConstituentStructureChild(pathNodes[this.depths[i]]);
+				}
+			}
+
+			return pathNodes[0];
+		}
+
+		/*
+		 * Object Overrides
+		 */
+
+		/**
+		 * The pattern in bracketed form, e.g. (NP (DT) (JJ) (NN))
+		 */
+		@Override
+		public String toString()
+		{
+			StringBuilder stringRepBuilder = new StringBuilder();
+
+			for (int i = 0 ; i < this.size() ; i++)
+			{
+				// Close the brackets of the nodes that are not ancestors of this one
+				if (i > 0)
+				{
+					for (int j = this.depths[i] ; j <= this.depths[i-1] ; j++)
+					{
+						stringRepBuilder.append(')');
+					}
+
+					stringRepBuilder.append(' ');
+				}
+
+				stringRepBuilder.append('(').append(ConstituentLabelTable.getLabel(this.constituentTypeIds[i]));
+			}
+
+			for (int j = 0 ; j <= this.depths[this.size()-1] ; j++)
+			{
+				stringRepBuilder.append(')');
+			}
+
+			return stringRepBuilder.toString();
+		}
+	}
+
+	// The memory charged for each distinct extension while the extensions of a pattern are being collected (a
+	// hash map entry, a boxed key and a list header)
+	private static final long EXTENSION_ENTRY_BYTES = 96;
+
+	private int minSupport;
+
+	private int maxPatternSize;
+
+	private int parallelism;
+
+	// The most memory (in bytes) that the occurrence lists of the patterns being mined (and the extensions being 
+	// collected for them) may take up at once
+	private long memoryBudget;
+
+	private AtomicLong memoryInUse = new AtomicLong(0);
+
+	/*
+	 * The forest, flattened into arrays indexed by node (the nodes of each tree are contiguous and in preorder)
+	 */
+
+	private int[] nodeConstituentTypeIds = new int[4096];
+
+	private int[] nodeFirstChildren = new int[4096];
+
+	private int[] nodeNextSiblings = new int[4096];
+
+	private int[] nodeParents = new int[4096];
+
+	private int[] nodeTrees = new int[4096];
+
+	private int numNodes = 0;
+
+	private long[] treeWeights = new long[1024];
+
+	private int numTrees = 0;
+
+	/**
+	 * @param minSupport The least (weighted) number of trees that a pattern must occur in to be frequent
+	 * @param maxPatternSize The largest number of nodes in a pattern
+	 * @param parallelism The number of threads to mine with
+	 * @param memoryBudget The most memory (in bytes) that the occurrence lists may take up at once; mining
+	 *                     fails with an IllegalStateException if it would need more
+	 */
+	public FrequentSubtreeMiner(int minSupport, int maxPatternSize, int parallelism, long memoryBudget)
+	{
+		this.minSupport = minSupport;
+		this.maxPatternSize = maxPatternSize;
+		this.parallelism = parallelism;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Add a tree (with a weight of 1) to the forest to be mined
+	 */
+	public <N extends ConstituentNode<N>> void addTree(N root)
+	{
+		this.addTree(root, 1);
+	}
+
+	/**
+	 * Add a tree to the forest to be mined, counting it as the given number of trees towards support
+	 */
+	public <N extends ConstituentNode<N>> void addTree(N root, long weight)
+	{
+		if (this.numTrees == this.treeWeights.length)
+		{
+			this.treeWeights = Arrays.copyOf(this.treeWeights, this.numTrees * 2);
+		}
+
+		int treeId = this.numTrees;
+
+		this.treeWeights[treeId] = weight;
+
+		this.numTrees++;
+
+		// Flatten the tree in preorder
+		List<N> frontierNodes = new ArrayList<N>();
+		List<Integer> frontierParents = new ArrayList<Integer>();
+
+		frontierNodes.add(root);
+		frontierParents.add(-1);
+
+		// The last child added to each node so far (to link the next sibling to)
+		Map<Integer, Integer> lastChildren = new HashMap<Integer, Integer>();
+
+		N curNode;
+
+		int curParent;
+
+		int curNodeIndex;
+
+		Integer curPrevSibling;
+
+		List<N> curChildren;
+
+		while (!frontierNodes.isEmpty())
+		{
+			curNode = frontierNodes.remove(frontierNodes.size()-1);
+			curParent = frontierParents.remove(frontierParents.size()-1);
+
+			curNodeIndex = this.newNode(curNode.getConstituentTypeId(), curParent, treeId);
+
+			if (curParent >= 0)
+			{
+				curPrevSibling = lastChildren.get(curParent);
+
+				if (curPrevSibling == null)
+				{
+					this.nodeFirstChildren[curParent] = curNodeIndex;
+				}
+				else
+				{
+					this.nodeNextSiblings[curPrevSibling] = curNodeIndex;
+				}
+
+				lastChildren.put(curParent, curNodeIndex);
+			}
+
+			// Push the children R to L so that they are flattened L to R
+			curChildren = curNode.getConstituentChildren();
+
+			for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+			{
+				frontierNodes.add(curChildren.get(i));
+				frontierParents.add(curNodeIndex);
+			}
+		}
+	}
+
+	/**
+	 * Add every distinct skeleton of the catalog, weighted by the number of times it occurred
+	 */
+	public void addSkeletons(ConstituentSkeletonCatalog catalog)
+	{
+		for (int curSkeletonId : catalog.getSkeletonIdsByFrequency())
+		{
+			this.addTree(catalog.toConstituentSkeleton(curSkeletonId), catalog.getSkeletonCount(curSkeletonId));
+		}
+	}
+
+	/**
+	 * Mine all of the frequent subtrees of the forest, reporting each of them to the listener as it is found.
+	 * This returns once mining is complete
+	 *
+	 * @throws IllegalStateException If the thread is interrupted before mining is complete (the interrupt flag is
+	 *         left set, and the workers stop mining), rather than returning as if every subtree had been reported
+	 */
+	public void mine(final FrequentSubtreeListener listener)
+	{
+		// Find the frequent 1-node patterns
+		Map<Integer, IntList> constituentTypeIdToOccurrences = new HashMap<Integer, IntList>();
+
+		IntList curOccurrences;
+
+		for (int i = 0 ; i < this.numNodes ; i++)
+		{
+			curOccurrences = constituentTypeIdToOccurrences.get(this.nodeConstituentTypeIds[i]);
+
+			if (curOccurrences == null)
+			{
+				curOccurrences = new IntList();
+
+				constituentTypeIdToOccurrences.put(this.nodeConstituentTypeIds[i], curOccurrences);
+			}
+
+			curOccurrences.add(i);
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(this.parallelism);
+
+		List<Future<?>> minedPatterns = new ArrayList<Future<?>>();
+
+		try
+		{
+			for (Map.Entry<Integer, IntList> curEntry : constituentTypeIdToOccurrences.entrySet())
+			{
+				final int[] curPatternTypeIds = new int[] { curEntry.getKey() };
+				final int[] curOccurrenceArray = curEntry.getValue().toArray();
+
+				final long curSupport = this.support(curOccurrenceArray);
+
+				if (curSupport < this.minSupport)
+				{
+					continue;
+				}
+
+				this.reserveMemory(4L * curOccurrenceArray.length);
+
+				// Each frequent 1-node pattern and all of its extensions are mined by one worker
+				minedPatterns.add(workers.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							FrequentSubtreeMiner.this.minePattern(
+								curPatternTypeIds, new int[] { 0 }, curOccurrenceArray, curSupport, listener);
+						}
+						finally
+						{
+							FrequentSubtreeMiner.this.releaseMemory(4L * curOccurrenceArray.length);
+						}
+					}
+				}));
+			}
+
+			for (Future<?> curMinedPattern : minedPatterns)
+			{
+				curMinedPattern.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new IllegalStateException("Interrupted while mining frequent subtrees", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)e.getCause();
+			}
+
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Report the (frequent) pattern and then mine all of its frequent rightmost extensions
+	 *
+	 * @param occurrences The sorted, distinct rightmost occurrences of the pattern
+	 */
+	private void minePattern(
+		int[] patternTypeIds, int[] patternDepths, int[] occurrences, long support, FrequentSubtreeListener listener)
+	{
+		listener.frequentSubtreeFound(new FrequentSubtree(patternTypeIds, patternDepths, support));
+
+		int patternSize = patternTypeIds.length;
+
+		// Stop extending once the workers have been shut down
+		if ((patternSize >= this.maxPatternSize) || Thread.currentThread().isInterrupted())
+		{
+			return;
+		}
+
+		// The occurrence lists of the frequent extensions stay reserved until each extension has been mined
+		List<Extension> frequentExtensions = this.findFrequentExtensions(patternDepths, occurrences);
+
+		int curExtensionIndex = 0;
+
+		Extension curExtension;
+
+		int[] curPatternTypeIds;
+
+		int[] curPatternDepths;
+
+		try
+		{
+			for ( ; curExtensionIndex < frequentExtensions.size() ; curExtensionIndex++)
+			{
+				curExtension = frequentExtensions.get(curExtensionIndex);
+
+				curPatternTypeIds = Arrays.copyOf(patternTypeIds, patternSize + 1);
+				curPatternDepths = Arrays.copyOf(patternDepths, patternSize + 1);
+
+				curPatternTypeIds[patternSize] = curExtension.constituentTypeId;
+				curPatternDepths[patternSize] = curExtension.attachmentDepth + 1;
+
+				this.minePattern(curPatternTypeIds, curPatternDepths, curExtension.occurrences, curExtension.support, listener);
+
+				// Free the occurrences as soon as the extension has been mined
+				this.releaseMemory(4L * curExtension.occurrences.length);
+
+				frequentExtensions.set(curExtensionIndex, null);
+			}
+		}
+		finally
+		{
+			for ( ; curExtensionIndex < frequentExtensions.size() ; curExtensionIndex++)
+			{
+				if (frequentExtensions.get(curExtensionIndex) != null)
+				{
+					this.releaseMemory(4L * frequentExtensions.get(curExtensionIndex).occurrences.length);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find every frequent rightmost extension of a pattern.  The (boxed) map of all of the extensions, frequent 
+	 * or not, is charged against the memory budget while it is built, and is gone by the time this returns; the 
+	 * occurrences of the frequent extensions are charged until the caller releases them
+	 */
+	private List<Extension> findFrequentExtensions(int[] patternDepths, int[] occurrences)
+	{
+		int rightmostDepth = patternDepths[patternDepths.length-1];
+
+		// (Attachment depth, constituent type ID) -> the rightmost occurrences of the extension
+		Map<Long, IntList> extensionToOccurrences = new HashMap<Long, IntList>();
+
+		// The memory reserved for the map
+		long extensionMapBytes = 0;
+
+		List<Extension> frequentExtensions = new ArrayList<Extension>();
+
+		int curAncestor;
+
+		int curCandidate;
+
+		Long curExtension;
+
+		IntList curExtensionOccurrences;
+
+		int[] curOccurrenceArray;
+
+		long curSupport;
+
+		try
+		{
+			for (int curOccurrence : occurrences)
+			{
+				// Attach a new rightmost node to the pattern node at each depth of the rightmost path
+				for (int attachmentDepth = rightmostDepth ; attachmentDepth >= 0 ; attachmentDepth--)
+				{
+					if (attachmentDepth == rightmostDepth)
+					{
+						// Any child of the rightmost node
+						curCandidate = this.nodeFirstChildren[curOccurrence];
+					}
+					else
+					{
+						// Any sibling to the right of the rightmost path node just below the attachment depth
+						curAncestor = curOccurrence;
+
+						for (int i = rightmostDepth ; i > attachmentDepth + 1 ; i--)
+						{
+							curAncestor = this.nodeParents[curAncestor];
+						}
+
+						curCandidate = this.nodeNextSiblings[curAncestor];
+					}
+
+					while (curCandidate >= 0)
+					{
+						curExtension = (((long)attachmentDepth) << 32) | this.nodeConstituentTypeIds[curCandidate];
+
+						curExtensionOccurrences = extensionToOccurrences.get(curExtension);
+
+						if (curExtensionOccurrences == null)
+						{
+							this.reserveMemory(EXTENSION_ENTRY_BYTES + 4L * IntList.INITIAL_CAPACITY);
+
+							extensionMapBytes += EXTENSION_ENTRY_BYTES + 4L * IntList.INITIAL_CAPACITY;
+
+							curExtensionOccurrences = new IntList();
+
+							extensionToOccurrences.put(curExtension, curExtensionOccurrences);
+						}
+						else if (curExtensionOccurrences.isFull())
+						{
+							// The list is about to double
+							this.reserveMemory(4L * curExtensionOccurrences.capacity());
+
+							extensionMapBytes += 4L * curExtensionOccurrences.capacity();
+						}
+
+						curExtensionOccurrences.add(curCandidate);
+
+						curCandidate = this.nodeNextSiblings[curCandidate];
+					}
+				}
+			}
+
+			for (Map.Entry<Long, IntList> curEntry : extensionToOccurrences.entrySet())
+			{
+				curOccurrenceArray = curEntry.getValue().toSortedDistinctArray();
+
+				curSupport = this.support(curOccurrenceArray);
+
+				if (curSupport < this.minSupport)
+				{
+					continue;
+				}
+
+				this.reserveMemory(4L * curOccurrenceArray.length);
+
+				frequentExtensions.add(new Extension(
+					(int)(curEntry.getKey() >>> 32), (int)curEntry.getKey().longValue(), curOccurrenceArray, curSupport));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			for (Extension curFrequentExtension : frequentExtensions)
+			{
+				this.releaseMemory(4L * curFrequentExtension.occurrences.length);
+			}
+
+			throw e;
+		}
+		finally
+		{
+			this.releaseMemory(extensionMapBytes);
+		}
+
+		return frequentExtensions;
+	}
+
+	/**
+	 * @return The total weight of the distinct trees of the (sorted) occurrences
+	 */
+	private long support(int[] occurrences)
+	{
+		long support = 0;
+
+		int prevTree = -1;
+
+		for (int curOccurrence : occurrences)
+		{
+			if (this.nodeTrees[curOccurrence] != prevTree)
+			{
+				prevTree = this.nodeTrees[curOccurrence];
+
+				support += this.treeWeights[prevTree];
+			}
+		}
+
+		return support;
+	}
+
+	private void reserveMemory(long numBytes)
+	{
+		long bytesInUse = this.memoryInUse.addAndGet(numBytes);
+
+		if (bytesInUse > this.memoryBudget)
+		{
+			this.memoryInUse.addAndGet(-numBytes);
+
+			throw new IllegalStateException(
+				"Frequent subtree mining exceeded its memory budget of " + this.memoryBudget +
+				" bytes; raise the minimum support or lower the maximum pattern size");
+		}
+	}
+
+	private void releaseMemory(long numBytes)
+	{
+		this.memoryInUse.addAndGet(-numBytes);
+	}
+
+	private int newNode(int constituentTypeId, int parent, int treeId)
+	{
+		if (this.numNodes == this.nodeConstituentTypeIds.length)
+		{
+			int newCapacity = this.numNodes * 2;
+
+			this.nodeConstituentTypeIds = Arrays.copyOf(this.nodeConstituentTypeIds, newCapacity);
+			this.nodeFirstChildren = Arrays.copyOf(this.nodeFirstChildren, newCapacity);
+			this.nodeNextSiblings = Arrays.copyOf(this.nodeNextSiblings, newCapacity);
+			this.nodeParents = Arrays.copyOf(this.nodeParents, newCapacity);
+			this.nodeTrees = Arrays.copyOf(this.nodeTrees, newCapacity);
+		}
+
+		int nodeIndex = this.numNodes;
+
+		this.nodeConstituentTypeIds[nodeIndex] = constituentTypeId;
+		this.nodeFirstChildren[nodeIndex] = -1;
+		this.nodeNextSiblings[nodeIndex] = -1;
+		this.nodeParents[nodeIndex] = parent;
+		this.nodeTrees[nodeIndex] = treeId;
+
+		this.numNodes++;
+
+		return nodeIndex;
+	}
+
+	/*
+	 * A frequent rightmost extension of a pattern:  where the new node attaches, its type, and its occurrences
+	 */
+	private static class Extension
+	{
+		private int attachmentDepth;
+
+		private int constituentTypeId;
+
+		private int[] occurrences;
+
+		private long support;
+
+		private Extension(int attachmentDepth, int constituentTypeId, int[] occurrences, long support)
+		{
+			this.attachmentDepth = attachmentDepth;
+			this.constituentTypeId = constituentTypeId;
+			this.occurrences = occurrences;
+			this.support = support;
+		}
+	}
+
+	/*
+	 * A growable list of primitive ints
+	 */
+	private static class IntList
+	{
+		private static final int INITIAL_CAPACITY = 8;
+
+		private int[] values = new int[INITIAL_CAPACITY];
+
+		private int size = 0;
+
+		void add(int value)
+		{
+			if (this.size == this.values.length)
+			{
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+
+			this.values[this.size] = value;
+
+			this.size++;
+		}
+
+		boolean isFull()
+		{
+			return this.size == this.values.length;
+		}
+
+		int capacity()
+		{
+			return this.values.length;
+		}
+
+		int[] toArray()
+		{
+			return Arrays.copyOf(this.values, this.size);
+		}
+
+		int[] toSortedDistinctArray()
+		{
+			int[] sortedValues = this.toArray();
+
+			Arrays.sort(sortedValues);
+
+			int numDistinct = 0;
+
+			for (int i = 0 ; i < sortedValues.length ; i++)
+			{
+				if ((i == 0) || (sortedValues[i] != sortedValues[i-1]))
+				{
+					sortedValues[numDistinct] = sortedValues[i];
+
+					numDistinct++;
+				}
+			}
+
+			return Arrays.copyOf(sortedValues, numDistinct);
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+
+/**
+ * Keeps corpus-wide statistics up to date as the constituent files in a directory change, without re-parsing
+ * the whole corpus.  The statistics of every file are kept along with the file's size, modification time and
+ * content hash; update() re-parses only the files that were added or changed, and adds and subtracts the
+ * per-file statistics to and from the corpus-wide statistics.
+ *
+ * A file whose size and modification time have not changed is assumed not to have changed, so an update
+ * that finds nothing to do only costs a directory listing.  A file whose modification time changed but
+ * whose content hash did not (e.g. after a touch) is not re-parsed.
+ *
+ * Not thread-safe.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class IncrementalConstituentCounter
+{
+	/*
+	 * What is known about one constituent file, as of the last update
+	 */
+	private static class FileRecord
+	{
+		private long size;
+
+		private long lastModified;
+
+		private long contentHash;
+
+		// The file's contribution to the corpus-wide statistics
+		private WSJConstituentCounterStatistics statistics;
+	}
+
+	private File baseDirectory;
+
+	private String filePatternRegex;
+
+	// Path -> record, in path order
+	private Map<String, FileRecord> fileRecords = new TreeMap<String, FileRecord>();
+
+	private WSJConstituentCounterStatistics statistics = new WSJConstituentCounterStatistics();
+
+	public IncrementalConstituentCounter(File baseDirectory, String filePatternRegex)
+	{
+		this.baseDirectory = baseDirectory;
+		this.filePatternRegex = filePatternRegex;
+	}
+
+	/**
+	 * Bring the statistics up to date with the constituent files currently in the directory.  The first update
+	 * parses every file.  A file that cannot be read is recorded as an ingestion error (see IngestionMetrics)
+	 * and keeps its previous contribution, if it had one, until an update manages to read it; the other files,
+	 * and the files that are gone, are still brought up to date
+	 *
+	 * @return The number of files that were added, changed or removed since the last update
+	 * @throws IOException If the directory cannot be listed
+	 */
+	public int update() throws IOException
+	{
+		File[] filesInBaseDirectory = this.baseDirectory.listFiles();
+
+		if (filesInBaseDirectory == null)
+		{
+			throw new IOException("Not a readable directory: " + this.baseDirectory);
+		}
+
+		Set<String> currentPaths = new HashSet<String>();
+
+		int numChangedFiles = 0;
+
+		FileRecord curRecord;
+
+		long curSize;
+
+		long curLastModified;
+
+		long curContentHash;
+
+		WSJConstituentCounterStatistics curFileStatistics;
+
+		for (File curFile : filesInBaseDirectory)
+		{
+			if (!WSJConstituentCounter.isConstituentFile(curFile, this.filePatternRegex))
+			{
+				continue;
+			}
+
+			currentPaths.add(curFile.getPath());
+
+			curRecord = this.fileRecords.get(curFile.getPath());
+
+			curSize = curFile.length();
+			curLastModified = curFile.lastModified();
+
+			if ((curRecord != null) && (curRecord.size == curSize) && (curRecord.lastModified == curLastModified))
+			{
+				continue;
+			}
+
+			try
+			{
+				curContentHash = IncrementalConstituentCounter.hashFile(curFile);
+			}
+			catch (IOException e)
+			{
+				// Tried again on the next update, since the record is left as it was
+				IngestionMetrics.recordError(curFile, -1, e);
+
+				continue;
+			}
+
+			if ((curRecord != null) && (curRecord.size == curSize) && (curRecord.contentHash == curContentHash))
+			{
+				curRecord.lastModified = curLastModified;
+
+				continue;
+			}
+
+			// The file is new or has changed, so replace its contribution (parsing it first, so that a file that
+			// cannot be read leaves the statistics as they were)
+			curFileStatistics = IncrementalConstituentCounter.countFile(curFile);
+
+			if (curFileStatistics == null)
+			{
+				continue;
+			}
+
+			if (curRecord == null)
+			{
+				curRecord = new FileRecord();
+
+				this.fileRecords.put(curFile.getPath(), curRecord);
+			}
+			else
+			{
+				this.statistics.subtract(curRecord.statistics);
+			}
+
+			curRecord.size = curSize;
+			curRecord.lastModified = curLastModified;
+			curRecord.contentHash = curContentHash;
+			curRecord.statistics = curFileStatistics;
+
+			this.statistics.merge(curRecord.statistics);
+
+			numChangedFiles++;
+		}
+
+		// Remove the contributions of the files that are gone
+		Iterator<Map.Entry<String, FileRecord>> recordIterator = this.fileRecords.entrySet().iterator();
+
+		Map.Entry<String, FileRecord> curEntry;
+
+		while (recordIterator.hasNext())
+		{
+			curEntry = recordIterator.next();
+
+			if (!currentPaths.contains(curEntry.getKey()))
+			{
+				this.statistics.subtract(curEntry.getValue().statistics);
+
+				recordIterator.remove();
+
+				numChangedFiles++;
+			}
+		}
+
+		return numChangedFiles;
+	}
+
+	/**
+	 * @return The corpus-wide statistics as of the last update (updated in place by later updates)
+	 */
+	public WSJConstituentCounterStatistics getStatistics()
+	{
+		return this.statistics;
+	}
+
+	/**
+	 * @return The statistics of a single file as of the last update, or null if it was not counted
+	 */
+	public WSJConstituentCounterStatistics getFileStatistics(File constituentFile)
+	{
+		FileRecord record = this.fileRecords.get(constituentFile.getPath());
+
+		return (record == null) ? null : record.statistics;
+	}
+
+	public int numFiles()
+	{
+		return this.fileRecords.size();
+	}
+
+	/**
+	 * @return The statistics of the file, or null if it could not be read (which is recorded as an ingestion
+	 *         error, see IngestionMetrics)
+	 */
+	private static WSJConstituentCounterStatistics countFile(File constituentFile)
+	{
+		WSJConstituentCounterStatistics fileStatistics = new WSJConstituentCounterStatistics();
+
+		ConstituentStructureReader reader = null;
+
+		try
+		{
+			reader = WSJConstituentCounter.readConstituentStructureFile(constituentFile, fileStatistics);
+
+			// Only the statistics are kept
+			while (reader.hasNext())
+			{
+				reader.next();
+			}
+
+			return fileStatistics;
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			IngestionMetrics.recordError(constituentFile, (reader == null) ? -1 : reader.getOffset(), e);
+
+			return null;
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+					// Nothing is lost by failing to close it
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The 64-bit FNV-1a hash of the contents of the file
+	 */
+	private static long hashFile(File file) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+
+			long hash = 0xcbf29ce484222325L;
+
+			MappedByteBuffer curRegion;
+
+			// Map the file a region at a time, so that files over 2GB can be hashed
+			for (long curRegionStart = 0 ; curRegionStart < channel.size() ; curRegionStart += Integer.MAX_VALUE)
+			{
+				curRegion = channel.map(
+					FileChannel.MapMode.READ_ONLY, curRegionStart, Math.min(Integer.MAX_VALUE, channel.size() - curRegionStart));
+
+				while (curRegion.hasRemaining())
+				{
+					hash ^= curRegion.get() & 0xFF;
+					hash *= 0x100000001b3L;
+				}
+			}
+
+			return hash;
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+}
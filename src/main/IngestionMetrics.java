@@ -0,0 +1,647 @@
+package main;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import utilities.LatencyHistogram;
+
+/**
+ * Instrumentation of corpus ingestion:  the number of bytes, files, sentences, constituents and words read
+ * (and the rate at which they were read), the time every sentence spent in each phase of parsing, and the
+ * files that could not be read.  Errors are never logged here; applications that want them logged whether or
+ * not instrumentation is enabled set an error listener (see setErrorListener).
+ *
+ * Instrumentation is off by default.  enable() starts it (and registers it with the platform MBean server
+ * as METRICS_OBJECT_NAME, so it can be watched with jconsole or any other JMX client), snapshot() reads it
+ * programmatically, and disable() stops it.  It can also be enabled at startup with -Dingestion.metrics=true.
+ *
+ * Each ConstituentStructureReader looks up the current metrics once, when it is created, and only records
+ * into them if they were enabled at that point.  So while instrumentation is disabled, parsing costs one
+ * null check per token more than it did without it; while it is enabled, it costs a clock read per phase
+ * change.
+ *
+ * The phases of a sentence are
+ *
+ *    read      - Reading characters from the underlying file (including page faults on mapped files)
+ *    tokenize  - Scanning the characters into constituent types and words
+ *    treeBuild - Looking up labels and creating and linking the nodes of the tree
+ *    count     - Counting the constituents, words and skeleton into the statistics (if any)
+ *
+ * @author hlil_administrator
+ *
+ */
+public class IngestionMetrics implements IngestionMetricsMXBean
+{
+	public static final String METRICS_OBJECT_NAME = "main:type=IngestionMetrics";
+
+	public static final String ENABLE_PROPERTY = "ingestion.metrics";
+
+	// The number of most recent errors that are kept (all errors are counted)
+	private static final int MAX_RECENT_ERRORS = 100;
+
+	// The metrics being recorded into, or null if instrumentation is disabled
+	private static volatile IngestionMetrics current;
+
+	// Is told about every error, or null for the default (PRINT_ERRORS)
+	private static volatile IngestionErrorListener errorListener;
+
+	/**
+	 * Writes every error to standard error (the default listener)
+	 */
+	public static final IngestionErrorListener PRINT_ERRORS = new IngestionErrorListener()
+	{
+		@Override
+		public void errorRecorded(IngestionError error)
+		{
+			System.err.println("Could not read constituent file " + error);
+		}
+	};
+
+	static
+	{
+		if (Boolean.getBoolean(IngestionMetrics.ENABLE_PROPERTY))
+		{
+			IngestionMetrics.enable();
+		}
+	}
+
+	/**
+	 * A summary of the per-sentence latencies of one phase (a JMX composite value)
+	 */
+	public static class PhaseLatency
+	{
+		private final long count;
+
+		private final double meanNanos;
+
+		private final long p50Nanos;
+
+		private final long p99Nanos;
+
+		private final long maxNanos;
+
+		PhaseLatency(LatencyHistogram.Snapshot histogram)
+		{
+			this.count = histogram.getCount();
+			this.meanNanos = histogram.getMeanNanos();
+			this.p50Nanos = histogram.getPercentileNanos(0.5);
+			this.p99Nanos = histogram.getPercentileNanos(0.99);
+			this.maxNanos = histogram.getMaxNanos();
+		}
+
+		public long getCount()
+		{
+			return this.count;
+		}
+
+		public double getMeanNanos()
+		{
+			return this.meanNanos;
+		}
+
+		public long getP50Nanos()
+		{
+			return this.p50Nanos;
+		}
+
+		public long getP99Nanos()
+		{
+			return this.p99Nanos;
+		}
+
+		public long getMaxNanos()
+		{
+			return this.maxNanos;
+		}
+	}
+
+	/**
+	 * A file that could not be read, and how far into it the reading got
+	 */
+	public static class IngestionError
+	{
+		private final String filePath;
+
+		private final long offset;
+
+		private final Throwable cause;
+
+		IngestionError(String filePath, long offset, Throwable cause)
+		{
+			this.filePath = filePath;
+			this.offset = offset;
+			this.cause = cause;
+		}
+
+		public String getFilePath()
+		{
+			return this.filePath;
+		}
+
+		/**
+		 * @return The number of characters of the file that had been read when the error occurred, or -1 if the
+		 *         file could not be opened
+		 */
+		public long getOffset()
+		{
+			return this.offset;
+		}
+
+		public Throwable getCause()
+		{
+			return this.cause;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.filePath + "@" + this.offset + ": " + this.cause;
+		}
+	}
+
+	/**
+	 * Is told about every file that could not be read (see setErrorListener)
+	 */
+	public interface IngestionErrorListener
+	{
+		/**
+		 * Called on the thread that was reading the file
+		 */
+		public void errorRecorded(IngestionError error);
+	}
+
+	/**
+	 * An immutable copy of the metrics at one point in time
+	 */
+	public static class Snapshot
+	{
+		private final long elapsedNanos;
+
+		private final long bytesRead;
+
+		private final long filesRead;
+
+		private final long sentencesRead;
+
+		private final long constituentsRead;
+
+		private final long wordsRead;
+
+		private final long errorCount;
+
+		private final LatencyHistogram.Snapshot readLatency;
+
+		private final LatencyHistogram.Snapshot tokenizeLatency;
+
+		private final LatencyHistogram.Snapshot treeBuildLatency;
+
+		private final LatencyHistogram.Snapshot countLatency;
+
+		private final List<IngestionError> recentErrors;
+
+		private Snapshot(IngestionMetrics metrics)
+		{
+			this.elapsedNanos = System.nanoTime() - metrics.startNanos;
+			this.bytesRead = metrics.bytesRead.sum();
+			this.filesRead = metrics.filesRead.sum();
+			this.sentencesRead = metrics.sentencesRead.sum();
+			this.constituentsRead = metrics.constituentsRead.sum();
+			this.wordsRead = metrics.wordsRead.sum();
+			this.errorCount = metrics.errorCount.sum();
+			this.readLatency = metrics.readLatency.snapshot();
+			this.tokenizeLatency = metrics.tokenizeLatency.snapshot();
+			this.treeBuildLatency = metrics.treeBuildLatency.snapshot();
+			this.countLatency = metrics.countLatency.snapshot();
+
+			synchronized (metrics.recentErrors)
+			{
+				this.recentErrors = new ArrayList<IngestionError>(metrics.recentErrors);
+			}
+		}
+
+		public double getElapsedSeconds()
+		{
+			return this.elapsedNanos / (double)TimeUnit.SECONDS.toNanos(1);
+		}
+
+		public long getBytesRead()
+		{
+			return this.bytesRead;
+		}
+
+		public long getFilesRead()
+		{
+			return this.filesRead;
+		}
+
+		public long getSentencesRead()
+		{
+			return this.sentencesRead;
+		}
+
+		public long getConstituentsRead()
+		{
+			return this.constituentsRead;
+		}
+
+		public long getWordsRead()
+		{
+			return this.wordsRead;
+		}
+
+		public long getErrorCount()
+		{
+			return this.errorCount;
+		}
+
+		/**
+		 * @return The given count divided by the time since the metrics were enabled or last reset
+		 */
+		public double perSecond(long count)
+		{
+			return (this.elapsedNanos <= 0) ? 0 : count / this.getElapsedSeconds();
+		}
+
+		public LatencyHistogram.Snapshot getReadLatency()
+		{
+			return this.readLatency;
+		}
+
+		public LatencyHistogram.Snapshot getTokenizeLatency()
+		{
+			return this.tokenizeLatency;
+		}
+
+		public LatencyHistogram.Snapshot getTreeBuildLatency()
+		{
+			return this.treeBuildLatency;
+		}
+
+		public LatencyHistogram.Snapshot getCountLatency()
+		{
+			return this.countLatency;
+		}
+
+		/**
+		 * @return The most recent errors, oldest first
+		 */
+		public List<IngestionError> getRecentErrors()
+		{
+			return this.recentErrors;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder result = new StringBuilder();
+
+			result.append(String.format("elapsed: %.3fs%n", this.getElapsedSeconds()));
+			result.append(String.format("bytes: %d (%.0f/s)%n", this.bytesRead, this.perSecond(this.bytesRead)));
+			result.append(String.format("files: %d (%.1f/s)%n", this.filesRead, this.perSecond(this.filesRead)));
+			result.append(String.format("sentences: %d (%.0f/s)%n", this.sentencesRead, this.perSecond(this.sentencesRead)));
+			result.append(String.format(
+				"constituents: %d (%.0f/s)%n", this.constituentsRead, this.perSecond(this.constituentsRead)));
+			result.append(String.format("words: %d (%.0f/s)%n", this.wordsRead, this.perSecond(this.wordsRead)));
+			result.append("read: ").append(this.readLatency).append('\n');
+			result.append("tokenize: ").append(this.tokenizeLatency).append('\n');
+			result.append("treeBuild: ").append(this.treeBuildLatency).append('\n');
+			result.append("count: ").append(this.countLatency).append('\n');
+			result.append("errors: ").append(this.errorCount).append('\n');
+
+			for (IngestionError curError : this.recentErrors)
+			{
+				result.append("  ").append(curError).append('\n');
+			}
+
+			return result.toString();
+		}
+	}
+
+	private volatile long startNanos = System.nanoTime();
+
+	private final LongAdder bytesRead = new LongAdder();
+
+	private final LongAdder filesRead = new LongAdder();
+
+	private final LongAdder sentencesRead = new LongAdder();
+
+	private final LongAdder constituentsRead = new LongAdder();
+
+	private final LongAdder wordsRead = new LongAdder();
+
+	private final LongAdder errorCount = new LongAdder();
+
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+
+	private final LatencyHistogram tokenizeLatency = new LatencyHistogram();
+
+	private final LatencyHistogram treeBuildLatency = new LatencyHistogram();
+
+	private final LatencyHistogram countLatency = new LatencyHistogram();
+
+	// Guarded by itself
+	private final Deque<IngestionError> recentErrors = new ArrayDeque<IngestionError>();
+
+	private IngestionMetrics()
+	{
+
+	}
+
+	/**
+	 * Start recording (if not already recording) and register the metrics with the platform MBean server
+	 *
+	 * @return The metrics being recorded into
+	 */
+	public static synchronized IngestionMetrics enable()
+	{
+		if (IngestionMetrics.current == null)
+		{
+			IngestionMetrics metrics = new IngestionMetrics();
+
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+			try
+			{
+				ObjectName objectName = new ObjectName(IngestionMetrics.METRICS_OBJECT_NAME);
+
+				if (mBeanServer.isRegistered(objectName))
+				{
+					mBeanServer.unregisterMBean(objectName);
+				}
+
+				mBeanServer.registerMBean(metrics, objectName);
+			}
+			catch (JMException e)
+			{
+				throw new IllegalStateException("Could not register the ingestion metrics MBean", e);
+			}
+
+			IngestionMetrics.current = metrics;
+		}
+
+		return IngestionMetrics.current;
+	}
+
+	/**
+	 * Stop recording and unregister the metrics from the platform MBean server.  Readers created while the
+	 * metrics were enabled keep recording into them until they are done
+	 */
+	public static synchronized void disable()
+	{
+		if (IngestionMetrics.current == null)
+		{
+			return;
+		}
+
+		IngestionMetrics.current = null;
+
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(IngestionMetrics.METRICS_OBJECT_NAME));
+		}
+		catch (JMException e)
+		{
+			// Already unregistered (e.g. through JMX)
+		}
+	}
+
+	/**
+	 * @return The metrics being recorded into, or null if instrumentation is disabled
+	 */
+	public static IngestionMetrics get()
+	{
+		return IngestionMetrics.current;
+	}
+
+	/**
+	 * Set the listener that every ingestion error is passed to (whether or not instrumentation is enabled), so
+	 * that applications can log errors however they see fit.  Until one is set, errors are written to standard
+	 * error (PRINT_ERRORS), so that a file that could not be read is never skipped without a trace
+	 *
+	 * @param listener The listener, or null to go back to PRINT_ERRORS
+	 */
+	public static void setErrorListener(IngestionErrorListener listener)
+	{
+		IngestionMetrics.errorListener = listener;
+	}
+
+	/**
+	 * Record a file that could not be read, into the metrics if instrumentation is enabled, and pass it to the
+	 * error listener (see setErrorListener)
+	 *
+	 * @param offset The number of characters of the file that had been read, or -1 if it could not be opened
+	 */
+	public static void recordError(File file, long offset, Throwable cause)
+	{
+		IngestionError error = new IngestionError(file.getPath(), offset, cause);
+
+		IngestionErrorListener listener = IngestionMetrics.errorListener;
+
+		((listener == null) ? IngestionMetrics.PRINT_ERRORS : listener).errorRecorded(error);
+
+		IngestionMetrics metrics = IngestionMetrics.current;
+
+		if (metrics == null)
+		{
+			return;
+		}
+
+		metrics.errorCount.increment();
+
+		synchronized (metrics.recentErrors)
+		{
+			if (metrics.recentErrors.size() == IngestionMetrics.MAX_RECENT_ERRORS)
+			{
+				metrics.recentErrors.removeFirst();
+			}
+
+			metrics.recentErrors.addLast(error);
+		}
+	}
+
+	void recordFile(long numBytes)
+	{
+		this.filesRead.increment();
+		this.bytesRead.add(numBytes);
+	}
+
+	/**
+	 * Record one parsed sentence and the time it spent in each phase
+	 */
+	void recordSentence(
+		int numConstituents, int numWords, long readNanos, long tokenizeNanos, long treeBuildNanos, long countNanos)
+	{
+		this.sentencesRead.increment();
+		this.constituentsRead.add(numConstituents);
+		this.wordsRead.add(numWords);
+
+		this.readLatency.record(readNanos);
+		this.tokenizeLatency.record(tokenizeNanos);
+		this.treeBuildLatency.record(treeBuildNanos);
+		this.countLatency.record(countNanos);
+	}
+
+	public Snapshot snapshot()
+	{
+		return new Snapshot(this);
+	}
+
+	/*
+	 * IngestionMetricsMXBean Implementation
+	 */
+
+	@Override
+	public long getBytesRead()
+	{
+		return this.bytesRead.sum();
+	}
+
+	@Override
+	public long getFilesRead()
+	{
+		return this.filesRead.sum();
+	}
+
+	@Override
+	public long getSentencesRead()
+	{
+		return this.sentencesRead.sum();
+	}
+
+	@Override
+	public long getConstituentsRead()
+	{
+		return this.constituentsRead.sum();
+	}
+
+	@Override
+	public long getWordsRead()
+	{
+		return this.wordsRead.sum();
+	}
+
+	@Override
+	public long getErrorCount()
+	{
+		return this.errorCount.sum();
+	}
+
+	@Override
+	public double getElapsedSeconds()
+	{
+		return (System.nanoTime() - this.startNanos) / (double)TimeUnit.SECONDS.toNanos(1);
+	}
+
+	@Override
+	public double getBytesPerSecond()
+	{
+		return this.perSecond(this.getBytesRead());
+	}
+
+	@Override
+	public double getFilesPerSecond()
+	{
+		return this.perSecond(this.getFilesRead());
+	}
+
+	@Override
+	public double getSentencesPerSecond()
+	{
+		return this.perSecond(this.getSentencesRead());
+	}
+
+	@Override
+	public double getConstituentsPerSecond()
+	{
+		return this.perSecond(this.getConstituentsRead());
+	}
+
+	@Override
+	public double getWordsPerSecond()
+	{
+		return this.perSecond(this.getWordsRead());
+	}
+
+	@Override
+	public PhaseLatency getReadLatency()
+	{
+		return new PhaseLatency(this.readLatency.snapshot());
+	}
+
+	@Override
+	public PhaseLatency getTokenizeLatency()
+	{
+		return new PhaseLatency(this.tokenizeLatency.snapshot());
+	}
+
+	@Override
+	public PhaseLatency getTreeBuildLatency()
+	{
+		return new PhaseLatency(this.treeBuildLatency.snapshot());
+	}
+
+	@Override
+	public PhaseLatency getCountLatency()
+	{
+		return new PhaseLatency(this.countLatency.snapshot());
+	}
+
+	@Override
+	public List<String> getRecentErrors()
+	{
+		List<String> recentErrorStrings = new ArrayList<String>();
+
+		synchronized (this.recentErrors)
+		{
+			for (IngestionError curError : this.recentErrors)
+			{
+				recentErrorStrings.add(curError.toString());
+			}
+		}
+
+		return recentErrorStrings;
+	}
+
+	/**
+	 * Zero every count and histogram and restart the clock the rates are computed over
+	 */
+	@Override
+	public void reset()
+	{
+		this.bytesRead.reset();
+		this.filesRead.reset();
+		this.sentencesRead.reset();
+		this.constituentsRead.reset();
+		this.wordsRead.reset();
+		this.errorCount.reset();
+
+		this.readLatency.reset();
+		this.tokenizeLatency.reset();
+		this.treeBuildLatency.reset();
+		this.countLatency.reset();
+
+		synchronized (this.recentErrors)
+		{
+			this.recentErrors.clear();
+		}
+
+		this.startNanos = System.nanoTime();
+	}
+
+	private double perSecond(long count)
+	{
+		double elapsedSeconds = this.getElapsedSeconds();
+
+		return (elapsedSeconds <= 0) ? 0 : count / elapsedSeconds;
+	}
+}
@@ -0,0 +1,53 @@
+package main;
+
+import java.util.List;
+
+import main.IngestionMetrics.PhaseLatency;
+
+/**
+ * The attributes and operations of the ingestion metrics that are visible over JMX (see IngestionMetrics)
+ *
+ * @author hlil_administrator
+ *
+ */
+public interface IngestionMetricsMXBean
+{
+	public long getBytesRead();
+
+	public long getFilesRead();
+
+	public long getSentencesRead();
+
+	public long getConstituentsRead();
+
+	public long getWordsRead();
+
+	public long getErrorCount();
+
+	public double getElapsedSeconds();
+
+	public double getBytesPerSecond();
+
+	public double getFilesPerSecond();
+
+	public double getSentencesPerSecond();
+
+	public double getConstituentsPerSecond();
+
+	public double getWordsPerSecond();
+
+	public PhaseLatency getReadLatency();
+
+	public PhaseLatency getTokenizeLatency();
+
+	public PhaseLatency getTreeBuildLatency();
+
+	public PhaseLatency getCountLatency();
+
+	/**
+	 * @return The most recent errors, oldest first, as "file@offset: exception"
+	 */
+	public List<String> getRecentErrors();
+
+	public void reset();
+}
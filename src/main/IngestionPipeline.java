@@ -0,0 +1,831 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+import main.WSJConstituentCounter.WSJConstituentCounterStructures;
+import utilities.CharSequenceReader;
+
+/**
+ * Ingests constituent files as a pipeline of stages connected by bounded queues, so that reading files from
+ * disk overlaps with parsing them:
+ *
+ *    read      - One thread maps each file and reads it in (see WSJConstituentCounter.mapConstituentStructureFile),
+ *                decompressing it if it is gzip-compressed
+ *    split     - One thread splits each file into batches of whole sentences, by matching top-level brackets
+ *    parse     - A pool of threads parses each batch (with parseContituentsFromString), each thread counting
+ *                into its own statistics
+ *    aggregate - One thread puts the parsed batches back into file order, and at the end merges the statistics
+ *                of the parser threads into the given statistics
+ *
+ * Every queue is bounded, so a stage that gets ahead blocks until the stage after it catches up (backpressure):
+ * a slow disk leaves the parsers waiting for input, and slow parsers leave the reader waiting for room.  The
+ * number of batches between the splitter and the aggregator is bounded as well, so the batches waiting to be
+ * put back in order never take more than a fixed amount of memory.
+ *
+ * getStageMetrics() shows, for every stage, how much it has processed, how busy its threads were, how long they
+ * waited for input and for room in the next queue, and how full its input queue is.  It can be called while the
+ * pipeline is running.  The bottleneck is the stage whose threads are busiest; the stages before it wait for
+ * output and the stages after it wait for input.
+ *
+ * The statistics are the same as those of WSJConstituentCounter.parseConstituentStructureFiles (the heavy hitter
+ * error bounds can differ, since the statistics are merged in a different grouping).  A file that cannot be read
+ * is skipped, and a batch that cannot be parsed is skipped from where the error occurred; both are recorded as
+ * ingestion errors (see IngestionMetrics).
+ *
+ * @author hlil_administrator
+ *
+ */
+public class IngestionPipeline
+{
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	// Marks the end of the input of a stage
+	private static final FileContents END_OF_FILES = new FileContents(null, null);
+
+	private static final Batch END_OF_BATCHES = new Batch(-1, null, 0, null, 0);
+
+	private List<File> files;
+
+	// The statistics to count into (may be null)
+	private WSJConstituentCounterStatistics statistics;
+
+	private int parallelism;
+
+	private int queueCapacity = IngestionPipeline.DEFAULT_QUEUE_CAPACITY;
+
+	// The number of sentences per batch
+	private int batchSize = IngestionPipeline.DEFAULT_BATCH_SIZE;
+
+	private boolean keepStructures = true;
+
+	// The stages of the current (or last) run, in pipeline order
+	private volatile List<Stage> stages = new ArrayList<Stage>();
+
+	private volatile long startNanos;
+
+	// 0 while running
+	private volatile long endNanos;
+
+	/**
+	 * @param parallelism The number of threads to parse with
+	 */
+	public IngestionPipeline(List<File> files, WSJConstituentCounterStatistics statistics, int parallelism)
+	{
+		if (parallelism < 1)
+		{
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+
+		this.files = new ArrayList<File>(files);
+		this.statistics = statistics;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * A pipeline over every constituent file in the base directory, in file name order
+	 */
+	public static IngestionPipeline forCorpusDirectory(
+		File baseDirectory, String filePatternRegex, WSJConstituentCounterStatistics statistics, int parallelism)
+	{
+		File[] filesInBaseDirectory = baseDirectory.listFiles();
+
+		Arrays.sort(filesInBaseDirectory);
+
+		List<File> constituentFiles = new ArrayList<File>();
+
+		for (File curFile : filesInBaseDirectory)
+		{
+			if (WSJConstituentCounter.isConstituentFile(curFile, filePatternRegex))
+			{
+				constituentFiles.add(curFile);
+			}
+		}
+
+		return new IngestionPipeline(constituentFiles, statistics, parallelism);
+	}
+
+	/**
+	 * @param queueCapacity The number of files or batches each queue holds before the stage feeding it blocks
+	 */
+	public void setQueueCapacity(int queueCapacity)
+	{
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param batchSize The number of sentences the parser threads are handed at a time
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param keepStructures Whether run() returns the parsed sentences (true by default); if not, the sentences
+	 *                       are only counted, and are dropped as soon as they have been
+	 */
+	public void setKeepStructures(boolean keepStructures)
+	{
+		this.keepStructures = keepStructures;
+	}
+
+	/**
+	 * Run every file through the pipeline, and wait for it to finish
+	 *
+	 * @return The parsed sentences (and their skeletons) in file order, or empty structures if they are not
+	 *         kept
+	 * @throws IllegalStateException If the thread is interrupted while waiting for the stages (the interrupt
+	 *         flag is left set), rather than returning the structures parsed so far
+	 */
+	public WSJConstituentCounterStructures run()
+	{
+		final BlockingQueue<FileContents> fileQueue = new ArrayBlockingQueue<FileContents>(this.queueCapacity);
+
+		final BlockingQueue<Batch> batchQueue = new ArrayBlockingQueue<Batch>(this.queueCapacity);
+
+		final BlockingQueue<Batch> parsedBatchQueue = new ArrayBlockingQueue<Batch>(this.queueCapacity);
+
+		// Bounds the number of batches between the splitter and the aggregator
+		final Semaphore batchPermits = new Semaphore(2 * this.queueCapacity + this.parallelism);
+
+		final Stage readStage = new Stage("read", "files", 1, null, 0);
+		final Stage splitStage = new Stage("split", "batches", 1, fileQueue, this.queueCapacity);
+		final Stage parseStage = new Stage("parse", "sentences", this.parallelism, batchQueue, this.queueCapacity);
+		final Stage aggregateStage = new Stage("aggregate", "sentences", 1, parsedBatchQueue, this.queueCapacity);
+
+		this.stages = Arrays.asList(readStage, splitStage, parseStage, aggregateStage);
+
+		final List<WSJConstituentCounterStatistics> parserStatistics = new ArrayList<WSJConstituentCounterStatistics>();
+
+		for (int i = 0 ; i < this.parallelism ; i++)
+		{
+			parserStatistics.add((this.statistics == null) ? null : this.statistics.newEmptyCopy());
+		}
+
+		final WSJConstituentCounterStructures allConstituentStructures = new WSJConstituentCounterStructures();
+
+		final AtomicInteger numParsersRunning = new AtomicInteger(this.parallelism);
+
+		this.startNanos = System.nanoTime();
+		this.endNanos = 0;
+
+		ExecutorService stageThreads = Executors.newFixedThreadPool(3 + this.parallelism);
+
+		CompletionService<Void> stageCompletion = new ExecutorCompletionService<Void>(stageThreads);
+
+		try
+		{
+			stageCompletion.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws InterruptedException
+				{
+					IngestionPipeline.this.read(readStage, fileQueue);
+
+					return null;
+				}
+			});
+
+			stageCompletion.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws InterruptedException
+				{
+					IngestionPipeline.this.split(splitStage, fileQueue, batchQueue, batchPermits);
+
+					return null;
+				}
+			});
+
+			for (final WSJConstituentCounterStatistics curParserStatistics : parserStatistics)
+			{
+				stageCompletion.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws InterruptedException
+					{
+						IngestionPipeline.this.parse(
+							parseStage, batchQueue, parsedBatchQueue, curParserStatistics, numParsersRunning);
+
+						return null;
+					}
+				});
+			}
+
+			stageCompletion.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws InterruptedException
+				{
+					IngestionPipeline.this.aggregate(
+						aggregateStage, parsedBatchQueue, batchPermits, parserStatistics, allConstituentStructures);
+
+					return null;
+				}
+			});
+
+			// Wait for every stage thread, and stop them all as soon as any one of them fails
+			for (int i = 0 ; i < 3 + this.parallelism ; i++)
+			{
+				try
+				{
+					stageCompletion.take().get();
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof Error)
+					{
+						throw (Error)e.getCause();
+					}
+
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new IllegalStateException("Interrupted while ingesting constituent files", e);
+		}
+		finally
+		{
+			stageThreads.shutdownNow();
+
+			this.endNanos = System.nanoTime();
+		}
+
+		return allConstituentStructures;
+	}
+
+	/**
+	 * Read every file into the file queue
+	 */
+	private void read(Stage stage, BlockingQueue<FileContents> fileQueue) throws InterruptedException
+	{
+		long curStart;
+
+		long curRead;
+
+		CharSequence curChars;
+
+		for (File curFile : this.files)
+		{
+			curStart = System.nanoTime();
+
+			try
+			{
+				curChars = WSJConstituentCounter.mapConstituentStructureFile(curFile);
+			}
+			catch (IOException e)
+			{
+				// A read that was cancelled (by interrupting its thread) is not an unreadable file
+				if (Thread.currentThread().isInterrupted())
+				{
+					throw new InterruptedException("Interrupted while reading " + curFile);
+				}
+
+				IngestionMetrics.recordError(curFile, -1, e);
+
+				stage.record(0, System.nanoTime() - curStart, 0, 0);
+
+				continue;
+			}
+
+			curRead = System.nanoTime();
+
+			fileQueue.put(new FileContents(curFile, curChars));
+
+			stage.record(0, curRead - curStart, System.nanoTime() - curRead, 1);
+		}
+
+		fileQueue.put(IngestionPipeline.END_OF_FILES);
+	}
+
+	/**
+	 * Split every file into batches of batchSize sentences.  A sentence ends where the bracket that opened it at
+	 * the top level is closed; a sentence that is not closed by the end of the file is given to the parser as is
+	 */
+	private void split(
+		Stage stage, BlockingQueue<FileContents> fileQueue, BlockingQueue<Batch> batchQueue, Semaphore batchPermits)
+		throws InterruptedException
+	{
+		long nextSequenceNumber = 0;
+
+		long curWaitStart;
+
+		long curBusyStart;
+
+		long curOutputWaitStart;
+
+		FileContents curFileContents;
+
+		CharSequence curChars;
+
+		int curLength;
+
+		int curDepth;
+
+		int curBatchStart;
+
+		int curNumSentences;
+
+		char curChar;
+
+		while (true)
+		{
+			curWaitStart = System.nanoTime();
+
+			curFileContents = fileQueue.take();
+
+			curBusyStart = System.nanoTime();
+
+			stage.record(curBusyStart - curWaitStart, 0, 0, 0);
+
+			if (curFileContents == IngestionPipeline.END_OF_FILES)
+			{
+				break;
+			}
+
+			curChars = curFileContents.chars;
+			curLength = curChars.length();
+
+			curDepth = 0;
+			curBatchStart = 0;
+			curNumSentences = 0;
+
+			for (int i = 0 ; i <= curLength ; i++)
+			{
+				if (i < curLength)
+				{
+					curChar = curChars.charAt(i);
+
+					if (curChar == '(')
+					{
+						curDepth++;
+
+						continue;
+					}
+
+					// As in the parser, a closing bracket outside of any sentence is ignored
+					if ((curChar != ')') || (curDepth == 0))
+					{
+						continue;
+					}
+
+					curDepth--;
+
+					if (curDepth > 0)
+					{
+						continue;
+					}
+
+					curNumSentences++;
+
+					if (curNumSentences < this.batchSize)
+					{
+						continue;
+					}
+				}
+				// Whatever is left at the end of the file, including a sentence that was not closed
+				else if (curDepth > 0)
+				{
+					curNumSentences++;
+				}
+				else if (curNumSentences == 0)
+				{
+					break;
+				}
+
+				curOutputWaitStart = System.nanoTime();
+
+				batchPermits.acquire();
+
+				batchQueue.put(new Batch(
+					nextSequenceNumber, curFileContents.file, curBatchStart,
+					curChars.subSequence(curBatchStart, Math.min(i + 1, curLength)), curNumSentences));
+
+				nextSequenceNumber++;
+
+				stage.record(0, curOutputWaitStart - curBusyStart, System.nanoTime() - curOutputWaitStart, 1);
+
+				curBusyStart = System.nanoTime();
+
+				curBatchStart = i + 1;
+				curNumSentences = 0;
+			}
+
+			stage.record(0, System.nanoTime() - curBusyStart, 0, 0);
+		}
+
+		batchQueue.put(IngestionPipeline.END_OF_BATCHES);
+	}
+
+	/**
+	 * Parse batches (counting them into the parser's own statistics) until the end of the batches.  The last
+	 * parser to finish tells the aggregator that there are no more batches
+	 */
+	private void parse(
+		Stage stage, BlockingQueue<Batch> batchQueue, BlockingQueue<Batch> parsedBatchQueue,
+		WSJConstituentCounterStatistics parserStatistics, AtomicInteger numParsersRunning) throws InterruptedException
+	{
+		long curWaitStart;
+
+		long curBusyStart;
+
+		long curOutputWaitStart;
+
+		Batch curBatch;
+
+		ConstituentStructureReader curReader;
+
+		while (true)
+		{
+			curWaitStart = System.nanoTime();
+
+			curBatch = batchQueue.take();
+
+			curBusyStart = System.nanoTime();
+
+			if (curBatch == IngestionPipeline.END_OF_BATCHES)
+			{
+				// Leave the end for the other parsers, or if this is the last one, pass it on to the aggregator
+				if (numParsersRunning.decrementAndGet() > 0)
+				{
+					batchQueue.put(IngestionPipeline.END_OF_BATCHES);
+				}
+				else
+				{
+					parsedBatchQueue.put(IngestionPipeline.END_OF_BATCHES);
+				}
+
+				stage.record(curBusyStart - curWaitStart, 0, 0, 0);
+
+				return;
+			}
+
+			try
+			{
+				if (this.keepStructures)
+				{
+					curBatch.structures = WSJConstituentCounter.parseContituentsFromString(curBatch.chars, parserStatistics);
+				}
+				else
+				{
+					curReader = new ConstituentStructureReader(new CharSequenceReader(curBatch.chars), parserStatistics);
+
+					while (curReader.hasNext())
+					{
+						curReader.next();
+					}
+				}
+			}
+			catch (UncheckedIOException e)
+			{
+				IngestionMetrics.recordError(curBatch.file, curBatch.offset, e);
+			}
+
+			// The aggregator does not need the characters
+			curBatch.chars = null;
+
+			curOutputWaitStart = System.nanoTime();
+
+			parsedBatchQueue.put(curBatch);
+
+			stage.record(
+				curBusyStart - curWaitStart, curOutputWaitStart - curBusyStart, System.nanoTime() - curOutputWaitStart,
+				curBatch.numSentences);
+		}
+	}
+
+	/**
+	 * Collect the parsed batches in the order they were split, and once every batch has been parsed, merge the
+	 * statistics of the parsers into the statistics of the pipeline
+	 */
+	private void aggregate(
+		Stage stage, BlockingQueue<Batch> parsedBatchQueue, Semaphore batchPermits,
+		List<WSJConstituentCounterStatistics> parserStatistics, WSJConstituentCounterStructures allConstituentStructures)
+		throws InterruptedException
+	{
+		// Sequence number -> batches that were parsed before the batches ahead of them
+		Map<Long, Batch> waitingBatches = new HashMap<Long, Batch>();
+
+		long nextSequenceNumber = 0;
+
+		long curWaitStart;
+
+		long curBusyStart;
+
+		long curNumSentences;
+
+		Batch curBatch;
+
+		while (true)
+		{
+			curWaitStart = System.nanoTime();
+
+			curBatch = parsedBatchQueue.take();
+
+			curBusyStart = System.nanoTime();
+
+			if (curBatch == IngestionPipeline.END_OF_BATCHES)
+			{
+				stage.record(curBusyStart - curWaitStart, 0, 0, 0);
+
+				break;
+			}
+
+			waitingBatches.put(curBatch.sequenceNumber, curBatch);
+
+			curNumSentences = 0;
+
+			while ((curBatch = waitingBatches.remove(nextSequenceNumber)) != null)
+			{
+				if (curBatch.structures != null)
+				{
+					allConstituentStructures.merge(curBatch.structures);
+				}
+
+				curNumSentences += curBatch.numSentences;
+
+				nextSequenceNumber++;
+
+				batchPermits.release();
+			}
+
+			stage.record(curBusyStart - curWaitStart, System.nanoTime() - curBusyStart, 0, curNumSentences);
+		}
+
+		curBusyStart = System.nanoTime();
+
+		if (this.statistics != null)
+		{
+			for (WSJConstituentCounterStatistics curParserStatistics : parserStatistics)
+			{
+				this.statistics.merge(curParserStatistics);
+			}
+		}
+
+		stage.record(0, System.nanoTime() - curBusyStart, 0, 0);
+	}
+
+	/**
+	 * @return The metrics of every stage of the current (or last) run, in pipeline order
+	 */
+	public List<StageMetrics> getStageMetrics()
+	{
+		long endNanos = this.endNanos;
+
+		long elapsedNanos = ((endNanos == 0) ? System.nanoTime() : endNanos) - this.startNanos;
+
+		List<StageMetrics> stageMetrics = new ArrayList<StageMetrics>();
+
+		for (Stage curStage : this.stages)
+		{
+			stageMetrics.add(new StageMetrics(curStage, elapsedNanos));
+		}
+
+		return stageMetrics;
+	}
+
+	/**
+	 * @return The metrics of every stage, one stage per line
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder report = new StringBuilder();
+
+		for (StageMetrics curStageMetrics : this.getStageMetrics())
+		{
+			report.append(curStageMetrics).append('\n');
+		}
+
+		return report.toString();
+	}
+
+	/**
+	 * What a stage has done so far, and how full its input queue is (an immutable copy)
+	 */
+	public static class StageMetrics
+	{
+		private final String name;
+
+		private final String unit;
+
+		private final int numThreads;
+
+		private final long numItems;
+
+		private final double elapsedSeconds;
+
+		private final double busyFraction;
+
+		private final double inputWaitFraction;
+
+		private final double outputWaitFraction;
+
+		private final int queueDepth;
+
+		private final int queueCapacity;
+
+		private StageMetrics(Stage stage, long elapsedNanos)
+		{
+			// The total time of all of the threads of the stage
+			double threadNanos = Math.max(1, (double)elapsedNanos * stage.numThreads);
+
+			this.name = stage.name;
+			this.unit = stage.unit;
+			this.numThreads = stage.numThreads;
+			this.numItems = stage.numItems.sum();
+			this.elapsedSeconds = elapsedNanos / 1e9;
+			this.busyFraction = stage.busyNanos.sum() / threadNanos;
+			this.inputWaitFraction = stage.inputWaitNanos.sum() / threadNanos;
+			this.outputWaitFraction = stage.outputWaitNanos.sum() / threadNanos;
+			this.queueDepth = (stage.inputQueue == null) ? 0 : stage.inputQueue.size();
+			this.queueCapacity = stage.inputQueueCapacity;
+		}
+
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return What getNumItems() counts (files, batches or sentences)
+		 */
+		public String getUnit()
+		{
+			return this.unit;
+		}
+
+		public int getNumThreads()
+		{
+			return this.numThreads;
+		}
+
+		public long getNumItems()
+		{
+			return this.numItems;
+		}
+
+		public double getItemsPerSecond()
+		{
+			return (this.elapsedSeconds == 0) ? 0 : this.numItems / this.elapsedSeconds;
+		}
+
+		/**
+		 * @return The fraction of the time of the stage's threads that was spent working
+		 */
+		public double getBusyFraction()
+		{
+			return this.busyFraction;
+		}
+
+		/**
+		 * @return The fraction of the time of the stage's threads that was spent waiting for the stage before
+		 */
+		public double getInputWaitFraction()
+		{
+			return this.inputWaitFraction;
+		}
+
+		/**
+		 * @return The fraction of the time of the stage's threads that was spent waiting for room in the stage after
+		 */
+		public double getOutputWaitFraction()
+		{
+			return this.outputWaitFraction;
+		}
+
+		/**
+		 * @return The number of files or batches waiting in the stage's input queue (0 for the first stage)
+		 */
+		public int getQueueDepth()
+		{
+			return this.queueDepth;
+		}
+
+		public int getQueueCapacity()
+		{
+			return this.queueCapacity;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-9s threads=%d %s=%d (%.0f/s) busy=%.0f%% waitingForInput=%.0f%% waitingForOutput=%.0f%% queue=%d/%d",
+				this.name, this.numThreads, this.unit, this.numItems, this.getItemsPerSecond(),
+				100 * this.busyFraction, 100 * this.inputWaitFraction, 100 * this.outputWaitFraction,
+				this.queueDepth, this.queueCapacity);
+		}
+	}
+
+	/*
+	 * The counters of a stage, shared by its threads
+	 */
+	private static class Stage
+	{
+		private final String name;
+
+		private final String unit;
+
+		private final int numThreads;
+
+		private final BlockingQueue<?> inputQueue;
+
+		private final int inputQueueCapacity;
+
+		private final LongAdder numItems = new LongAdder();
+
+		private final LongAdder busyNanos = new LongAdder();
+
+		private final LongAdder inputWaitNanos = new LongAdder();
+
+		private final LongAdder outputWaitNanos = new LongAdder();
+
+		private Stage(String name, String unit, int numThreads, BlockingQueue<?> inputQueue, int inputQueueCapacity)
+		{
+			this.name = name;
+			this.unit = unit;
+			this.numThreads = numThreads;
+			this.inputQueue = inputQueue;
+			this.inputQueueCapacity = inputQueueCapacity;
+		}
+
+		private void record(long inputWaitNanos, long busyNanos, long outputWaitNanos, long numItems)
+		{
+			this.inputWaitNanos.add(inputWaitNanos);
+			this.busyNanos.add(busyNanos);
+			this.outputWaitNanos.add(outputWaitNanos);
+			this.numItems.add(numItems);
+		}
+	}
+
+	/*
+	 * A file that has been read
+	 */
+	private static class FileContents
+	{
+		private final File file;
+
+		private final CharSequence chars;
+
+		private FileContents(File file, CharSequence chars)
+		{
+			this.file = file;
+			this.chars = chars;
+		}
+	}
+
+	/*
+	 * A run of whole sentences from one file
+	 */
+	private static class Batch
+	{
+		// The position of the batch in the order the batches were split in
+		private final long sequenceNumber;
+
+		private final File file;
+
+		// The offset of the first character of the batch in the file
+		private final long offset;
+
+		private CharSequence chars;
+
+		private final int numSentences;
+
+		// The parsed sentences, if they are kept (null until the batch has been parsed)
+		private WSJConstituentCounterStructures structures;
+
+		private Batch(long sequenceNumber, File file, long offset, CharSequence chars, int numSentences)
+		{
+			this.sequenceNumber = sequenceNumber;
+			this.file = file;
+			this.offset = offset;
+			this.chars = chars;
+			this.numSentences = numSentences;
+		}
+	}
+}
@@ -0,0 +1,726 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PARSEVAL bracket scoring of candidate parses against gold trees, following the conventions of evalb with
+ * the standard COLLINS.prm parameters:
+ *
+ *    0.) Function tags and indices are removed from constituent types (NP-SBJ-1 -> NP), and ADVP and PRT
+ *        are treated as the same type
+ *
+ *    1.) Words tagged -NONE- (empty elements) are removed from both trees before anything is compared, and
+ *        the trees must then have the same words
+ *
+ *    2.) Words whose gold tag is punctuation are not counted in bracket spans, in either tree
+ *
+ *    3.) Preterminals, constituents that cover no counted words, and the outermost ROOT/TOP bracket are not
+ *        scored
+ *
+ * Brackets are packed into long (type, start, end) keys and matched as multisets by sorting, so that each
+ * gold bracket can be matched at most once.  Sentence pairs are scored in parallel, and the scores are
+ * reported to a listener in sentence order as they become available, along with the aggregate scores.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ParsevalEvaluator
+{
+	/*
+	 * Receives the score of each sentence pair, in sentence order
+	 */
+	public interface ParsevalListener
+	{
+		public void sentenceEvaluated(SentenceScore sentenceScore);
+	}
+
+	/*
+	 * The bracket and tag counts of one sentence pair
+	 */
+	public static class SentenceScore
+	{
+		public int sentenceIndex;
+
+		// The number of words after empty elements are removed (for the gold tree)
+		public int length;
+
+		// Why the pair could not be scored (and was left out of the aggregate), or null
+		public String error = null;
+
+		public int numGoldBrackets = 0;
+
+		public int numCandidateBrackets = 0;
+
+		public int numMatchedLabeledBrackets = 0;
+
+		public int numMatchedUnlabeledBrackets = 0;
+
+		// The number of counted (non-punctuation) words, and how many of them the candidate tagged correctly
+		public int numTags = 0;
+
+		public int numCorrectTags = 0;
+
+		public double getLabeledPrecision()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedLabeledBrackets, this.numCandidateBrackets);
+		}
+
+		public double getLabeledRecall()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedLabeledBrackets, this.numGoldBrackets);
+		}
+
+		public double getLabeledF1()
+		{
+			return ParsevalEvaluator.f1(this.getLabeledPrecision(), this.getLabeledRecall());
+		}
+
+		public double getUnlabeledPrecision()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedUnlabeledBrackets, this.numCandidateBrackets);
+		}
+
+		public double getUnlabeledRecall()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedUnlabeledBrackets, this.numGoldBrackets);
+		}
+
+		public double getUnlabeledF1()
+		{
+			return ParsevalEvaluator.f1(this.getUnlabeledPrecision(), this.getUnlabeledRecall());
+		}
+
+		public boolean isLabeledExactMatch()
+		{
+			return (this.error == null)
+				&& (this.numMatchedLabeledBrackets == this.numGoldBrackets)
+				&& (this.numMatchedLabeledBrackets == this.numCandidateBrackets);
+		}
+
+		/**
+		 * @return A line in the layout of evalb's per-sentence output:  ID, length, status, recall, precision,
+		 *         matched brackets, gold brackets, candidate brackets, tags and correct tags
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format("%5d %4d %4d %7.2f %7.2f %5d %5d %5d %5d %5d",
+				this.sentenceIndex + 1, this.length, (this.error == null) ? 0 : 1,
+				100 * this.getLabeledRecall(), 100 * this.getLabeledPrecision(), this.numMatchedLabeledBrackets,
+				this.numGoldBrackets, this.numCandidateBrackets, this.numTags, this.numCorrectTags);
+		}
+	}
+
+	/*
+	 * The bracket and tag counts summed over every sentence pair that could be scored
+	 */
+	public static class ParsevalScore
+	{
+		public int numSentences = 0;
+
+		public int numErrorSentences = 0;
+
+		public int numLabeledExactMatches = 0;
+
+		public long numGoldBrackets = 0;
+
+		public long numCandidateBrackets = 0;
+
+		public long numMatchedLabeledBrackets = 0;
+
+		public long numMatchedUnlabeledBrackets = 0;
+
+		public long numTags = 0;
+
+		public long numCorrectTags = 0;
+
+		public void add(SentenceScore sentenceScore)
+		{
+			this.numSentences++;
+
+			if (sentenceScore.error != null)
+			{
+				this.numErrorSentences++;
+
+				return;
+			}
+
+			if (sentenceScore.isLabeledExactMatch())
+			{
+				this.numLabeledExactMatches++;
+			}
+
+			this.numGoldBrackets += sentenceScore.numGoldBrackets;
+			this.numCandidateBrackets += sentenceScore.numCandidateBrackets;
+			this.numMatchedLabeledBrackets += sentenceScore.numMatchedLabeledBrackets;
+			this.numMatchedUnlabeledBrackets += sentenceScore.numMatchedUnlabeledBrackets;
+			this.numTags += sentenceScore.numTags;
+			this.numCorrectTags += sentenceScore.numCorrectTags;
+		}
+
+		public double getLabeledPrecision()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedLabeledBrackets, this.numCandidateBrackets);
+		}
+
+		public double getLabeledRecall()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedLabeledBrackets, this.numGoldBrackets);
+		}
+
+		public double getLabeledF1()
+		{
+			return ParsevalEvaluator.f1(this.getLabeledPrecision(), this.getLabeledRecall());
+		}
+
+		public double getUnlabeledPrecision()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedUnlabeledBrackets, this.numCandidateBrackets);
+		}
+
+		public double getUnlabeledRecall()
+		{
+			return ParsevalEvaluator.ratio(this.numMatchedUnlabeledBrackets, this.numGoldBrackets);
+		}
+
+		public double getUnlabeledF1()
+		{
+			return ParsevalEvaluator.f1(this.getUnlabeledPrecision(), this.getUnlabeledRecall());
+		}
+
+		public double getTaggingAccuracy()
+		{
+			return ParsevalEvaluator.ratio(this.numCorrectTags, this.numTags);
+		}
+
+		public double getLabeledExactMatchRate()
+		{
+			return ParsevalEvaluator.ratio(this.numLabeledExactMatches, this.numSentences - this.numErrorSentences);
+		}
+
+		/**
+		 * @return A summary in the style of evalb's
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format(
+				"Number of sentence        = %6d%n" +
+				"Number of Error sentence  = %6d%n" +
+				"Bracketing Recall         = %6.2f%n" +
+				"Bracketing Precision      = %6.2f%n" +
+				"Bracketing FMeasure       = %6.2f%n" +
+				"Unlabeled Recall          = %6.2f%n" +
+				"Unlabeled Precision       = %6.2f%n" +
+				"Unlabeled FMeasure        = %6.2f%n" +
+				"Complete match            = %6.2f%n" +
+				"Tagging accuracy          = %6.2f%n",
+				this.numSentences, this.numErrorSentences,
+				100 * this.getLabeledRecall(), 100 * this.getLabeledPrecision(), 100 * this.getLabeledF1(),
+				100 * this.getUnlabeledRecall(), 100 * this.getUnlabeledPrecision(), 100 * this.getUnlabeledF1(),
+				100 * this.getLabeledExactMatchRate(), 100 * this.getTaggingAccuracy());
+		}
+	}
+
+	/*
+	 * A sentence tree reduced to what is scored:  its words and tags, and the (type, start, end) brackets of
+	 * its phrasal constituents, with spans over the words that remain once empty elements are removed
+	 */
+	private static class ScoredSentence
+	{
+		private List<String> words = new ArrayList<String>();
+
+		private List<Integer> tagIds = new ArrayList<Integer>();
+
+		private List<long[]> brackets = new ArrayList<long[]>();
+	}
+
+	// evalb's COLLINS.prm DELETE_LABEL list, plus this project's ROOT
+	public static final Set<String> DEFAULT_DELETED_CONSTITUENT_TYPES = Collections.unmodifiableSet(new HashSet<String>(
+		Arrays.asList("TOP", ConstituentStructureReader.ROOT_CONSTITUENT_TYPE, "-NONE-", ",", ":", "``", "''", ".")));
+
+	// evalb's COLLINS.prm EQ_LABEL list
+	public static final Map<String, String> DEFAULT_EQUIVALENT_CONSTITUENT_TYPES =
+		Collections.unmodifiableMap(Collections.singletonMap("PRT", "ADVP"));
+
+	private static final String EMPTY_ELEMENT_CONSTITUENT_TYPE = "-NONE-";
+
+	// The number of sentence pairs handed to a worker at a time
+	private static final int EVALUATION_CHUNK_SIZE = 256;
+
+	// Bits of a packed bracket key for each of the start and the end
+	private static final int SPAN_BITS = 21;
+
+	private static final long UNLABELED_BRACKET_MASK = (1L << (2 * ParsevalEvaluator.SPAN_BITS)) - 1;
+
+	private Set<String> deletedConstituentTypes;
+
+	private Map<String, String> equivalentConstituentTypes;
+
+	// Constituent type ID -> the ID of its normalized type (see normalize), for the IDs covered so far
+	private volatile int[] normalizedConstituentTypeIds = new int[0];
+
+	public ParsevalEvaluator()
+	{
+		this(ParsevalEvaluator.DEFAULT_DELETED_CONSTITUENT_TYPES, ParsevalEvaluator.DEFAULT_EQUIVALENT_CONSTITUENT_TYPES);
+	}
+
+	/**
+	 * @param deletedConstituentTypes Types (without function tags) that are not scored, and whose words are not
+	 *        counted when they tag a gold word
+	 * @param equivalentConstituentTypes Type -> the type it is scored as
+	 */
+	public ParsevalEvaluator(Set<String> deletedConstituentTypes, Map<String, String> equivalentConstituentTypes)
+	{
+		this.deletedConstituentTypes = new HashSet<String>(deletedConstituentTypes);
+		this.equivalentConstituentTypes = new HashMap<String, String>(equivalentConstituentTypes);
+	}
+
+	/**
+	 * Score the candidate parses in one file against the gold trees in another, sentence by sentence
+	 */
+	public ParsevalScore evaluateFiles(File goldFile, File candidateFile, int parallelism, ParsevalListener listener)
+		throws IOException, InterruptedException
+	{
+		ConstituentStructureReader goldReader = WSJConstituentCounter.readConstituentStructureFile(goldFile, null);
+
+		try
+		{
+			ConstituentStructureReader candidateReader = WSJConstituentCounter.readConstituentStructureFile(candidateFile, null);
+
+			try
+			{
+				return this.evaluate(goldReader, candidateReader, parallelism, listener);
+			}
+			finally
+			{
+				candidateReader.close();
+			}
+		}
+		finally
+		{
+			goldReader.close();
+		}
+	}
+
+	/**
+	 * Score the candidate trees against the gold trees, pairing them up in order.  If one side runs out first,
+	 * each of the remaining sentences is an error sentence
+	 *
+	 * @param listener Receives each sentence's score in order (may be null)
+	 *
+	 * @throws InterruptedException If interrupted before every sentence was scored (no partial score is returned)
+	 */
+	public ParsevalScore evaluate(
+		Iterator<ConstituentStructure> goldTrees, Iterator<ConstituentStructure> candidateTrees,
+		int parallelism, ParsevalListener listener) throws InterruptedException
+	{
+		ParsevalScore score = new ParsevalScore();
+
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+
+		// The chunks being scored, oldest first; at most two per worker are in flight, so the sentences read
+		// ahead of the scores stay bounded
+		ArrayDeque<Future<SentenceScore[]>> scoredChunks = new ArrayDeque<Future<SentenceScore[]>>();
+
+		int numSentences = 0;
+
+		try
+		{
+			while (goldTrees.hasNext() || candidateTrees.hasNext())
+			{
+				final ConstituentStructure[] curGoldChunk = new ConstituentStructure[ParsevalEvaluator.EVALUATION_CHUNK_SIZE];
+				final ConstituentStructure[] curCandidateChunk = new ConstituentStructure[ParsevalEvaluator.EVALUATION_CHUNK_SIZE];
+
+				final int curChunkStart = numSentences;
+
+				int curChunkSize = 0;
+
+				while ((curChunkSize < curGoldChunk.length) && (goldTrees.hasNext() || candidateTrees.hasNext()))
+				{
+					curGoldChunk[curChunkSize] = goldTrees.hasNext() ? goldTrees.next() : null;
+					curCandidateChunk[curChunkSize] = candidateTrees.hasNext() ? candidateTrees.next() : null;
+
+					curChunkSize++;
+				}
+
+				numSentences += curChunkSize;
+
+				final int curChunkSizeFinal = curChunkSize;
+
+				scoredChunks.add(workers.submit(new Callable<SentenceScore[]>()
+				{
+					@Override
+					public SentenceScore[] call()
+					{
+						SentenceScore[] chunkScores = new SentenceScore[curChunkSizeFinal];
+
+						for (int i = 0 ; i < curChunkSizeFinal ; i++)
+						{
+							chunkScores[i] = ParsevalEvaluator.this.evaluate(
+								curChunkStart + i, curGoldChunk[i], curCandidateChunk[i]);
+						}
+
+						return chunkScores;
+					}
+				}));
+
+				if (scoredChunks.size() >= 2 * parallelism)
+				{
+					ParsevalEvaluator.report(scoredChunks.remove().get(), score, listener);
+				}
+			}
+
+			while (!scoredChunks.isEmpty())
+			{
+				ParsevalEvaluator.report(scoredChunks.remove().get(), score, listener);
+			}
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)e.getCause();
+			}
+
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+
+		return score;
+	}
+
+	/**
+	 * Score a single sentence pair (either tree may be null, which makes the pair an error sentence)
+	 */
+	public SentenceScore evaluate(int sentenceIndex, ConstituentStructure goldTree, ConstituentStructure candidateTree)
+	{
+		SentenceScore sentenceScore = new SentenceScore();
+
+		sentenceScore.sentenceIndex = sentenceIndex;
+
+		if ((goldTree == null) || (candidateTree == null))
+		{
+			sentenceScore.error = (goldTree == null) ? "Missing gold tree" : "Missing candidate tree";
+
+			return sentenceScore;
+		}
+
+		ScoredSentence gold = this.toScoredSentence(goldTree);
+		ScoredSentence candidate = this.toScoredSentence(candidateTree);
+
+		sentenceScore.length = gold.words.size();
+
+		if (gold.words.size() != candidate.words.size())
+		{
+			sentenceScore.error = "Length unmatch (" + gold.words.size() + " | " + candidate.words.size() + ")";
+
+			return sentenceScore;
+		}
+
+		if (!gold.words.equals(candidate.words))
+		{
+			sentenceScore.error = "Words unmatch";
+
+			return sentenceScore;
+		}
+
+		// Word position -> position among the counted words; words tagged as deleted in the gold tree are not
+		// counted in either tree
+		int[] countedPositions = new int[gold.words.size() + 1];
+
+		int curCountedPosition = 0;
+
+		boolean curWordCounted;
+
+		for (int i = 0 ; i < gold.words.size() ; i++)
+		{
+			countedPositions[i] = curCountedPosition;
+
+			curWordCounted = !this.isDeleted(gold.tagIds.get(i));
+
+			if (curWordCounted)
+			{
+				curCountedPosition++;
+
+				sentenceScore.numTags++;
+
+				if (gold.tagIds.get(i).equals(candidate.tagIds.get(i)))
+				{
+					sentenceScore.numCorrectTags++;
+				}
+			}
+		}
+
+		countedPositions[gold.words.size()] = curCountedPosition;
+
+		long[] goldKeys = this.toBracketKeys(gold, countedPositions);
+		long[] candidateKeys = this.toBracketKeys(candidate, countedPositions);
+
+		sentenceScore.numGoldBrackets = goldKeys.length;
+		sentenceScore.numCandidateBrackets = candidateKeys.length;
+
+		sentenceScore.numMatchedLabeledBrackets = ParsevalEvaluator.countMatches(goldKeys, candidateKeys);
+
+		for (int i = 0 ; i < goldKeys.length ; i++)
+		{
+			goldKeys[i] &= ParsevalEvaluator.UNLABELED_BRACKET_MASK;
+		}
+
+		for (int i = 0 ; i < candidateKeys.length ; i++)
+		{
+			candidateKeys[i] &= ParsevalEvaluator.UNLABELED_BRACKET_MASK;
+		}
+
+		sentenceScore.numMatchedUnlabeledBrackets = ParsevalEvaluator.countMatches(goldKeys, candidateKeys);
+
+		return sentenceScore;
+	}
+
+	private static void report(SentenceScore[] chunkScores, ParsevalScore score, ParsevalListener listener)
+	{
+		for (SentenceScore curSentenceScore : chunkScores)
+		{
+			score.add(curSentenceScore);
+
+			if (listener != null)
+			{
+				listener.sentenceEvaluated(curSentenceScore);
+			}
+		}
+	}
+
+	/**
+	 * Walk the tree in preorder, giving each phrasal constituent the span of non-empty words that it covers
+	 */
+	private ScoredSentence toScoredSentence(ConstituentStructure root)
+	{
+		ScoredSentence sentence = new ScoredSentence();
+
+		// Each node is on the frontier twice:  once to enter it (start its span and take its words) and once
+		// to leave it (after all of its children have been entered and left)
+		List<ConstituentStructure> frontier = new ArrayList<ConstituentStructure>();
+
+		List<Integer> frontierSpanStarts = new ArrayList<Integer>();
+
+		frontier.add(root);
+		frontierSpanStarts.add(-1);
+
+		ConstituentStructure curNode;
+
+		int curSpanStart;
+
+		int curTypeId;
+
+		List<ConstituentStructure> curChildren;
+
+		while (!frontier.isEmpty())
+		{
+			curNode = frontier.remove(frontier.size()-1);
+			curSpanStart = frontierSpanStarts.remove(frontierSpanStarts.size()-1);
+
+			curTypeId = this.getNormalizedConstituentTypeId(curNode.getConstituentTypeId());
+
+			if (curSpanStart >= 0)
+			{
+				// Leaving a phrasal constituent
+				if (!this.isDeleted(curTypeId) && (sentence.words.size() > curSpanStart))
+				{
+					sentence.brackets.add(new long[] { curTypeId, curSpanStart, sentence.words.size() });
+				}
+
+				continue;
+			}
+
+			// Entering the node:  empty elements are dropped, and the node's other words tagged with its type
+			if (!ConstituentLabelTable.getLabel(curTypeId).equals(ParsevalEvaluator.EMPTY_ELEMENT_CONSTITUENT_TYPE))
+			{
+				for (String curWord : curNode.getContentWords())
+				{
+					sentence.words.add(curWord);
+					sentence.tagIds.add(curTypeId);
+				}
+			}
+
+			curChildren = curNode.getConstituentChildren();
+
+			if (curChildren.isEmpty())
+			{
+				continue;
+			}
+
+			frontier.add(curNode);
+			frontierSpanStarts.add(sentence.words.size() - curNode.numContentWords());
+
+			// Push the children R to L so that they come off of the frontier L to R
+			for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+			{
+				frontier.add(curChildren.get(i));
+				frontierSpanStarts.add(-1);
+			}
+		}
+
+		return sentence;
+	}
+
+	/**
+	 * @return The sorted (type, start, end) keys of the brackets, with spans over the counted words; brackets
+	 *         that cover no counted words are dropped
+	 */
+	private long[] toBracketKeys(ScoredSentence sentence, int[] countedPositions)
+	{
+		long[] keys = new long[sentence.brackets.size()];
+
+		int numKeys = 0;
+
+		int curStart;
+
+		int curEnd;
+
+		for (long[] curBracket : sentence.brackets)
+		{
+			curStart = countedPositions[(int)curBracket[1]];
+			curEnd = countedPositions[(int)curBracket[2]];
+
+			if (curEnd > curStart)
+			{
+				keys[numKeys] = (curBracket[0] << (2 * ParsevalEvaluator.SPAN_BITS))
+					| (((long)curStart) << ParsevalEvaluator.SPAN_BITS)
+					| curEnd;
+
+				numKeys++;
+			}
+		}
+
+		keys = Arrays.copyOf(keys, numKeys);
+
+		Arrays.sort(keys);
+
+		return keys;
+	}
+
+	/**
+	 * @return The size of the multiset intersection of two sorted key arrays
+	 */
+	private static int countMatches(long[] goldKeys, long[] candidateKeys)
+	{
+		Arrays.sort(goldKeys);
+		Arrays.sort(candidateKeys);
+
+		int numMatches = 0;
+
+		int goldPosition = 0;
+		int candidatePosition = 0;
+
+		while ((goldPosition < goldKeys.length) && (candidatePosition < candidateKeys.length))
+		{
+			if (goldKeys[goldPosition] == candidateKeys[candidatePosition])
+			{
+				numMatches++;
+
+				goldPosition++;
+				candidatePosition++;
+			}
+			else if (goldKeys[goldPosition] < candidateKeys[candidatePosition])
+			{
+				goldPosition++;
+			}
+			else
+			{
+				candidatePosition++;
+			}
+		}
+
+		return numMatches;
+	}
+
+	private boolean isDeleted(int normalizedConstituentTypeId)
+	{
+		return this.deletedConstituentTypes.contains(ConstituentLabelTable.getLabel(normalizedConstituentTypeId));
+	}
+
+	private int getNormalizedConstituentTypeId(int constituentTypeId)
+	{
+		int[] normalizedIds = this.normalizedConstituentTypeIds;
+
+		if (constituentTypeId >= normalizedIds.length)
+		{
+			// Concurrent refreshes compute the same result, so either may win
+			int numLabels = ConstituentLabelTable.numLabels();
+
+			int numNormalizedIds = normalizedIds.length;
+
+			normalizedIds = Arrays.copyOf(normalizedIds, numLabels);
+
+			// Only the IDs past the end of the array that was copied are missing (another worker may have 
+			// published a longer array since, which does not cover this copy's new entries)
+			for (int i = numNormalizedIds ; i < numLabels ; i++)
+			{
+				normalizedIds[i] = ConstituentLabelTable.getLabelId(this.normalize(ConstituentLabelTable.getLabel(i)));
+			}
+
+			// Normalizing may add new types, which are normalized when they are first looked up
+			this.normalizedConstituentTypeIds = normalizedIds;
+		}
+
+		return normalizedIds[constituentTypeId];
+	}
+
+	/**
+	 * @return The type without function tags or indices, mapped through the equivalent types; types that start
+	 *         with '-' (-NONE-, -LRB-, -RRB-) are returned unchanged
+	 */
+	private String normalize(String constituentType)
+	{
+		// Bracket and empty element tags are delimited by '-' themselves
+		if (constituentType.startsWith("-"))
+		{
+			return constituentType;
+		}
+
+		String basicCategory = constituentType;
+
+		for (int i = 1 ; i < constituentType.length() ; i++)
+		{
+			if ((constituentType.charAt(i) == '-') || (constituentType.charAt(i) == '='))
+			{
+				basicCategory = constituentType.substring(0, i);
+
+				break;
+			}
+		}
+
+		String equivalentType = this.equivalentConstituentTypes.get(basicCategory);
+
+		return (equivalentType == null) ? basicCategory : equivalentType;
+	}
+
+	private static double ratio(long numerator, long denominator)
+	{
+		return (denominator == 0) ? 0.0 : ((double)numerator) / denominator;
+	}
+
+	private static double f1(double precision, double recall)
+	{
+		return ((precision + recall) == 0) ? 0.0 : 2 * precision * recall / (precision + recall);
+	}
+}
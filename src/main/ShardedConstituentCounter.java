@@ -0,0 +1,570 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+import utilities.Pair;
+
+/**
+ * Counts the statistics of a corpus that is too large for one heap by splitting its files into shards, counting
+ * each shard in a separate local JVM process, and merging (reducing) the statistics snapshots the processes
+ * write (see WSJConstituentCounterStatistics.writeSnapshot()).
+ *
+ * The files are split in file name order into contiguous shards of about the same number of bytes.  Every shard
+ * snapshot is kept in the work directory under a key computed from the paths, sizes and modification times of
+ * the shard's files and the counting options, so a later run over the same files with the same options reuses
+ * it instead of counting the shard again, and a shard whose files have changed is recounted.  Snapshots that are
+ * no longer used are not deleted.
+ *
+ * A worker process writes its snapshot to a temporary file and then renames it, so a worker that dies never
+ * leaves a partial snapshot behind to be reused.  As in WSJConstituentCounter, files that cannot be read are
+ * skipped (and reported by the worker, see IngestionMetrics).
+ *
+ * The snapshots are merged in shard order, so the result is the same as counting all of the files in one
+ * process with WSJConstituentCounter.parseConstituentStructureFiles (exactly so for exact statistics; for
+ * approximate statistics and heavy hitters, with the same guarantees).
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ShardedConstituentCounter
+{
+	private static final String SNAPSHOT_FILE_SUFFIX = ".snapshot";
+
+	private static final String FILE_LIST_FILE_SUFFIX = ".files";
+
+	private File corpusDirectory;
+
+	private String filePatternRegex;
+
+	private File workDirectory;
+
+	private int numShards = Runtime.getRuntime().availableProcessors();
+
+	private boolean approximate = false;
+
+	private double countError = WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_COUNT_ERROR;
+
+	private double countErrorProbability = WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_COUNT_ERROR_PROBABILITY;
+
+	private double distinctCountError = WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_DISTINCT_COUNT_ERROR;
+
+	// 0 to not track heavy hitters
+	private int numHeavyHitters = 0;
+
+	// Extra options for the worker JVMs (e.g. -Xmx4g)
+	private List<String> workerJvmOptions = new ArrayList<String>();
+
+	/**
+	 * @param workDirectory Where the file lists and snapshots of the shards are kept (created if it does not
+	 *                      exist)
+	 */
+	public ShardedConstituentCounter(File corpusDirectory, String filePatternRegex, File workDirectory)
+	{
+		this.corpusDirectory = corpusDirectory;
+		this.filePatternRegex = filePatternRegex;
+		this.workDirectory = workDirectory;
+	}
+
+	/**
+	 * @param numShards The number of shards to split the files into, which is also the number of worker
+	 *                  processes that run at once
+	 */
+	public void setNumShards(int numShards)
+	{
+		if (numShards < 1)
+		{
+			throw new IllegalArgumentException("The number of shards must be positive: " + numShards);
+		}
+
+		this.numShards = numShards;
+	}
+
+	/**
+	 * Count approximate statistics with the given error bounds (see WSJConstituentCounterStatistics.approximate())
+	 */
+	public void setApproximate(double countError, double countErrorProbability, double distinctCountError)
+	{
+		this.approximate = true;
+
+		this.countError = countError;
+		this.countErrorProbability = countErrorProbability;
+		this.distinctCountError = distinctCountError;
+	}
+
+	/**
+	 * Track heavy hitters (see WSJConstituentCounterStatistics.trackHeavyHitters())
+	 */
+	public void setNumHeavyHitters(int numHeavyHitters)
+	{
+		this.numHeavyHitters = numHeavyHitters;
+	}
+
+	public void setWorkerJvmOptions(List<String> workerJvmOptions)
+	{
+		this.workerJvmOptions = new ArrayList<String>(workerJvmOptions);
+	}
+
+	/**
+	 * Count every shard that does not have a snapshot in the work directory yet (all at once, one process per
+	 * shard), and merge the snapshots of all of the shards
+	 *
+	 * @throws IOException If a worker process fails, or a snapshot cannot be read
+	 */
+	public WSJConstituentCounterStatistics run() throws IOException, InterruptedException
+	{
+		this.workDirectory.mkdirs();
+
+		// Obtain a list of all of the constituent files (in a fixed order)
+		File[] filesInBaseDirectory = this.corpusDirectory.listFiles();
+
+		if (filesInBaseDirectory == null)
+		{
+			throw new IOException("Not a directory: " + this.corpusDirectory);
+		}
+
+		Arrays.sort(filesInBaseDirectory);
+
+		List<File> constituentFiles = new ArrayList<File>();
+
+		for (File curFile : filesInBaseDirectory)
+		{
+			if (WSJConstituentCounter.isConstituentFile(curFile, this.filePatternRegex))
+			{
+				constituentFiles.add(curFile);
+			}
+		}
+
+		List<File> shardSnapshotFiles = new ArrayList<File>();
+
+		// The worker processes still being waited for, with the snapshot each one writes
+		List<Pair<Process, File>> workers = new ArrayList<Pair<Process, File>>();
+
+		try
+		{
+			File curSnapshotFile;
+
+			File curFileListFile;
+
+			String curShardKey;
+
+			for (List<File> curShardFiles : this.splitIntoShards(constituentFiles))
+			{
+				curShardKey = this.computeShardKey(curShardFiles);
+
+				curSnapshotFile = new File(this.workDirectory, "shard-" + curShardKey + SNAPSHOT_FILE_SUFFIX);
+
+				shardSnapshotFiles.add(curSnapshotFile);
+
+				// Reuse the snapshot of an earlier run
+				if (curSnapshotFile.exists())
+				{
+					continue;
+				}
+
+				curFileListFile = new File(this.workDirectory, "shard-" + curShardKey + FILE_LIST_FILE_SUFFIX);
+
+				List<String> curFilePaths = new ArrayList<String>();
+
+				for (File curFile : curShardFiles)
+				{
+					curFilePaths.add(curFile.getAbsolutePath());
+				}
+
+				Files.write(curFileListFile.toPath(), curFilePaths, StandardCharsets.UTF_8);
+
+				workers.add(new Pair<Process, File>(
+					new ProcessBuilder(this.buildWorkerCommand(curFileListFile, curSnapshotFile)).inheritIO().start(),
+					curSnapshotFile));
+			}
+
+			int curExitCode;
+
+			while (!workers.isEmpty())
+			{
+				curExitCode = workers.get(0).getKey().waitFor();
+
+				if (curExitCode != 0)
+				{
+					throw new IOException(
+						"Worker for " + workers.get(0).getValue().getName() + " failed with exit code " + curExitCode);
+				}
+
+				workers.remove(0);
+			}
+		}
+		finally
+		{
+			// Do not leave workers running if a shard failed (or this thread was interrupted)
+			for (Pair<Process, File> curWorker : workers)
+			{
+				curWorker.getKey().destroy();
+			}
+		}
+
+		// Reduce the snapshots in shard order
+		WSJConstituentCounterStatistics statistics = this.newStatistics();
+
+		for (File curSnapshotFile : shardSnapshotFiles)
+		{
+			statistics.merge(WSJConstituentCounterStatistics.readSnapshot(curSnapshotFile));
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Split the files (in order) into at most numShards contiguous shards of about the same number of bytes
+	 */
+	private List<List<File>> splitIntoShards(List<File> files)
+	{
+		long totalBytes = 0;
+
+		for (File curFile : files)
+		{
+			totalBytes += curFile.length();
+		}
+
+		List<List<File>> shards = new ArrayList<List<File>>();
+
+		List<File> curShard = new ArrayList<File>();
+
+		long curShardBytes = 0;
+
+		long assignedBytes = 0;
+
+		for (File curFile : files)
+		{
+			curShard.add(curFile);
+
+			curShardBytes += curFile.length();
+
+			// Close the shard once it has its share of the bytes that are left
+			if ((shards.size() < this.numShards - 1)
+				&& (curShardBytes * (this.numShards - shards.size()) >= totalBytes - assignedBytes))
+			{
+				shards.add(curShard);
+
+				assignedBytes += curShardBytes;
+
+				curShard = new ArrayList<File>();
+
+				curShardBytes = 0;
+			}
+		}
+
+		if (!curShard.isEmpty())
+		{
+			shards.add(curShard);
+		}
+
+		return shards;
+	}
+
+	/**
+	 * @return A key that changes whenever the files of the shard, their contents (as far as their sizes and
+	 *         modification times tell) or the counting options change
+	 */
+	private String computeShardKey(List<File> shardFiles)
+	{
+		MessageDigest digest;
+
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder keyBuilder = new StringBuilder();
+
+		keyBuilder.append(WSJConstituentCounterStatistics.SNAPSHOT_FORMAT_VERSION).append('\n');
+
+		for (String curOption : this.buildStatisticsOptions())
+		{
+			keyBuilder.append(curOption).append('\n');
+		}
+
+		for (File curFile : shardFiles)
+		{
+			keyBuilder.append(curFile.getAbsolutePath()).append('\t')
+				.append(curFile.length()).append('\t')
+				.append(curFile.lastModified()).append('\n');
+		}
+
+		byte[] keyDigest = digest.digest(keyBuilder.toString().getBytes(StandardCharsets.UTF_8));
+
+		return String.format("%016x", ByteBuffer.wrap(keyDigest).getLong());
+	}
+
+	private List<String> buildWorkerCommand(File fileListFile, File snapshotFile)
+	{
+		List<String> command = new ArrayList<String>();
+
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.addAll(this.workerJvmOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardedConstituentCounter.class.getName());
+		command.add("--worker-files");
+		command.add(fileListFile.getPath());
+		command.add("--worker-output");
+		command.add(snapshotFile.getPath());
+		command.addAll(this.buildStatisticsOptions());
+
+		return command;
+	}
+
+	/**
+	 * @return The command line options that make a worker count the same kind of statistics as this counter
+	 */
+	private List<String> buildStatisticsOptions()
+	{
+		List<String> options = new ArrayList<String>();
+
+		options.add("--approximate");
+		options.add(Boolean.toString(this.approximate));
+
+		if (this.approximate)
+		{
+			options.add("--count-error");
+			options.add(Double.toString(this.countError));
+			options.add("--count-error-probability");
+			options.add(Double.toString(this.countErrorProbability));
+			options.add("--distinct-count-error");
+			options.add(Double.toString(this.distinctCountError));
+		}
+
+		options.add("--heavy-hitters");
+		options.add(Integer.toString(this.numHeavyHitters));
+
+		return options;
+	}
+
+	private WSJConstituentCounterStatistics newStatistics()
+	{
+		WSJConstituentCounterStatistics statistics;
+
+		if (this.approximate)
+		{
+			statistics = WSJConstituentCounterStatistics.approximate(
+				this.countError, this.countErrorProbability, this.distinctCountError);
+		}
+		else
+		{
+			statistics = new WSJConstituentCounterStatistics();
+		}
+
+		if (this.numHeavyHitters > 0)
+		{
+			statistics.trackHeavyHitters(this.numHeavyHitters);
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Count the files of one shard into the statistics.  Each file is counted into its own statistics, which are
+	 * only merged in if the whole file could be read, as in the parallel WSJConstituentCounter
+	 */
+	private static void countFiles(List<File> files, WSJConstituentCounterStatistics statistics)
+	{
+		WSJConstituentCounterStatistics curFileStatistics;
+
+		ConstituentStructureReader curReader;
+
+		for (File curFile : files)
+		{
+			curFileStatistics = statistics.newEmptyCopy();
+
+			curReader = null;
+
+			try
+			{
+				curReader = WSJConstituentCounter.readConstituentStructureFile(curFile, curFileStatistics);
+
+				while (curReader.hasNext())
+				{
+					curReader.next();
+				}
+
+				statistics.merge(curFileStatistics);
+			}
+			catch (IOException | UncheckedIOException e)
+			{
+				IngestionMetrics.recordError(curFile, (curReader == null) ? -1 : curReader.getOffset(), e);
+			}
+			finally
+			{
+				// Stops the decompression of a compressed file that could not be read to the end
+				if (curReader != null)
+				{
+					try
+					{
+						curReader.close();
+					}
+					catch (IOException e)
+					{
+						// Nothing is lost by failing to close it
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * As the driver:
+	 *
+	 *    --corpus <directory> --work-dir <directory> [--shards n] [--output <snapshot>] [statistics options]
+	 *
+	 * As a worker (started by the driver):
+	 *
+	 *    --worker-files <file list> --worker-output <snapshot> [statistics options]
+	 *
+	 * where the statistics options are [--approximate false] [--count-error e] [--count-error-probability p]
+	 * [--distinct-count-error d] [--heavy-hitters 0]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		File corpusDirectory = null;
+
+		File workDirectory = null;
+
+		File outputFile = null;
+
+		File workerFileListFile = null;
+
+		File workerOutputFile = null;
+
+		int numShards = Runtime.getRuntime().availableProcessors();
+
+		boolean approximate = false;
+
+		double countError = WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_COUNT_ERROR;
+
+		double countErrorProbability = WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_COUNT_ERROR_PROBABILITY;
+
+		double distinctCountError = WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_DISTINCT_COUNT_ERROR;
+
+		int numHeavyHitters = 0;
+
+		for (int i = 0 ; i + 1 < args.length ; i += 2)
+		{
+			if (args[i].equals("--corpus"))
+			{
+				corpusDirectory = new File(args[i+1]);
+			}
+			else if (args[i].equals("--work-dir"))
+			{
+				workDirectory = new File(args[i+1]);
+			}
+			else if (args[i].equals("--shards"))
+			{
+				numShards = Integer.parseInt(args[i+1]);
+			}
+			else if (args[i].equals("--output"))
+			{
+				outputFile = new File(args[i+1]);
+			}
+			else if (args[i].equals("--worker-files"))
+			{
+				workerFileListFile = new File(args[i+1]);
+			}
+			else if (args[i].equals("--worker-output"))
+			{
+				workerOutputFile = new File(args[i+1]);
+			}
+			else if (args[i].equals("--approximate"))
+			{
+				approximate = Boolean.parseBoolean(args[i+1]);
+			}
+			else if (args[i].equals("--count-error"))
+			{
+				countError = Double.parseDouble(args[i+1]);
+			}
+			else if (args[i].equals("--count-error-probability"))
+			{
+				countErrorProbability = Double.parseDouble(args[i+1]);
+			}
+			else if (args[i].equals("--distinct-count-error"))
+			{
+				distinctCountError = Double.parseDouble(args[i+1]);
+			}
+			else if (args[i].equals("--heavy-hitters"))
+			{
+				numHeavyHitters = Integer.parseInt(args[i+1]);
+			}
+		}
+
+		// Either mode is set up as a driver, so that both build the same kind of statistics
+		ShardedConstituentCounter counter = new ShardedConstituentCounter(
+			corpusDirectory, WSJConstituentCounter.WSJ_CORPUS_FILE_REGEX_STRING, workDirectory);
+
+		counter.setNumShards(numShards);
+		counter.setNumHeavyHitters(numHeavyHitters);
+
+		if (approximate)
+		{
+			counter.setApproximate(countError, countErrorProbability, distinctCountError);
+		}
+
+		if ((workerFileListFile != null) && (workerOutputFile != null))
+		{
+			List<File> files = new ArrayList<File>();
+
+			for (String curPath : Files.readAllLines(workerFileListFile.toPath(), StandardCharsets.UTF_8))
+			{
+				files.add(new File(curPath));
+			}
+
+			WSJConstituentCounterStatistics statistics = counter.newStatistics();
+
+			ShardedConstituentCounter.countFiles(files, statistics);
+
+			File temporaryFile = new File(workerOutputFile.getPath() + ".tmp");
+
+			statistics.writeSnapshot(temporaryFile);
+
+			Files.move(temporaryFile.toPath(), workerOutputFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			return;
+		}
+
+		if ((corpusDirectory == null) || (workDirectory == null))
+		{
+			System.err.println("Usage:  --corpus <directory> --work-dir <directory> [--shards n] [--output <snapshot>] "
+				+ "[--approximate false] [--count-error e] [--count-error-probability p] [--distinct-count-error d] "
+				+ "[--heavy-hitters 0]");
+
+			System.exit(1);
+		}
+
+		WSJConstituentCounterStatistics statistics = counter.run();
+
+		if (outputFile != null)
+		{
+			statistics.writeSnapshot(outputFile);
+		}
+
+		System.out.println("Constituents: " + statistics.numConstituents);
+		System.out.println("Words: " + statistics.numWords);
+		System.out.println("Distinct words: " + statistics.getNumDistinctWords());
+		System.out.println("Distinct skeletons: " + statistics.getNumDistinctSkeletons());
+		System.out.println("Top constituent types: " + statistics.getTopConstituentTypes(10));
+	}
+}
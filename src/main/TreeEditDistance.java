@@ -0,0 +1,567 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ordered tree edit distance (Zhang and Shasha, 1989) between constituent trees of any kind:  the cheapest
+ * sequence of node deletions, insertions and renamings that turns one tree into the other.
+ *
+ * An instance keeps its dynamic programming tables and flattened trees between comparisons, growing them as
+ * needed, so a batch of comparisons does not allocate per comparison.  An instance is therefore not
+ * thread-safe; computeAllPairs gives each of its threads its own.
+ *
+ * Bounded queries (distance with a threshold) are cut short in two ways.  A prefilter first checks two cheap
+ * lower bounds (the difference in tree sizes and the difference in constituent type histograms), and skips
+ * the dynamic program for pairs that cannot be within the threshold.  Then, while the dynamic program fills in
+ * the forest distances between the postorder prefixes of the two whole trees (the last keyroot pair), it stops
+ * as soon as every forest distance of a row exceeds the threshold:  restricting an edit mapping of the trees to
+ * a postorder prefix of the first tree gives a mapping between that prefix and a postorder prefix of the
+ * second that costs no more, so the minimum of each such row is a lower bound on the distance.
+ *
+ * The rows of the other keyroot pairs bound only the distances between subtrees, not the distance between the
+ * whole trees, so they cannot stop the computation.  And the last keyroot pair needs the subtree distances of
+ * every other pair, so stopping it early saves at most the rest of its own table:  a bounded query that gets
+ * past the prefilter costs nearly as much as an unbounded one.  It is the prefilter that makes bounded queries
+ * over dissimilar trees cheap.
+ *
+ * @author hlil_administrator
+ *
+ * @param <N> The type of the nodes of the trees
+ */
+public class TreeEditDistance<N extends ConstituentNode<N>>
+{
+	/*
+	 * The costs of the edit operations; all costs must be non-negative
+	 */
+	public interface CostModel<N>
+	{
+		public double getDeleteCost(N node);
+
+		public double getInsertCost(N node);
+
+		/**
+		 * @return The cost of renaming the first node to the second (0 if they are the same)
+		 */
+		public double getRenameCost(N fromNode, N toNode);
+
+		/**
+		 * @return A lower bound on the cost of any insertion, deletion, or renaming between different types
+		 *         (0 disables the lower bounds of bounded queries)
+		 */
+		public double getMinimumCost();
+
+		/**
+		 * @return Whether the distance from A to B always equals the distance from B to A
+		 */
+		public boolean isSymmetric();
+	}
+
+	private CostModel<N> costModel;
+
+	/*
+	 * A tree flattened in postorder and 1-indexed (index 0 is unused), with what the dynamic program needs
+	 * to know about its shape
+	 */
+	private static class FlattenedTree<N extends ConstituentNode<N>>
+	{
+		private List<N> nodes = new ArrayList<N>();
+
+		// Postorder index -> postorder index of the leftmost leaf of its subtree
+		private int[] leftmostLeaves = new int[64];
+
+		// The postorder indexes of the keyroots (the root, and every node with a left sister), in increasing
+		// order
+		private int[] keyroots = new int[64];
+
+		private int numKeyroots;
+
+		// Traversal scratch:  each node on the frontier, whether its children have been pushed, the frontier
+		// position of its parent, and the leftmost leaf of its subtree once its first child is done (or -1)
+		private List<N> frontier = new ArrayList<N>();
+
+		private boolean[] frontierChildrenPushed = new boolean[64];
+
+		private int[] frontierParents = new int[64];
+
+		private int[] frontierLeftmostLeaves = new int[64];
+
+		private int numNodes()
+		{
+			return this.nodes.size() - 1;
+		}
+
+		private void flatten(N root)
+		{
+			this.nodes.clear();
+			this.nodes.add(null);
+
+			this.numKeyroots = 0;
+
+			this.push(root, -1);
+
+			N curNode;
+
+			List<N> curChildren;
+
+			int curPosition;
+
+			int curIndex;
+
+			int curParentPosition;
+
+			while (!this.frontier.isEmpty())
+			{
+				curPosition = this.frontier.size()-1;
+
+				curNode = this.frontier.get(curPosition);
+
+				if (!this.frontierChildrenPushed[curPosition])
+				{
+					this.frontierChildrenPushed[curPosition] = true;
+
+					// Push the children R to L so that they come off of the frontier L to R
+					curChildren = curNode.getConstituentChildren();
+
+					for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+					{
+						this.push(curChildren.get(i), curPosition);
+					}
+
+					continue;
+				}
+
+				// All of the node's children are done, so it is next in postorder
+				this.frontier.remove(curPosition);
+
+				this.nodes.add(curNode);
+
+				curIndex = this.numNodes();
+
+				this.leftmostLeaves = TreeEditDistance.ensureCapacity(this.leftmostLeaves, curIndex + 1);
+				this.keyroots = TreeEditDistance.ensureCapacity(this.keyroots, curIndex + 1);
+
+				this.leftmostLeaves[curIndex] =
+					(this.frontierLeftmostLeaves[curPosition] < 0) ? curIndex : this.frontierLeftmostLeaves[curPosition];
+
+				curParentPosition = this.frontierParents[curPosition];
+
+				// The first child of a node to be done is its leftmost child; every other node has a left sister
+				// (or is the root), so it is a keyroot
+				if ((curParentPosition >= 0) && (this.frontierLeftmostLeaves[curParentPosition] < 0))
+				{
+					this.frontierLeftmostLeaves[curParentPosition] = this.leftmostLeaves[curIndex];
+				}
+				else
+				{
+					this.keyroots[this.numKeyroots] = curIndex;
+
+					this.numKeyroots++;
+				}
+			}
+		}
+
+		private void push(N node, int parentPosition)
+		{
+			int position = this.frontier.size();
+
+			if (position == this.frontierParents.length)
+			{
+				this.frontierChildrenPushed = Arrays.copyOf(this.frontierChildrenPushed, position * 2);
+				this.frontierParents = Arrays.copyOf(this.frontierParents, position * 2);
+				this.frontierLeftmostLeaves = Arrays.copyOf(this.frontierLeftmostLeaves, position * 2);
+			}
+
+			this.frontier.add(node);
+
+			this.frontierChildrenPushed[position] = false;
+			this.frontierParents[position] = parentPosition;
+			this.frontierLeftmostLeaves[position] = -1;
+		}
+	}
+
+	private FlattenedTree<N> tree1 = new FlattenedTree<N>();
+
+	private FlattenedTree<N> tree2 = new FlattenedTree<N>();
+
+	private double[] deleteCosts = new double[64];
+
+	private double[] insertCosts = new double[64];
+
+	// The (n1+1) x (n2+1) tree distance and forest distance tables, row major
+	private double[] treeDistances = new double[64 * 64];
+
+	private double[] forestDistances = new double[64 * 64];
+
+	// Constituent type ID -> count difference between the trees (all 0 between comparisons)
+	private int[] constituentTypeCountDifferences = new int[64];
+
+	public TreeEditDistance(CostModel<N> costModel)
+	{
+		this.costModel = costModel;
+	}
+
+	/**
+	 * @return Unit costs:  every insertion and deletion costs 1, and renaming costs 1 if the constituent types
+	 *         differ and 0 if they are the same
+	 */
+	public static <N extends ConstituentNode<N>> CostModel<N> unitCosts()
+	{
+		return new CostModel<N>()
+		{
+			@Override
+			public double getDeleteCost(N node)
+			{
+				return 1;
+			}
+
+			@Override
+			public double getInsertCost(N node)
+			{
+				return 1;
+			}
+
+			@Override
+			public double getRenameCost(N fromNode, N toNode)
+			{
+				return (fromNode.getConstituentTypeId() == toNode.getConstituentTypeId()) ? 0 : 1;
+			}
+
+			@Override
+			public double getMinimumCost()
+			{
+				return 1;
+			}
+
+			@Override
+			public boolean isSymmetric()
+			{
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return The edit distance from the first tree to the second
+	 */
+	public double distance(N tree1, N tree2)
+	{
+		return this.distance(tree1, tree2, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return The edit distance from the first tree to the second, or Double.POSITIVE_INFINITY if it is
+	 *         greater than the threshold (in which case the computation may have been skipped or stopped early)
+	 */
+	public double distance(N tree1, N tree2, double threshold)
+	{
+		this.tree1.flatten(tree1);
+		this.tree2.flatten(tree2);
+
+		int numNodes1 = this.tree1.numNodes();
+		int numNodes2 = this.tree2.numNodes();
+
+		if ((threshold < Double.POSITIVE_INFINITY) && (this.getPrefilterLowerBound() > threshold))
+		{
+			this.tree1.nodes.clear();
+			this.tree2.nodes.clear();
+
+			return Double.POSITIVE_INFINITY;
+		}
+
+		if (this.deleteCosts.length < numNodes1 + 1)
+		{
+			this.deleteCosts = new double[Math.max(numNodes1 + 1, this.deleteCosts.length * 2)];
+		}
+
+		if (this.insertCosts.length < numNodes2 + 1)
+		{
+			this.insertCosts = new double[Math.max(numNodes2 + 1, this.insertCosts.length * 2)];
+		}
+
+		for (int i = 1 ; i <= numNodes1 ; i++)
+		{
+			this.deleteCosts[i] = this.costModel.getDeleteCost(this.tree1.nodes.get(i));
+		}
+
+		for (int j = 1 ; j <= numNodes2 ; j++)
+		{
+			this.insertCosts[j] = this.costModel.getInsertCost(this.tree2.nodes.get(j));
+		}
+
+		int tableSize = (numNodes1 + 1) * (numNodes2 + 1);
+
+		if (this.treeDistances.length < tableSize)
+		{
+			this.treeDistances = new double[Math.max(tableSize, this.treeDistances.length * 2)];
+			this.forestDistances = new double[this.treeDistances.length];
+		}
+
+		boolean withinThreshold = true;
+
+		// The roots are the last keyroots, so the whole trees are compared last
+		for (int i = 0 ; (i < this.tree1.numKeyroots) && withinThreshold ; i++)
+		{
+			for (int j = 0 ; (j < this.tree2.numKeyroots) && withinThreshold ; j++)
+			{
+				withinThreshold = this.computeTreeDistance(
+					this.tree1.keyroots[i], this.tree2.keyroots[j], numNodes2 + 1, threshold);
+			}
+		}
+
+		double distance = this.treeDistances[numNodes1 * (numNodes2 + 1) + numNodes2];
+
+		// The trees are not needed until the next comparison
+		this.tree1.nodes.clear();
+		this.tree2.nodes.clear();
+
+		return (!withinThreshold || (distance > threshold)) ? Double.POSITIVE_INFINITY : distance;
+	}
+
+	/**
+	 * Compute the edit distance between every ordered pair of the trees over the given number of threads
+	 *
+	 * @return The distances, with distances[i][j] from tree i to tree j (Double.POSITIVE_INFINITY where the
+	 *         distance is greater than the threshold); only half of the pairs are computed if the costs are
+	 *         symmetric
+	 * @throws IllegalStateException If the thread is interrupted before every distance has been computed (the
+	 *         interrupt flag is left set), rather than returning a matrix whose missing distances read as 0
+	 */
+	public static <N extends ConstituentNode<N>> double[][] computeAllPairs(
+		final List<N> trees, final CostModel<N> costModel, final double threshold, int parallelism)
+	{
+		final int numTrees = trees.size();
+
+		final double[][] distances = new double[numTrees][numTrees];
+
+		final AtomicInteger nextRow = new AtomicInteger(0);
+
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+
+		List<Future<?>> computedRows = new ArrayList<Future<?>>();
+
+		try
+		{
+			// Each worker keeps taking the next row (with its own tables) until there are none left
+			for (int i = 0 ; i < parallelism ; i++)
+			{
+				computedRows.add(workers.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						TreeEditDistance<N> treeEditDistance = new TreeEditDistance<N>(costModel);
+
+						int curRow;
+
+						while ((curRow = nextRow.getAndIncrement()) < numTrees)
+						{
+							for (int j = costModel.isSymmetric() ? curRow + 1 : 0 ; j < numTrees ; j++)
+							{
+								if (j != curRow)
+								{
+									distances[curRow][j] = treeEditDistance.distance(trees.get(curRow), trees.get(j), threshold);
+
+									if (costModel.isSymmetric())
+									{
+										distances[j][curRow] = distances[curRow][j];
+									}
+								}
+							}
+						}
+					}
+				}));
+			}
+
+			for (Future<?> curComputedRow : computedRows)
+			{
+				curComputedRow.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new IllegalStateException("Interrupted while computing tree edit distances", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)e.getCause();
+			}
+
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+
+		return distances;
+	}
+
+	/**
+	 * Fill in the tree distances between every pair of subtrees on the leftmost paths of the given keyroots.
+	 * For the keyroot pair of the two roots (whose rows are the postorder prefixes of the whole trees), stop
+	 * once every forest distance of a row is greater than the threshold
+	 *
+	 * @return False if the computation stopped early, in which case the distance is greater than the threshold
+	 */
+	private boolean computeTreeDistance(int keyroot1, int keyroot2, int stride, double threshold)
+	{
+		double[] treeDistances = this.treeDistances;
+		double[] forestDistances = this.forestDistances;
+
+		int[] leftmostLeaves1 = this.tree1.leftmostLeaves;
+		int[] leftmostLeaves2 = this.tree2.leftmostLeaves;
+
+		int leftmostLeaf1 = leftmostLeaves1[keyroot1];
+		int leftmostLeaf2 = leftmostLeaves2[keyroot2];
+
+		// The forest distance table is indexed by the postorder prefixes of the two subtrees, with row
+		// leftmostLeaf1-1 and column leftmostLeaf2-1 standing for the empty forests
+		forestDistances[(leftmostLeaf1 - 1) * stride + (leftmostLeaf2 - 1)] = 0;
+
+		for (int i = leftmostLeaf1 ; i <= keyroot1 ; i++)
+		{
+			forestDistances[i * stride + (leftmostLeaf2 - 1)] =
+				forestDistances[(i - 1) * stride + (leftmostLeaf2 - 1)] + this.deleteCosts[i];
+		}
+
+		for (int j = leftmostLeaf2 ; j <= keyroot2 ; j++)
+		{
+			forestDistances[(leftmostLeaf1 - 1) * stride + j] =
+				forestDistances[(leftmostLeaf1 - 1) * stride + (j - 1)] + this.insertCosts[j];
+		}
+
+		// Only the rows of the whole trees bound the distance between the whole trees
+		boolean isBounded = (threshold < Double.POSITIVE_INFINITY)
+			&& (keyroot1 == this.tree1.numNodes()) && (keyroot2 == this.tree2.numNodes());
+
+		double curDelete;
+
+		double curInsert;
+
+		double curMatch;
+
+		for (int i = leftmostLeaf1 ; i <= keyroot1 ; i++)
+		{
+			for (int j = leftmostLeaf2 ; j <= keyroot2 ; j++)
+			{
+				curDelete = forestDistances[(i - 1) * stride + j] + this.deleteCosts[i];
+				curInsert = forestDistances[i * stride + (j - 1)] + this.insertCosts[j];
+
+				if ((leftmostLeaves1[i] == leftmostLeaf1) && (leftmostLeaves2[j] == leftmostLeaf2))
+				{
+					// Both prefixes are whole trees, so their roots can be matched
+					curMatch = forestDistances[(i - 1) * stride + (j - 1)]
+						+ this.costModel.getRenameCost(this.tree1.nodes.get(i), this.tree2.nodes.get(j));
+
+					forestDistances[i * stride + j] = Math.min(Math.min(curDelete, curInsert), curMatch);
+
+					treeDistances[i * stride + j] = forestDistances[i * stride + j];
+				}
+				else
+				{
+					// Match the subtrees rooted at i and j as a whole (their distance is already known)
+					curMatch = forestDistances[(leftmostLeaves1[i] - 1) * stride + (leftmostLeaves2[j] - 1)]
+						+ treeDistances[i * stride + j];
+
+					forestDistances[i * stride + j] = Math.min(Math.min(curDelete, curInsert), curMatch);
+				}
+			}
+
+			if (isBounded && TreeEditDistance.allGreaterThan(
+				forestDistances, i * stride + (leftmostLeaf2 - 1), i * stride + keyroot2 + 1, threshold))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return True if every value from start (inclusive) to end (exclusive) is greater than the threshold
+	 */
+	private static boolean allGreaterThan(double[] values, int start, int end, double threshold)
+	{
+		for (int i = start ; i < end ; i++)
+		{
+			if (values[i] <= threshold)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return A lower bound on the distance between the flattened trees, for the prefilter of bounded queries:
+	 *         every operation changes the number of nodes by at most 1, and the constituent type histogram by at
+	 *         most 2
+	 */
+	private double getPrefilterLowerBound()
+	{
+		int histogramDifference = 0;
+
+		int curTypeId;
+
+		for (int i = 1 ; i < this.tree1.nodes.size() ; i++)
+		{
+			curTypeId = this.tree1.nodes.get(i).getConstituentTypeId();
+
+			this.constituentTypeCountDifferences = TreeEditDistance.ensureCapacity(this.constituentTypeCountDifferences, curTypeId + 1);
+			this.constituentTypeCountDifferences[curTypeId]++;
+		}
+
+		for (int j = 1 ; j < this.tree2.nodes.size() ; j++)
+		{
+			curTypeId = this.tree2.nodes.get(j).getConstituentTypeId();
+
+			this.constituentTypeCountDifferences = TreeEditDistance.ensureCapacity(this.constituentTypeCountDifferences, curTypeId + 1);
+			this.constituentTypeCountDifferences[curTypeId]--;
+		}
+
+		// Sum the differences and reset the counts for the next comparison
+		for (int i = 1 ; i < this.tree1.nodes.size() ; i++)
+		{
+			curTypeId = this.tree1.nodes.get(i).getConstituentTypeId();
+
+			histogramDifference += Math.abs(this.constituentTypeCountDifferences[curTypeId]);
+
+			this.constituentTypeCountDifferences[curTypeId] = 0;
+		}
+
+		for (int j = 1 ; j < this.tree2.nodes.size() ; j++)
+		{
+			curTypeId = this.tree2.nodes.get(j).getConstituentTypeId();
+
+			histogramDifference += Math.abs(this.constituentTypeCountDifferences[curTypeId]);
+
+			this.constituentTypeCountDifferences[curTypeId] = 0;
+		}
+
+		int minNumOperations = Math.max(Math.abs(this.tree1.nodes.size() - this.tree2.nodes.size()), (histogramDifference + 1) / 2);
+
+		return minNumOperations * this.costModel.getMinimumCost();
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity)
+	{
+		if (capacity > array.length)
+		{
+			return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+		}
+
+		return array;
+	}
+}
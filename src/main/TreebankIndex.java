@@ -0,0 +1,360 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import utilities.VarInts;
+
+/**
+ * A memory-mapped inverted index written by TreebankIndexWriter, which answers which sentences contain a
+ * constituent type, a word, or a word with a given immediate parent constituent type without re-parsing the
+ * corpus.
+ *
+ * Postings lists are arrays of increasing sentence IDs, and are combined with intersect and union; for
+ * example, the sentences containing a VP and the word "bought" are
+ *
+ *    intersect(index.getConstituentTypePostings("VP"), index.getWordPostings("bought"))
+ *
+ * @author hlil_administrator
+ *
+ */
+public class TreebankIndex
+{
+	private static final int[] EMPTY_POSTINGS = new int[0];
+
+	private ByteBuffer fileBuffer;
+
+	private int numSentences;
+
+	// Key -> entry in the arrays below
+	private Map<String, Integer> keyToEntry;
+
+	private long[] entryPostingsOffsets;
+
+	private int[] entryPostingsSizes;
+
+	private TreebankIndex(ByteBuffer fileBuffer) throws IOException
+	{
+		this.fileBuffer = fileBuffer;
+
+		int fileSize = fileBuffer.limit();
+
+		if ((fileSize < 8 + TreebankIndexWriter.TRAILER_SIZE)
+			|| (fileBuffer.getInt(0) != TreebankIndexWriter.MAGIC)
+			|| (fileBuffer.getInt(fileSize - 4) != TreebankIndexWriter.MAGIC))
+		{
+			throw new IOException("Not a treebank index file");
+		}
+
+		if (fileBuffer.getInt(4) != TreebankIndexWriter.FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported treebank index format version: " + fileBuffer.getInt(4));
+		}
+
+		int trailerOffset = fileSize - TreebankIndexWriter.TRAILER_SIZE;
+
+		this.numSentences = fileBuffer.getInt(trailerOffset + 8);
+
+		ByteBuffer dictionaryBuffer = fileBuffer.duplicate();
+
+		dictionaryBuffer.position((int)fileBuffer.getLong(trailerOffset));
+
+		int numKeys = VarInts.readVarInt(dictionaryBuffer);
+
+		this.keyToEntry = new HashMap<String, Integer>(numKeys * 2);
+		this.entryPostingsOffsets = new long[numKeys];
+		this.entryPostingsSizes = new int[numKeys];
+
+		byte[] curKeyBytes;
+
+		for (int i = 0 ; i < numKeys ; i++)
+		{
+			curKeyBytes = new byte[VarInts.readVarInt(dictionaryBuffer)];
+
+			dictionaryBuffer.get(curKeyBytes);
+
+			this.keyToEntry.put(new String(curKeyBytes, StandardCharsets.UTF_8), i);
+
+			this.entryPostingsSizes[i] = VarInts.readVarInt(dictionaryBuffer);
+			this.entryPostingsOffsets[i] = VarInts.readVarLong(dictionaryBuffer);
+		}
+	}
+
+	/**
+	 * Memory-map a treebank index file
+	 */
+	public static TreebankIndex open(File indexFile) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Treebank index file is too large to map: " + indexFile);
+			}
+
+			// The mapping remains valid after the channel is closed
+			return new TreebankIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	public int numSentences()
+	{
+		return this.numSentences;
+	}
+
+	/**
+	 * @return The number of distinct constituent types, words and (word, parent type) pairs in the index
+	 */
+	public int numKeys()
+	{
+		return this.entryPostingsSizes.length;
+	}
+
+	/**
+	 * @return The IDs of the sentences containing a constituent of the given type
+	 */
+	public int[] getConstituentTypePostings(String constituentType)
+	{
+		return this.getPostings(TreebankIndex.constituentTypeKey(constituentType));
+	}
+
+	/**
+	 * @return The IDs of the sentences containing the word
+	 */
+	public int[] getWordPostings(String word)
+	{
+		return this.getPostings(TreebankIndex.wordKey(word));
+	}
+
+	/**
+	 * @return The IDs of the sentences containing the word directly under a constituent of the given type
+	 */
+	public int[] getWordWithImmediateParentConstituentTypePostings(String word, String constituentType)
+	{
+		return this.getPostings(TreebankIndex.wordWithImmediateParentConstituentTypeKey(word, constituentType));
+	}
+
+	/**
+	 * @return The number of sentences containing a constituent of the given type, without decoding its postings
+	 */
+	public int getConstituentTypeSentenceCount(String constituentType)
+	{
+		return this.getPostingsSize(TreebankIndex.constituentTypeKey(constituentType));
+	}
+
+	/**
+	 * @return The number of sentences containing the word, without decoding its postings
+	 */
+	public int getWordSentenceCount(String word)
+	{
+		return this.getPostingsSize(TreebankIndex.wordKey(word));
+	}
+
+	/*
+	 * Postings Operations
+	 */
+
+	/**
+	 * @return The sentence IDs in both postings lists
+	 */
+	public static int[] intersect(int[] postings1, int[] postings2)
+	{
+		// Walk the shorter list, and gallop through the longer one
+		if (postings1.length > postings2.length)
+		{
+			return TreebankIndex.intersect(postings2, postings1);
+		}
+
+		int[] intersection = new int[postings1.length];
+
+		int numIntersection = 0;
+
+		int position2 = 0;
+
+		int curStep;
+
+		int curHigh;
+
+		for (int i = 0 ; (i < postings1.length) && (position2 < postings2.length) ; i++)
+		{
+			// Find a bound past the sentence ID by doubling steps, then binary search below it
+			curStep = 1;
+
+			while ((position2 + curStep < postings2.length) && (postings2[position2 + curStep] < postings1[i]))
+			{
+				curStep *= 2;
+			}
+
+			curHigh = Math.min(position2 + curStep + 1, postings2.length);
+
+			position2 = Arrays.binarySearch(postings2, position2, curHigh, postings1[i]);
+
+			if (position2 >= 0)
+			{
+				intersection[numIntersection] = postings1[i];
+
+				numIntersection++;
+
+				position2++;
+			}
+			else
+			{
+				position2 = -position2 - 1;
+			}
+		}
+
+		return Arrays.copyOf(intersection, numIntersection);
+	}
+
+	/**
+	 * @return The sentence IDs in all of the postings lists
+	 */
+	public static int[] intersect(int[]... postings)
+	{
+		if (postings.length == 0)
+		{
+			return TreebankIndex.EMPTY_POSTINGS;
+		}
+
+		// Intersect the shortest lists first, so that the intermediate results stay small
+		int[][] sortedPostings = postings.clone();
+
+		Arrays.sort(sortedPostings, (postings1, postings2) -> Integer.compare(postings1.length, postings2.length));
+
+		int[] intersection = sortedPostings[0];
+
+		for (int i = 1 ; (i < sortedPostings.length) && (intersection.length > 0) ; i++)
+		{
+			intersection = TreebankIndex.intersect(intersection, sortedPostings[i]);
+		}
+
+		return intersection;
+	}
+
+	/**
+	 * @return The sentence IDs in either postings list
+	 */
+	public static int[] union(int[] postings1, int[] postings2)
+	{
+		int[] union = new int[postings1.length + postings2.length];
+
+		int numUnion = 0;
+
+		int position1 = 0;
+		int position2 = 0;
+
+		while ((position1 < postings1.length) || (position2 < postings2.length))
+		{
+			if ((position2 == postings2.length)
+				|| ((position1 < postings1.length) && (postings1[position1] < postings2[position2])))
+			{
+				union[numUnion] = postings1[position1];
+
+				position1++;
+			}
+			else if ((position1 == postings1.length) || (postings2[position2] < postings1[position1]))
+			{
+				union[numUnion] = postings2[position2];
+
+				position2++;
+			}
+			else
+			{
+				union[numUnion] = postings1[position1];
+
+				position1++;
+				position2++;
+			}
+
+			numUnion++;
+		}
+
+		return Arrays.copyOf(union, numUnion);
+	}
+
+	/**
+	 * @return The sentence IDs in any of the postings lists
+	 */
+	public static int[] union(int[]... postings)
+	{
+		int[] union = TreebankIndex.EMPTY_POSTINGS;
+
+		for (int[] curPostings : postings)
+		{
+			union = TreebankIndex.union(union, curPostings);
+		}
+
+		return union;
+	}
+
+	/*
+	 * Keys
+	 */
+
+	// Constituent types and words never contain whitespace, so a space separates the parts of a key
+
+	static String constituentTypeKey(String constituentType)
+	{
+		return "T " + constituentType;
+	}
+
+	static String wordKey(String word)
+	{
+		return "W " + word;
+	}
+
+	static String wordWithImmediateParentConstituentTypeKey(String word, String constituentType)
+	{
+		return "P " + constituentType + " " + word;
+	}
+
+	private int getPostingsSize(String key)
+	{
+		Integer entry = this.keyToEntry.get(key);
+
+		return (entry == null) ? 0 : this.entryPostingsSizes[entry];
+	}
+
+	private int[] getPostings(String key)
+	{
+		Integer entry = this.keyToEntry.get(key);
+
+		if (entry == null)
+		{
+			return TreebankIndex.EMPTY_POSTINGS;
+		}
+
+		int[] postings = new int[this.entryPostingsSizes[entry]];
+
+		// Each reader of the (shared) file buffer needs its own position
+		ByteBuffer postingsBuffer = this.fileBuffer.duplicate();
+
+		postingsBuffer.position((int)this.entryPostingsOffsets[entry]);
+
+		int curSentenceId = 0;
+
+		for (int i = 0 ; i < postings.length ; i++)
+		{
+			curSentenceId += VarInts.readVarInt(postingsBuffer);
+
+			postings[i] = curSentenceId;
+		}
+
+		return postings;
+	}
+}
@@ -0,0 +1,385 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import utilities.CharSlices;
+import utilities.VarInts;
+import utilities.WordCountTable;
+
+/**
+ * Builds an inverted index from constituent types, words and (word, immediate parent constituent type) pairs
+ * to the IDs of the sentences that contain them, and writes it to a file that TreebankIndex memory-maps.
+ *
+ * Sentences are numbered in the order they are added, starting at 0.
+ *
+ * The file is laid out as:
+ *
+ *    0.) The header:  MAGIC and FORMAT_VERSION
+ *
+ *    1.) The postings lists, one after another.  Each is the increasing sentence IDs of a key, stored as the
+ *        varint gaps between consecutive IDs
+ *
+ *    2.) The key dictionary:  a varint count, then each key as a varint length, its UTF-8 bytes, the varint
+ *        length of its postings list and the varint file offset of its postings list
+ *
+ *    3.) The trailer:  the offset of the key dictionary, the number of sentences, and MAGIC again
+ *
+ * @author hlil_administrator
+ *
+ */
+public class TreebankIndexWriter implements Closeable
+{
+	public static final int MAGIC = 0x4D435449;
+
+	public static final int FORMAT_VERSION = 1;
+
+	// The trailer is a long, an int and the magic int
+	public static final int TRAILER_SIZE = 8 + 4 + 4;
+
+	private OutputStream output;
+
+	// The kinds of key, in the top two bits of a packed key (see packKey)
+	private static final long CONSTITUENT_TYPE_KEY = 0L;
+
+	private static final long WORD_KEY = 1L << 62;
+
+	private static final long WORD_WITH_IMMEDIATE_PARENT_CONSTITUENT_TYPE_KEY = 2L << 62;
+
+	private static final long KEY_KIND_MASK = 3L << 62;
+
+	// Word -> word ID, for packing the keys of words
+	private WordCountTable words = new WordCountTable();
+
+	// Open-addressing table from packed keys to key ID+1 (0 for an empty slot); the length is a power of two.
+	// Keys are only spelled out as strings (see TreebankIndex) when the index is written
+	private long[] keySlotPackedKeys = new long[2048];
+
+	private int[] keySlotKeyIds = new int[2048];
+
+	// Key ID -> packed key.  Key IDs are given in the order the keys are first seen
+	private long[] keyIdToPackedKey = new long[1024];
+
+	private int numKeys = 0;
+
+	// Key ID -> the sentence IDs containing the key, in increasing order
+	private int[][] keyPostings = new int[1024][];
+
+	private int[] keyPostingsSizes = new int[1024];
+
+	private int numSentences = 0;
+
+	public TreebankIndexWriter(File indexFile) throws IOException
+	{
+		this.output = new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16);
+	}
+
+	/**
+	 * Parse every constituent file in the base directory and index all of their sentences (numbered in the same
+	 * order as BinaryTreebankWriter.writeConstituentStructureFiles writes them)
+	 *
+	 * @return The number of sentences indexed
+	 */
+	public static int writeConstituentStructureFiles(
+		File baseDirectory, String filePatternRegex, File indexFile) throws IOException
+	{
+		TreebankIndexWriter writer = new TreebankIndexWriter(indexFile);
+
+		Stream<ConstituentStructure> sentences =
+			WSJConstituentCounter.streamConstituentStructureFiles(baseDirectory, filePatternRegex, null);
+
+		try
+		{
+			Iterator<ConstituentStructure> sentenceIterator = sentences.iterator();
+
+			while (sentenceIterator.hasNext())
+			{
+				writer.add(sentenceIterator.next());
+			}
+		}
+		finally
+		{
+			sentences.close();
+
+			writer.close();
+		}
+
+		return writer.numSentences;
+	}
+
+	/**
+	 * Index a sentence tree
+	 *
+	 * @return The sentence ID of the sentence
+	 */
+	public int add(ConstituentStructure sentence)
+	{
+		int sentenceId = this.numSentences;
+
+		this.numSentences++;
+
+		List<ConstituentStructure> frontier = new ArrayList<ConstituentStructure>();
+
+		frontier.add(sentence);
+
+		ConstituentStructure curNode;
+
+		int curConstituentTypeId;
+
+		int curWordId;
+
+		while (!frontier.isEmpty())
+		{
+			curNode = frontier.remove(frontier.size()-1);
+
+			curConstituentTypeId = curNode.getConstituentTypeId();
+
+			this.addPosting(
+				TreebankIndexWriter.packKey(TreebankIndexWriter.CONSTITUENT_TYPE_KEY, 0, curConstituentTypeId), sentenceId);
+
+			for (String curWord : curNode.getContentWords())
+			{
+				curWordId = this.words.count(curWord, 0, curWord.length());
+
+				this.addPosting(TreebankIndexWriter.packKey(TreebankIndexWriter.WORD_KEY, curWordId, 0), sentenceId);
+				this.addPosting(
+					TreebankIndexWriter.packKey(
+						TreebankIndexWriter.WORD_WITH_IMMEDIATE_PARENT_CONSTITUENT_TYPE_KEY, curWordId, curConstituentTypeId), 
+					sentenceId);
+			}
+
+			frontier.addAll(curNode.getConstituentChildren());
+		}
+
+		return sentenceId;
+	}
+
+	public int numSentences()
+	{
+		return this.numSentences;
+	}
+
+	/**
+	 * Write the index and close the file
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			DataOutputStream indexOutput = new DataOutputStream(this.output);
+
+			indexOutput.writeInt(TreebankIndexWriter.MAGIC);
+			indexOutput.writeInt(TreebankIndexWriter.FORMAT_VERSION);
+
+			long position = 8;
+
+			long[] keyPostingsOffsets = new long[this.numKeys];
+
+			ByteArrayOutputStream encodingBuffer = new ByteArrayOutputStream();
+
+			int[] curPostings;
+
+			int curPreviousSentenceId;
+
+			for (int i = 0 ; i < this.numKeys ; i++)
+			{
+				keyPostingsOffsets[i] = position;
+
+				encodingBuffer.reset();
+
+				curPostings = this.keyPostings[i];
+
+				curPreviousSentenceId = 0;
+
+				for (int j = 0 ; j < this.keyPostingsSizes[i] ; j++)
+				{
+					VarInts.writeVarInt(encodingBuffer, curPostings[j] - curPreviousSentenceId);
+
+					curPreviousSentenceId = curPostings[j];
+				}
+
+				encodingBuffer.writeTo(indexOutput);
+
+				position += encodingBuffer.size();
+			}
+
+			long keyDictionaryOffset = position;
+
+			encodingBuffer.reset();
+
+			VarInts.writeVarInt(encodingBuffer, this.numKeys);
+
+			byte[] curKeyBytes;
+
+			for (int i = 0 ; i < this.numKeys ; i++)
+			{
+				curKeyBytes = this.spellKey(this.keyIdToPackedKey[i]).getBytes(StandardCharsets.UTF_8);
+
+				VarInts.writeVarInt(encodingBuffer, curKeyBytes.length);
+
+				encodingBuffer.write(curKeyBytes);
+
+				VarInts.writeVarInt(encodingBuffer, this.keyPostingsSizes[i]);
+				VarInts.writeVarLong(encodingBuffer, keyPostingsOffsets[i]);
+			}
+
+			encodingBuffer.writeTo(indexOutput);
+
+			indexOutput.writeLong(keyDictionaryOffset);
+			indexOutput.writeInt(this.numSentences);
+			indexOutput.writeInt(TreebankIndexWriter.MAGIC);
+
+			indexOutput.flush();
+		}
+		finally
+		{
+			this.output.close();
+		}
+	}
+
+	private void addPosting(long packedKey, int sentenceId)
+	{
+		int keyId = this.findOrAddKey(packedKey);
+
+		int[] postings = this.keyPostings[keyId];
+
+		int numPostings = this.keyPostingsSizes[keyId];
+
+		// A sentence is only listed once per key, however many times the key occurs in it
+		if ((numPostings > 0) && (postings[numPostings-1] == sentenceId))
+		{
+			return;
+		}
+
+		if (postings == null)
+		{
+			postings = new int[4];
+		}
+		else if (numPostings == postings.length)
+		{
+			postings = Arrays.copyOf(postings, numPostings * 2);
+		}
+
+		postings[numPostings] = sentenceId;
+
+		this.keyPostings[keyId] = postings;
+		this.keyPostingsSizes[keyId] = numPostings + 1;
+	}
+
+	/*
+	 * Keys
+	 */
+
+	/**
+	 * @return The key ID of the packed key, which is given the next key ID if it has not been seen before
+	 */
+	private int findOrAddKey(long packedKey)
+	{
+		int mask = this.keySlotKeyIds.length - 1;
+
+		int curSlot = (int)CharSlices.mix64(packedKey) & mask;
+
+		while (this.keySlotKeyIds[curSlot] != 0)
+		{
+			if (this.keySlotPackedKeys[curSlot] == packedKey)
+			{
+				return this.keySlotKeyIds[curSlot] - 1;
+			}
+
+			curSlot = (curSlot + 1) & mask;
+		}
+
+		int keyId = this.numKeys;
+
+		if (keyId == this.keyIdToPackedKey.length)
+		{
+			this.keyIdToPackedKey = Arrays.copyOf(this.keyIdToPackedKey, keyId * 2);
+			this.keyPostings = Arrays.copyOf(this.keyPostings, keyId * 2);
+			this.keyPostingsSizes = Arrays.copyOf(this.keyPostingsSizes, keyId * 2);
+		}
+
+		this.keyIdToPackedKey[keyId] = packedKey;
+
+		this.numKeys++;
+
+		this.keySlotPackedKeys[curSlot] = packedKey;
+		this.keySlotKeyIds[curSlot] = keyId+1;
+
+		// Keep the slots at most half full
+		if (this.numKeys * 2 > this.keySlotKeyIds.length)
+		{
+			this.rebuildKeySlots(this.keySlotKeyIds.length * 2);
+		}
+
+		return keyId;
+	}
+
+	private void rebuildKeySlots(int numSlots)
+	{
+		this.keySlotPackedKeys = new long[numSlots];
+		this.keySlotKeyIds = new int[numSlots];
+
+		int mask = numSlots - 1;
+
+		int curSlot;
+
+		for (int keyId = 0 ; keyId < this.numKeys ; keyId++)
+		{
+			curSlot = (int)CharSlices.mix64(this.keyIdToPackedKey[keyId]) & mask;
+
+			while (this.keySlotKeyIds[curSlot] != 0)
+			{
+				curSlot = (curSlot + 1) & mask;
+			}
+
+			this.keySlotPackedKeys[curSlot] = this.keyIdToPackedKey[keyId];
+			this.keySlotKeyIds[curSlot] = keyId+1;
+		}
+	}
+
+	/**
+	 * @return The key as the kind of key in its top two bits, the word ID in the next 31 bits and the constituent
+	 *         type ID (see ConstituentLabelTable) in the low 31 bits
+	 */
+	private static long packKey(long keyKind, int wordId, int constituentTypeId)
+	{
+		return keyKind | (((long)wordId) << 31) | constituentTypeId;
+	}
+
+	/**
+	 * @return The key spelled out as TreebankIndex looks it up
+	 */
+	private String spellKey(long packedKey)
+	{
+		String constituentType = ConstituentLabelTable.getLabel((int)(packedKey & 0x7FFFFFFFL));
+
+		long keyKind = packedKey & TreebankIndexWriter.KEY_KIND_MASK;
+
+		if (keyKind == TreebankIndexWriter.CONSTITUENT_TYPE_KEY)
+		{
+			return TreebankIndex.constituentTypeKey(constituentType);
+		}
+
+		String word = this.words.getWord((int)((packedKey >>> 31) & 0x7FFFFFFFL));
+
+		if (keyKind == TreebankIndexWriter.WORD_KEY)
+		{
+			return TreebankIndex.wordKey(word);
+		}
+
+		return TreebankIndex.wordWithImmediateParentConstituentTypeKey(word, constituentType);
+	}
+}
@@ -1,12 +1,49 @@
 package main;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import utilities.ByteBufferCharSequence;
+import utilities.CharSequenceReader;
+import utilities.CharSlices;
+import utilities.CompressedFiles;
+import utilities.CountMinSketch;
+import utilities.HyperLogLog;
+import utilities.Pair;
+import utilities.ParallelGzipInputStream;
+import utilities.SpaceSavingSummary;
+import utilities.SparseCountMatrix;
+import utilities.VarInts;
+import utilities.WordCountTable;
 
 /**
  * Count constituents as constructions in the form:
@@ -27,238 +64,1636 @@ public class WSJConstituentCounter
 {	
 	/*
 	 * Statistical frequency tables data type to track basic counts in WSJ tagged data 
+	 * 
+	 * Statistics are either exact (the default) or approximate (see approximate()).  Approximate statistics 
+	 * use a fixed amount of memory no matter how much is counted into them:  word and (word, immediate parent 
+	 * constituent type) counts are kept in Count-Min sketches, and the numbers of distinct words and skeletons 
+	 * are estimated with HyperLogLog.  Constituent type counts and the totals are exact in both modes.  The 
+	 * queries that need the actual words or skeletons (the word table, the skeleton catalog and the top words 
+	 * of a constituent type) are not available from approximate statistics
+	 * 
+	 * Statistics of the same kind can be merged in any grouping with the same counts (merge is associative; 
+	 * only the error bounds of heavy hitters can depend on the grouping), and can be written to and read back 
+	 * from a compact binary snapshot (see writeSnapshot()), so that statistics counted by separate processes 
+	 * can be combined (see ShardedConstituentCounter)
 	 */
 	public static class WSJConstituentCounterStatistics
 	{
-		public Map<String, Integer> constituentTypeToCount =
-			new HashMap<String, Integer>();
+		// The default error of an approximate count, as a fraction of the total number of words (which makes each 
+		// Count-Min sketch about 1MB; every file counted in parallel needs sketches of its own)
+		public static final double DEFAULT_APPROXIMATE_COUNT_ERROR = 1e-4;
+		
+		// The default probability that an approximate count exceeds that error
+		public static final double DEFAULT_APPROXIMATE_COUNT_ERROR_PROBABILITY = 0.01;
+		
+		// The default relative standard error of an approximate number of distinct words or skeletons
+		public static final double DEFAULT_APPROXIMATE_DISTINCT_COUNT_ERROR = 0.01;
+		
+		public static final int SNAPSHOT_MAGIC = 0x4D435353;
+		
+		public static final int SNAPSHOT_FORMAT_VERSION = 1;
+		
+		// The flags at the start of a snapshot
+		private static final int SNAPSHOT_APPROXIMATE = 1;
+		
+		private static final int SNAPSHOT_HEAVY_HITTERS = 2;
+		
+		// Constituent type ID (see ConstituentLabelTable) -> count; grows as new constituent types are seen
+		private long[] constituentTypeIdToCount = new long[64];
 		
 		// This is the total number of constituents 
-		public Integer numConstituents = 0;
+		public long numConstituents = 0;
 		
 		// This is the total number of words in the corpus
-		public Integer numWords = 0;
+		public long numWords = 0;
 		
-		public Map<String, Integer> wordToCount = new HashMap<String, Integer>();
+		// Word -> count (each distinct word also has a dense ID in this table)
+		private WordCountTable wordCounts = new WordCountTable();
 		
-		public Map<String, Map<String, Integer>> wordToImmediateParentConstituentTypeToCount =
-			new HashMap<String, Map<String, Integer>>();
-	}
-	
-	public static class WSJConstituentCounterStructures
-	{
-		public List<ConstituentStructure> parsedConstituentStructures = new LinkedList<ConstituentStructure>();
+		// (Word ID, constituent type ID) -> the number of times the word occurred directly inside of a 
+		// constituent of that type
+		private SparseCountMatrix wordToImmediateParentConstituentTypeToCount = new SparseCountMatrix();
 		
-		public List<ConstituentSkeleton> parsedConstituentSkeletons = new LinkedList<ConstituentSkeleton>();
-	}
-	
-	public static WSJConstituentCounterStructures parseContituentsFromString(
-			String constituentsString,
-			WSJConstituentCounterStatistics statistics)
-	{
-		WSJConstituentCounterStructures returnStructure = new WSJConstituentCounterStructures();
+		// The frequency of every distinct sentence skeleton
+		private ConstituentSkeletonCatalog skeletonCatalog = new ConstituentSkeletonCatalog();
+		
+		// In approximate statistics, the sketches that replace the word table, the (word, constituent type) 
+		// matrix and the skeleton catalog (which are null); all null in exact statistics
+		private CountMinSketch approximateWordCounts;
+		
+		private CountMinSketch approximateWordImmediateParentConstituentTypeCounts;
+		
+		private HyperLogLog approximateDistinctWords;
+		
+		private HyperLogLog approximateDistinctSkeletons;
+		
+		// Summaries of the most frequent words, (word, immediate parent constituent type) pairs and sentence 
+		// skeletons, if they are being tracked (see trackHeavyHitters())
+		private SpaceSavingSummary<String> heavyHitterWords;
+		
+		private SpaceSavingSummary<Pair<String, String>> heavyHitterWordImmediateParentConstituentTypes;
+		
+		private SpaceSavingSummary<ConstituentSkeleton> heavyHitterSkeletons;
+		
+		// Create the keys of the heavy hitter summaries from the word or sentence currently being counted
+		private WordKeyFactory wordKeyFactory = new WordKeyFactory();
+		
+		private WordImmediateParentConstituentTypeKeyFactory wordImmediateParentConstituentTypeKeyFactory = 
+			new WordImmediateParentConstituentTypeKeyFactory();
+		
+		private SkeletonKeyFactory skeletonKeyFactory = new SkeletonKeyFactory();
+		
+		// Constituent type ID -> hash of the constituent type, for the (word, constituent type) sketch and summary
+		private long[] constituentTypeIdToHash = new long[0];
+		
+		/**
+		 * @return New approximate statistics with the default error bounds
+		 */
+		public static WSJConstituentCounterStatistics approximate()
+		{
+			return WSJConstituentCounterStatistics.approximate(
+				WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_COUNT_ERROR, 
+				WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_COUNT_ERROR_PROBABILITY, 
+				WSJConstituentCounterStatistics.DEFAULT_APPROXIMATE_DISTINCT_COUNT_ERROR);
+		}
+		
+		/**
+		 * @param countError               The error of a word or (word, constituent type) count, as a fraction of 
+		 *                                 the total number of words (counts are never underestimated)
+		 * @param countErrorProbability    The probability that a count exceeds that error
+		 * @param distinctCountError       The relative standard error of the number of distinct words or skeletons
+		 * 
+		 * @return New approximate statistics (whose memory is determined by the error bounds alone)
+		 */
+		public static WSJConstituentCounterStatistics approximate(
+			double countError, double countErrorProbability, double distinctCountError)
+		{
+			CountMinSketch countDimensions = CountMinSketch.withErrorBounds(countError, countErrorProbability);
+			
+			return WSJConstituentCounterStatistics.newApproximate(
+				countDimensions.getWidth(), 
+				countDimensions.getDepth(), 
+				HyperLogLog.withRelativeError(distinctCountError).getPrecision());
+		}
+		
+		private static WSJConstituentCounterStatistics newApproximate(int countWidth, int countDepth, int distinctCountPrecision)
+		{
+			WSJConstituentCounterStatistics statistics = new WSJConstituentCounterStatistics();
+			
+			statistics.wordCounts = null;
+			statistics.wordToImmediateParentConstituentTypeToCount = null;
+			statistics.skeletonCatalog = null;
+			
+			statistics.approximateWordCounts = new CountMinSketch(countWidth, countDepth);
+			statistics.approximateWordImmediateParentConstituentTypeCounts = new CountMinSketch(countWidth, countDepth);
+			statistics.approximateDistinctWords = new HyperLogLog(distinctCountPrecision);
+			statistics.approximateDistinctSkeletons = new HyperLogLog(distinctCountPrecision);
+			
+			return statistics;
+		}
+		
+		/**
+		 * @return New, empty statistics of the same kind (and, if approximate, with the same error bounds) as 
+		 *         these, tracking the same heavy hitters, which can be merged into these
+		 */
+		public WSJConstituentCounterStatistics newEmptyCopy()
+		{
+			WSJConstituentCounterStatistics statistics;
+			
+			if (!this.isApproximate())
+			{
+				statistics = new WSJConstituentCounterStatistics();
+			}
+			else
+			{
+				statistics = WSJConstituentCounterStatistics.newApproximate(
+					this.approximateWordCounts.getWidth(), 
+					this.approximateWordCounts.getDepth(), 
+					this.approximateDistinctWords.getPrecision());
+			}
+			
+			if (this.isTrackingHeavyHitters())
+			{
+				statistics.trackHeavyHitters(this.heavyHitterWords.getCapacity());
+			}
+			
+			return statistics;
+		}
+		
+		/**
+		 * Start tracking the (approximately) numHeavyHitters most frequent words, (word, immediate parent 
+		 * constituent type) pairs and sentence skeletons, in memory proportional to numHeavyHitters (see 
+		 * SpaceSavingSummary).  Every item that makes up more than 1/numHeavyHitters of its total is guaranteed to 
+		 * be tracked.  Must be called before anything is counted
+		 */
+		public void trackHeavyHitters(int numHeavyHitters)
+		{
+			if ((this.numWords != 0) || (this.numConstituents != 0))
+			{
+				throw new IllegalStateException("Heavy hitters must be tracked from before anything is counted");
+			}
+			
+			this.heavyHitterWords = new SpaceSavingSummary<String>(numHeavyHitters);
+			this.heavyHitterWordImmediateParentConstituentTypes = new SpaceSavingSummary<Pair<String, String>>(numHeavyHitters);
+			this.heavyHitterSkeletons = new SpaceSavingSummary<ConstituentSkeleton>(numHeavyHitters);
+		}
+		
+		public boolean isTrackingHeavyHitters()
+		{
+			return this.heavyHitterWords != null;
+		}
+		
+		public boolean isApproximate()
+		{
+			return this.approximateWordCounts != null;
+		}
+		
+		/**
+		 * Count one constituent of the given type
+		 */
+		public void countConstituentType(int constituentTypeId)
+		{
+			this.ensureConstituentTypeCapacity(constituentTypeId + 1);
+			
+			this.constituentTypeIdToCount[constituentTypeId]++;
+			
+			this.numConstituents++;
+		}
+		
+		public long getConstituentTypeCount(int constituentTypeId)
+		{
+			if (constituentTypeId >= this.constituentTypeIdToCount.length)
+			{
+				return 0;
+			}
+			
+			return this.constituentTypeIdToCount[constituentTypeId];
+		}
 		
-		char curChar;
-		StringBuilder curConstituentTypeBuilder = new StringBuilder();
-		String curConstituentTypeString;
-		int curConstituentTypeStringLength;
-		boolean leftBracketReached = false;
-		boolean endOfContituentTypeReached = false;
+		public long getConstituentTypeCount(String constituentType)
+		{
+			int constituentTypeId = ConstituentLabelTable.findLabelId(constituentType);
+			
+			if (constituentTypeId < 0)
+			{
+				return 0;
+			}
+			
+			return this.getConstituentTypeCount(constituentTypeId);
+		}
 		
-		boolean startOfWordReached = false;
-		boolean endOfWordReached = false;
+		/**
+		 * @return A new map from every constituent type that has been counted to its count
+		 */
+		public Map<String, Long> getConstituentTypeToCount()
+		{
+			Map<String, Long> constituentTypeToCount = new HashMap<String, Long>();
+			
+			for (int i = 0 ; i < this.constituentTypeIdToCount.length ; i++)
+			{
+				if (this.constituentTypeIdToCount[i] != 0)
+				{
+					constituentTypeToCount.put(ConstituentLabelTable.getLabel(i), this.constituentTypeIdToCount[i]);
+				}
+			}
+			
+			return constituentTypeToCount;
+		}
 		
-		boolean rightBracketReached = false;
+		/**
+		 * Count one occurrence of the word spelled by the characters from start (inclusive) to end (exclusive),
+		 * directly inside of a constituent with the given type ID
+		 * 
+		 * @return The ID of the word in getWordCounts(), or -1 if the statistics are approximate
+		 */
+		public int countWord(CharSequence chars, int start, int end, int immediateParentConstituentTypeId)
+		{
+			this.numWords++;
+			
+			int wordId = -1;
+			
+			long wordHash = 0;
+			
+			if (this.isApproximate() || this.isTrackingHeavyHitters())
+			{
+				wordHash = CharSlices.hash64(chars, start, end);
+			}
+			
+			if (this.isApproximate())
+			{
+				this.approximateWordCounts.add(wordHash, 1);
+				this.approximateDistinctWords.offer(wordHash);
+				this.approximateWordImmediateParentConstituentTypeCounts.add(
+					this.wordImmediateParentConstituentTypeHash(wordHash, immediateParentConstituentTypeId), 1);
+			}
+			else
+			{
+				wordId = this.wordCounts.count(chars, start, end);
+				
+				this.wordToImmediateParentConstituentTypeToCount.add(wordId, immediateParentConstituentTypeId, 1);
+			}
+			
+			if (this.isTrackingHeavyHitters())
+			{
+				this.wordKeyFactory.chars = chars;
+				this.wordKeyFactory.start = start;
+				this.wordKeyFactory.end = end;
+				this.wordKeyFactory.wordId = wordId;
+				this.wordImmediateParentConstituentTypeKeyFactory.constituentTypeId = immediateParentConstituentTypeId;
+				
+				this.heavyHitterWords.offer(wordHash, 1, this.wordKeyFactory);
+				this.heavyHitterWordImmediateParentConstituentTypes.offer(
+					this.wordImmediateParentConstituentTypeHash(wordHash, immediateParentConstituentTypeId), 
+					1, 
+					this.wordImmediateParentConstituentTypeKeyFactory);
 				
-		StringBuilder curWordBuilder = new StringBuilder();
-		String curWordString;
-		int curWordStringLength = 0;
+				// The key factory must not hold on to the input
+				this.wordKeyFactory.chars = null;
+			}
+			
+			return wordId;
+		}
+		
+		/**
+		 * @return The number of times the word was counted (an upper bound on it, if the statistics are 
+		 *         approximate)
+		 */
+		public long getWordCount(String word)
+		{
+			if (this.isApproximate())
+			{
+				return this.approximateWordCounts.estimate(CharSlices.hash64(word, 0, word.length()));
+			}
+			
+			return this.wordCounts.getCount(word);
+		}
+		
+		public WordCountTable getWordCounts()
+		{
+			this.checkExact("the word table");
+			
+			return this.wordCounts;
+		}
+		
+		/**
+		 * @return A new map from every word that has been counted to its count
+		 */
+		public Map<String, Long> getWordToCount()
+		{
+			this.checkExact("the word table");
+			
+			return this.wordCounts.toMap();
+		}
+		
+		/**
+		 * @return The number of distinct words that have been counted (an estimate, if the statistics are 
+		 *         approximate)
+		 */
+		public long getNumDistinctWords()
+		{
+			if (this.isApproximate())
+			{
+				return this.approximateDistinctWords.cardinality();
+			}
+			
+			return this.wordCounts.numNonZeroCounts();
+		}
 		
-		Integer curWordFrequencyCounter;
-		Map<String, Integer> curWordToParentConstituentMap;
-		Integer curWordToParentConstituentFrequencyCounter;
+		/**
+		 * Count the skeleton of a whole sentence
+		 */
+		public void countSkeleton(ConstituentStructure sentence)
+		{
+			long structuralHash;
+			
+			if (this.isApproximate())
+			{
+				structuralHash = ConstituentSkeletonCatalog.computeStructuralHash(sentence);
+				
+				this.approximateDistinctSkeletons.offer(structuralHash);
+			}
+			else
+			{
+				structuralHash = this.skeletonCatalog.getStructuralHash(this.skeletonCatalog.add(sentence));
+			}
+			
+			if (this.isTrackingHeavyHitters())
+			{
+				this.skeletonKeyFactory.sentence = sentence;
+				
+				this.heavyHitterSkeletons.offer(structuralHash, 1, this.skeletonKeyFactory);
+				
+				this.skeletonKeyFactory.sentence = null;
+			}
+		}
 		
-		// Create the new constituent roots
-		ConstituentStructure prevConstituentStructureNode = new ConstituentStructure("ROOT");
-		ConstituentSkeleton prevConstituentSkeletonNode = new ConstituentSkeleton("ROOT");
+		public ConstituentSkeletonCatalog getSkeletonCatalog()
+		{
+			this.checkExact("the skeleton catalog");
+			
+			return this.skeletonCatalog;
+		}
 		
-		ConstituentStructure curConstituentStructureNode = null;
-		ConstituentSkeleton curConstituentSkeletonNode = null;
+		/**
+		 * @return The number of distinct sentence skeletons that have been counted (an estimate, if the 
+		 *         statistics are approximate)
+		 */
+		public long getNumDistinctSkeletons()
+		{
+			if (this.isApproximate())
+			{
+				return this.approximateDistinctSkeletons.cardinality();
+			}
+			
+			return this.skeletonCatalog.numDistinctSkeletons();
+		}
 		
-		for (int i = 0; i < constituentsString.length() ; i++)
+		/**
+		 * @return The number of times the word occurred directly inside of a constituent of the given type (an 
+		 *         upper bound on it, if the statistics are approximate)
+		 */
+		public long getWordImmediateParentConstituentTypeCount(String word, String constituentType)
 		{
-			curChar = constituentsString.charAt(i);
+			if (this.isApproximate())
+			{
+				int constituentTypeId = ConstituentLabelTable.findLabelId(constituentType);
+				
+				if (constituentTypeId < 0)
+				{
+					return 0;
+				}
+				
+				return this.approximateWordImmediateParentConstituentTypeCounts.estimate(
+					this.wordImmediateParentConstituentTypeHash(CharSlices.hash64(word, 0, word.length()), constituentTypeId));
+			}
 			
-			// Determine if this is the start of a new constituent
-			if (curChar == '(')
+			int wordId = this.wordCounts.findWordId(word);
+			int constituentTypeId = ConstituentLabelTable.findLabelId(constituentType);
+			
+			if ((wordId < 0) || (constituentTypeId < 0))
 			{
-				leftBracketReached = true;
-				endOfContituentTypeReached = false;
+				return 0;
 			}
-			// If a new constituent is reached and the constituent type is being parsed
-			else if (leftBracketReached && !endOfContituentTypeReached)
+			
+			return this.wordToImmediateParentConstituentTypeToCount.get(wordId, constituentTypeId);
+		}
+		
+		/**
+		 * @return A new map from every constituent type that the word has occurred directly inside of to the
+		 *         number of times it did so.  If the statistics are approximate, the counts are upper bounds, and
+		 *         the map may include constituent types that the word never occurred directly inside of
+		 */
+		public Map<String, Long> getImmediateParentConstituentTypeToCount(String word)
+		{
+			final Map<String, Long> constituentTypeToCount = new HashMap<String, Long>();
+			
+			if (this.isApproximate())
 			{
-				// Possible end of constituent type
-				if (curChar == ' ')
+				long wordHash = CharSlices.hash64(word, 0, word.length());
+				
+				long curCount;
+				
+				for (int curConstituentTypeId = 0 ; curConstituentTypeId < ConstituentLabelTable.numLabels() ; curConstituentTypeId++)
 				{
-					endOfContituentTypeReached = true;
+					curCount = this.approximateWordImmediateParentConstituentTypeCounts.estimate(
+						this.wordImmediateParentConstituentTypeHash(wordHash, curConstituentTypeId));
 					
-					curConstituentTypeString = curConstituentTypeBuilder.toString().trim();
-					curConstituentTypeStringLength = curConstituentTypeString.length();
-					
-					// If this was just a left-bracket, then do nothing
-					if (curConstituentTypeString.equals(""))
+					if (curCount != 0)
 					{
-						leftBracketReached = false;
-						endOfContituentTypeReached = false;
-						
-						continue;
+						constituentTypeToCount.put(ConstituentLabelTable.getLabel(curConstituentTypeId), curCount);
 					}
-					// Otherwise, log the constituent type
-					else
+				}
+				
+				return constituentTypeToCount;
+			}
+			
+			int wordId = this.wordCounts.findWordId(word);
+			
+			if (wordId >= 0)
+			{
+				this.wordToImmediateParentConstituentTypeToCount.forEachInRow(wordId, new SparseCountMatrix.EntryVisitor()
+				{
+					@Override
+					public void visit(int row, int column, long count)
 					{
-						endOfContituentTypeReached = true;
-						
-						// Create the new constituent structure
-						curConstituentStructureNode = new ConstituentStructure(curConstituentTypeString);
-						curConstituentSkeletonNode = new ConstituentSkeleton(curConstituentTypeString);
-						
-						// Attach to the previous constituent
-						prevConstituentStructureNode.addConstituentStructureChild(curConstituentStructureNode);
-						prevConstituentSkeletonNode.addConstituentStructureChild(curConstituentSkeletonNode);
-						
-						// Increment the number of constituents
-						statistics.numConstituents++;
-						
-						// Increment the number of this type of constituent
-						Integer curConstituentTypeToCount = 
-							statistics.constituentTypeToCount.get(curConstituentTypeString);
-						
-						if (curConstituentTypeToCount == null)
+						// Counts that have been subtracted back down to 0 are left in the matrix
+						if (count != 0)
 						{
-							curConstituentTypeToCount = 0;
+							constituentTypeToCount.put(ConstituentLabelTable.getLabel(column), count);
 						}
-						
-						curConstituentTypeToCount++;
-						
-						statistics.constituentTypeToCount.put(curConstituentTypeString, curConstituentTypeToCount);
-						
-						// Clear the string builder for the next constituent type
-						curConstituentTypeBuilder.delete(0, curConstituentTypeStringLength);
 					}
-				}
-				else
-				{
-					curConstituentTypeBuilder.append(curChar);
-				}
+				});
 			}
-			// If the end of a constituent type is reached, then determine how to continue to parse the structure
-			else if (endOfContituentTypeReached && !rightBracketReached)
+			
+			return constituentTypeToCount;
+		}
+		
+		/**
+		 * @return The (at most) numTopWords words that occur most often directly inside of a constituent of the
+		 *         given type, with their counts, most frequent first.  Approximate statistics can only answer this 
+		 *         if they track heavy hitters, from the most frequent (word, constituent type) pairs, with upper 
+		 *         bounds on the counts
+		 */
+		public List<Pair<String, Long>> getTopWordsWithImmediateParentConstituentType(String constituentType, int numTopWords)
+		{
+			final List<Pair<String, Long>> wordsAndCounts = new ArrayList<Pair<String, Long>>();
+			
+			// Approximate statistics only know the words of the most frequent (word, constituent type) pairs
+			if (this.isApproximate() && this.isTrackingHeavyHitters())
 			{
-				// Determine if the start of a word has been reached
-				if (startOfWordReached)
+				for (SpaceSavingSummary.Entry<Pair<String, String>> curEntry : this.heavyHitterWordImmediateParentConstituentTypes.getEntries())
 				{
-					// If this is a space, then the end of the word has been reached
-					if (curChar == ' ')
+					if (curEntry.getKey().getValue().equals(constituentType))
 					{
-						// Read the string off of the string builder
-						curWordString = curWordBuilder.toString();
-						curWordStringLength = curWordString.length();
-						
-						// Add the content word to the current structure node
-						curConstituentStructureNode.addContentWord(curWordString);
-						
-						// Update the state of the parser
-						endOfWordReached = true;
-						startOfWordReached = false;
-						
-						// Increment the word statistics counter
-						
-						// Clear the string builder for the next word
-						curWordBuilder.delete(0, curWordStringLength);
+						wordsAndCounts.add(new Pair<String, Long>(curEntry.getKey().getKey(), curEntry.getCount()));
 					}
 				}
-				// Detect if the end of a constituent has been reached (this assumes that a ')' will never
-				// appear as part of a word (although this assumption is dubious, it is probably justified
-				// for small amounts of standard texts)
-				else if (curChar == ')')
-				{
-					endOfWordReached = true;
-					
-					// Note:  after a right bracket is reached, no more words can be added to a constituent structure
-					rightBracketReached = true;
-				}
-				// Detect if
-				else if (curChar != ' ')
+				
+				return WSJConstituentCounterStatistics.mostFrequentFirst(wordsAndCounts, numTopWords);
+			}
+			
+			this.checkExact("the words of a constituent type");
+			
+			int constituentTypeId = ConstituentLabelTable.findLabelId(constituentType);
+			
+			if (constituentTypeId >= 0)
+			{
+				this.wordToImmediateParentConstituentTypeToCount.forEachInColumn(constituentTypeId, new SparseCountMatrix.EntryVisitor()
 				{
-					// Append this character to the current word string builder
-					curWordBuilder.append(curChar);
-					
-					// Update the state to indicate that a new word has been started
-					startOfWordReached = true;
-				}
+					@Override
+					public void visit(int row, int column, long count)
+					{
+						if (count != 0)
+						{
+							wordsAndCounts.add(new Pair<String, Long>(
+								WSJConstituentCounterStatistics.this.wordCounts.getWord(row), count));
+						}
+					}
+				});
 			}
 			
+			return WSJConstituentCounterStatistics.mostFrequentFirst(wordsAndCounts, numTopWords);
 		}
 		
-		return returnStructure;
-	}
-	
-	public static WSJConstituentCounterStructures parseConstituentStructureFiles(
-		File baseDirectory, String filePatternRegex, WSJConstituentCounterStatistics statistics)
-	{
-		// Create return structure
-		WSJConstituentCounterStructures allConstituentStructures = new WSJConstituentCounterStructures();
+		/**
+		 * @return The (at most) numTopConstituentTypes most frequent constituent types, with their counts, most 
+		 *         frequent first (always exact)
+		 */
+		public List<Pair<String, Long>> getTopConstituentTypes(int numTopConstituentTypes)
+		{
+			List<Pair<String, Long>> constituentTypesAndCounts = new ArrayList<Pair<String, Long>>();
+			
+			for (Map.Entry<String, Long> curEntry : this.getConstituentTypeToCount().entrySet())
+			{
+				constituentTypesAndCounts.add(new Pair<String, Long>(curEntry.getKey(), curEntry.getValue()));
+			}
+			
+			return WSJConstituentCounterStatistics.mostFrequentFirst(constituentTypesAndCounts, numTopConstituentTypes);
+		}
 		
-		// Obtain a list of all of the files in the base repository directory 
-		File[] filesInBaseDirectory = baseDirectory.listFiles();
+		/**
+		 * @return The (at most) numTopWords most frequent words, most frequent first, with bounds on their counts 
+		 *         (heavy hitters must be tracked)
+		 */
+		public List<SpaceSavingSummary.Entry<String>> getTopWords(int numTopWords)
+		{
+			this.checkTrackingHeavyHitters();
+			
+			return this.heavyHitterWords.getTop(numTopWords);
+		}
 		
-		String curFileName;
+		/**
+		 * @return The (at most) numTopPairs most frequent (word, immediate parent constituent type) pairs, most 
+		 *         frequent first, with bounds on their counts (heavy hitters must be tracked)
+		 */
+		public List<SpaceSavingSummary.Entry<Pair<String, String>>> getTopWordImmediateParentConstituentTypes(int numTopPairs)
+		{
+			this.checkTrackingHeavyHitters();
+			
+			return this.heavyHitterWordImmediateParentConstituentTypes.getTop(numTopPairs);
+		}
 		
-		BufferedReader reader;
+		/**
+		 * @return The (at most) numTopSkeletons most frequent sentence skeletons, most frequent first, with bounds 
+		 *         on their counts (heavy hitters must be tracked)
+		 */
+		public List<SpaceSavingSummary.Entry<ConstituentSkeleton>> getTopSkeletons(int numTopSkeletons)
+		{
+			this.checkTrackingHeavyHitters();
+			
+			return this.heavyHitterSkeletons.getTop(numTopSkeletons);
+		}
 		
-		String curFileLine;
+		private static List<Pair<String, Long>> mostFrequentFirst(List<Pair<String, Long>> itemsAndCounts, int numTopItems)
+		{
+			Collections.sort(itemsAndCounts, new Comparator<Pair<String, Long>>()
+			{
+				@Override
+				public int compare(Pair<String, Long> first, Pair<String, Long> second)
+				{
+					return Long.compare(second.getValue(), first.getValue());
+				}
+			});
+			
+			return itemsAndCounts.subList(0, Math.min(numTopItems, itemsAndCounts.size()));
+		}
 		
-		StringBuilder curTotalFileStringBuilder;
+		private void checkTrackingHeavyHitters()
+		{
+			if (!this.isTrackingHeavyHitters())
+			{
+				throw new IllegalStateException("Heavy hitters are not being tracked");
+			}
+		}
 		
-		// Examine all of the files
-		try
+		/**
+		 * @return The key of a (word, immediate parent constituent type) pair in the approximate statistics.  The 
+		 *         constituent type itself (rather than its ID) is hashed, so that the key is the same in every run
+		 */
+		private long wordImmediateParentConstituentTypeHash(long wordHash, int constituentTypeId)
 		{
-			for (File curFile : filesInBaseDirectory)
+			if (constituentTypeId >= this.constituentTypeIdToHash.length)
 			{
-				curFileName = curFile.getName();
+				int oldLength = this.constituentTypeIdToHash.length;
 				
-				// If the current file contains constituent data
-				if (curFileName.matches(filePatternRegex))
+				this.constituentTypeIdToHash = Arrays.copyOf(
+					this.constituentTypeIdToHash, Math.max(ConstituentLabelTable.numLabels(), constituentTypeId + 1));
+				
+				String curConstituentType;
+				
+				for (int i = oldLength ; i < this.constituentTypeIdToHash.length ; i++)
 				{
-					// Compile the lines of the file into a single string and pass it to the parsing method
-					reader = new BufferedReader(new FileReader(curFile));
-					
-					curTotalFileStringBuilder = new StringBuilder();
-					
-					curFileLine = reader.readLine();
-					
-					while (curFileLine != null)
-					{
-						curTotalFileStringBuilder.append(curFileLine);
-						
-						curFileLine = reader.readLine();
-					}
+					curConstituentType = ConstituentLabelTable.getLabel(i);
 					
-					WSJConstituentCounter.parseContituentsFromString(
-						curTotalFileStringBuilder.toString(), 
-						statistics);
+					this.constituentTypeIdToHash[i] = CharSlices.hash64(curConstituentType, 0, curConstituentType.length());
 				}
 			}
+			
+			return CharSlices.mix64(wordHash ^ (this.constituentTypeIdToHash[constituentTypeId] * 0x9E3779B97F4A7C15L));
+		}
+		
+		/*
+		 * The key of the heavy hitter word summary:  the word being counted
+		 */
+		private class WordKeyFactory implements SpaceSavingSummary.KeyFactory<String>
+		{
+			private CharSequence chars;
+			
+			private int start;
+			
+			private int end;
+			
+			// The ID of the word in the word table, or -1 if the statistics are approximate
+			private int wordId;
+			
+			@Override
+			public String createKey()
+			{
+				if (this.wordId >= 0)
+				{
+					return WSJConstituentCounterStatistics.this.wordCounts.getWord(this.wordId);
+				}
+				
+				return this.chars.subSequence(this.start, this.end).toString();
+			}
+		}
+		
+		/*
+		 * The key of the heavy hitter (word, immediate parent constituent type) summary:  the word being counted 
+		 * and its parent's constituent type
+		 */
+		private class WordImmediateParentConstituentTypeKeyFactory implements SpaceSavingSummary.KeyFactory<Pair<String, String>>
+		{
+			private int constituentTypeId;
+			
+			@Override
+			public Pair<String, String> createKey()
+			{
+				return new Pair<String, String>(
+					WSJConstituentCounterStatistics.this.wordKeyFactory.createKey(), 
+					ConstituentLabelTable.getLabel(this.constituentTypeId));
+			}
+		}
+		
+		/*
+		 * The key of the heavy hitter skeleton summary:  the skeleton of the sentence being counted
+		 */
+		private static class SkeletonKeyFactory implements SpaceSavingSummary.KeyFactory<ConstituentSkeleton>
+		{
+			private ConstituentStructure sentence;
+			
+			@Override
+			public ConstituentSkeleton createKey()
+			{
+				return ConstituentSkeleton.fromConstituentStructure(this.sentence);
+			}
+		}
+		
+		private void checkExact(String query)
+		{
+			if (this.isApproximate())
+			{
+				throw new UnsupportedOperationException("Approximate statistics do not keep " + query);
+			}
+		}
+		
+		private void ensureConstituentTypeCapacity(int capacity)
+		{
+			if (capacity > this.constituentTypeIdToCount.length)
+			{
+				this.constituentTypeIdToCount = Arrays.copyOf(
+					this.constituentTypeIdToCount, Math.max(capacity, this.constituentTypeIdToCount.length * 2));
+			}
+		}
+		
+		/**
+		 * Add all of the counts of the other statistics to these statistics
+		 */
+		public void merge(WSJConstituentCounterStatistics other)
+		{
+			this.merge(other, 1);
+		}
+		
+		/**
+		 * Remove all of the counts of the other statistics from these statistics (which must have had the other
+		 * statistics merged into them).  Words whose counts drop to zero are removed, which may change the IDs of
+		 * the remaining words in getWordCounts()
+		 */
+		public void subtract(WSJConstituentCounterStatistics other)
+		{
+			this.merge(other, -1);
+		}
+		
+		private void merge(WSJConstituentCounterStatistics other, final long sign)
+		{
+			if (other.isApproximate() != this.isApproximate())
+			{
+				throw new IllegalArgumentException("Exact and approximate statistics cannot be combined");
+			}
+			
+			if (this.isApproximate() && (sign < 0))
+			{
+				throw new UnsupportedOperationException("Approximate statistics cannot be subtracted");
+			}
+			
+			if (other.isTrackingHeavyHitters() != this.isTrackingHeavyHitters())
+			{
+				throw new IllegalArgumentException("Statistics that track heavy hitters can only be combined with each other");
+			}
+			
+			if (this.isTrackingHeavyHitters())
+			{
+				if (sign < 0)
+				{
+					throw new UnsupportedOperationException("Heavy hitter summaries cannot be subtracted");
+				}
+				
+				this.heavyHitterWords.merge(other.heavyHitterWords);
+				this.heavyHitterWordImmediateParentConstituentTypes.merge(other.heavyHitterWordImmediateParentConstituentTypes);
+				this.heavyHitterSkeletons.merge(other.heavyHitterSkeletons);
+			}
+			
+			this.numConstituents += sign * other.numConstituents;
+			this.numWords += sign * other.numWords;
+			
+			this.ensureConstituentTypeCapacity(other.constituentTypeIdToCount.length);
+			
+			for (int i = 0 ; i < other.constituentTypeIdToCount.length ; i++)
+			{
+				this.constituentTypeIdToCount[i] += sign * other.constituentTypeIdToCount[i];
+			}
+			
+			if (this.isApproximate())
+			{
+				this.approximateWordCounts.merge(other.approximateWordCounts);
+				this.approximateWordImmediateParentConstituentTypeCounts.merge(
+					other.approximateWordImmediateParentConstituentTypeCounts);
+				this.approximateDistinctWords.merge(other.approximateDistinctWords);
+				this.approximateDistinctSkeletons.merge(other.approximateDistinctSkeletons);
+				
+				return;
+			}
+			
+			for (int i = 0 ; i < other.wordCounts.size() ; i++)
+			{
+				this.wordCounts.add(other.wordCounts.getWord(i), sign * other.wordCounts.getCount(i));
+			}
+			
+			if (sign > 0)
+			{
+				this.skeletonCatalog.merge(other.skeletonCatalog);
+			}
+			else
+			{
+				this.skeletonCatalog.subtract(other.skeletonCatalog);
+			}
+			
+			// The word IDs of the other statistics are mapped to the word IDs of these statistics
+			final WordCountTable otherWordCounts = other.wordCounts;
+			
+			other.wordToImmediateParentConstituentTypeToCount.forEachEntry(new SparseCountMatrix.EntryVisitor()
+			{
+				@Override
+				public void visit(int row, int column, long count)
+				{
+					WSJConstituentCounterStatistics.this.wordToImmediateParentConstituentTypeToCount.add(
+						WSJConstituentCounterStatistics.this.wordCounts.findWordId(otherWordCounts.getWord(row)), 
+						column, 
+						sign * count);
+				}
+			});
+			
+			if (sign < 0)
+			{
+				// Words and (word, constituent type) pairs that are no longer in any of the counted sentences are
+				// dropped, so that they are not reported or written to snapshots (the word IDs of the remaining 
+				// words may change)
+				this.wordToImmediateParentConstituentTypeToCount.removeZeroCounts(this.wordCounts.removeZeroCounts());
+			}
+		}
+		
+		/**
+		 * Write a snapshot of these statistics to the file (see writeSnapshot(OutputStream))
+		 */
+		public void writeSnapshot(File snapshotFile) throws IOException
+		{
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(snapshotFile), 1 << 16);
+			
+			try
+			{
+				this.writeSnapshot(output);
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+		
+		/**
+		 * Write a snapshot of these statistics, which readSnapshot() reads back as equal statistics.  A snapshot 
+		 * is laid out as:
+		 * 
+		 *    0.) The header:  SNAPSHOT_MAGIC and SNAPSHOT_FORMAT_VERSION, then the flags (whether the statistics 
+		 *        are approximate and whether they track heavy hitters)
+		 *    
+		 *    1.) The constituent type dictionary (every constituent type of this run, in ID order), so that the 
+		 *        reader can map the constituent type IDs of the snapshot to those of its own run
+		 *    
+		 *    2.) The number of constituents, the number of words and the count of every constituent type
+		 *    
+		 *    3.) Exact statistics:  the words and their counts in ID order, the (word ID, constituent type ID, 
+		 *        count) entries, and the skeleton catalog.  Approximate statistics:  the word and (word, 
+		 *        constituent type) Count-Min sketches, and the distinct word and skeleton estimators
+		 *    
+		 *    4.) If heavy hitters are tracked, the word, (word, constituent type) and skeleton summaries
+		 * 
+		 * Everything after the header is written as varints (and strings as a varint length and their UTF-8 
+		 * bytes), so that the many small counts take a byte or two each
+		 */
+		public void writeSnapshot(OutputStream output) throws IOException
+		{
+			DataOutputStream headerOutput = new DataOutputStream(output);
+			
+			headerOutput.writeInt(WSJConstituentCounterStatistics.SNAPSHOT_MAGIC);
+			headerOutput.writeInt(WSJConstituentCounterStatistics.SNAPSHOT_FORMAT_VERSION);
+			
+			VarInts.writeVarInt(output, 
+				(this.isApproximate() ? WSJConstituentCounterStatistics.SNAPSHOT_APPROXIMATE : 0) 
+				| (this.isTrackingHeavyHitters() ? WSJConstituentCounterStatistics.SNAPSHOT_HEAVY_HITTERS : 0));
+			
+			int numConstituentTypes = ConstituentLabelTable.numLabels();
+			
+			VarInts.writeVarInt(output, numConstituentTypes);
+			
+			for (int i = 0 ; i < numConstituentTypes ; i++)
+			{
+				VarInts.writeString(output, ConstituentLabelTable.getLabel(i));
+			}
+			
+			VarInts.writeVarLong(output, this.numConstituents);
+			VarInts.writeVarLong(output, this.numWords);
+			
+			for (int i = 0 ; i < numConstituentTypes ; i++)
+			{
+				VarInts.writeVarLong(output, this.getConstituentTypeCount(i));
+			}
+			
+			if (this.isApproximate())
+			{
+				this.approximateWordCounts.writeTo(output);
+				this.approximateWordImmediateParentConstituentTypeCounts.writeTo(output);
+				this.approximateDistinctWords.writeTo(output);
+				this.approximateDistinctSkeletons.writeTo(output);
+			}
+			else
+			{
+				VarInts.writeVarInt(output, this.wordCounts.size());
+				
+				for (int i = 0 ; i < this.wordCounts.size() ; i++)
+				{
+					VarInts.writeString(output, this.wordCounts.getWord(i));
+					VarInts.writeVarLong(output, this.wordCounts.getCount(i));
+				}
+				
+				VarInts.writeVarInt(output, this.wordToImmediateParentConstituentTypeToCount.numEntries());
+				
+				final OutputStream entryOutput = output;
+				
+				try
+				{
+					this.wordToImmediateParentConstituentTypeToCount.forEachEntry(new SparseCountMatrix.EntryVisitor()
+					{
+						@Override
+						public void visit(int row, int column, long count)
+						{
+							try
+							{
+								VarInts.writeVarInt(entryOutput, row);
+								VarInts.writeVarInt(entryOutput, column);
+								VarInts.writeVarLong(entryOutput, count);
+							}
+							catch (IOException e)
+							{
+								throw new UncheckedIOException(e);
+							}
+						}
+					});
+				}
+				catch (UncheckedIOException e)
+				{
+					throw e.getCause();
+				}
+				
+				this.skeletonCatalog.writeTo(output);
+			}
+			
+			if (this.isTrackingHeavyHitters())
+			{
+				this.heavyHitterWords.writeTo(output, new WordKeyCodec());
+				this.heavyHitterWordImmediateParentConstituentTypes.writeTo(output, new WordImmediateParentConstituentTypeKeyCodec());
+				this.heavyHitterSkeletons.writeTo(output, new SkeletonKeyCodec(null));
+			}
+		}
+		
+		/**
+		 * Memory-map a snapshot file and read the statistics in it
+		 */
+		public static WSJConstituentCounterStatistics readSnapshot(File snapshotFile) throws IOException
+		{
+			RandomAccessFile randomAccessFile = new RandomAccessFile(snapshotFile, "r");
+			
+			try
+			{
+				FileChannel channel = randomAccessFile.getChannel();
+				
+				if (channel.size() > Integer.MAX_VALUE)
+				{
+					throw new IOException("Statistics snapshot is too large to map: " + snapshotFile);
+				}
+				
+				return WSJConstituentCounterStatistics.readSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+			finally
+			{
+				randomAccessFile.close();
+			}
+		}
+		
+		/**
+		 * Read statistics written by writeSnapshot(), starting at the current position of the buffer, and 
+		 * advance the position past them.  The constituent types of the snapshot are added to the 
+		 * ConstituentLabelTable of this run if they are not in it yet
+		 */
+		public static WSJConstituentCounterStatistics readSnapshot(ByteBuffer buffer) throws IOException
+		{
+			try
+			{
+				if (buffer.getInt() != WSJConstituentCounterStatistics.SNAPSHOT_MAGIC)
+				{
+					throw new IOException("Not a statistics snapshot");
+				}
+				
+				int formatVersion = buffer.getInt();
+				
+				if (formatVersion != WSJConstituentCounterStatistics.SNAPSHOT_FORMAT_VERSION)
+				{
+					throw new IOException("Unsupported statistics snapshot format version: " + formatVersion);
+				}
+				
+				int flags = VarInts.readVarInt(buffer);
+				
+				int[] snapshotToLocalConstituentTypeIds = new int[VarInts.readVarInt(buffer)];
+				
+				for (int i = 0 ; i < snapshotToLocalConstituentTypeIds.length ; i++)
+				{
+					snapshotToLocalConstituentTypeIds[i] = ConstituentLabelTable.getLabelId(VarInts.readString(buffer));
+				}
+				
+				WSJConstituentCounterStatistics statistics = new WSJConstituentCounterStatistics();
+				
+				statistics.numConstituents = VarInts.readVarLong(buffer);
+				statistics.numWords = VarInts.readVarLong(buffer);
+				
+				long curCount;
+				
+				for (int curConstituentTypeId : snapshotToLocalConstituentTypeIds)
+				{
+					curCount = VarInts.readVarLong(buffer);
+					
+					if (curCount != 0)
+					{
+						statistics.ensureConstituentTypeCapacity(curConstituentTypeId + 1);
+						
+						statistics.constituentTypeIdToCount[curConstituentTypeId] = curCount;
+					}
+				}
+				
+				if ((flags & WSJConstituentCounterStatistics.SNAPSHOT_APPROXIMATE) != 0)
+				{
+					statistics.wordCounts = null;
+					statistics.wordToImmediateParentConstituentTypeToCount = null;
+					statistics.skeletonCatalog = null;
+					
+					statistics.approximateWordCounts = CountMinSketch.readFrom(buffer);
+					statistics.approximateWordImmediateParentConstituentTypeCounts = CountMinSketch.readFrom(buffer);
+					statistics.approximateDistinctWords = HyperLogLog.readFrom(buffer);
+					statistics.approximateDistinctSkeletons = HyperLogLog.readFrom(buffer);
+				}
+				else
+				{
+					int[] snapshotToLocalWordIds = new int[VarInts.readVarInt(buffer)];
+					
+					String curWord;
+					
+					for (int i = 0 ; i < snapshotToLocalWordIds.length ; i++)
+					{
+						curWord = VarInts.readString(buffer);
+						
+						snapshotToLocalWordIds[i] = statistics.wordCounts.add(curWord, VarInts.readVarLong(buffer));
+					}
+					
+					int numEntries = VarInts.readVarInt(buffer);
+					
+					int curWordId;
+					
+					int curConstituentTypeId;
+					
+					for (int i = 0 ; i < numEntries ; i++)
+					{
+						curWordId = snapshotToLocalWordIds[VarInts.readVarInt(buffer)];
+						curConstituentTypeId = snapshotToLocalConstituentTypeIds[VarInts.readVarInt(buffer)];
+						
+						statistics.wordToImmediateParentConstituentTypeToCount.add(
+							curWordId, curConstituentTypeId, VarInts.readVarLong(buffer));
+					}
+					
+					statistics.skeletonCatalog = ConstituentSkeletonCatalog.readFrom(buffer, snapshotToLocalConstituentTypeIds);
+				}
+				
+				if ((flags & WSJConstituentCounterStatistics.SNAPSHOT_HEAVY_HITTERS) != 0)
+				{
+					statistics.heavyHitterWords = SpaceSavingSummary.readFrom(buffer, new WordKeyCodec());
+					statistics.heavyHitterWordImmediateParentConstituentTypes = 
+						SpaceSavingSummary.readFrom(buffer, new WordImmediateParentConstituentTypeKeyCodec());
+					statistics.heavyHitterSkeletons = 
+						SpaceSavingSummary.readFrom(buffer, new SkeletonKeyCodec(snapshotToLocalConstituentTypeIds));
+				}
+				
+				return statistics;
+			}
+			catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+			{
+				throw new IOException("Corrupt statistics snapshot", e);
+			}
+		}
+		
+		/*
+		 * Writes the keys of the heavy hitter word summary
+		 */
+		private static class WordKeyCodec implements SpaceSavingSummary.KeyCodec<String>
+		{
+			@Override
+			public void writeKey(OutputStream output, String key) throws IOException
+			{
+				VarInts.writeString(output, key);
+			}
+			
+			@Override
+			public String readKey(ByteBuffer buffer)
+			{
+				return VarInts.readString(buffer);
+			}
+		}
+		
+		/*
+		 * Writes the keys of the heavy hitter (word, immediate parent constituent type) summary as the word and 
+		 * then the constituent type
+		 */
+		private static class WordImmediateParentConstituentTypeKeyCodec implements SpaceSavingSummary.KeyCodec<Pair<String, String>>
+		{
+			@Override
+			public void writeKey(OutputStream output, Pair<String, String> key) throws IOException
+			{
+				VarInts.writeString(output, key.getKey());
+				VarInts.writeString(output, key.getValue());
+			}
+			
+			@Override
+			public Pair<String, String> readKey(ByteBuffer buffer)
+			{
+				String word = VarInts.readString(buffer);
+				
+				return new Pair<String, String>(word, VarInts.readString(buffer));
+			}
+		}
+		
+		/*
+		 * Writes the keys of the heavy hitter skeleton summary as their nodes in preorder, each as its constituent 
+		 * type ID and its number of children
+		 */
+		private static class SkeletonKeyCodec implements SpaceSavingSummary.KeyCodec<ConstituentSkeleton>
+		{
+			// Snapshot constituent type ID -> constituent type ID of this run (null when writing)
+			private int[] snapshotToLocalConstituentTypeIds;
+			
+			private SkeletonKeyCodec(int[] snapshotToLocalConstituentTypeIds)
+			{
+				this.snapshotToLocalConstituentTypeIds = snapshotToLocalConstituentTypeIds;
+			}
+			
+			@Override
+			public void writeKey(OutputStream output, ConstituentSkeleton key) throws IOException
+			{
+				List<ConstituentSkeleton> frontier = new ArrayList<ConstituentSkeleton>();
+				
+				frontier.add(key);
+				
+				ConstituentSkeleton curNode;
+				
+				List<ConstituentSkeleton> curChildren;
+				
+				while (!frontier.isEmpty())
+				{
+					curNode = frontier.remove(frontier.size()-1);
+					
+					curChildren = curNode.getConstituentChildren();
+					
+					VarInts.writeVarInt(output, curNode.getConstituentTypeId());
+					VarInts.writeVarInt(output, curChildren.size());
+					
+					// Push the children R to L so that they come off of the frontier L to R
+					for (int i = curChildren.size()-1 ; i >= 0 ; i--)
+					{
+						frontier.add(curChildren.get(i));
+					}
+				}
+			}
+			
+			@Override
+			public ConstituentSkeleton readKey(ByteBuffer buffer)
+			{
+				ConstituentSkeleton skeletonRoot = null;
+				
+				// The nodes whose children are still being read, and how many of their children are left
+				List<ConstituentSkeleton> frontier = new ArrayList<ConstituentSkeleton>();
+				
+				List<Integer> frontierNumChildrenRemaining = new ArrayList<Integer>();
+				
+				ConstituentSkeleton curNode;
+				
+				int curNumChildren;
+				
+				int parentIndex;
+				
+				do
+				{
+					curNode = new ConstituentSkeleton(this.snapshotToLocalConstituentTypeIds[VarInts.readVarInt(buffer)]);
+					
+					curNumChildren = VarInts.readVarInt(buffer);
+					
+					if (skeletonRoot == null)
+					{
+						skeletonRoot = curNode;
+					}
+					else
+					{
+						parentIndex = frontier.size()-1;
+						
+						frontier.get(parentIndex).addConstituentStructureChild(curNode);
+						
+						frontierNumChildrenRemaining.set(parentIndex, frontierNumChildrenRemaining.get(parentIndex) - 1);
+					}
+					
+					if (curNumChildren > 0)
+					{
+						frontier.add(curNode);
+						frontierNumChildrenRemaining.add(curNumChildren);
+					}
+					
+					// The next node is a child of the closest node that still has children left
+					while (!frontier.isEmpty() && (frontierNumChildrenRemaining.get(frontier.size()-1) == 0))
+					{
+						frontier.remove(frontier.size()-1);
+						frontierNumChildrenRemaining.remove(frontierNumChildrenRemaining.size()-1);
+					}
+				}
+				while (!frontier.isEmpty());
+				
+				return skeletonRoot;
+			}
 		}
-		catch (Exception e)
+	}
+	
+	public static class WSJConstituentCounterStructures
+	{
+		public List<ConstituentStructure> parsedConstituentStructures = new LinkedList<ConstituentStructure>();
+		
+		public List<ConstituentSkeleton> parsedConstituentSkeletons = new LinkedList<ConstituentSkeleton>();
+		
+		/**
+		 * Append all of the structures of the other return structure after the structures in this one
+		 */
+		public void merge(WSJConstituentCounterStructures other)
 		{
+			this.parsedConstituentStructures.addAll(other.parsedConstituentStructures);
+			this.parsedConstituentSkeletons.addAll(other.parsedConstituentSkeletons);
+		}
+	}
+	
+	/**
+	 * Parse all of the sentences in the string and count their constituents into the statistics.  Every
+	 * sentence is kept in the returned structures; to process sentences one at a time without holding all
+	 * of them in memory, use a ConstituentStructureReader instead
+	 */
+	public static WSJConstituentCounterStructures parseContituentsFromString(
+			CharSequence constituentsString,
+			WSJConstituentCounterStatistics statistics)
+	{
+		return WSJConstituentCounter.parseSentences(
+			new ConstituentStructureReader(new CharSequenceReader(constituentsString), statistics));
+	}
+	
+	private static WSJConstituentCounterStructures parseSentences(ConstituentStructureReader sentenceReader)
+	{
+		WSJConstituentCounterStructures returnStructure = new WSJConstituentCounterStructures();
+		
+		ConstituentStructure curSentence;
+		
+		while (sentenceReader.hasNext())
+		{
+			curSentence = sentenceReader.next();
 			
+			returnStructure.parsedConstituentStructures.add(curSentence);
+			returnStructure.parsedConstituentSkeletons.add(ConstituentSkeleton.fromConstituentStructure(curSentence));
+		}
+		
+		return returnStructure;
+	}
+	
+	/**
+	 * Stream the sentences of every constituent file in the base directory, in file name order.  Each file is
+	 * only opened once the sentences of the previous file have been consumed
+	 */
+	public static Stream<ConstituentStructure> streamConstituentStructureFiles(
+		File baseDirectory, String filePatternRegex, final WSJConstituentCounterStatistics statistics)
+	{
+		File[] filesInBaseDirectory = baseDirectory.listFiles();
+		
+		Arrays.sort(filesInBaseDirectory);
+		
+		List<File> constituentFiles = new ArrayList<File>();
+		
+		for (File curFile : filesInBaseDirectory)
+		{
+			if (WSJConstituentCounter.isConstituentFile(curFile, filePatternRegex))
+			{
+				constituentFiles.add(curFile);
+			}
+		}
+		
+		return constituentFiles.stream().flatMap(new Function<File, Stream<ConstituentStructure>>()
+		{
+			@Override
+			public Stream<ConstituentStructure> apply(File curFile)
+			{
+				try
+				{
+					return WSJConstituentCounter.readConstituentStructureFile(curFile, statistics).stream();
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Open a streaming reader over the sentences of a single constituent file.  A gzip-compressed file is 
+	 * decompressed ahead of the reader on other threads (see ParallelGzipInputStream), so decompressing it 
+	 * overlaps with parsing it
+	 */
+	public static ConstituentStructureReader readConstituentStructureFile(
+		File constituentFile, WSJConstituentCounterStatistics statistics) throws IOException
+	{
+		ByteBuffer fileBuffer = WSJConstituentCounter.mapFile(constituentFile);
+		
+		if (CompressedFiles.isGzip(fileBuffer))
+		{
+			return new ConstituentStructureReader(
+				new InputStreamReader(new ParallelGzipInputStream(fileBuffer), StandardCharsets.UTF_8), 
+				statistics);
+		}
+		
+		return new ConstituentStructureReader(
+			new CharSequenceReader(WSJConstituentCounter.toCharSequence(constituentFile, fileBuffer)), 
+			statistics);
+	}
+	
+	/**
+	 * @return True if the file is a constituent file, i.e. if its name (without any compressed file suffix, see
+	 *         CompressedFiles) matches the pattern
+	 */
+	public static boolean isConstituentFile(File file, String filePatternRegex)
+	{
+		return CompressedFiles.stripCompressedFileSuffix(file.getName()).matches(filePatternRegex);
+	}
+	
+	public static WSJConstituentCounterStructures parseConstituentStructureFiles(
+		File baseDirectory, String filePatternRegex, WSJConstituentCounterStatistics statistics)
+	{
+		// Create return structure
+		WSJConstituentCounterStructures allConstituentStructures = new WSJConstituentCounterStructures();
+		
+		// Obtain a list of all of the files in the base repository directory (in a fixed order, so that the 
+		// sentences are numbered as BinaryTreebankWriter and TreebankIndexWriter number them)
+		File[] filesInBaseDirectory = baseDirectory.listFiles();
+		
+		Arrays.sort(filesInBaseDirectory);
+		
+		WSJConstituentCounterStatistics curFileStatistics;
+		
+		WSJConstituentCounterStructures curFileStructures;
+		
+		// Examine all of the files
+		for (File curFile : filesInBaseDirectory)
+		{
+			// If the current file contains constituent data
+			if (WSJConstituentCounter.isConstituentFile(curFile, filePatternRegex))
+			{
+				// Each file is counted on its own, so that nothing of a file that fails part-way is kept
+				curFileStatistics = (statistics == null) ? null : statistics.newEmptyCopy();
+				
+				curFileStructures = WSJConstituentCounter.parseConstituentStructureFile(curFile, curFileStatistics);
+				
+				// Files that cannot be read are skipped (they are recorded as ingestion errors)
+				if (curFileStructures != null)
+				{
+					if (statistics != null)
+					{
+						statistics.merge(curFileStatistics);
+					}
+					
+					allConstituentStructures.merge(curFileStructures);
+				}
+			}
 		}
 		
 		return allConstituentStructures;
 	}
 	
+	/**
+	 * Parse all of the sentences of a single constituent file.  If the file cannot be read, it is recorded as an
+	 * ingestion error (see IngestionMetrics) along with how far into the file the parsing got, and null is
+	 * returned; the statistics then hold the counts of the sentences before the error, so callers count each 
+	 * file into statistics of its own and only merge them in if the whole file was read
+	 */
+	private static WSJConstituentCounterStructures parseConstituentStructureFile(
+		File constituentFile, WSJConstituentCounterStatistics statistics)
+	{
+		ConstituentStructureReader sentenceReader = null;
+		
+		try
+		{
+			sentenceReader = WSJConstituentCounter.readConstituentStructureFile(constituentFile, statistics);
+			
+			return WSJConstituentCounter.parseSentences(sentenceReader);
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			// A parse that was cancelled (by interrupting its thread) is not an unreadable file
+			if (!Thread.currentThread().isInterrupted())
+			{
+				IngestionMetrics.recordError(
+					constituentFile, (sentenceReader == null) ? -1 : sentenceReader.getOffset(), e);
+			}
+			
+			return null;
+		}
+		finally
+		{
+			// Stops the decompression of a compressed file that could not be read to the end
+			if (sentenceReader != null)
+			{
+				try
+				{
+					sentenceReader.close();
+				}
+				catch (IOException e)
+				{
+					// Nothing is lost by failing to close it
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Version of parseConstituentStructureFiles that also writes an inverted index of the parsed sentences (see
+	 * TreebankIndex).  The sentence IDs in the index are the positions of the sentences in
+	 * parsedConstituentStructures
+	 */
+	public static WSJConstituentCounterStructures parseConstituentStructureFiles(
+		File baseDirectory, String filePatternRegex, WSJConstituentCounterStatistics statistics, File indexFile) 
+		throws IOException
+	{
+		WSJConstituentCounterStructures allConstituentStructures = 
+			WSJConstituentCounter.parseConstituentStructureFiles(baseDirectory, filePatternRegex, statistics);
+		
+		TreebankIndexWriter indexWriter = new TreebankIndexWriter(indexFile);
+		
+		try
+		{
+			for (ConstituentStructure curConstituentStructure : allConstituentStructures.parsedConstituentStructures)
+			{
+				indexWriter.add(curConstituentStructure);
+			}
+		}
+		finally
+		{
+			indexWriter.close();
+		}
+		
+		return allConstituentStructures;
+	}
+	
+	/**
+	 * Parallel version of parseConstituentStructureFiles.  Each file is parsed by a worker with its own
+	 * statistics, and the per-file results are merged into the given statistics in file name order as they
+	 * complete, so the result does not depend on the order in which the files finish.  At most 
+	 * MAX_PENDING_FILES_PER_WORKER files per worker are parsed or waiting to be merged at any time, so the 
+	 * per-file statistics (which for approximate statistics are the full size of their sketches) take a fixed 
+	 * amount of memory however many files there are.
+	 * 
+	 * Each worker reads, tokenizes and counts its file inline; see IngestionPipeline for a version in which 
+	 * reading the files overlaps with parsing them
+	 * 
+	 * @param statistics The statistics to count into, or null to only parse the files
+	 * @param parallelism The number of worker threads to parse files with
+	 * @throws IllegalStateException If the thread is interrupted before every file has been parsed (the 
+	 *         interrupt flag is left set), rather than returning the files parsed so far
+	 */
+	public static WSJConstituentCounterStructures parseConstituentStructureFiles(
+		File baseDirectory, String filePatternRegex, WSJConstituentCounterStatistics statistics, int parallelism)
+	{
+		// Create return structure
+		WSJConstituentCounterStructures allConstituentStructures = new WSJConstituentCounterStructures();
+		
+		// Obtain a list of all of the files in the base repository directory (in a fixed order)
+		File[] filesInBaseDirectory = baseDirectory.listFiles();
+		
+		Arrays.sort(filesInBaseDirectory);
+		
+		List<File> constituentFiles = new ArrayList<File>();
+		
+		for (File curFile : filesInBaseDirectory)
+		{
+			if (WSJConstituentCounter.isConstituentFile(curFile, filePatternRegex))
+			{
+				constituentFiles.add(curFile);
+			}
+		}
+		
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+		
+		// The files handed to the workers but not yet merged, in file name order
+		Deque<Future<FileParseResult>> fileParseResults = new ArrayDeque<Future<FileParseResult>>();
+		
+		int maxPendingFiles = WSJConstituentCounter.MAX_PENDING_FILES_PER_WORKER * parallelism;
+		
+		int nextFile = 0;
+		
+		FileParseResult curResult;
+		
+		try
+		{
+			while ((nextFile < constituentFiles.size()) || !fileParseResults.isEmpty())
+			{
+				// Keep the workers busy, without getting too far ahead of the merging
+				while ((nextFile < constituentFiles.size()) && (fileParseResults.size() < maxPendingFiles))
+				{
+					fileParseResults.add(
+						WSJConstituentCounter.submitFileParse(workers, constituentFiles.get(nextFile), statistics));
+					
+					nextFile++;
+				}
+				
+				// Merge the results in the order the files were submitted
+				try
+				{
+					curResult = fileParseResults.poll().get();
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof Error)
+					{
+						throw (Error)e.getCause();
+					}
+					
+					throw new IllegalStateException(e.getCause());
+				}
+				
+				// As in the sequential version, files that cannot be read are skipped
+				if (curResult.structures != null)
+				{
+					if (statistics != null)
+					{
+						statistics.merge(curResult.statistics);
+					}
+					
+					allConstituentStructures.merge(curResult.structures);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			
+			throw new IllegalStateException("Interrupted while parsing constituent files", e);
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+		
+		return allConstituentStructures;
+	}
+	
+	/**
+	 * Hand a single file to the workers, to be parsed into statistics of its own
+	 */
+	private static Future<FileParseResult> submitFileParse(
+		ExecutorService workers, final File constituentFile, final WSJConstituentCounterStatistics statistics)
+	{
+		return workers.submit(new Callable<FileParseResult>()
+		{
+			@Override
+			public FileParseResult call()
+			{
+				FileParseResult result = new FileParseResult();
+				
+				result.statistics = (statistics == null) ? null : statistics.newEmptyCopy();
+				
+				result.structures = WSJConstituentCounter.parseConstituentStructureFile(constituentFile, result.statistics);
+				
+				return result;
+			}
+		});
+	}
+	
+	/*
+	 * The statistics and structures parsed from a single file by a parallel worker 
+	 */
+	private static class FileParseResult
+	{
+		WSJConstituentCounterStatistics statistics;
+		
+		WSJConstituentCounterStructures structures;
+	}
+	
+	/**
+	 * Memory-map the file so that it can be parsed in place.  Plain ASCII files (which all of the WSJ files
+	 * are) are viewed directly as characters without being copied; anything else is decoded as UTF-8.  A 
+	 * gzip-compressed file is decompressed in full first (in parallel if it is bgzip, see 
+	 * ParallelGzipInputStream).
+	 * 
+	 * Line breaks are kept, and are treated by the parser as whitespace like any other.  Checking whether the 
+	 * file is ASCII touches every page of it, so the whole file has been read from disk by the time this returns
+	 */
+	static CharSequence mapConstituentStructureFile(File constituentFile) throws IOException
+	{
+		ByteBuffer fileBuffer = WSJConstituentCounter.mapFile(constituentFile);
+		
+		if (CompressedFiles.isGzip(fileBuffer))
+		{
+			ParallelGzipInputStream decompressedInput = new ParallelGzipInputStream(fileBuffer);
+			
+			try
+			{
+				fileBuffer = ByteBuffer.wrap(decompressedInput.readAllBytes());
+			}
+			finally
+			{
+				decompressedInput.close();
+			}
+		}
+		
+		return WSJConstituentCounter.toCharSequence(constituentFile, fileBuffer);
+	}
+	
+	/**
+	 * Memory-map the whole file, recording it into the ingestion metrics (if they are enabled)
+	 */
+	private static ByteBuffer mapFile(File constituentFile) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(constituentFile, "r");
+		
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+			
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Constituent file is too large to map: " + constituentFile);
+			}
+			
+			// The mapping remains valid after the channel is closed
+			MappedByteBuffer fileBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			IngestionMetrics metrics = IngestionMetrics.get();
+			
+			if (metrics != null)
+			{
+				metrics.recordFile(channel.size());
+			}
+			
+			return fileBuffer;
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+	
+	/**
+	 * View the (uncompressed) contents of a constituent file as characters
+	 * 
+	 * @throws IOException If the file is compressed in a format that cannot be read (see CompressedFiles)
+	 */
+	private static CharSequence toCharSequence(File constituentFile, ByteBuffer fileBuffer) throws IOException
+	{
+		CompressedFiles.checkReadable(fileBuffer, constituentFile.toString());
+		
+		if (ByteBufferCharSequence.isAscii(fileBuffer))
+		{
+			return new ByteBufferCharSequence(fileBuffer);
+		}
+		
+		return StandardCharsets.UTF_8.decode(fileBuffer);
+	}
+	
+	// The number of files per worker that the parallel parseConstituentStructureFiles parses ahead of merging
+	private static final int MAX_PENDING_FILES_PER_WORKER = 2;
+	
 	public static final String WSJ_CORPUS_FILE_REGEX_STRING = "wsj_[0-9][0-9][0-9][0-9].prd";
 	
 	public static void main(String[] args)
@@ -0,0 +1,615 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import main.CompactConstituentTree;
+import main.ConstituentStructure;
+import main.WSJConstituentCounter;
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+import utilities.Pair;
+import utilities.WordArena;
+
+/**
+ * A resident server that loads a corpus once and answers count, lookup and render queries over HTTP on the
+ * loopback interface, so that every analysis on the machine can share one warm copy of the corpus.
+ *
+ * The loaded corpus is an immutable snapshot (the statistics and every sentence as a CompactConstituentTree)
+ * behind an AtomicReference.  Requests read whichever snapshot is current without locking; a reload builds
+ * a complete new snapshot to the side and swaps it in, so requests never see a partly loaded corpus.
+ * Reloads happen on POST /reload and, optionally, whenever the corpus files change.
+ *
+ * Endpoints (GET unless noted; responses are JSON):
+ *
+ *    /status                                   The snapshot generation, load time and corpus totals, and
+ *                                              when and why the last reload failed (if one has)
+ *    /count/type?type=NP                       The number of constituents of a type
+ *    /count/word?word=board                    The number of occurrences of a word
+ *    /count/word-parent?word=board&type=NN     The number of times a word occurs directly inside a type
+ *    /lookup/word-parents?word=board           Every type the word occurs directly inside, with counts
+ *    /lookup/top-words?type=NN&n=10            The most frequent words directly inside a type
+ *    /render?sentence=0&format=ascii           A sentence, as an ASCII tree or (format=bracketed) on one line
+ *    /reload                                   (POST) Reload the corpus now
+ *
+ * Run with:  --corpus <directory> [--port 8765] [--threads 8] [--watch-seconds 0]
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentAnalysisServer
+{
+	/*
+	 * Everything that is known about one load of the corpus.  Nothing in a snapshot is modified once it has
+	 * been published
+	 */
+	private static class CorpusSnapshot
+	{
+		private long generation;
+
+		private long loadedAtMillis;
+
+		// The name, size and modification time of every corpus file when the snapshot was loaded
+		private String corpusSignature;
+
+		private WSJConstituentCounterStatistics statistics;
+
+		private CompactConstituentTree[] sentences;
+
+		// The words of every sentence, each stored once
+		private WordArena wordArena;
+	}
+
+	/*
+	 * A reload that failed, and when
+	 */
+	private static class ReloadFailure
+	{
+		private long failedAtMillis;
+
+		private String message;
+
+		private ReloadFailure(long failedAtMillis, Throwable cause)
+		{
+			this.failedAtMillis = failedAtMillis;
+			this.message = cause.toString();
+		}
+	}
+
+	/*
+	 * A request that cannot be answered, with the HTTP status to answer it with
+	 */
+	private static class RequestException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int status;
+
+		private RequestException(int status, String message)
+		{
+			super(message);
+
+			this.status = status;
+		}
+	}
+
+	public static final int DEFAULT_PORT = 8765;
+
+	private File corpusDirectory;
+
+	private String filePatternRegex;
+
+	private int loadParallelism;
+
+	private AtomicReference<CorpusSnapshot> snapshot = new AtomicReference<CorpusSnapshot>();
+
+	// Only reloads take this lock; requests never do
+	private final Object reloadLock = new Object();
+
+	private HttpServer httpServer;
+
+	private ExecutorService requestWorkers;
+
+	private ScheduledExecutorService corpusWatcher;
+
+	// The most recent reload that failed (the snapshot from before it is kept), or null if none has
+	private volatile ReloadFailure lastReloadFailure;
+
+	public ConstituentAnalysisServer(File corpusDirectory, String filePatternRegex, int loadParallelism)
+	{
+		this.corpusDirectory = corpusDirectory;
+		this.filePatternRegex = filePatternRegex;
+		this.loadParallelism = loadParallelism;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		File corpusDirectory = null;
+
+		int port = ConstituentAnalysisServer.DEFAULT_PORT;
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+
+		int watchSeconds = 0;
+
+		for (int i = 0 ; i + 1 < args.length ; i += 2)
+		{
+			if (args[i].equals("--corpus"))
+			{
+				corpusDirectory = new File(args[i+1]);
+			}
+			else if (args[i].equals("--port"))
+			{
+				port = Integer.parseInt(args[i+1]);
+			}
+			else if (args[i].equals("--threads"))
+			{
+				numThreads = Integer.parseInt(args[i+1]);
+			}
+			else if (args[i].equals("--watch-seconds"))
+			{
+				watchSeconds = Integer.parseInt(args[i+1]);
+			}
+		}
+
+		if (corpusDirectory == null)
+		{
+			System.err.println("Usage:  --corpus <directory> [--port 8765] [--threads 8] [--watch-seconds 0]");
+
+			System.exit(1);
+		}
+
+		ConstituentAnalysisServer server = new ConstituentAnalysisServer(
+			corpusDirectory, WSJConstituentCounter.WSJ_CORPUS_FILE_REGEX_STRING, numThreads);
+
+		server.reload();
+		server.start(port, numThreads, watchSeconds);
+
+		System.out.println("Serving " + corpusDirectory + " on http://localhost:" + port + "/");
+	}
+
+	/**
+	 * Start answering requests (the corpus should have been loaded with reload() first)
+	 *
+	 * @param watchSeconds How often to check the corpus files for changes (0 to never check)
+	 */
+	public void start(int port, int numThreads, int watchSeconds) throws IOException
+	{
+		// Only local clients are served
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+		this.requestWorkers = Executors.newFixedThreadPool(numThreads);
+
+		this.httpServer.setExecutor(this.requestWorkers);
+
+		this.httpServer.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				ConstituentAnalysisServer.this.handle(exchange);
+			}
+		});
+
+		this.httpServer.start();
+
+		if (watchSeconds > 0)
+		{
+			this.corpusWatcher = Executors.newSingleThreadScheduledExecutor();
+
+			this.corpusWatcher.scheduleWithFixedDelay(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// An exception escaping would cancel every later check, so failures are recorded instead
+					try
+					{
+						ConstituentAnalysisServer.this.reloadIfChanged();
+					}
+					catch (RuntimeException e)
+					{
+						ConstituentAnalysisServer.this.recordReloadFailure(e);
+					}
+				}
+			}, watchSeconds, watchSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	public void stop()
+	{
+		if (this.corpusWatcher != null)
+		{
+			this.corpusWatcher.shutdownNow();
+		}
+
+		if (this.httpServer != null)
+		{
+			this.httpServer.stop(0);
+
+			this.requestWorkers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Load the corpus into a new snapshot and publish it.  Requests keep using the old snapshot until the new
+	 * one is complete, and keep using it if the reload fails
+	 *
+	 * @throws IllegalStateException If the corpus directory cannot be listed
+	 */
+	public void reload()
+	{
+		synchronized (this.reloadLock)
+		{
+			if (!this.corpusDirectory.isDirectory())
+			{
+				throw new IllegalStateException("The corpus directory cannot be listed: " + this.corpusDirectory);
+			}
+
+			CorpusSnapshot newSnapshot = new CorpusSnapshot();
+
+			CorpusSnapshot oldSnapshot = this.snapshot.get();
+
+			newSnapshot.generation = (oldSnapshot == null) ? 1 : oldSnapshot.generation + 1;
+			newSnapshot.corpusSignature = this.getCorpusSignature();
+			newSnapshot.statistics = new WSJConstituentCounterStatistics();
+
+			WSJConstituentCounter.WSJConstituentCounterStructures structures =
+				WSJConstituentCounter.parseConstituentStructureFiles(
+					this.corpusDirectory, this.filePatternRegex, newSnapshot.statistics, this.loadParallelism);
+
+			newSnapshot.sentences = new CompactConstituentTree[structures.parsedConstituentStructures.size()];
+
+			newSnapshot.wordArena = new WordArena();
+
+			// The parsed structures are only needed until their compact copies are made
+			Iterator<ConstituentStructure> sentenceIterator = structures.parsedConstituentStructures.iterator();
+
+			for (int i = 0 ; sentenceIterator.hasNext() ; i++)
+			{
+				newSnapshot.sentences[i] = 
+					CompactConstituentTree.fromConstituentStructure(sentenceIterator.next(), newSnapshot.wordArena);
+
+				sentenceIterator.remove();
+			}
+
+			newSnapshot.loadedAtMillis = System.currentTimeMillis();
+
+			this.snapshot.set(newSnapshot);
+		}
+	}
+
+	/**
+	 * Reload if any corpus file has been added, removed or modified since the current snapshot was loaded
+	 */
+	public void reloadIfChanged()
+	{
+		CorpusSnapshot currentSnapshot = this.snapshot.get();
+
+		if ((currentSnapshot == null) || !currentSnapshot.corpusSignature.equals(this.getCorpusSignature()))
+		{
+			this.reload();
+		}
+	}
+
+	private void recordReloadFailure(RuntimeException e)
+	{
+		this.lastReloadFailure = new ReloadFailure(System.currentTimeMillis(), e);
+	}
+
+	private String getCorpusSignature()
+	{
+		File[] filesInCorpusDirectory = this.corpusDirectory.listFiles();
+
+		if (filesInCorpusDirectory == null)
+		{
+			return "";
+		}
+
+		Arrays.sort(filesInCorpusDirectory);
+
+		StringBuilder signature = new StringBuilder();
+
+		for (File curFile : filesInCorpusDirectory)
+		{
+			if (WSJConstituentCounter.isConstituentFile(curFile, this.filePatternRegex))
+			{
+				signature.append(curFile.getName()).append('\t')
+					.append(curFile.length()).append('\t')
+					.append(curFile.lastModified()).append('\n');
+			}
+		}
+
+		return signature.toString();
+	}
+
+	/*
+	 * Requests
+	 */
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		int status = 200;
+
+		String response;
+
+		try
+		{
+			response = this.answer(
+				exchange.getRequestMethod(),
+				exchange.getRequestURI().getPath(),
+				ConstituentAnalysisServer.parseQuery(exchange.getRequestURI().getRawQuery()));
+		}
+		catch (RequestException e)
+		{
+			status = e.status;
+
+			response = "{\"error\": " + ConstituentAnalysisServer.toJsonString(e.getMessage()) + "}";
+		}
+		catch (RuntimeException e)
+		{
+			status = 500;
+
+			response = "{\"error\": " + ConstituentAnalysisServer.toJsonString(String.valueOf(e)) + "}";
+		}
+
+		byte[] responseBytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, responseBytes.length);
+
+		OutputStream responseBody = exchange.getResponseBody();
+
+		try
+		{
+			responseBody.write(responseBytes);
+		}
+		finally
+		{
+			responseBody.close();
+		}
+	}
+
+	private String answer(String method, String path, Map<String, String> parameters) throws RequestException
+	{
+		if (path.equals("/reload"))
+		{
+			if (!method.equals("POST"))
+			{
+				throw new RequestException(405, "Use POST to reload");
+			}
+
+			try
+			{
+				this.reload();
+			}
+			catch (RuntimeException e)
+			{
+				this.recordReloadFailure(e);
+
+				throw new RequestException(500, "The reload failed: " + e);
+			}
+
+			return "{\"generation\": " + this.snapshot.get().generation + "}";
+		}
+
+		// Every answer comes from the one snapshot, even if a reload publishes a new one meanwhile
+		CorpusSnapshot currentSnapshot = this.snapshot.get();
+
+		if (currentSnapshot == null)
+		{
+			throw new RequestException(503, "The corpus has not been loaded yet");
+		}
+
+		WSJConstituentCounterStatistics statistics = currentSnapshot.statistics;
+
+		if (path.equals("/status"))
+		{
+			ReloadFailure reloadFailure = this.lastReloadFailure;
+
+			return "{\"generation\": " + currentSnapshot.generation
+				+ ", \"loadedAtMillis\": " + currentSnapshot.loadedAtMillis
+				+ ", \"sentences\": " + currentSnapshot.sentences.length
+				+ ", \"constituents\": " + statistics.numConstituents
+				+ ", \"words\": " + statistics.numWords
+				+ ", \"distinctWords\": " + statistics.getWordCounts().size()
+				+ ", \"distinctSkeletons\": " + statistics.getSkeletonCatalog().numDistinctSkeletons()
+				+ ", \"wordArenaBytes\": " + currentSnapshot.wordArena.numBytes()
+				+ ", \"lastReloadFailedAtMillis\": " + ((reloadFailure == null) ? "null" : reloadFailure.failedAtMillis)
+				+ ", \"lastReloadError\": "
+				+ ((reloadFailure == null) ? "null" : ConstituentAnalysisServer.toJsonString(reloadFailure.message)) + "}";
+		}
+		else if (path.equals("/count/type"))
+		{
+			return "{\"count\": " + statistics.getConstituentTypeCount(ConstituentAnalysisServer.require(parameters, "type")) + "}";
+		}
+		else if (path.equals("/count/word"))
+		{
+			return "{\"count\": " + statistics.getWordCount(ConstituentAnalysisServer.require(parameters, "word")) + "}";
+		}
+		else if (path.equals("/count/word-parent"))
+		{
+			return "{\"count\": " + statistics.getWordImmediateParentConstituentTypeCount(
+				ConstituentAnalysisServer.require(parameters, "word"),
+				ConstituentAnalysisServer.require(parameters, "type")) + "}";
+		}
+		else if (path.equals("/lookup/word-parents"))
+		{
+			Map<String, Long> constituentTypeToCount =
+				statistics.getImmediateParentConstituentTypeToCount(ConstituentAnalysisServer.require(parameters, "word"));
+
+			List<String> entries = new ArrayList<String>();
+
+			for (Map.Entry<String, Long> curEntry : constituentTypeToCount.entrySet())
+			{
+				entries.add(ConstituentAnalysisServer.toJsonString(curEntry.getKey()) + ": " + curEntry.getValue());
+			}
+
+			return "{" + String.join(", ", entries) + "}";
+		}
+		else if (path.equals("/lookup/top-words"))
+		{
+			List<Pair<String, Long>> wordsAndCounts = statistics.getTopWordsWithImmediateParentConstituentType(
+				ConstituentAnalysisServer.require(parameters, "type"),
+				ConstituentAnalysisServer.parseInt(parameters, "n", 10));
+
+			List<String> entries = new ArrayList<String>();
+
+			for (Pair<String, Long> curWordAndCount : wordsAndCounts)
+			{
+				entries.add("{\"word\": " + ConstituentAnalysisServer.toJsonString(curWordAndCount.getKey())
+					+ ", \"count\": " + curWordAndCount.getValue() + "}");
+			}
+
+			return "[" + String.join(", ", entries) + "]";
+		}
+		else if (path.equals("/render"))
+		{
+			int sentenceIndex = ConstituentAnalysisServer.parseInt(parameters, "sentence", -1);
+
+			if ((sentenceIndex < 0) || (sentenceIndex >= currentSnapshot.sentences.length))
+			{
+				throw new RequestException(404, "No sentence " + sentenceIndex);
+			}
+
+			CompactConstituentTree sentence = currentSnapshot.sentences[sentenceIndex];
+
+			String format = parameters.containsKey("format") ? parameters.get("format") : "ascii";
+
+			String rendering;
+
+			if (format.equals("bracketed"))
+			{
+				rendering = sentence.toString();
+			}
+			else if (format.equals("ascii"))
+			{
+				// The ASCII rendering caches state in the tree it renders, so each request renders its own copy
+				rendering = sentence.toConstituentStructure().toString();
+			}
+			else
+			{
+				throw new RequestException(400, "Unknown format: " + format);
+			}
+
+			return "{\"sentence\": " + sentenceIndex + ", \"rendering\": " + ConstituentAnalysisServer.toJsonString(rendering) + "}";
+		}
+
+		throw new RequestException(404, "Unknown path: " + path);
+	}
+
+	private static String require(Map<String, String> parameters, String name) throws RequestException
+	{
+		String value = parameters.get(name);
+
+		if (value == null)
+		{
+			throw new RequestException(400, "Missing parameter: " + name);
+		}
+
+		return value;
+	}
+
+	private static int parseInt(Map<String, String> parameters, String name, int defaultValue) throws RequestException
+	{
+		String value = parameters.get(name);
+
+		if (value == null)
+		{
+			return defaultValue;
+		}
+
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new RequestException(400, "Not a number: " + name + "=" + value);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws RequestException
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+
+		if (rawQuery == null)
+		{
+			return parameters;
+		}
+
+		int curSeparator;
+
+		try
+		{
+			for (String curParameter : rawQuery.split("&"))
+			{
+				curSeparator = curParameter.indexOf('=');
+
+				if (curSeparator > 0)
+				{
+					parameters.put(
+						URLDecoder.decode(curParameter.substring(0, curSeparator), "UTF-8"),
+						URLDecoder.decode(curParameter.substring(curSeparator + 1), "UTF-8"));
+				}
+			}
+		}
+		catch (UnsupportedEncodingException | IllegalArgumentException e)
+		{
+			throw new RequestException(400, "Malformed query: " + rawQuery);
+		}
+
+		return parameters;
+	}
+
+	private static String toJsonString(String value)
+	{
+		StringBuilder json = new StringBuilder("\"");
+
+		char curChar;
+
+		for (int i = 0 ; i < value.length() ; i++)
+		{
+			curChar = value.charAt(i);
+
+			if ((curChar == '"') || (curChar == '\\'))
+			{
+				json.append('\\').append(curChar);
+			}
+			else if (curChar == '\n')
+			{
+				json.append("\\n");
+			}
+			else if (curChar < 0x20)
+			{
+				json.append(String.format("\\u%04x", (int)curChar));
+			}
+			else
+			{
+				json.append(curChar);
+			}
+		}
+
+		return json.append('"').toString();
+	}
+}
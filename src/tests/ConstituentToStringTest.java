@@ -0,0 +1,107 @@
+package tests;
+
+import main.ConstituentSkeleton;
+import main.ConstituentStructure;
+
+/**
+ * Checks that toString() on a node that is not its parent's first child renders that node's subtree on its own,
+ * exactly as the same subtree renders when it has no parent, for both ConstituentStructure and
+ * ConstituentSkeleton.
+ *
+ * There is no test framework in this tree, so this is run as a program, and throws an AssertionError on the
+ * first check that fails.
+ *
+ * Usage:  ConstituentToStringTest
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ConstituentToStringTest
+{
+	public static void main(String[] args)
+	{
+		// (S (NP (DET The) (NNS man)) (VP (VBZ is) (ADJP (JJ tall))))
+		ConstituentStructure sentence = new ConstituentStructure("S");
+
+		sentence.addConstituentStructureChild(ConstituentToStringTest.buildNounPhrase());
+		sentence.addConstituentStructureChild(ConstituentToStringTest.buildVerbPhrase());
+
+		ConstituentStructure sentenceVerbPhrase = sentence.getConstituentChildren().get(1);
+
+		ConstituentStructure verbPhrase = ConstituentToStringTest.buildVerbPhrase();
+
+		// Rendered before and after the whole sentence, so that the cached renderings are exercised as well
+		ConstituentToStringTest.check(
+			"ConstituentStructure second child", sentenceVerbPhrase.toString().equals(verbPhrase.toString()));
+
+		sentence.toString();
+
+		ConstituentToStringTest.check(
+			"ConstituentStructure second child after its parent",
+			sentenceVerbPhrase.toString().equals(verbPhrase.toString()));
+
+		// A non-first child below a non-first child
+		ConstituentToStringTest.check(
+			"ConstituentStructure nested second child",
+			sentenceVerbPhrase.getConstituentChildren().get(1).toString().equals(
+				verbPhrase.getConstituentChildren().get(1).toString()));
+
+		ConstituentSkeleton sentenceSkeleton = ConstituentSkeleton.fromConstituentStructure(sentence);
+
+		ConstituentSkeleton verbPhraseSkeleton = ConstituentSkeleton.fromConstituentStructure(verbPhrase);
+
+		ConstituentToStringTest.check(
+			"ConstituentSkeleton second child",
+			sentenceSkeleton.getConstituentChildren().get(1).toString().equals(verbPhraseSkeleton.toString()));
+
+		sentenceSkeleton.toString();
+
+		ConstituentToStringTest.check(
+			"ConstituentSkeleton nested second child",
+			sentenceSkeleton.getConstituentChildren().get(1).getConstituentChildren().get(1).toString().equals(
+				verbPhraseSkeleton.getConstituentChildren().get(1).toString()));
+
+		System.out.println("ConstituentToStringTest passed");
+	}
+
+	private static ConstituentStructure buildNounPhrase()
+	{
+		ConstituentStructure nounPhrase = new ConstituentStructure("NP");
+
+		nounPhrase.addConstituentStructureChild(ConstituentToStringTest.buildPartOfSpeech("DET", "The"));
+		nounPhrase.addConstituentStructureChild(ConstituentToStringTest.buildPartOfSpeech("NNS", "man"));
+
+		return nounPhrase;
+	}
+
+	private static ConstituentStructure buildVerbPhrase()
+	{
+		ConstituentStructure verbPhrase = new ConstituentStructure("VP");
+
+		ConstituentStructure adjectivePhrase = new ConstituentStructure("ADJP");
+
+		adjectivePhrase.addConstituentStructureChild(ConstituentToStringTest.buildPartOfSpeech("JJ", "tall"));
+
+		verbPhrase.addConstituentStructureChild(ConstituentToStringTest.buildPartOfSpeech("VBZ", "is"));
+		verbPhrase.addConstituentStructureChild(adjectivePhrase);
+
+		return verbPhrase;
+	}
+
+	private static ConstituentStructure buildPartOfSpeech(String partOfSpeech, String word)
+	{
+		ConstituentStructure partOfSpeechNode = new ConstituentStructure(partOfSpeech);
+
+		partOfSpeechNode.addContentWord(word);
+
+		return partOfSpeechNode;
+	}
+
+	private static void check(String name, boolean passed)
+	{
+		if (!passed)
+		{
+			throw new AssertionError("Failed: " + name);
+		}
+	}
+}
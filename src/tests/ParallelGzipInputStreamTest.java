@@ -0,0 +1,174 @@
+package tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import main.ConstituentStructureReader;
+import main.IngestionPipeline;
+import main.WSJConstituentCounter;
+import main.WSJConstituentCounter.WSJConstituentCounterStatistics;
+import main.WSJConstituentCounter.WSJConstituentCounterStructures;
+import utilities.ParallelGzipInputStream;
+
+/**
+ * Checks ParallelGzipInputStream against bgzip files laid out exactly as the bgzip tool writes them:  data
+ * blocks with a BC extra subfield, followed by the standard 28-byte empty EOF block.
+ *
+ * There is no test framework in this tree, so this is run as a program, and throws an AssertionError on the
+ * first check that fails.
+ *
+ * Usage:  ParallelGzipInputStreamTest
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ParallelGzipInputStreamTest
+{
+	// Three sentences, bgzip-compressed as two data blocks followed by the EOF block
+	private static final String BGZIP_HEX =
+		"1f8b08040000000000ff0600424302005d00d350d00856d0f00bd00d76f202d27e010abe457a9a105658665e766a9e2690171600"
+		+ "c44e510a99c520a90090b44272466266516e22501e28a6a7a007a434b934b019070089152a78640000001f8b08040000000000"
+		+ "ff0600424302005f00d354d0f0f30b5008cbcccb4ecdd3d454d0080b0062a72885cc6220072803945648ce48cc2cca4d04ca03"
+		+ "c5f414f4809426978682463048856eb09317c410df223d4db28d030078a691b8890000001f8b08040000000000ff0600424302"
+		+ "001b0003000000000000000000";
+
+	private static final String BGZIP_TEXT =
+		"( (S (NP-SBJ (NNP Mr.) (NNP Vinken)) (VP (VBZ is) (NP (NN chairman))) (. .)) )\n"
+		+ "( (S (NP-SBJ (NNP Mr.) (NNP Vinken)) (VP (VBZ is) (NP (NN chairman))) (. .)) )\n"
+		+ "( (S (NP-SBJ (NNP Mr.) (NNP Vinken)) (VP (VBZ is) (NP (NN chairman))) (. .)) )\n";
+
+	// The empty block that ends every bgzip file
+	private static final int EOF_BLOCK_LENGTH = 28;
+
+	public static void main(String[] args) throws Exception
+	{
+		byte[] bgzipFile = ParallelGzipInputStreamTest.fromHex(ParallelGzipInputStreamTest.BGZIP_HEX);
+
+		byte[] eofBlock = Arrays.copyOfRange(bgzipFile, bgzipFile.length - EOF_BLOCK_LENGTH, bgzipFile.length);
+
+		byte[] dataBlocks = Arrays.copyOf(bgzipFile, bgzipFile.length - EOF_BLOCK_LENGTH);
+
+		// A file ending in the EOF block
+		ParallelGzipInputStreamTest.check(
+			"bgzip file with EOF block",
+			Arrays.equals(ParallelGzipInputStreamTest.decompress(bgzipFile), BGZIP_TEXT.getBytes(StandardCharsets.US_ASCII)));
+
+		// A file with nothing but the EOF block
+		ParallelGzipInputStreamTest.check(
+			"empty bgzip file", ParallelGzipInputStreamTest.decompress(eofBlock).length == 0);
+
+		// A file of many blocks, which is decompressed in several groups
+		ByteArrayOutputStream largeFile = new ByteArrayOutputStream();
+
+		ByteArrayOutputStream largeText = new ByteArrayOutputStream();
+
+		for (int i = 0 ; i < 20000 ; i++)
+		{
+			largeFile.write(dataBlocks);
+			largeText.write(BGZIP_TEXT.getBytes(StandardCharsets.US_ASCII));
+		}
+
+		largeFile.write(eofBlock);
+
+		ParallelGzipInputStreamTest.check(
+			"bgzip file of several groups",
+			Arrays.equals(ParallelGzipInputStreamTest.decompress(largeFile.toByteArray()), largeText.toByteArray()));
+
+		// A block whose CRC does not match its data
+		byte[] corruptFile = bgzipFile.clone();
+
+		corruptFile[dataBlocks.length - 8] ^= 0x01;
+
+		try
+		{
+			ParallelGzipInputStreamTest.decompress(corruptFile);
+
+			ParallelGzipInputStreamTest.check("corrupt bgzip file", false);
+		}
+		catch (IOException e)
+		{
+			// Expected
+		}
+
+		// A constituent file stored as bgzip is parsed like the uncompressed file
+		File constituentFile = File.createTempFile("wsj_0001", ".prd.gz");
+
+		try
+		{
+			Files.write(constituentFile.toPath(), bgzipFile);
+
+			ConstituentStructureReader reader = WSJConstituentCounter.readConstituentStructureFile(constituentFile, null);
+
+			int numSentences = 0;
+
+			try
+			{
+				while (reader.hasNext())
+				{
+					reader.next();
+
+					numSentences++;
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			ParallelGzipInputStreamTest.check("sentences parsed from a bgzip file", numSentences == 3);
+
+			// The ingestion pipeline decompresses whole files instead of streaming them
+			WSJConstituentCounterStructures pipelineStructures = new IngestionPipeline(
+				Collections.singletonList(constituentFile), new WSJConstituentCounterStatistics(), 1).run();
+
+			ParallelGzipInputStreamTest.check(
+				"sentences ingested from a bgzip file", pipelineStructures.parsedConstituentStructures.size() == 3);
+		}
+		finally
+		{
+			constituentFile.delete();
+		}
+
+		System.out.println("ParallelGzipInputStreamTest passed");
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException
+	{
+		ParallelGzipInputStream decompressedInput = new ParallelGzipInputStream(ByteBuffer.wrap(compressed));
+
+		try
+		{
+			return decompressedInput.readAllBytes();
+		}
+		finally
+		{
+			decompressedInput.close();
+		}
+	}
+
+	private static void check(String name, boolean passed)
+	{
+		if (!passed)
+		{
+			throw new AssertionError("Failed: " + name);
+		}
+	}
+
+	private static byte[] fromHex(String hex)
+	{
+		byte[] bytes = new byte[hex.length() / 2];
+
+		for (int i = 0 ; i < bytes.length ; i++)
+		{
+			bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+
+		return bytes;
+	}
+}
@@ -0,0 +1,84 @@
+package tests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import main.ConstituentStructure;
+import main.ParsevalEvaluator;
+import main.ParsevalEvaluator.SentenceScore;
+import main.WSJConstituentCounter;
+
+/**
+ * Checks that ParsevalEvaluator handles the labels of WSJ gold trees that start with '-':  empty elements
+ * (-NONE-, with their traces) are dropped from the gold tree before it is scored, and bracket tags (-LRB-,
+ * -RRB-) keep their whole label.
+ *
+ * There is no test framework in this tree, so this is run as a program, and throws an AssertionError on the
+ * first check that fails.
+ *
+ * Usage:  ParsevalEvaluatorTest
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ParsevalEvaluatorTest
+{
+	public static void main(String[] args)
+	{
+		ParsevalEvaluator evaluator = new ParsevalEvaluator();
+
+		// A gold tree with a trace, scored against the same parse without it
+		SentenceScore traceScore = evaluator.evaluate(
+			0,
+			ParsevalEvaluatorTest.parse(
+				"( (S (NP-SBJ (-NONE- *T*-1)) (NP (DT The) (NN man)) (VP (VBZ is) (ADJP (JJ tall))) (. .)) )"),
+			ParsevalEvaluatorTest.parse(
+				"( (S (NP (DT The) (NN man)) (VP (VBZ is) (ADJP (JJ tall))) (. .)) )"));
+
+		ParsevalEvaluatorTest.check("trace is dropped", traceScore.error == null);
+		ParsevalEvaluatorTest.check("trace sentence length", traceScore.length == 5);
+		ParsevalEvaluatorTest.check("trace sentence exact match", traceScore.isLabeledExactMatch());
+		ParsevalEvaluatorTest.check("trace sentence recall", traceScore.getLabeledRecall() == 1.0);
+		ParsevalEvaluatorTest.check("trace sentence precision", traceScore.getLabeledPrecision() == 1.0);
+
+		// An indexed empty subject, whose phrase covers no words and so is not a bracket
+		SentenceScore indexedTraceScore = evaluator.evaluate(
+			1,
+			ParsevalEvaluatorTest.parse(
+				"( (S (NP-SBJ-1 (-NONE- *-1)) (VP (VBD left))) )"),
+			ParsevalEvaluatorTest.parse(
+				"( (S (VP (VBD left))) )"));
+
+		ParsevalEvaluatorTest.check("indexed trace is dropped", indexedTraceScore.error == null);
+		ParsevalEvaluatorTest.check("indexed trace exact match", indexedTraceScore.isLabeledExactMatch());
+
+		// Bracket tags keep their whole label, so they can be deleted by name
+		ParsevalEvaluator bracketEvaluator = new ParsevalEvaluator(
+			new HashSet<String>(Arrays.asList("-LRB-", "-RRB-")), Collections.<String, String>emptyMap());
+
+		ConstituentStructure bracketTree = ParsevalEvaluatorTest.parse(
+			"( (S (NP (-LRB- -LRB-) (NN man) (-RRB- -RRB-)) (VP (VBZ is))) )");
+
+		SentenceScore bracketScore = bracketEvaluator.evaluate(2, bracketTree, bracketTree);
+
+		ParsevalEvaluatorTest.check("bracket sentence scored", bracketScore.error == null);
+		ParsevalEvaluatorTest.check("bracket sentence length", bracketScore.length == 4);
+		ParsevalEvaluatorTest.check("bracket tags deleted by their whole label", bracketScore.numTags == 2);
+
+		System.out.println("ParsevalEvaluatorTest passed");
+	}
+
+	private static ConstituentStructure parse(String bracketedSentence)
+	{
+		return WSJConstituentCounter.parseContituentsFromString(bracketedSentence, null).parsedConstituentStructures.get(0);
+	}
+
+	private static void check(String name, boolean passed)
+	{
+		if (!passed)
+		{
+			throw new AssertionError("Failed: " + name);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only view of a buffer of single-byte (ASCII) characters as a CharSequence.  Nothing is
+ * copied:  every character is read straight out of the buffer, which is typically memory-mapped
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ByteBufferCharSequence implements CharSequence
+{
+	private ByteBuffer buffer;
+
+	// The absolute offset in the buffer of the first character of this sequence
+	private int start;
+
+	private int length;
+
+	public ByteBufferCharSequence(ByteBuffer buffer)
+	{
+		this(buffer, buffer.position(), buffer.remaining());
+	}
+
+	private ByteBufferCharSequence(ByteBuffer buffer, int start, int length)
+	{
+		this.buffer = buffer;
+
+		this.start = start;
+
+		this.length = length;
+	}
+
+	/**
+	 * Determine whether every byte remaining in the buffer is plain ASCII (and so can be viewed
+	 * directly as characters without decoding)
+	 */
+	public static boolean isAscii(ByteBuffer buffer)
+	{
+		int end = buffer.limit();
+
+		for (int i = buffer.position() ; i < end ; i++)
+		{
+			if (buffer.get(i) < 0)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * CharSequence Implementation
+	 */
+
+	@Override
+	public int length()
+	{
+		return this.length;
+	}
+
+	@Override
+	public char charAt(int index)
+	{
+		if ((index < 0) || (index >= this.length))
+		{
+			throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + this.length);
+		}
+
+		return (char)(this.buffer.get(this.start + index) & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end)
+	{
+		if ((start < 0) || (end > this.length) || (start > end))
+		{
+			throw new IndexOutOfBoundsException("Start: " + start + ", End: " + end + ", Length: " + this.length);
+		}
+
+		return new ByteBufferCharSequence(this.buffer, this.start + start, end - start);
+	}
+
+	/*
+	 * Object Overrides
+	 */
+
+	@Override
+	public String toString()
+	{
+		byte[] bytes = new byte[this.length];
+
+		for (int i = 0 ; i < this.length ; i++)
+		{
+			bytes[i] = this.buffer.get(this.start + i);
+		}
+
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+}
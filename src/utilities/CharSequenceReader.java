@@ -0,0 +1,54 @@
+package utilities;
+
+import java.io.Reader;
+
+/**
+ * A Reader over any CharSequence (as opposed to java.io.StringReader, which only accepts Strings), so
+ * that buffers such as a ByteBufferCharSequence can be read without first being copied into a String
+ *
+ * @author hlil_administrator
+ *
+ */
+public class CharSequenceReader extends Reader
+{
+	private CharSequence charSequence;
+
+	private int position = 0;
+
+	public CharSequenceReader(CharSequence charSequence)
+	{
+		this.charSequence = charSequence;
+	}
+
+	/*
+	 * Reader Implementation
+	 */
+
+	@Override
+	public int read(char[] destination, int offset, int length)
+	{
+		int numRemaining = this.charSequence.length() - this.position;
+
+		if (numRemaining <= 0)
+		{
+			return -1;
+		}
+
+		int numToRead = Math.min(numRemaining, length);
+
+		for (int i = 0 ; i < numToRead ; i++)
+		{
+			destination[offset + i] = this.charSequence.charAt(this.position + i);
+		}
+
+		this.position += numToRead;
+
+		return numToRead;
+	}
+
+	@Override
+	public void close()
+	{
+		this.position = this.charSequence.length();
+	}
+}
@@ -0,0 +1,80 @@
+package utilities;
+
+/**
+ * Helpers for hashing and comparing slices of character buffers without first copying them into Strings
+ *
+ * @author hlil_administrator
+ *
+ */
+public class CharSlices
+{
+	/**
+	 * @return A hash of the characters from start (inclusive) to end (exclusive), with its bits spread so
+	 *         that the low bits can be used directly as a table index
+	 */
+	public static int hash(CharSequence chars, int start, int end)
+	{
+		int hash = 0;
+
+		for (int i = start ; i < end ; i++)
+		{
+			hash = 31*hash + chars.charAt(i);
+		}
+
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return A 64-bit hash of the characters from start (inclusive) to end (exclusive) that is the same in every
+	 *         run, suitable for sketches (see CountMinSketch and HyperLogLog), whose accuracy depends on every
+	 *         bit of the hash being well mixed
+	 */
+	public static long hash64(CharSequence chars, int start, int end)
+	{
+		// FNV-1a over the characters, followed by the MurmurHash3 finalizer
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = start ; i < end ; i++)
+		{
+			hash ^= chars.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		return CharSlices.mix64(hash);
+	}
+
+	/**
+	 * @return The value with its bits mixed by the MurmurHash3 finalizer
+	 */
+	public static long mix64(long value)
+	{
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+
+		return value;
+	}
+
+	/**
+	 * @return True if the string consists of exactly the characters from start (inclusive) to end (exclusive)
+	 */
+	public static boolean matches(String string, CharSequence chars, int start, int end)
+	{
+		if (string.length() != (end - start))
+		{
+			return false;
+		}
+
+		for (int i = start ; i < end ; i++)
+		{
+			if (string.charAt(i - start) != chars.charAt(i))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
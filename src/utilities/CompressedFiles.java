@@ -0,0 +1,96 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Recognizes compressed files by their names and their magic bytes.  Only gzip (including bgzip) can be read
+ * (see ParallelGzipInputStream); the other formats that treebanks are commonly stored in are recognized so that
+ * they can be rejected with a clear error, instead of being parsed as garbage.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class CompressedFiles
+{
+	// The file name suffixes of compressed files, which are ignored when matching file names against patterns
+	private static final String[] COMPRESSED_FILE_SUFFIXES = {".gz", ".bgz", ".bz2", ".zst", ".xz"};
+
+	private static final byte[] GZIP_MAGIC = {(byte)0x1F, (byte)0x8B};
+
+	private static final byte[] BZIP2_MAGIC = {'B', 'Z', 'h'};
+
+	private static final byte[] ZSTD_MAGIC = {(byte)0x28, (byte)0xB5, (byte)0x2F, (byte)0xFD};
+
+	private static final byte[] XZ_MAGIC = {(byte)0xFD, '7', 'z', 'X', 'Z', 0};
+
+	/**
+	 * @return The file name without its compressed file suffix, if it has one (e.g. wsj_0001.prd for
+	 *         wsj_0001.prd.gz)
+	 */
+	public static String stripCompressedFileSuffix(String fileName)
+	{
+		for (String curSuffix : CompressedFiles.COMPRESSED_FILE_SUFFIXES)
+		{
+			if (fileName.endsWith(curSuffix))
+			{
+				return fileName.substring(0, fileName.length() - curSuffix.length());
+			}
+		}
+
+		return fileName;
+	}
+
+	/**
+	 * @return True if the buffer (from its position) starts with a gzip header
+	 */
+	public static boolean isGzip(ByteBuffer buffer)
+	{
+		return CompressedFiles.startsWith(buffer, CompressedFiles.GZIP_MAGIC);
+	}
+
+	/**
+	 * @throws IOException If the buffer (from its position) is compressed in a format that cannot be read
+	 */
+	public static void checkReadable(ByteBuffer buffer, String name) throws IOException
+	{
+		String format = null;
+
+		if (CompressedFiles.startsWith(buffer, CompressedFiles.BZIP2_MAGIC))
+		{
+			format = "bzip2";
+		}
+		else if (CompressedFiles.startsWith(buffer, CompressedFiles.ZSTD_MAGIC))
+		{
+			format = "zstd";
+		}
+		else if (CompressedFiles.startsWith(buffer, CompressedFiles.XZ_MAGIC))
+		{
+			format = "xz";
+		}
+
+		if (format != null)
+		{
+			throw new IOException(name + " is " + format + "-compressed, which cannot be read (only gzip and bgzip "
+				+ "can be); decompress it, or recompress it with bgzip to have it decompressed in parallel");
+		}
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, byte[] magic)
+	{
+		if (buffer.remaining() < magic.length)
+		{
+			return false;
+		}
+
+		for (int i = 0 ; i < magic.length ; i++)
+		{
+			if (buffer.get(buffer.position() + i) != magic[i])
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,183 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A Count-Min sketch:  approximate counts of an unbounded number of distinct keys in a fixed amount of memory.
+ * Keys are given as 64-bit hashes (see CharSlices.hash64).  The sketch is a table of depth rows of width
+ * counters; every key is counted into one counter per row, and its estimated count is the smallest of its
+ * counters.
+ *
+ * While all counts are non-negative, an estimate is never less than the true count, and with probability at
+ * least 1 - delta it is at most the true count plus epsilon times the total of all counts, where
+ * width = ceil(e / epsilon) and depth = ceil(ln(1 / delta)).
+ *
+ * Sketches with the same dimensions can be merged (and subtracted), giving the sketch of the combined counts.
+ * A sketch can be written out with writeTo() and read back with readFrom().
+ *
+ * @author hlil_administrator
+ *
+ */
+public class CountMinSketch
+{
+	private final int width;
+
+	private final int depth;
+
+	// Row-major:  row r, column c -> counters[r*width + c]
+	private final long[] counters;
+
+	// The total of all counts
+	private long totalCount = 0;
+
+	public CountMinSketch(int width, int depth)
+	{
+		if ((width < 1) || (depth < 1))
+		{
+			throw new IllegalArgumentException("Width and depth must be positive: " + width + "x" + depth);
+		}
+
+		this.width = width;
+		this.depth = depth;
+
+		this.counters = new long[Math.multiplyExact(width, depth)];
+	}
+
+	/**
+	 * @param epsilon The error of an estimate, as a fraction of the total of all counts
+	 * @param delta   The probability that an estimate exceeds that error
+	 */
+	public static CountMinSketch withErrorBounds(double epsilon, double delta)
+	{
+		if ((epsilon <= 0) || (epsilon >= 1) || (delta <= 0) || (delta >= 1))
+		{
+			throw new IllegalArgumentException("Error bounds must be in (0, 1): epsilon=" + epsilon + " delta=" + delta);
+		}
+
+		return new CountMinSketch((int)Math.ceil(Math.E / epsilon), (int)Math.ceil(Math.log(1 / delta)));
+	}
+
+	public void add(long keyHash, long count)
+	{
+		int hash1 = (int)keyHash;
+		int hash2 = (int)(keyHash >>> 32);
+
+		// Double hashing gives each row its own independent-enough column (Kirsch and Mitzenmacher)
+		for (int curRow = 0 ; curRow < this.depth ; curRow++)
+		{
+			this.counters[curRow * this.width + Math.floorMod(hash1 + curRow * hash2, this.width)] += count;
+		}
+
+		this.totalCount += count;
+	}
+
+	/**
+	 * @return The estimated count of the key (an upper bound on its true count while all counts are
+	 *         non-negative)
+	 */
+	public long estimate(long keyHash)
+	{
+		int hash1 = (int)keyHash;
+		int hash2 = (int)(keyHash >>> 32);
+
+		long estimate = Long.MAX_VALUE;
+
+		for (int curRow = 0 ; curRow < this.depth ; curRow++)
+		{
+			estimate = Math.min(estimate, this.counters[curRow * this.width + Math.floorMod(hash1 + curRow * hash2, this.width)]);
+		}
+
+		return estimate;
+	}
+
+	public long getTotalCount()
+	{
+		return this.totalCount;
+	}
+
+	public int getWidth()
+	{
+		return this.width;
+	}
+
+	public int getDepth()
+	{
+		return this.depth;
+	}
+
+	/**
+	 * Add all of the counts of the other sketch (which must have the same dimensions) to this sketch
+	 */
+	public void merge(CountMinSketch other)
+	{
+		this.merge(other, 1);
+	}
+
+	/**
+	 * Remove all of the counts of the other sketch (which must have the same dimensions) from this sketch
+	 */
+	public void subtract(CountMinSketch other)
+	{
+		this.merge(other, -1);
+	}
+
+	private void merge(CountMinSketch other, long sign)
+	{
+		if ((other.width != this.width) || (other.depth != this.depth))
+		{
+			throw new IllegalArgumentException("Cannot merge a " + other.width + "x" + other.depth 
+				+ " sketch into a " + this.width + "x" + this.depth + " sketch");
+		}
+
+		for (int i = 0 ; i < this.counters.length ; i++)
+		{
+			this.counters[i] += sign * other.counters[i];
+		}
+
+		this.totalCount += sign * other.totalCount;
+	}
+
+	/**
+	 * Write the sketch as its width, depth and total count, then its counters in row-major order (all as
+	 * varints, so that the counters that are still 0 take one byte each)
+	 */
+	public void writeTo(OutputStream output) throws IOException
+	{
+		VarInts.writeVarInt(output, this.width);
+		VarInts.writeVarInt(output, this.depth);
+		VarInts.writeVarLong(output, this.totalCount);
+
+		for (long curCounter : this.counters)
+		{
+			VarInts.writeVarLong(output, curCounter);
+		}
+	}
+
+	/**
+	 * Read a sketch written by writeTo(), starting at the current position of the buffer, and advance the
+	 * position past it
+	 */
+	public static CountMinSketch readFrom(ByteBuffer buffer)
+	{
+		CountMinSketch sketch = new CountMinSketch(VarInts.readVarInt(buffer), VarInts.readVarInt(buffer));
+
+		sketch.totalCount = VarInts.readVarLong(buffer);
+
+		for (int i = 0 ; i < sketch.counters.length ; i++)
+		{
+			sketch.counters[i] = VarInts.readVarLong(buffer);
+		}
+
+		return sketch;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(this.counters, 0);
+
+		this.totalCount = 0;
+	}
+}
@@ -0,0 +1,159 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A HyperLogLog estimator of the number of distinct keys seen, in a fixed amount of memory (2^precision
+ * one-byte registers).  Keys are given as 64-bit hashes (see CharSlices.hash64).  The relative standard error
+ * of the estimate is about 1.04 / sqrt(2^precision); small cardinalities are estimated by linear counting.
+ *
+ * Estimators with the same precision can be merged, giving the estimator of the union of their keys.  An
+ * estimator can be written out with writeTo() and read back with readFrom().
+ *
+ * @author hlil_administrator
+ *
+ */
+public class HyperLogLog
+{
+	public static final int MIN_PRECISION = 4;
+
+	public static final int MAX_PRECISION = 18;
+
+	private final int precision;
+
+	// Register -> the largest number of leading zeros (plus one) seen in the hashes that fell into it
+	private final byte[] registers;
+
+	public HyperLogLog(int precision)
+	{
+		if ((precision < HyperLogLog.MIN_PRECISION) || (precision > HyperLogLog.MAX_PRECISION))
+		{
+			throw new IllegalArgumentException("Precision must be in [" + HyperLogLog.MIN_PRECISION + ", " 
+				+ HyperLogLog.MAX_PRECISION + "]: " + precision);
+		}
+
+		this.precision = precision;
+
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * @param relativeError The relative standard error of the estimate
+	 */
+	public static HyperLogLog withRelativeError(double relativeError)
+	{
+		if ((relativeError <= 0) || (relativeError >= 1))
+		{
+			throw new IllegalArgumentException("Relative error must be in (0, 1): " + relativeError);
+		}
+
+		int precision = (int)Math.ceil(Math.log((1.04 / relativeError) * (1.04 / relativeError)) / Math.log(2));
+
+		return new HyperLogLog(Math.max(HyperLogLog.MIN_PRECISION, Math.min(HyperLogLog.MAX_PRECISION, precision)));
+	}
+
+	public void offer(long keyHash)
+	{
+		int register = (int)(keyHash >>> (64 - this.precision));
+
+		// The remaining bits, with a sentinel bit so that the rank is at most 64 - precision + 1
+		byte rank = (byte)(Long.numberOfLeadingZeros((keyHash << this.precision) | (1L << (this.precision - 1))) + 1);
+
+		if (rank > this.registers[register])
+		{
+			this.registers[register] = rank;
+		}
+	}
+
+	/**
+	 * @return The estimated number of distinct keys offered
+	 */
+	public long cardinality()
+	{
+		int numRegisters = this.registers.length;
+
+		double harmonicSum = 0;
+
+		int numZeroRegisters = 0;
+
+		for (byte curRegister : this.registers)
+		{
+			harmonicSum += 1.0 / (1L << curRegister);
+
+			if (curRegister == 0)
+			{
+				numZeroRegisters++;
+			}
+		}
+
+		double alpha;
+
+		switch (numRegisters)
+		{
+			case 16: alpha = 0.673; break;
+			case 32: alpha = 0.697; break;
+			case 64: alpha = 0.709; break;
+			default: alpha = 0.7213 / (1 + 1.079 / numRegisters); break;
+		}
+
+		double estimate = alpha * numRegisters * numRegisters / harmonicSum;
+
+		// Linear counting is more accurate while many registers are still empty
+		if ((estimate <= 2.5 * numRegisters) && (numZeroRegisters > 0))
+		{
+			estimate = numRegisters * Math.log((double)numRegisters / numZeroRegisters);
+		}
+
+		return Math.round(estimate);
+	}
+
+	public int getPrecision()
+	{
+		return this.precision;
+	}
+
+	/**
+	 * Add all of the keys of the other estimator (which must have the same precision) to this estimator
+	 */
+	public void merge(HyperLogLog other)
+	{
+		if (other.precision != this.precision)
+		{
+			throw new IllegalArgumentException(
+				"Cannot merge a precision " + other.precision + " estimator into a precision " + this.precision + " one");
+		}
+
+		for (int i = 0 ; i < this.registers.length ; i++)
+		{
+			if (other.registers[i] > this.registers[i])
+			{
+				this.registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * Write the estimator as its precision followed by its registers (one byte each)
+	 */
+	public void writeTo(OutputStream output) throws IOException
+	{
+		VarInts.writeVarInt(output, this.precision);
+
+		output.write(this.registers);
+	}
+
+	/**
+	 * Read an estimator written by writeTo(), starting at the current position of the buffer, and advance the
+	 * position past it
+	 */
+	public static HyperLogLog readFrom(ByteBuffer buffer)
+	{
+		HyperLogLog estimator = new HyperLogLog(VarInts.readVarInt(buffer));
+
+		buffer.get(estimator.registers);
+
+		return estimator;
+	}
+}
@@ -0,0 +1,165 @@
+package utilities;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds, with one bucket per power of two (bucket i holds the
+ * latencies in [2^(i-1), 2^i), and bucket 0 holds latencies of 0).  Recording is a few uncontended adds, so
+ * many threads can record into the same histogram; percentiles are accurate to within a factor of two.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class LatencyHistogram
+{
+	private static final int NUM_BUCKETS = 64;
+
+	private final LongAdder[] bucketCounts = new LongAdder[NUM_BUCKETS];
+
+	private final LongAdder totalNanos = new LongAdder();
+
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram()
+	{
+		for (int curBucket = 0 ; curBucket < NUM_BUCKETS ; curBucket++)
+		{
+			this.bucketCounts[curBucket] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+
+		this.bucketCounts[NUM_BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+		this.totalNanos.add(nanos);
+		this.maxNanos.accumulate(nanos);
+	}
+
+	public void reset()
+	{
+		for (LongAdder curBucketCount : this.bucketCounts)
+		{
+			curBucketCount.reset();
+		}
+
+		this.totalNanos.reset();
+		this.maxNanos.reset();
+	}
+
+	/**
+	 * @return The current contents of the histogram.  Latencies recorded while the snapshot is being taken may
+	 *         or may not be included
+	 */
+	public Snapshot snapshot()
+	{
+		long[] curBucketCounts = new long[NUM_BUCKETS];
+
+		for (int curBucket = 0 ; curBucket < NUM_BUCKETS ; curBucket++)
+		{
+			curBucketCounts[curBucket] = this.bucketCounts[curBucket].sum();
+		}
+
+		return new Snapshot(curBucketCounts, this.totalNanos.sum(), this.maxNanos.get());
+	}
+
+	/**
+	 * An immutable copy of the contents of a histogram
+	 */
+	public static class Snapshot
+	{
+		private final long[] bucketCounts;
+
+		private final long count;
+
+		private final long totalNanos;
+
+		private final long maxNanos;
+
+		private Snapshot(long[] bucketCounts, long totalNanos, long maxNanos)
+		{
+			long count = 0;
+
+			for (long curBucketCount : bucketCounts)
+			{
+				count += curBucketCount;
+			}
+
+			this.bucketCounts = bucketCounts;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		public long getCount()
+		{
+			return this.count;
+		}
+
+		public long getTotalNanos()
+		{
+			return this.totalNanos;
+		}
+
+		public long getMaxNanos()
+		{
+			return this.maxNanos;
+		}
+
+		public double getMeanNanos()
+		{
+			return (this.count == 0) ? 0 : (double)this.totalNanos / this.count;
+		}
+
+		/**
+		 * @param fraction In [0, 1], e.g. 0.99 for the 99th percentile
+		 *
+		 * @return An upper bound on the latency below which the given fraction of the latencies fall (the upper
+		 *         end of the bucket the percentile falls in, capped at the maximum), or 0 if nothing was recorded
+		 */
+		public long getPercentileNanos(double fraction)
+		{
+			if (this.count == 0)
+			{
+				return 0;
+			}
+
+			long rank = Math.max(1, (long)Math.ceil(fraction * this.count));
+
+			long seen = 0;
+
+			for (int curBucket = 0 ; curBucket < this.bucketCounts.length ; curBucket++)
+			{
+				seen += this.bucketCounts[curBucket];
+
+				if (seen >= rank)
+				{
+					return (curBucket == 0) ? 0 : Math.min(this.maxNanos, (1L << curBucket) - 1);
+				}
+			}
+
+			return this.maxNanos;
+		}
+
+		/**
+		 * @return The number of latencies in each power-of-two bucket (see LatencyHistogram)
+		 */
+		public long[] getBucketCounts()
+		{
+			return this.bucketCounts.clone();
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("count=%d mean=%.0fns p50=%dns p99=%dns max=%dns",
+				this.count, this.getMeanNanos(), this.getPercentileNanos(0.5), this.getPercentileNanos(0.99),
+				this.maxNanos);
+		}
+	}
+}
@@ -20,8 +20,6 @@ public class Pair<K, V>
 		this.value = value;
 		
 		this.hashcode = this.key.hashCode();
-		
-		this.stringRep = "(" + this.key.toString() + ", " + this.value.toString() + ")";
 	}
 	
 	/*
@@ -63,6 +61,13 @@ public class Pair<K, V>
 	@Override
 	public String toString() 
 	{
+		// The string rep is only built when asked for, since the key and value may be expensive
+		// to render
+		if (this.stringRep == null)
+		{
+			this.stringRep = "(" + this.key.toString() + ", " + this.value.toString() + ")";
+		}
+		
 		return this.stringRep;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,673 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a gzip file (given as a buffer, typically memory-mapped) ahead of the reader, on other threads, so
+ * that decompressing overlaps with whatever the reader does with the data.
+ *
+ * A bgzip (BGZF) file is a series of small gzip members, each of which records its own compressed size, so the
+ * members can be found without decompressing anything and decompressed independently.  The members of a bgzip
+ * file are decompressed in groups of about GROUP_SIZE compressed bytes, on a pool shared by every stream with a
+ * thread per core, and up to READ_AHEAD_GROUPS groups ahead of the reader.
+ *
+ * Any other gzip file (including one with several members, which cannot be found without decompressing the ones
+ * before them) is decompressed from start to end by a single thread of its own, up to READ_AHEAD_CHUNKS chunks
+ * ahead of the reader.
+ *
+ * Either way, the reader only waits if it gets ahead of the decompression, and decompression stops once it is
+ * far enough ahead of the reader.  The stream must be closed if it is not read to the end, so that its
+ * decompression is stopped.
+ *
+ * Only gzip is supported:  the JDK has no bzip2, zstd or xz decoder, so files in those formats are rejected
+ * (see CompressedFiles.checkReadable) rather than read.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class ParallelGzipInputStream extends InputStream
+{
+	// The number of compressed bytes of the bgzip members decompressed together
+	private static final int GROUP_SIZE = 1 << 20;
+
+	private static final int READ_AHEAD_GROUPS = 2 * Runtime.getRuntime().availableProcessors();
+
+	// The size of the chunks a plain gzip file is decompressed into
+	private static final int CHUNK_SIZE = 1 << 18;
+
+	private static final int READ_AHEAD_CHUNKS = 8;
+
+	// The flags of a gzip header
+	private static final int FLAG_HEADER_CRC = 0x02;
+
+	private static final int FLAG_EXTRA = 0x04;
+
+	private static final int FLAG_NAME = 0x08;
+
+	private static final int FLAG_COMMENT = 0x10;
+
+	// Marks the end of the chunks of a plain gzip file
+	private static final Future<byte[]> END_OF_CHUNKS = CompletableFuture.completedFuture(new byte[0]);
+
+	private static final ExecutorService GROUP_DECOMPRESSORS = Executors.newFixedThreadPool(
+		Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("gzip-group-decompressor"));
+
+	private final ByteBuffer compressed;
+
+	// For a bgzip file:  the offsets of the groups of members (and of the end of the file), the next group to
+	// decompress, and the groups being decompressed, in order
+	private int[] groupOffsets;
+
+	private int nextGroup = 0;
+
+	private Deque<Future<byte[]>> pendingGroups;
+
+	// For any other gzip file:  the thread decompressing it, and the chunks it has decompressed, in order
+	private ExecutorService chunkDecompressor;
+
+	private BlockingQueue<Future<byte[]>> pendingChunks;
+
+	// The decompressed data currently being read
+	private byte[] curChunk = new byte[0];
+
+	private int curChunkPosition = 0;
+
+	private boolean endReached = false;
+
+	/**
+	 * Start decompressing the gzip data from the position of the buffer to its limit
+	 *
+	 * @throws IOException If the data is not gzip
+	 */
+	public ParallelGzipInputStream(ByteBuffer compressed) throws IOException
+	{
+		if (!CompressedFiles.isGzip(compressed))
+		{
+			throw new IOException("Not gzip data");
+		}
+
+		this.compressed = compressed.slice();
+
+		int[] memberOffsets = ParallelGzipInputStream.findBgzipMemberOffsets(this.compressed);
+
+		if (memberOffsets != null)
+		{
+			this.groupOffsets = ParallelGzipInputStream.groupMembers(memberOffsets);
+
+			this.pendingGroups = new ArrayDeque<Future<byte[]>>();
+
+			while ((this.pendingGroups.size() < READ_AHEAD_GROUPS) && this.submitNextGroup())
+			{
+				// Keep submitting
+			}
+		}
+		else
+		{
+			this.pendingChunks = new ArrayBlockingQueue<Future<byte[]>>(READ_AHEAD_CHUNKS);
+
+			this.chunkDecompressor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("gzip-decompressor"));
+
+			this.chunkDecompressor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws InterruptedException
+				{
+					ParallelGzipInputStream.this.decompressChunks();
+
+					return null;
+				}
+			});
+		}
+	}
+
+	/*
+	 * InputStream Implementation
+	 */
+
+	@Override
+	public int read() throws IOException
+	{
+		if (!this.ensureChunk())
+		{
+			return -1;
+		}
+
+		return this.curChunk[this.curChunkPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] destination, int offset, int length) throws IOException
+	{
+		if (length == 0)
+		{
+			return 0;
+		}
+
+		if (!this.ensureChunk())
+		{
+			return -1;
+		}
+
+		int numToRead = Math.min(length, this.curChunk.length - this.curChunkPosition);
+
+		System.arraycopy(this.curChunk, this.curChunkPosition, destination, offset, numToRead);
+
+		this.curChunkPosition += numToRead;
+
+		return numToRead;
+	}
+
+	@Override
+	public int available()
+	{
+		return this.curChunk.length - this.curChunkPosition;
+	}
+
+	/**
+	 * Stop decompressing
+	 */
+	@Override
+	public void close()
+	{
+		this.endReached = true;
+
+		if (this.pendingGroups != null)
+		{
+			for (Future<byte[]> curGroup : this.pendingGroups)
+			{
+				curGroup.cancel(true);
+			}
+
+			this.pendingGroups.clear();
+		}
+		else
+		{
+			this.chunkDecompressor.shutdownNow();
+
+			this.pendingChunks.clear();
+		}
+	}
+
+	/**
+	 * Make sure that there is decompressed data left in the current chunk, waiting for the next chunk if needed
+	 *
+	 * @return False if the end of the data has been reached
+	 */
+	private boolean ensureChunk() throws IOException
+	{
+		while (!this.endReached && (this.curChunkPosition == this.curChunk.length))
+		{
+			Future<byte[]> nextChunk;
+
+			try
+			{
+				if (this.pendingGroups != null)
+				{
+					nextChunk = this.pendingGroups.poll();
+
+					this.submitNextGroup();
+				}
+				else
+				{
+					nextChunk = this.pendingChunks.take();
+				}
+
+				if ((nextChunk == null) || (nextChunk == ParallelGzipInputStream.END_OF_CHUNKS))
+				{
+					this.close();
+
+					return false;
+				}
+
+				this.curChunk = nextChunk.get();
+				this.curChunkPosition = 0;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+
+				this.close();
+
+				throw new IOException("Interrupted while waiting for gzip data", e);
+			}
+			catch (ExecutionException e)
+			{
+				this.close();
+
+				if (e.getCause() instanceof IOException)
+				{
+					throw (IOException)e.getCause();
+				}
+
+				throw new IOException("Could not decompress gzip data", e.getCause());
+			}
+		}
+
+		return !this.endReached;
+	}
+
+	/*
+	 * Bgzip
+	 */
+
+	/**
+	 * @return False if every group has already been submitted
+	 */
+	private boolean submitNextGroup()
+	{
+		if (this.nextGroup == this.groupOffsets.length - 1)
+		{
+			return false;
+		}
+
+		final int groupStart = this.groupOffsets[this.nextGroup];
+		final int groupEnd = this.groupOffsets[this.nextGroup + 1];
+
+		this.nextGroup++;
+
+		this.pendingGroups.add(ParallelGzipInputStream.GROUP_DECOMPRESSORS.submit(new Callable<byte[]>()
+		{
+			@Override
+			public byte[] call() throws IOException
+			{
+				return ParallelGzipInputStream.decompressMembers(ParallelGzipInputStream.this.compressed, groupStart, groupEnd);
+			}
+		}));
+
+		return true;
+	}
+
+	/**
+	 * @return The offsets of the members of the bgzip data followed by the offset of its end, or null if the data
+	 *         is not (entirely) bgzip
+	 */
+	private static int[] findBgzipMemberOffsets(ByteBuffer compressed)
+	{
+		List<Integer> memberOffsets = new ArrayList<Integer>();
+
+		int curOffset = 0;
+
+		int curExtraEnd;
+
+		int curSubfieldOffset;
+
+		int curBlockSize;
+
+		while (curOffset < compressed.limit())
+		{
+			memberOffsets.add(curOffset);
+
+			if ((curOffset + 12 > compressed.limit())
+				|| (compressed.get(curOffset) != (byte)0x1F) || (compressed.get(curOffset + 1) != (byte)0x8B)
+				|| ((compressed.get(curOffset + 3) & ParallelGzipInputStream.FLAG_EXTRA) == 0))
+			{
+				return null;
+			}
+
+			curExtraEnd = curOffset + 12 + ParallelGzipInputStream.getUnsignedShort(compressed, curOffset + 10);
+
+			curBlockSize = -1;
+
+			// The BC subfield holds the size of the member, minus 1
+			for (curSubfieldOffset = curOffset + 12 ; curSubfieldOffset + 4 <= Math.min(curExtraEnd, compressed.limit()) ; )
+			{
+				if ((compressed.get(curSubfieldOffset) == 'B') && (compressed.get(curSubfieldOffset + 1) == 'C')
+					&& (ParallelGzipInputStream.getUnsignedShort(compressed, curSubfieldOffset + 2) == 2)
+					&& (curSubfieldOffset + 6 <= compressed.limit()))
+				{
+					curBlockSize = ParallelGzipInputStream.getUnsignedShort(compressed, curSubfieldOffset + 4) + 1;
+
+					break;
+				}
+
+				curSubfieldOffset += 4 + ParallelGzipInputStream.getUnsignedShort(compressed, curSubfieldOffset + 2);
+			}
+
+			if ((curBlockSize < 0) || (curOffset + curBlockSize > compressed.limit()))
+			{
+				return null;
+			}
+
+			curOffset += curBlockSize;
+		}
+
+		memberOffsets.add(curOffset);
+
+		int[] offsets = new int[memberOffsets.size()];
+
+		for (int i = 0 ; i < offsets.length ; i++)
+		{
+			offsets[i] = memberOffsets.get(i);
+		}
+
+		return offsets;
+	}
+
+	/**
+	 * @return The offsets of the groups of consecutive members of about GROUP_SIZE compressed bytes each, followed
+	 *         by the offset of the end of the data
+	 */
+	private static int[] groupMembers(int[] memberOffsets)
+	{
+		List<Integer> groupOffsets = new ArrayList<Integer>();
+
+		groupOffsets.add(0);
+
+		for (int i = 1 ; i < memberOffsets.length ; i++)
+		{
+			if ((memberOffsets[i] - groupOffsets.get(groupOffsets.size()-1) >= ParallelGzipInputStream.GROUP_SIZE)
+				|| (i == memberOffsets.length - 1))
+			{
+				groupOffsets.add(memberOffsets[i]);
+			}
+		}
+
+		int[] offsets = new int[groupOffsets.size()];
+
+		for (int i = 0 ; i < offsets.length ; i++)
+		{
+			offsets[i] = groupOffsets.get(i);
+		}
+
+		return offsets;
+	}
+
+	/**
+	 * Decompress the consecutive gzip members from start (inclusive) to end (exclusive), checking the length and
+	 * CRC of each one
+	 */
+	private static byte[] decompressMembers(ByteBuffer compressed, int start, int end) throws IOException
+	{
+		// The trailer of every member ends with its decompressed size, so the output can be allocated up front
+		List<int[]> membersAndSizes = new ArrayList<int[]>();
+
+		long totalSize = 0;
+
+		int curMemberStart = start;
+
+		int curMemberEnd;
+
+		int curSize;
+
+		while (curMemberStart < end)
+		{
+			curMemberEnd = curMemberStart + ParallelGzipInputStream.getUnsignedShort(
+				compressed, curMemberStart + 12 + ParallelGzipInputStream.findBgzipSubfieldOffset(compressed, curMemberStart) + 4) + 1;
+
+			curSize = compressed.getInt(curMemberEnd - 4);
+
+			curSize = Integer.reverseBytes(curSize);
+
+			membersAndSizes.add(new int[] {curMemberStart, curMemberEnd, curSize});
+
+			totalSize += curSize;
+
+			curMemberStart = curMemberEnd;
+		}
+
+		if (totalSize > Integer.MAX_VALUE - 8)
+		{
+			throw new IOException("Corrupt bgzip data: a group of members is too large");
+		}
+
+		byte[] decompressed = new byte[(int)totalSize];
+
+		int decompressedPosition = 0;
+
+		Inflater inflater = new Inflater(true);
+
+		CRC32 crc = new CRC32();
+
+		ByteBuffer curInput;
+
+		int curNumInflated;
+
+		int curNumInflatedNow;
+
+		byte[] overflow = new byte[1];
+
+		try
+		{
+			for (int[] curMemberAndSize : membersAndSizes)
+			{
+				curSize = curMemberAndSize[2];
+
+				curInput = compressed.duplicate();
+
+				curInput.limit(curMemberAndSize[1] - 8);
+				curInput.position(curMemberAndSize[0] + ParallelGzipInputStream.getHeaderLength(compressed, curMemberAndSize[0]));
+
+				inflater.reset();
+				inflater.setInput(curInput);
+
+				curNumInflated = 0;
+
+				while (!inflater.finished())
+				{
+					// Once the member's size has been reached (straight away for an empty member, such as the
+					// one that ends every bgzip file) the inflater is only run on to the end of the deflate
+					// data; if that produces anything, the member is longer than its trailer says
+					if (curNumInflated < curSize)
+					{
+						curNumInflatedNow = inflater.inflate(decompressed, decompressedPosition + curNumInflated, curSize - curNumInflated);
+					}
+					else
+					{
+						curNumInflatedNow = inflater.inflate(overflow);
+					}
+
+					if ((curNumInflatedNow == 0) && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary()))
+					{
+						throw new IOException("Corrupt gzip member at offset " + curMemberAndSize[0] + " (truncated)");
+					}
+
+					curNumInflated += curNumInflatedNow;
+
+					if (curNumInflated > curSize)
+					{
+						break;
+					}
+				}
+
+				if (curNumInflated != curSize)
+				{
+					throw new IOException("Corrupt gzip member at offset " + curMemberAndSize[0] + " (length mismatch)");
+				}
+
+				crc.reset();
+				crc.update(decompressed, decompressedPosition, curSize);
+
+				if ((int)crc.getValue() != Integer.reverseBytes(compressed.getInt(curMemberAndSize[1] - 8)))
+				{
+					throw new IOException("Corrupt gzip member at offset " + curMemberAndSize[0] + " (CRC mismatch)");
+				}
+
+				decompressedPosition += curSize;
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt gzip data", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		return decompressed;
+	}
+
+	/**
+	 * @return The offset of the BC subfield of the member, relative to the start of its extra field
+	 */
+	private static int findBgzipSubfieldOffset(ByteBuffer compressed, int memberStart)
+	{
+		int curSubfieldOffset = 0;
+
+		while ((compressed.get(memberStart + 12 + curSubfieldOffset) != 'B')
+			|| (compressed.get(memberStart + 12 + curSubfieldOffset + 1) != 'C'))
+		{
+			curSubfieldOffset += 4 + ParallelGzipInputStream.getUnsignedShort(compressed, memberStart + 12 + curSubfieldOffset + 2);
+		}
+
+		return curSubfieldOffset;
+	}
+
+	/**
+	 * @return The length of the header of the gzip member starting at the given offset
+	 */
+	private static int getHeaderLength(ByteBuffer compressed, int memberStart)
+	{
+		int flags = compressed.get(memberStart + 3);
+
+		int headerEnd = memberStart + 10;
+
+		if ((flags & ParallelGzipInputStream.FLAG_EXTRA) != 0)
+		{
+			headerEnd += 2 + ParallelGzipInputStream.getUnsignedShort(compressed, headerEnd);
+		}
+
+		if ((flags & ParallelGzipInputStream.FLAG_NAME) != 0)
+		{
+			while (compressed.get(headerEnd++) != 0)
+			{
+				// Skip the zero-terminated name
+			}
+		}
+
+		if ((flags & ParallelGzipInputStream.FLAG_COMMENT) != 0)
+		{
+			while (compressed.get(headerEnd++) != 0)
+			{
+				// Skip the zero-terminated comment
+			}
+		}
+
+		if ((flags & ParallelGzipInputStream.FLAG_HEADER_CRC) != 0)
+		{
+			headerEnd += 2;
+		}
+
+		return headerEnd - memberStart;
+	}
+
+	private static int getUnsignedShort(ByteBuffer buffer, int index)
+	{
+		return (buffer.get(index) & 0xFF) | ((buffer.get(index + 1) & 0xFF) << 8);
+	}
+
+	/*
+	 * Plain gzip
+	 */
+
+	/**
+	 * Decompress the whole file into chunks, waiting whenever READ_AHEAD_CHUNKS chunks have not been read yet
+	 */
+	private void decompressChunks() throws InterruptedException
+	{
+		try
+		{
+			GZIPInputStream decompressedInput = new GZIPInputStream(new ByteBufferInputStream(this.compressed), 1 << 16);
+
+			byte[] curChunk;
+
+			while ((curChunk = decompressedInput.readNBytes(ParallelGzipInputStream.CHUNK_SIZE)).length > 0)
+			{
+				this.pendingChunks.put(CompletableFuture.completedFuture(curChunk));
+			}
+
+			this.pendingChunks.put(ParallelGzipInputStream.END_OF_CHUNKS);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			this.pendingChunks.put(CompletableFuture.<byte[]>failedFuture(e));
+		}
+	}
+
+	/*
+	 * Reads the remaining bytes of a buffer (without moving the buffer's own position)
+	 */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer.duplicate();
+		}
+
+		@Override
+		public int read()
+		{
+			return this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] destination, int offset, int length)
+		{
+			if (length == 0)
+			{
+				return 0;
+			}
+
+			if (!this.buffer.hasRemaining())
+			{
+				return -1;
+			}
+
+			int numToRead = Math.min(length, this.buffer.remaining());
+
+			this.buffer.get(destination, offset, numToRead);
+
+			return numToRead;
+		}
+
+		@Override
+		public int available()
+		{
+			return this.buffer.remaining();
+		}
+	}
+
+	/*
+	 * Decompression threads do not keep the JVM alive
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private String name;
+
+		private DaemonThreadFactory(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, this.name);
+
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,553 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A Space-Saving summary (Metwally, Agrawal and El Abbadi) of the most frequent keys of a stream, in memory
+ * proportional to its capacity k no matter how many distinct keys the stream has.
+ *
+ * The summary monitors at most k keys, each with a count and an error.  A monitored key's true count is at
+ * least count - error and at most count, and every key whose true count is more than totalCount / k is
+ * monitored.  When a key that is not monitored arrives and the summary is full, it replaces the monitored key
+ * with the smallest count, inheriting that count as its error.
+ *
+ * Keys are identified by 64-bit hashes (see CharSlices.hash64), so that counting a key that is already
+ * monitored does not need the key itself; the key object is only created, through a KeyFactory, when the key
+ * starts being monitored.  Two keys with the same hash are counted as one.
+ *
+ * Summaries with the same capacity can be merged (Cafaro et al.), and the merged summary has the same
+ * guarantees for the combined stream.  A summary can be written out with writeTo() and read back with
+ * readFrom(), given a KeyCodec for its keys.
+ *
+ * Not thread-safe.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class SpaceSavingSummary<K>
+{
+	/**
+	 * Creates the key a hash stands for, when the key starts being monitored
+	 */
+	public static interface KeyFactory<K>
+	{
+		public K createKey();
+	}
+
+	/**
+	 * Writes keys to a stream and reads them back (see writeTo() and readFrom())
+	 */
+	public static interface KeyCodec<K>
+	{
+		public void writeKey(OutputStream output, K key) throws IOException;
+
+		/**
+		 * Read a key starting at the current position of the buffer, and advance the position past it
+		 */
+		public K readKey(ByteBuffer buffer);
+	}
+
+	/**
+	 * A monitored key, as of when it was returned
+	 */
+	public static class Entry<K>
+	{
+		private final K key;
+
+		private final long count;
+
+		private final long error;
+
+		Entry(K key, long count, long error)
+		{
+			this.key = key;
+			this.count = count;
+			this.error = error;
+		}
+
+		public K getKey()
+		{
+			return this.key;
+		}
+
+		/**
+		 * @return An upper bound on the true count of the key
+		 */
+		public long getCount()
+		{
+			return this.count;
+		}
+
+		/**
+		 * @return The most by which getCount() can overestimate the true count of the key
+		 */
+		public long getError()
+		{
+			return this.error;
+		}
+
+		/**
+		 * @return A lower bound on the true count of the key
+		 */
+		public long getGuaranteedCount()
+		{
+			return this.count - this.error;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.key + "=" + this.count + "(+-" + this.error + ")";
+		}
+	}
+
+	private final int capacity;
+
+	// Entry index -> key hash, key, count and error (entries 0 to size-1 are in use)
+	private final long[] keyHashes;
+
+	private final Object[] keys;
+
+	private final long[] counts;
+
+	private final long[] errors;
+
+	private int size = 0;
+
+	// A binary min-heap of entry indexes ordered by count, and entry index -> position in the heap
+	private final int[] heap;
+
+	private final int[] heapPositions;
+
+	// Open-addressing (linear probing) slots from key hash to entry index+1 (0 for an empty slot)
+	private final int[] slots;
+
+	// The total of all counts offered
+	private long totalCount = 0;
+
+	public SpaceSavingSummary(int capacity)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		this.capacity = capacity;
+
+		this.keyHashes = new long[capacity];
+		this.keys = new Object[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+
+		this.heap = new int[capacity];
+		this.heapPositions = new int[capacity];
+
+		// At most half full
+		this.slots = new int[Integer.highestOneBit(capacity) * 4];
+	}
+
+	/**
+	 * Count the key with the given hash the given (positive) number of times
+	 *
+	 * @param keyFactory Creates the key, if it is not already monitored
+	 */
+	public void offer(long keyHash, long count, KeyFactory<? extends K> keyFactory)
+	{
+		this.totalCount += count;
+
+		int slot = this.findSlot(keyHash);
+
+		int entry;
+
+		if (this.slots[slot] != 0)
+		{
+			entry = this.slots[slot] - 1;
+
+			this.counts[entry] += count;
+		}
+		else if (this.size < this.capacity)
+		{
+			this.insert(slot, keyHash, keyFactory.createKey(), count, 0);
+
+			return;
+		}
+		else
+		{
+			// Replace the key with the smallest count, which the new key may have been counted as
+			entry = this.heap[0];
+
+			this.removeSlot(this.findSlot(this.keyHashes[entry]));
+
+			this.keyHashes[entry] = keyHash;
+			this.keys[entry] = keyFactory.createKey();
+			this.errors[entry] = this.counts[entry];
+			this.counts[entry] += count;
+
+			this.slots[this.findSlot(keyHash)] = entry + 1;
+		}
+
+		this.siftDown(this.heapPositions[entry]);
+	}
+
+	/**
+	 * @return The monitored entry of the key with the given hash, or null if the key is not monitored (in which
+	 *         case its true count is at most getMaxUnmonitoredCount())
+	 */
+	@SuppressWarnings("unchecked")
+	public Entry<K> get(long keyHash)
+	{
+		int entryPlusOne = this.slots[this.findSlot(keyHash)];
+
+		if (entryPlusOne == 0)
+		{
+			return null;
+		}
+
+		return new Entry<K>((K)this.keys[entryPlusOne-1], this.counts[entryPlusOne-1], this.errors[entryPlusOne-1]);
+	}
+
+	/**
+	 * @return The (at most) numTopEntries monitored entries with the largest counts, largest first
+	 */
+	public List<Entry<K>> getTop(int numTopEntries)
+	{
+		List<Entry<K>> entries = this.getEntries();
+
+		Collections.sort(entries, new Comparator<Entry<K>>()
+		{
+			@Override
+			public int compare(Entry<K> first, Entry<K> second)
+			{
+				return Long.compare(second.getCount(), first.getCount());
+			}
+		});
+
+		return entries.subList(0, Math.min(numTopEntries, entries.size()));
+	}
+
+	/**
+	 * @return Every monitored entry, in no particular order
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Entry<K>> getEntries()
+	{
+		List<Entry<K>> entries = new ArrayList<Entry<K>>(this.size);
+
+		for (int curEntry = 0 ; curEntry < this.size ; curEntry++)
+		{
+			entries.add(new Entry<K>((K)this.keys[curEntry], this.counts[curEntry], this.errors[curEntry]));
+		}
+
+		return entries;
+	}
+
+	/**
+	 * @return An upper bound on the true count of any key that is not monitored (which is also the most any
+	 *         count can be overestimated by, and at most getTotalCount() / getCapacity())
+	 */
+	public long getMaxUnmonitoredCount()
+	{
+		return (this.size < this.capacity) ? 0 : this.counts[this.heap[0]];
+	}
+
+	public long getTotalCount()
+	{
+		return this.totalCount;
+	}
+
+	public int getCapacity()
+	{
+		return this.capacity;
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Merge the other summary (which must have the same capacity) into this one, so that this summary is a
+	 * summary of both streams.  A key that is monitored by only one of the summaries is assumed to have
+	 * occurred as often as it could have in the other one (its getMaxUnmonitoredCount())
+	 */
+	@SuppressWarnings("unchecked")
+	public void merge(SpaceSavingSummary<? extends K> other)
+	{
+		if (other.capacity != this.capacity)
+		{
+			throw new IllegalArgumentException(
+				"Cannot merge a summary of capacity " + other.capacity + " into one of capacity " + this.capacity);
+		}
+
+		long thisMaxUnmonitoredCount = this.getMaxUnmonitoredCount();
+		long otherMaxUnmonitoredCount = other.getMaxUnmonitoredCount();
+
+		// The entries of both summaries, combined:  key hash, key, count and error
+		final List<Object[]> combinedEntries = new ArrayList<Object[]>(this.size + other.size);
+
+		int curOtherEntry;
+
+		for (int curEntry = 0 ; curEntry < this.size ; curEntry++)
+		{
+			curOtherEntry = other.slots[other.findSlot(this.keyHashes[curEntry])] - 1;
+
+			if (curOtherEntry >= 0)
+			{
+				combinedEntries.add(new Object[] {this.keyHashes[curEntry], this.keys[curEntry], 
+					this.counts[curEntry] + other.counts[curOtherEntry], this.errors[curEntry] + other.errors[curOtherEntry]});
+			}
+			else
+			{
+				combinedEntries.add(new Object[] {this.keyHashes[curEntry], this.keys[curEntry], 
+					this.counts[curEntry] + otherMaxUnmonitoredCount, this.errors[curEntry] + otherMaxUnmonitoredCount});
+			}
+		}
+
+		for (curOtherEntry = 0 ; curOtherEntry < other.size ; curOtherEntry++)
+		{
+			if (this.slots[this.findSlot(other.keyHashes[curOtherEntry])] == 0)
+			{
+				combinedEntries.add(new Object[] {other.keyHashes[curOtherEntry], other.keys[curOtherEntry], 
+					other.counts[curOtherEntry] + thisMaxUnmonitoredCount, other.errors[curOtherEntry] + thisMaxUnmonitoredCount});
+			}
+		}
+
+		// Keep the combined entries with the largest counts
+		Collections.sort(combinedEntries, new Comparator<Object[]>()
+		{
+			@Override
+			public int compare(Object[] first, Object[] second)
+			{
+				return Long.compare((Long)second[2], (Long)first[2]);
+			}
+		});
+
+		long totalCount = this.totalCount + other.totalCount;
+
+		this.clear();
+
+		long curKeyHash;
+
+		for (Object[] curCombinedEntry : combinedEntries.subList(0, Math.min(this.capacity, combinedEntries.size())))
+		{
+			curKeyHash = (Long)curCombinedEntry[0];
+
+			this.insert(this.findSlot(curKeyHash), curKeyHash, (K)curCombinedEntry[1], (Long)curCombinedEntry[2], (Long)curCombinedEntry[3]);
+		}
+
+		this.totalCount = totalCount;
+	}
+
+	/**
+	 * Write the summary as its capacity, total count and number of entries, then each entry as its key hash,
+	 * count, error and key (all as varints, apart from the keys, which are written by the codec)
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeTo(OutputStream output, KeyCodec<? super K> keyCodec) throws IOException
+	{
+		VarInts.writeVarInt(output, this.capacity);
+		VarInts.writeVarLong(output, this.totalCount);
+		VarInts.writeVarInt(output, this.size);
+
+		for (int curEntry = 0 ; curEntry < this.size ; curEntry++)
+		{
+			VarInts.writeVarLong(output, this.keyHashes[curEntry]);
+			VarInts.writeVarLong(output, this.counts[curEntry]);
+			VarInts.writeVarLong(output, this.errors[curEntry]);
+
+			keyCodec.writeKey(output, (K)this.keys[curEntry]);
+		}
+	}
+
+	/**
+	 * Read a summary written by writeTo(), starting at the current position of the buffer, and advance the
+	 * position past it
+	 */
+	public static <K> SpaceSavingSummary<K> readFrom(ByteBuffer buffer, KeyCodec<? extends K> keyCodec)
+	{
+		SpaceSavingSummary<K> summary = new SpaceSavingSummary<K>(VarInts.readVarInt(buffer));
+
+		long totalCount = VarInts.readVarLong(buffer);
+
+		int size = VarInts.readVarInt(buffer);
+
+		long curKeyHash;
+
+		long curCount;
+
+		long curError;
+
+		for (int i = 0 ; i < size ; i++)
+		{
+			curKeyHash = VarInts.readVarLong(buffer);
+			curCount = VarInts.readVarLong(buffer);
+			curError = VarInts.readVarLong(buffer);
+
+			summary.insert(summary.findSlot(curKeyHash), curKeyHash, keyCodec.readKey(buffer), curCount, curError);
+		}
+
+		summary.totalCount = totalCount;
+
+		return summary;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(this.keys, null);
+		Arrays.fill(this.slots, 0);
+
+		this.size = 0;
+		this.totalCount = 0;
+	}
+
+	/**
+	 * Add a new entry (the summary must not be full) for a key hash that is not monitored
+	 *
+	 * @param slot The empty slot the key hash goes in
+	 */
+	private void insert(int slot, long keyHash, K key, long count, long error)
+	{
+		int entry = this.size;
+
+		this.size++;
+
+		this.keyHashes[entry] = keyHash;
+		this.keys[entry] = key;
+		this.counts[entry] = count;
+		this.errors[entry] = error;
+
+		this.slots[slot] = entry + 1;
+
+		this.heap[entry] = entry;
+		this.heapPositions[entry] = entry;
+
+		this.siftUp(entry);
+	}
+
+	/**
+	 * @return The slot the key hash is in, or the empty slot it would go in
+	 */
+	private int findSlot(long keyHash)
+	{
+		int mask = this.slots.length - 1;
+
+		int curSlot = (int)(keyHash ^ (keyHash >>> 32)) & mask;
+
+		while ((this.slots[curSlot] != 0) && (this.keyHashes[this.slots[curSlot]-1] != keyHash))
+		{
+			curSlot = (curSlot + 1) & mask;
+		}
+
+		return curSlot;
+	}
+
+	/**
+	 * Empty the slot, shifting back the entries after it that would otherwise no longer be found (so that
+	 * linear probing needs no tombstones)
+	 */
+	private void removeSlot(int slot)
+	{
+		int mask = this.slots.length - 1;
+
+		int curEmptySlot = slot;
+
+		int curSlot = slot;
+
+		int curHomeSlot;
+
+		while (true)
+		{
+			curSlot = (curSlot + 1) & mask;
+
+			if (this.slots[curSlot] == 0)
+			{
+				break;
+			}
+
+			long curKeyHash = this.keyHashes[this.slots[curSlot]-1];
+
+			curHomeSlot = (int)(curKeyHash ^ (curKeyHash >>> 32)) & mask;
+
+			// The entry can move to the empty slot if its home slot is not between the empty slot and it
+			if (((curSlot - curHomeSlot) & mask) >= ((curSlot - curEmptySlot) & mask))
+			{
+				this.slots[curEmptySlot] = this.slots[curSlot];
+
+				curEmptySlot = curSlot;
+			}
+		}
+
+		this.slots[curEmptySlot] = 0;
+	}
+
+	private void siftUp(int heapPosition)
+	{
+		int curPosition = heapPosition;
+
+		int curParentPosition;
+
+		while (curPosition > 0)
+		{
+			curParentPosition = (curPosition - 1) / 2;
+
+			if (this.counts[this.heap[curParentPosition]] <= this.counts[this.heap[curPosition]])
+			{
+				break;
+			}
+
+			this.swapHeapPositions(curPosition, curParentPosition);
+
+			curPosition = curParentPosition;
+		}
+	}
+
+	private void siftDown(int heapPosition)
+	{
+		int curPosition = heapPosition;
+
+		int curSmallestPosition;
+
+		int curChildPosition;
+
+		while (true)
+		{
+			curSmallestPosition = curPosition;
+
+			for (curChildPosition = 2*curPosition + 1 ; curChildPosition <= 2*curPosition + 2 ; curChildPosition++)
+			{
+				if ((curChildPosition < this.size)
+					&& (this.counts[this.heap[curChildPosition]] < this.counts[this.heap[curSmallestPosition]]))
+				{
+					curSmallestPosition = curChildPosition;
+				}
+			}
+
+			if (curSmallestPosition == curPosition)
+			{
+				break;
+			}
+
+			this.swapHeapPositions(curPosition, curSmallestPosition);
+
+			curPosition = curSmallestPosition;
+		}
+	}
+
+	private void swapHeapPositions(int first, int second)
+	{
+		int firstEntry = this.heap[first];
+
+		this.heap[first] = this.heap[second];
+		this.heap[second] = firstEntry;
+
+		this.heapPositions[this.heap[first]] = first;
+		this.heapPositions[this.heap[second]] = second;
+	}
+}
@@ -0,0 +1,430 @@
+package utilities;
+
+import java.util.Arrays;
+
+/**
+ * A sparse matrix of long counts indexed by non-negative (row, column) int pairs.
+ *
+ * The counts live in a single open-addressing table keyed by the packed long (row << 32 | column), so there
+ * are no per-row maps or boxed values.  For row and column queries, compressed sparse row and compressed
+ * sparse column indexes are built on demand (and rebuilt after the counts change), so that all of the entries
+ * of a row or of a column can be visited without scanning the whole matrix.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class SparseCountMatrix
+{
+	/*
+	 * Receives the entries of a row or column query
+	 */
+	public interface EntryVisitor
+	{
+		public void visit(int row, int column, long count);
+	}
+
+	/*
+	 * A compressed sparse row (or column) index:  the entries of row r are at offsets[r] to offsets[r+1]-1 of
+	 * entrySlots (which holds slots of the table).  Never modified once built
+	 */
+	private static class SlotIndex
+	{
+		private int[] offsets;
+
+		private int[] entrySlots;
+
+		private SlotIndex(int[] offsets, int[] entrySlots)
+		{
+			this.offsets = offsets;
+			this.entrySlots = entrySlots;
+		}
+	}
+
+	private static final long EMPTY_KEY = -1L;
+
+	// Open-addressing table; the length is a power of two
+	private long[] keys;
+
+	private long[] counts;
+
+	private int numEntries = 0;
+
+	// The row and column indexes (null until they are needed).  They are published whole, so concurrent
+	// readers of a matrix that is no longer being counted into can build and use them without locking
+	private volatile SlotIndex rowIndex;
+
+	private volatile SlotIndex columnIndex;
+
+	public SparseCountMatrix()
+	{
+		this.keys = new long[1024];
+		this.counts = new long[1024];
+
+		Arrays.fill(this.keys, SparseCountMatrix.EMPTY_KEY);
+	}
+
+	/**
+	 * Add the given amount to the count at (row, column); the amount may be negative
+	 */
+	public void add(int row, int column, long amount)
+	{
+		long key = SparseCountMatrix.pack(row, column);
+
+		int slot = this.findSlot(key);
+
+		if (this.keys[slot] == SparseCountMatrix.EMPTY_KEY)
+		{
+			// Keep the table at most half full
+			if ((this.numEntries + 1) * 2 > this.keys.length)
+			{
+				this.grow();
+
+				slot = this.findSlot(key);
+			}
+
+			this.keys[slot] = key;
+
+			this.numEntries++;
+
+			// New entries invalidate the row and column indexes (changed counts do not, since they are only
+			// referenced by slot)
+			this.rowIndex = null;
+			this.columnIndex = null;
+		}
+
+		this.counts[slot] += amount;
+	}
+
+	/**
+	 * @return The count at (row, column), or 0 if nothing has been counted there
+	 */
+	public long get(int row, int column)
+	{
+		int slot = this.findSlot(SparseCountMatrix.pack(row, column));
+
+		if (this.keys[slot] == SparseCountMatrix.EMPTY_KEY)
+		{
+			return 0;
+		}
+
+		return this.counts[slot];
+	}
+
+	/**
+	 * @return The number of (row, column) pairs that have been counted (including any whose count has gone
+	 *         back to zero, until removeZeroCounts() is called)
+	 */
+	public int numEntries()
+	{
+		return this.numEntries;
+	}
+
+	/**
+	 * Visit every entry in the matrix (in no particular order)
+	 */
+	public void forEachEntry(EntryVisitor visitor)
+	{
+		for (int i = 0 ; i < this.keys.length ; i++)
+		{
+			if (this.keys[i] != SparseCountMatrix.EMPTY_KEY)
+			{
+				visitor.visit(SparseCountMatrix.row(this.keys[i]), SparseCountMatrix.column(this.keys[i]), this.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Visit every entry of the row
+	 */
+	public void forEachInRow(int row, EntryVisitor visitor)
+	{
+		SlotIndex index = this.rowIndex;
+
+		if (index == null)
+		{
+			index = this.buildRowIndex();
+
+			this.rowIndex = index;
+		}
+
+		if (row + 1 >= index.offsets.length)
+		{
+			return;
+		}
+
+		int curSlot;
+
+		for (int i = index.offsets[row] ; i < index.offsets[row+1] ; i++)
+		{
+			curSlot = index.entrySlots[i];
+
+			visitor.visit(row, SparseCountMatrix.column(this.keys[curSlot]), this.counts[curSlot]);
+		}
+	}
+
+	/**
+	 * Visit every entry of the column
+	 */
+	public void forEachInColumn(int column, EntryVisitor visitor)
+	{
+		SlotIndex index = this.columnIndex;
+
+		if (index == null)
+		{
+			index = this.buildColumnIndex();
+
+			this.columnIndex = index;
+		}
+
+		if (column + 1 >= index.offsets.length)
+		{
+			return;
+		}
+
+		int curSlot;
+
+		for (int i = index.offsets[column] ; i < index.offsets[column+1] ; i++)
+		{
+			curSlot = index.entrySlots[i];
+
+			visitor.visit(SparseCountMatrix.row(this.keys[curSlot]), column, this.counts[curSlot]);
+		}
+	}
+
+	/**
+	 * Remove every entry whose count is zero (e.g. after counts have been subtracted)
+	 */
+	public void removeZeroCounts()
+	{
+		this.removeZeroCounts(null);
+	}
+
+	/**
+	 * Remove every entry whose count is zero, and renumber the rows
+	 *
+	 * @param oldRowToNewRow A map from each row to its new row (-1 to remove the whole row), or null to leave
+	 *                       the rows as they are; rows beyond its end are left as they are
+	 */
+	public void removeZeroCounts(int[] oldRowToNewRow)
+	{
+		boolean changed = (oldRowToNewRow != null);
+
+		for (int i = 0 ; (i < this.keys.length) && !changed ; i++)
+		{
+			changed = (this.keys[i] != SparseCountMatrix.EMPTY_KEY) && (this.counts[i] == 0);
+		}
+
+		if (!changed)
+		{
+			return;
+		}
+
+		long[] oldKeys = this.keys;
+		long[] oldCounts = this.counts;
+
+		this.keys = new long[oldKeys.length];
+		this.counts = new long[oldKeys.length];
+
+		Arrays.fill(this.keys, SparseCountMatrix.EMPTY_KEY);
+
+		this.numEntries = 0;
+
+		int curRow;
+
+		long curKey;
+
+		int curSlot;
+
+		for (int i = 0 ; i < oldKeys.length ; i++)
+		{
+			if ((oldKeys[i] == SparseCountMatrix.EMPTY_KEY) || (oldCounts[i] == 0))
+			{
+				continue;
+			}
+
+			curRow = SparseCountMatrix.row(oldKeys[i]);
+
+			if ((oldRowToNewRow != null) && (curRow < oldRowToNewRow.length))
+			{
+				curRow = oldRowToNewRow[curRow];
+			}
+
+			if (curRow < 0)
+			{
+				continue;
+			}
+
+			curKey = SparseCountMatrix.pack(curRow, SparseCountMatrix.column(oldKeys[i]));
+
+			curSlot = this.findSlot(curKey);
+
+			this.keys[curSlot] = curKey;
+			this.counts[curSlot] = oldCounts[i];
+
+			this.numEntries++;
+		}
+
+		// The indexes refer to slots, which have all moved
+		this.rowIndex = null;
+		this.columnIndex = null;
+	}
+
+	/*
+	 * Indexes
+	 */
+
+	private SlotIndex buildRowIndex()
+	{
+		int numRows = 0;
+
+		for (int i = 0 ; i < this.keys.length ; i++)
+		{
+			if (this.keys[i] != SparseCountMatrix.EMPTY_KEY)
+			{
+				numRows = Math.max(numRows, SparseCountMatrix.row(this.keys[i]) + 1);
+			}
+		}
+
+		int[] entryRows = new int[this.keys.length];
+
+		for (int i = 0 ; i < this.keys.length ; i++)
+		{
+			entryRows[i] = (this.keys[i] == SparseCountMatrix.EMPTY_KEY) ? -1 : SparseCountMatrix.row(this.keys[i]);
+		}
+
+		SlotIndex index = new SlotIndex(new int[numRows + 1], new int[this.numEntries]);
+
+		SparseCountMatrix.bucketSlots(entryRows, index.offsets, index.entrySlots);
+
+		return index;
+	}
+
+	private SlotIndex buildColumnIndex()
+	{
+		int numColumns = 0;
+
+		for (int i = 0 ; i < this.keys.length ; i++)
+		{
+			if (this.keys[i] != SparseCountMatrix.EMPTY_KEY)
+			{
+				numColumns = Math.max(numColumns, SparseCountMatrix.column(this.keys[i]) + 1);
+			}
+		}
+
+		int[] entryColumns = new int[this.keys.length];
+
+		for (int i = 0 ; i < this.keys.length ; i++)
+		{
+			entryColumns[i] = (this.keys[i] == SparseCountMatrix.EMPTY_KEY) ? -1 : SparseCountMatrix.column(this.keys[i]);
+		}
+
+		SlotIndex index = new SlotIndex(new int[numColumns + 1], new int[this.numEntries]);
+
+		SparseCountMatrix.bucketSlots(entryColumns, index.offsets, index.entrySlots);
+
+		return index;
+	}
+
+	/**
+	 * Counting sort of the occupied slots by bucket (a row or a column; -1 for an empty slot)
+	 */
+	private static void bucketSlots(int[] slotBuckets, int[] bucketOffsets, int[] bucketSlots)
+	{
+		for (int i = 0 ; i < slotBuckets.length ; i++)
+		{
+			if (slotBuckets[i] >= 0)
+			{
+				bucketOffsets[slotBuckets[i] + 1]++;
+			}
+		}
+
+		for (int i = 1 ; i < bucketOffsets.length ; i++)
+		{
+			bucketOffsets[i] += bucketOffsets[i-1];
+		}
+
+		int[] bucketPositions = Arrays.copyOf(bucketOffsets, bucketOffsets.length - 1);
+
+		for (int i = 0 ; i < slotBuckets.length ; i++)
+		{
+			if (slotBuckets[i] >= 0)
+			{
+				bucketSlots[bucketPositions[slotBuckets[i]]] = i;
+
+				bucketPositions[slotBuckets[i]]++;
+			}
+		}
+	}
+
+	/*
+	 * Hash Table
+	 */
+
+	private int findSlot(long key)
+	{
+		int mask = this.keys.length - 1;
+
+		int curSlot = SparseCountMatrix.hash(key) & mask;
+
+		while ((this.keys[curSlot] != SparseCountMatrix.EMPTY_KEY) && (this.keys[curSlot] != key))
+		{
+			curSlot = (curSlot + 1) & mask;
+		}
+
+		return curSlot;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = this.keys;
+		long[] oldCounts = this.counts;
+
+		this.keys = new long[oldKeys.length * 2];
+		this.counts = new long[oldKeys.length * 2];
+
+		Arrays.fill(this.keys, SparseCountMatrix.EMPTY_KEY);
+
+		int curSlot;
+
+		for (int i = 0 ; i < oldKeys.length ; i++)
+		{
+			if (oldKeys[i] != SparseCountMatrix.EMPTY_KEY)
+			{
+				curSlot = this.findSlot(oldKeys[i]);
+
+				this.keys[curSlot] = oldKeys[i];
+				this.counts[curSlot] = oldCounts[i];
+			}
+		}
+
+		// The indexes refer to slots, which have all moved
+		this.rowIndex = null;
+		this.columnIndex = null;
+	}
+
+	private static long pack(int row, int column)
+	{
+		if ((row < 0) || (column < 0))
+		{
+			throw new IllegalArgumentException("Negative index: (" + row + ", " + column + ")");
+		}
+
+		return (((long)row) << 32) | column;
+	}
+
+	private static int row(long key)
+	{
+		return (int)(key >>> 32);
+	}
+
+	private static int column(long key)
+	{
+		return (int)key;
+	}
+
+	private static int hash(long key)
+	{
+		// Mixed, so that nearby rows and columns are spread across the table
+		return (int)CharSlices.mix64(key);
+	}
+}
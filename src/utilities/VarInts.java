@@ -0,0 +1,102 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Variable-length encoding of non-negative ints and longs:  7 bits per byte, least significant bits first,
+ * with the high bit of each byte set if more bytes follow (so small values take a single byte)
+ *
+ * @author hlil_administrator
+ *
+ */
+public class VarInts
+{
+	/**
+	 * @return The number of bytes written
+	 */
+	public static int writeVarLong(OutputStream output, long value) throws IOException
+	{
+		int numBytes = 1;
+
+		while ((value & ~0x7FL) != 0)
+		{
+			output.write((int)((value & 0x7F) | 0x80));
+
+			value >>>= 7;
+
+			numBytes++;
+		}
+
+		output.write((int)value);
+
+		return numBytes;
+	}
+
+	/**
+	 * @return The number of bytes written
+	 */
+	public static int writeVarInt(OutputStream output, int value) throws IOException
+	{
+		return VarInts.writeVarLong(output, value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Read a value starting at the current position of the buffer, and advance the position past it
+	 */
+	public static long readVarLong(ByteBuffer buffer)
+	{
+		long value = 0;
+
+		int shift = 0;
+
+		byte curByte;
+
+		do
+		{
+			curByte = buffer.get();
+
+			value |= ((long)(curByte & 0x7F)) << shift;
+
+			shift += 7;
+		}
+		while (curByte < 0);
+
+		return value;
+	}
+
+	public static int readVarInt(ByteBuffer buffer)
+	{
+		return (int)VarInts.readVarLong(buffer);
+	}
+
+	/**
+	 * Write a String as its number of UTF-8 bytes followed by the bytes
+	 *
+	 * @return The number of bytes written
+	 */
+	public static int writeString(OutputStream output, String value) throws IOException
+	{
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+
+		int numBytes = VarInts.writeVarInt(output, valueBytes.length);
+
+		output.write(valueBytes);
+
+		return numBytes + valueBytes.length;
+	}
+
+	/**
+	 * Read a String written by writeString, and advance the position past it
+	 */
+	public static String readString(ByteBuffer buffer)
+	{
+		byte[] valueBytes = new byte[VarInts.readVarInt(buffer)];
+
+		buffer.get(valueBytes);
+
+		return new String(valueBytes, StandardCharsets.UTF_8);
+	}
+}
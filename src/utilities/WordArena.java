@@ -0,0 +1,336 @@
+package utilities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stores each distinct word once, as its UTF-8 bytes in one large byte array (the arena), and gives it a dense
+ * integer ID.  Trees that keep word IDs instead of Strings cost four bytes per word occurrence, and the
+ * words themselves cost their bytes plus a few ints of bookkeeping each, instead of a String object (with its
+ * own header and backing array) per word.  The arena is a handful of large arrays no matter how many words it
+ * holds, so it adds almost nothing for the garbage collector to trace.
+ *
+ * A word is only decoded to a String when it is asked for (getWord); equality and hashing work on the bytes,
+ * so looking up a word does not create a String either.
+ *
+ * Interning is synchronized, so an arena can be shared by several threads.  The arrays that interning grows
+ * are published through volatile fields, filled before they are published, so the words can be read without
+ * locking:  a word ID can be decoded by any thread that obtained it safely (e.g. from the thread that
+ * interned it, or through a synchronized or volatile handoff), even while other threads are interning.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class WordArena
+{
+	// The UTF-8 bytes of every word, back to back
+	private volatile byte[] bytes = new byte[4096];
+
+	private int numBytes = 0;
+
+	// Word ID -> offset of its bytes in the arena (the bytes of word i end where those of word i+1 start)
+	private volatile int[] wordOffsets = new int[257];
+
+	// Word ID -> hash of its bytes (kept so that the table can grow without rehashing every word)
+	private volatile int[] wordHashes = new int[256];
+
+	private int numWords = 0;
+
+	// Open-addressing slots from hash to word ID+1 (0 for an empty slot)
+	private int[] slots = new int[512];
+
+	// Reused for encoding words before they are looked up
+	private byte[] encodeBuffer = new byte[64];
+
+	/**
+	 * @return The ID of the word spelled by the characters from start (inclusive) to end (exclusive), which is
+	 *         added to the arena if it is not already in it
+	 */
+	public synchronized int intern(CharSequence chars, int start, int end)
+	{
+		int length = this.encode(chars, start, end);
+
+		int hash = WordArena.hash(this.encodeBuffer, 0, length);
+
+		int slot = this.findSlot(this.encodeBuffer, 0, length, hash);
+
+		if (this.slots[slot] != 0)
+		{
+			return this.slots[slot] - 1;
+		}
+
+		if (this.numWords == this.wordHashes.length)
+		{
+			this.wordHashes = Arrays.copyOf(this.wordHashes, this.numWords * 2);
+			this.wordOffsets = Arrays.copyOf(this.wordOffsets, this.numWords * 2 + 1);
+		}
+
+		if (this.numBytes + length > this.bytes.length)
+		{
+			this.bytes = Arrays.copyOf(this.bytes, Math.max(this.numBytes + length, this.bytes.length * 2));
+		}
+
+		int wordId = this.numWords;
+
+		System.arraycopy(this.encodeBuffer, 0, this.bytes, this.numBytes, length);
+
+		this.numBytes += length;
+
+		this.wordHashes[wordId] = hash;
+		this.wordOffsets[wordId + 1] = this.numBytes;
+
+		this.numWords++;
+
+		this.slots[slot] = wordId + 1;
+
+		// Keep the table at most half full
+		if (2 * this.numWords > this.slots.length)
+		{
+			this.rehash();
+		}
+
+		return wordId;
+	}
+
+	public int intern(String word)
+	{
+		return this.intern(word, 0, word.length());
+	}
+
+	/**
+	 * @return The ID of the word, or -1 if it is not in the arena
+	 */
+	public synchronized int findWordId(CharSequence word)
+	{
+		int length = this.encode(word, 0, word.length());
+
+		return this.slots[this.findSlot(this.encodeBuffer, 0, length, WordArena.hash(this.encodeBuffer, 0, length))] - 1;
+	}
+
+	/**
+	 * @return A new String of the word with the given ID
+	 */
+	public String getWord(int wordId)
+	{
+		int[] wordOffsets = this.wordOffsets;
+
+		byte[] bytes = this.bytes;
+
+		int offset = wordOffsets[wordId];
+
+		return new String(bytes, offset, wordOffsets[wordId + 1] - offset, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append the word with the given ID to the builder, without creating a String for it if it is ASCII
+	 */
+	public void appendWord(int wordId, StringBuilder builder)
+	{
+		int[] wordOffsets = this.wordOffsets;
+
+		byte[] bytes = this.bytes;
+
+		int offset = wordOffsets[wordId];
+		int end = wordOffsets[wordId + 1];
+
+		for (int i = offset ; i < end ; i++)
+		{
+			if (bytes[i] < 0)
+			{
+				builder.append(new String(bytes, offset, end - offset, StandardCharsets.UTF_8));
+
+				return;
+			}
+		}
+
+		for (int i = offset ; i < end ; i++)
+		{
+			builder.append((char)bytes[i]);
+		}
+	}
+
+	/**
+	 * @return The number of UTF-8 bytes of the word with the given ID
+	 */
+	public int getByteLength(int wordId)
+	{
+		int[] wordOffsets = this.wordOffsets;
+
+		return wordOffsets[wordId + 1] - wordOffsets[wordId];
+	}
+
+	/**
+	 * @return A hash of the bytes of the word with the given ID (the same for equal words in any arena)
+	 */
+	public int getWordHash(int wordId)
+	{
+		return this.wordHashes[wordId];
+	}
+
+	/**
+	 * @return True if the word with the given ID in this arena is the same word as the one with the other ID
+	 *         in the other arena (comparing the bytes, so that no Strings are created)
+	 */
+	public boolean wordEquals(int wordId, WordArena otherArena, int otherWordId)
+	{
+		if (this.getWordHash(wordId) != otherArena.getWordHash(otherWordId))
+		{
+			return false;
+		}
+
+		int[] wordOffsets = this.wordOffsets;
+		int[] otherWordOffsets = otherArena.wordOffsets;
+
+		return Arrays.equals(
+			this.bytes, wordOffsets[wordId], wordOffsets[wordId + 1],
+			otherArena.bytes, otherWordOffsets[otherWordId], otherWordOffsets[otherWordId + 1]);
+	}
+
+	public synchronized int size()
+	{
+		return this.numWords;
+	}
+
+	/**
+	 * @return The number of bytes taken up by the words themselves
+	 */
+	public synchronized int numBytes()
+	{
+		return this.numBytes;
+	}
+
+	/**
+	 * Encode the characters as UTF-8 into the encode buffer
+	 *
+	 * @return The number of bytes
+	 */
+	private int encode(CharSequence chars, int start, int end)
+	{
+		// At most 3 bytes per char (a surrogate pair is 4 bytes for 2 chars)
+		if (3 * (end - start) > this.encodeBuffer.length)
+		{
+			this.encodeBuffer = new byte[Math.max(3 * (end - start), this.encodeBuffer.length * 2)];
+		}
+
+		byte[] buffer = this.encodeBuffer;
+
+		int length = 0;
+
+		char curChar;
+
+		int curCodePoint;
+
+		for (int i = start ; i < end ; i++)
+		{
+			curChar = chars.charAt(i);
+
+			if (curChar < 0x80)
+			{
+				buffer[length++] = (byte)curChar;
+			}
+			else if (curChar < 0x800)
+			{
+				buffer[length++] = (byte)(0xC0 | (curChar >> 6));
+				buffer[length++] = (byte)(0x80 | (curChar & 0x3F));
+			}
+			else if (Character.isHighSurrogate(curChar) && (i + 1 < end) && Character.isLowSurrogate(chars.charAt(i + 1)))
+			{
+				curCodePoint = Character.toCodePoint(curChar, chars.charAt(i + 1));
+
+				i++;
+
+				buffer[length++] = (byte)(0xF0 | (curCodePoint >> 18));
+				buffer[length++] = (byte)(0x80 | ((curCodePoint >> 12) & 0x3F));
+				buffer[length++] = (byte)(0x80 | ((curCodePoint >> 6) & 0x3F));
+				buffer[length++] = (byte)(0x80 | (curCodePoint & 0x3F));
+			}
+			else if (Character.isSurrogate(curChar))
+			{
+				// Unpaired surrogates are replaced, as the UTF-8 encoder does
+				buffer[length++] = (byte)'?';
+			}
+			else
+			{
+				buffer[length++] = (byte)(0xE0 | (curChar >> 12));
+				buffer[length++] = (byte)(0x80 | ((curChar >> 6) & 0x3F));
+				buffer[length++] = (byte)(0x80 | (curChar & 0x3F));
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * @return The slot of the word with the given bytes, or the empty slot it would go in
+	 */
+	private int findSlot(byte[] wordBytes, int start, int length, int hash)
+	{
+		int mask = this.slots.length - 1;
+
+		int curSlot = hash & mask;
+
+		int curWordId;
+
+		// Read once, rather than once per probe (interning holds the lock, so they cannot change meanwhile)
+		int[] wordHashes = this.wordHashes;
+		int[] wordOffsets = this.wordOffsets;
+
+		byte[] bytes = this.bytes;
+
+		while (this.slots[curSlot] != 0)
+		{
+			curWordId = this.slots[curSlot] - 1;
+
+			if ((wordHashes[curWordId] == hash)
+				&& Arrays.equals(
+					bytes, wordOffsets[curWordId], wordOffsets[curWordId + 1],
+					wordBytes, start, start + length))
+			{
+				return curSlot;
+			}
+
+			curSlot = (curSlot + 1) & mask;
+		}
+
+		return curSlot;
+	}
+
+	private void rehash()
+	{
+		this.slots = new int[this.slots.length * 2];
+
+		int mask = this.slots.length - 1;
+
+		int curSlot;
+
+		int[] wordHashes = this.wordHashes;
+
+		for (int i = 0 ; i < this.numWords ; i++)
+		{
+			curSlot = wordHashes[i] & mask;
+
+			while (this.slots[curSlot] != 0)
+			{
+				curSlot = (curSlot + 1) & mask;
+			}
+
+			this.slots[curSlot] = i + 1;
+		}
+	}
+
+	/**
+	 * FNV-1a over the bytes, with its bits spread so that the low bits can be used directly as a table index
+	 */
+	private static int hash(byte[] wordBytes, int start, int length)
+	{
+		int hash = 0x811C9DC5;
+
+		for (int i = start ; i < start + length ; i++)
+		{
+			hash ^= wordBytes[i] & 0xFF;
+			hash *= 0x01000193;
+		}
+
+		return hash ^ (hash >>> 16);
+	}
+}
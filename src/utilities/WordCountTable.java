@@ -0,0 +1,322 @@
+package utilities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An open-addressing hash table from words to primitive long counts.  Each distinct word is also given a dense
+ * int ID (in the order the words are first seen).
+ *
+ * Words are looked up directly from a slice of the input buffer, so counting a word that has been seen before
+ * allocates nothing; a String is only created the first time a word is seen.
+ *
+ * @author hlil_administrator
+ *
+ */
+public class WordCountTable
+{
+	// ID -> word
+	private String[] words;
+
+	// ID -> hash of the word (kept so that the table can grow without rehashing every word)
+	private int[] wordHashes;
+
+	// ID -> count
+	private long[] counts;
+
+	private int numWords = 0;
+
+	// Open-addressing slots holding ID+1 (0 for an empty slot); the length is a power of two
+	private int[] slots;
+
+	public WordCountTable()
+	{
+		this(1024);
+	}
+
+	public WordCountTable(int initialCapacity)
+	{
+		int numSlots = 16;
+
+		while (numSlots < initialCapacity * 2)
+		{
+			numSlots *= 2;
+		}
+
+		this.words = new String[numSlots / 2];
+		this.wordHashes = new int[numSlots / 2];
+		this.counts = new long[numSlots / 2];
+
+		this.slots = new int[numSlots];
+	}
+
+	/**
+	 * Count one occurrence of the word spelled by the characters from start (inclusive) to end (exclusive)
+	 *
+	 * @return The ID of the word
+	 */
+	public int count(CharSequence chars, int start, int end)
+	{
+		return this.add(chars, start, end, 1);
+	}
+
+	/**
+	 * Add the given amount to the count of the word spelled by the characters from start (inclusive) to end
+	 * (exclusive); the amount may be negative
+	 *
+	 * @return The ID of the word
+	 */
+	public int add(CharSequence chars, int start, int end, long amount)
+	{
+		int hash = CharSlices.hash(chars, start, end);
+
+		int slot = this.findSlot(chars, start, end, hash);
+
+		int id = this.slots[slot] - 1;
+
+		// The word has not been seen before
+		if (id < 0)
+		{
+			id = this.numWords;
+
+			this.ensureCapacity(this.numWords + 1);
+
+			this.words[id] = chars.subSequence(start, end).toString();
+			this.wordHashes[id] = hash;
+
+			this.numWords++;
+
+			// The slots may have been rebuilt by ensureCapacity
+			slot = this.findSlot(chars, start, end, hash);
+
+			this.slots[slot] = id+1;
+		}
+
+		this.counts[id] += amount;
+
+		return id;
+	}
+
+	/**
+	 * Add the given amount to the count of the word
+	 *
+	 * @return The ID of the word
+	 */
+	public int add(String word, long amount)
+	{
+		return this.add(word, 0, word.length(), amount);
+	}
+
+	/**
+	 * @return The ID of the word, or -1 if it has never been seen
+	 */
+	public int findWordId(CharSequence chars, int start, int end)
+	{
+		return this.slots[this.findSlot(chars, start, end, CharSlices.hash(chars, start, end))] - 1;
+	}
+
+	public int findWordId(String word)
+	{
+		return this.findWordId(word, 0, word.length());
+	}
+
+	public String getWord(int wordId)
+	{
+		return this.words[wordId];
+	}
+
+	public long getCount(int wordId)
+	{
+		return this.counts[wordId];
+	}
+
+	/**
+	 * @return The count of the word, or 0 if it has never been seen
+	 */
+	public long getCount(String word)
+	{
+		int wordId = this.findWordId(word);
+
+		if (wordId < 0)
+		{
+			return 0;
+		}
+
+		return this.counts[wordId];
+	}
+
+	/**
+	 * @return The number of distinct words (IDs are 0 to size()-1)
+	 */
+	public int size()
+	{
+		return this.numWords;
+	}
+
+	/**
+	 * @return The number of words whose count is not zero
+	 */
+	public int numNonZeroCounts()
+	{
+		int numNonZeroCounts = 0;
+
+		for (int i = 0 ; i < this.numWords ; i++)
+		{
+			if (this.counts[i] != 0)
+			{
+				numNonZeroCounts++;
+			}
+		}
+
+		return numNonZeroCounts;
+	}
+
+	/**
+	 * @return A new map from every word with a non-zero count to its count
+	 */
+	public Map<String, Long> toMap()
+	{
+		Map<String, Long> wordToCount = new HashMap<String, Long>();
+
+		for (int i = 0 ; i < this.numWords ; i++)
+		{
+			if (this.counts[i] != 0)
+			{
+				wordToCount.put(this.words[i], this.counts[i]);
+			}
+		}
+
+		return wordToCount;
+	}
+
+	/**
+	 * Remove every word whose count is zero (e.g. after counts have been subtracted), and give the remaining
+	 * words new dense IDs in the same order
+	 *
+	 * @return A map from each old ID to the new ID of the word (-1 for a removed word), or null if no word was
+	 *         removed and the IDs are unchanged
+	 */
+	public int[] removeZeroCounts()
+	{
+		int firstZeroId = 0;
+
+		while ((firstZeroId < this.numWords) && (this.counts[firstZeroId] != 0))
+		{
+			firstZeroId++;
+		}
+
+		if (firstZeroId == this.numWords)
+		{
+			return null;
+		}
+
+		int[] oldIdToNewId = new int[this.numWords];
+
+		int numRemainingWords = firstZeroId;
+
+		for (int id = 0 ; id < this.numWords ; id++)
+		{
+			if (id < firstZeroId)
+			{
+				oldIdToNewId[id] = id;
+			}
+			else if (this.counts[id] == 0)
+			{
+				oldIdToNewId[id] = -1;
+			}
+			else
+			{
+				oldIdToNewId[id] = numRemainingWords;
+
+				this.words[numRemainingWords] = this.words[id];
+				this.wordHashes[numRemainingWords] = this.wordHashes[id];
+				this.counts[numRemainingWords] = this.counts[id];
+
+				numRemainingWords++;
+			}
+		}
+
+		// New words are counted from zero in the freed IDs
+		Arrays.fill(this.words, numRemainingWords, this.numWords, null);
+		Arrays.fill(this.counts, numRemainingWords, this.numWords, 0);
+
+		this.numWords = numRemainingWords;
+
+		this.rebuildSlots(this.slots.length);
+
+		return oldIdToNewId;
+	}
+
+	/**
+	 * @return The slot holding the word, or the empty slot where it would be inserted
+	 */
+	private int findSlot(CharSequence chars, int start, int end, int hash)
+	{
+		int mask = this.slots.length - 1;
+
+		int curSlot = hash & mask;
+
+		int curIdPlusOne = this.slots[curSlot];
+
+		while (curIdPlusOne != 0)
+		{
+			if ((this.wordHashes[curIdPlusOne-1] == hash)
+				&& CharSlices.matches(this.words[curIdPlusOne-1], chars, start, end))
+			{
+				return curSlot;
+			}
+
+			curSlot = (curSlot + 1) & mask;
+
+			curIdPlusOne = this.slots[curSlot];
+		}
+
+		return curSlot;
+	}
+
+	/**
+	 * Grow the table so that it can hold the given number of words while keeping the slots at most half full
+	 */
+	private void ensureCapacity(int numWords)
+	{
+		if (numWords <= this.words.length)
+		{
+			return;
+		}
+
+		int newCapacity = this.words.length * 2;
+
+		this.words = Arrays.copyOf(this.words, newCapacity);
+		this.wordHashes = Arrays.copyOf(this.wordHashes, newCapacity);
+		this.counts = Arrays.copyOf(this.counts, newCapacity);
+
+		this.rebuildSlots(newCapacity * 2);
+	}
+
+	/**
+	 * Re-insert every word into new slots (of which there must be at least twice as many as words)
+	 */
+	private void rebuildSlots(int numSlots)
+	{
+		int[] newSlots = new int[numSlots];
+
+		int mask = newSlots.length - 1;
+
+		int curSlot;
+
+		for (int id = 0 ; id < this.numWords ; id++)
+		{
+			curSlot = this.wordHashes[id] & mask;
+
+			while (newSlots[curSlot] != 0)
+			{
+				curSlot = (curSlot + 1) & mask;
+			}
+
+			newSlots[curSlot] = id+1;
+		}
+
+		this.slots = newSlots;
+	}
+}